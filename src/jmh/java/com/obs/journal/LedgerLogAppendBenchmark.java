@@ -0,0 +1,92 @@
+package com.obs.journal;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Cost of appending one record to the ledger log, from a single writer as a ledger shard does.
+ * Every iteration appends {@value #APPENDS} records to a new log, so the files stay bounded and the
+ * score, in milliseconds per iteration, reads as nanoseconds per append. Run with
+ * {@code -prof gc} to see the allocation per append.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = LedgerLogAppendBenchmark.APPENDS)
+@Measurement(iterations = 10, batchSize = LedgerLogAppendBenchmark.APPENDS)
+@Fork(1)
+public class LedgerLogAppendBenchmark {
+
+    static final int APPENDS = 1_000_000;
+
+    private final BigDecimal[] amounts = new BigDecimal[1024];
+    private Path directory;
+    private LedgerLog ledgerLog;
+    private long next;
+
+    @Setup(Level.Trial)
+    public void prepareAmounts() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < amounts.length; i++) {
+            amounts[i] = BigDecimal.valueOf(random.nextLong(-10_000_000, 10_000_000), 2);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void open() throws IOException {
+        directory = Files.createTempDirectory("ledger-log-benchmark");
+        ledgerLog = new LedgerLog();
+        ReflectionTestUtils.setField(ledgerLog, "enabled", true);
+        ReflectionTestUtils.setField(ledgerLog, "directory", directory.toString());
+        ReflectionTestUtils.setField(ledgerLog, "segmentSizeMb", 64);
+        // A new log writes a checkpoint of the account balances; there are none here.
+        ReflectionTestUtils.setField(ledgerLog, "jdbcTemplate", new JdbcTemplate() {
+            @Override
+            public void query(String sql, RowCallbackHandler handler) {
+            }
+        });
+        ledgerLog.open();
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        ledgerLog.close();
+        FileSystemUtils.deleteRecursively(directory);
+    }
+
+    /** A record whose amount is already in minor units. */
+    @Benchmark
+    public void append() {
+        long n = next++;
+        ledgerLog.append(n & 1023, n, 1_700_000_000_000L, n, LedgerLog.POSTING);
+    }
+
+    /** A record from a posting leg's BigDecimal amount, converted on the way in as the shards do. */
+    @Benchmark
+    public void appendFromBigDecimal() {
+        long n = next++;
+        ledgerLog.append(n & 1023, LedgerLog.toMinorUnits(amounts[(int) (n & 1023)]), 1_700_000_000_000L, n,
+                LedgerLog.POSTING);
+    }
+}
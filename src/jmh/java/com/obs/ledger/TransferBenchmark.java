@@ -0,0 +1,85 @@
+package com.obs.ledger;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.obs.entity.Account;
+import com.obs.entity.AccountType;
+import com.obs.payload.request.TransferRequest;
+import com.obs.service.TransactionService;
+import com.obs.support.EmbeddedDatabase;
+import com.obs.support.TestData;
+
+/**
+ * Transfers per second through {@link TransactionService#transferFunds} with the ledger engine
+ * enabled against the JPA path with ordered row locks, on the same embedded PostgreSQL and the same
+ * random traffic between {@code accounts} accounts. The JPA path needs a long warmup before its
+ * lock waits settle, and its iterations vary a lot, hence the long measurement over two forks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 6, time = 10)
+@Measurement(iterations = 10, time = 10)
+@Fork(2)
+@Threads(32)
+public class TransferBenchmark {
+
+    @Param({"JPA", "LEDGER"})
+    public String path;
+
+    @Param({"8", "256"})
+    public int accounts;
+
+    private ConfigurableApplicationContext context;
+    private TransactionService transactionService;
+    private final List<Account> accountList = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = EmbeddedDatabase.start(EmbeddedDatabase.createDatabase(),
+                "obs.app.ledger.enabled=" + "LEDGER".equals(path), "obs.app.limits.enabled=false",
+                "obs.app.fraud.enabled=false", "spring.datasource.hikari.maximum-pool-size=32");
+        for (int i = 0; i < accounts; i++) {
+            accountList.add(TestData.account(context, TestData.customer(context), AccountType.CURRENT,
+                    new BigDecimal("100000000.00")));
+        }
+        transactionService = context.getBean(TransactionService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public String transfer() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(accounts);
+        int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+        TransferRequest request = new TransferRequest();
+        request.setFromAccountNumber(accountList.get(from).getAccountNumber());
+        request.setToAccountNumber(accountList.get(to).getAccountNumber());
+        request.setAmount(BigDecimal.valueOf(1 + random.nextInt(100)));
+        return transactionService.transferFunds(request, accountList.get(from).getUser().getUsername());
+    }
+}
@@ -0,0 +1,76 @@
+package com.obs.service;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.obs.entity.Account;
+import com.obs.entity.AccountType;
+import com.obs.entity.Transaction;
+import com.obs.entity.User;
+
+/**
+ * Time and allocation of one {@link PdfGenerationService#generateTransactionInvoice}. {@code CACHED}
+ * is the service as it runs, with the font parsed once at startup. {@code PARSED} parses the font
+ * again for every invoice, as a per-request lookup would. {@code NONE} has no font and prints Rs.,
+ * which leaves only the layout and compression. Run with {@code -prof gc}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 8, time = 2)
+@Fork(1)
+public class InvoiceBenchmark {
+
+    @Param({"CACHED", "PARSED", "NONE"})
+    public String font;
+
+    private PdfGenerationService pdfGenerationService;
+    private Transaction transaction;
+
+    @Setup(Level.Trial)
+    public void start() {
+        pdfGenerationService = new PdfGenerationService();
+        if (!"NONE".equals(font)) {
+            pdfGenerationService.loadFont();
+        }
+
+        User user = new User();
+        user.setFullName("Asha Verma");
+        Account account = new Account();
+        account.setAccountNumber("2000000000012345");
+        account.setAccountType(AccountType.SAVINGS);
+        account.setUser(user);
+        transaction = new Transaction();
+        transaction.setId(1_234_567L);
+        transaction.setAmount(new BigDecimal("-2500.00"));
+        transaction.setTimestamp(LocalDateTime.of(2026, 3, 14, 15, 9));
+        transaction.setType("DEBIT");
+        transaction.setDescription("Transfer to 2000000000067890");
+        transaction.setAccount(account);
+        transaction.setTargetAccountNumber("2000000000067890");
+        transaction.setStatus("SUCCESS");
+    }
+
+    @Benchmark
+    public byte[] invoice() {
+        if ("PARSED".equals(font)) {
+            pdfGenerationService.loadFont();
+        }
+        return pdfGenerationService.generateTransactionInvoice(transaction);
+    }
+}
@@ -0,0 +1,91 @@
+package com.obs.service;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.obs.entity.AccountType;
+
+/**
+ * Latency of one limit check, {@link TransferLimitService#reserve} followed by the
+ * {@link TransferLimitService#release} a failed transfer makes, so the windows stay the same size.
+ * Transfers go from {@code accounts} accounts, owned by a tenth as many customers, each account
+ * paying three of 50 beneficiaries. Limits are high enough that no check is rejected. Run with
+ * {@code -t 8} to see the striped locks under contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// Every window is a few KB, so 100,000 accounts need about a gigabyte.
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class TransferLimitBenchmark {
+
+    @Param({"100", "100000"})
+    public int accounts;
+
+    private TransferLimitService transferLimitService;
+    private final String[] beneficiaries = new String[50];
+    private final BigDecimal[] amounts = new BigDecimal[64];
+
+    @Setup(Level.Trial)
+    public void start() {
+        transferLimitService = new TransferLimitService();
+        ReflectionTestUtils.setField(transferLimitService, "enabled", true);
+        BigDecimal high = new BigDecimal("1000000000000");
+        for (String limit : new String[] {"savingsDailyAmount", "savingsBeneficiaryDailyAmount", "currentDailyAmount",
+                "currentBeneficiaryDailyAmount", "userDailyAmount"}) {
+            ReflectionTestUtils.setField(transferLimitService, limit, high);
+        }
+        ReflectionTestUtils.setField(transferLimitService, "savingsHourlyCount", Long.MAX_VALUE / 2);
+        ReflectionTestUtils.setField(transferLimitService, "currentHourlyCount", Long.MAX_VALUE / 2);
+        // Nothing to rebuild the windows from.
+        ReflectionTestUtils.setField(transferLimitService, "jdbcTemplate", new JdbcTemplate() {
+            @Override
+            public void query(String sql, RowCallbackHandler handler, Object... args) {
+            }
+        });
+        transferLimitService.start();
+        for (int i = 0; i < beneficiaries.length; i++) {
+            beneficiaries[i] = Long.toString(3_000_000_000_000_000L + i);
+        }
+        for (int i = 0; i < amounts.length; i++) {
+            amounts[i] = BigDecimal.valueOf(100 + i * 37L, 2);
+        }
+        // Every account has a window before measuring starts.
+        for (int account = 0; account < accounts; account++) {
+            checkAndRelease(account);
+        }
+    }
+
+    @Benchmark
+    public TransferLimitService.Reservation reserveAndRelease() {
+        return checkAndRelease(ThreadLocalRandom.current().nextInt(accounts));
+    }
+
+    private TransferLimitService.Reservation checkAndRelease(int account) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        TransferLimitService.Reservation reservation = transferLimitService.reserve(account, account / 10,
+                account % 2 == 0 ? AccountType.SAVINGS : AccountType.CURRENT,
+                beneficiaries[(account + random.nextInt(3)) % beneficiaries.length], amounts[random.nextInt(amounts.length)]);
+        transferLimitService.release(reservation);
+        return reservation;
+    }
+}
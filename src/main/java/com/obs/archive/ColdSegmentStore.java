@@ -0,0 +1,366 @@
+package com.obs.archive;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import com.obs.entity.Account;
+import com.obs.entity.Transaction;
+import com.obs.payload.response.TransactionView;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Transactions of archived months, one segment file per month in {@code obs.app.archive.directory}.
+ * <p>
+ * Readers that combine the transaction table with the segments do so through a {@link View}, which
+ * holds a read lock. Swapping a partition for its segment takes the write lock, so a view never
+ * sees a month in both places or in neither. The archiver only ever tries the write lock without
+ * queueing for it, so waiting to archive never holds up readers.
+ */
+@Component
+public class ColdSegmentStore {
+
+    public record ArchivedTransaction(long accountId, TransactionView transaction) {
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(ColdSegmentStore.class);
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("transaction_(\\d{4})_(\\d{2})\\.seg");
+
+    @Value("${obs.app.archive.directory:data/archive}")
+    private String directory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Oldest month first.
+    private volatile List<SegmentReader> segments = List.of();
+
+    @PostConstruct
+    public void load() throws IOException {
+        Path dir = directory();
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        List<SegmentReader> loaded = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                Matcher matcher = SEGMENT_NAME.matcher(name);
+                if (!matcher.matches()) {
+                    continue;
+                }
+                YearMonth month = YearMonth.of(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+                // The archiver stopped between writing the file and dropping the partition; it will redo the month.
+                if (partitionExists(month)) {
+                    logger.warn("Ignoring segment {}: its partition still exists", name);
+                    continue;
+                }
+                loaded.add(SegmentReader.open(file, month));
+            }
+        }
+        loaded.sort(Comparator.comparing(SegmentReader::month));
+        segments = List.copyOf(loaded);
+        if (!loaded.isEmpty()) {
+            logger.info("Loaded {} cold transaction segments from {}", loaded.size(), dir.toAbsolutePath());
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        for (SegmentReader segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                logger.warn("Could not close segment {}: {}", segment.path(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Opens a consistent view of the archived months. Close it, normally with try-with-resources,
+     * once the reads it guards, database reads included, are done.
+     */
+    public View openView() {
+        lock.readLock().lock();
+        return new View(segments);
+    }
+
+    public boolean hasMonth(YearMonth month) {
+        return segments.stream().anyMatch(segment -> segment.month().equals(month));
+    }
+
+    public List<Map<String, Object>> describe() {
+        List<Map<String, Object>> described = new ArrayList<>();
+        for (SegmentReader segment : segments) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("month", segment.month().toString());
+            entry.put("rows", segment.rows());
+            entry.put("blocks", segment.blockCount());
+            entry.put("bytes", segment.fileBytes());
+            described.add(entry);
+        }
+        return described;
+    }
+
+    Path directory() {
+        return Paths.get(directory);
+    }
+
+    static String fileName(YearMonth month) {
+        return String.format("transaction_%04d_%02d.seg", month.getYear(), month.getMonthValue());
+    }
+
+    static String partitionName(YearMonth month) {
+        return String.format("transaction_%04d_%02d", month.getYear(), month.getMonthValue());
+    }
+
+    /**
+     * Makes {@code segment} visible in place of its month's partition: {@code dropPartition} runs
+     * under the write lock and the segment is added once it has succeeded.
+     */
+    void install(SegmentReader segment, Runnable dropPartition, long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        // tryLock barges instead of queueing, so readers are never made to wait behind the archiver.
+        while (!lock.writeLock().tryLock()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Transaction history stayed busy; archiving " + segment.month() + " later");
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while archiving " + segment.month());
+            }
+        }
+        try {
+            dropPartition.run();
+            List<SegmentReader> updated = new ArrayList<>(segments);
+            updated.add(segment);
+            updated.sort(Comparator.comparing(SegmentReader::month));
+            segments = List.copyOf(updated);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * An archived row as the entity the rest of the application reads, attached to {@code account}.
+     */
+    public static Transaction toTransaction(TransactionView archived, Account account) {
+        Transaction transaction = new Transaction();
+        transaction.setId(archived.id());
+        transaction.setAccount(account);
+        transaction.setAmount(archived.amount());
+        transaction.setTimestamp(archived.timestamp());
+        transaction.setType(archived.type());
+        transaction.setDescription(archived.description());
+        transaction.setTargetAccountNumber(archived.targetAccountNumber());
+        transaction.setStatus(archived.status());
+        return transaction;
+    }
+
+    private boolean partitionExists(YearMonth month) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("select to_regclass(?) is not null", Boolean.class,
+                partitionName(month)));
+    }
+
+    /**
+     * The archived months as they were when the view was opened. Iterables read blocks lazily and
+     * throw {@link UncheckedIOException} if a segment cannot be read.
+     */
+    public final class View implements AutoCloseable {
+
+        private final List<SegmentReader> snapshot;
+        private boolean closed;
+
+        private View(List<SegmentReader> snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        public boolean isEmpty() {
+            return snapshot.isEmpty();
+        }
+
+        public List<YearMonth> months() {
+            return snapshot.stream().map(SegmentReader::month).toList();
+        }
+
+        /**
+         * The account's archived rows, newest first, skipping segments and blocks that only hold
+         * rows after {@code notAfter} (null for no bound). Rows after it may still be returned.
+         */
+        public Iterable<TransactionView> newestFirst(long accountId, LocalDateTime notAfter) {
+            List<SegmentReader> ordered = new ArrayList<>(snapshot);
+            Collections.reverse(ordered);
+            long bound = notAfter == null ? Long.MAX_VALUE : SegmentFormat.toMicros(notAfter);
+            return () -> new AccountRows(ordered, accountId, true, bound);
+        }
+
+        public Iterable<TransactionView> oldestFirst(long accountId) {
+            return oldestFirst(accountId, null, null);
+        }
+
+        /**
+         * The account's archived rows, oldest first, skipping the segments of months entirely outside
+         * {@code [from, to)} (null for no bound). Rows outside the range may still be returned.
+         */
+        public Iterable<TransactionView> oldestFirst(long accountId, LocalDateTime from, LocalDateTime to) {
+            List<SegmentReader> inRange = snapshot.stream()
+                    .filter(segment -> from == null || !segment.month().isBefore(YearMonth.from(from)))
+                    .filter(segment -> to == null || segment.month().atDay(1).atStartOfDay().isBefore(to))
+                    .toList();
+            return () -> new AccountRows(inRange, accountId, false, Long.MAX_VALUE);
+        }
+
+        public Optional<ArchivedTransaction> findById(long id) {
+            try {
+                for (SegmentReader segment : snapshot) {
+                    // Most ids are outside every segment's range, so no index is read for them.
+                    if (!segment.mayHoldId(id)) {
+                        continue;
+                    }
+                    int block = segment.blockOfId(id);
+                    if (block < 0) {
+                        continue;
+                    }
+                    SegmentReader.Block rows = segment.block(block);
+                    int row = rows.indexOfId(id);
+                    if (row >= 0) {
+                        return Optional.of(new ArchivedTransaction(rows.accounts[row], rows.view(row)));
+                    }
+                }
+                return Optional.empty();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read archived transactions", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    private static final class AccountRows implements Iterator<TransactionView> {
+
+        private final List<SegmentReader> segments;
+        private final long accountId;
+        private final boolean newestFirst;
+        private final long notAfterMicros;
+
+        private int segmentIndex = -1;
+        private int firstBlock;
+        private int lastBlock;
+        private int blockIndex;
+        private final List<TransactionView> buffered = new ArrayList<>();
+        private int bufferedIndex;
+
+        private AccountRows(List<SegmentReader> segments, long accountId, boolean newestFirst, long notAfterMicros) {
+            this.segments = segments;
+            this.accountId = accountId;
+            this.newestFirst = newestFirst;
+            this.notAfterMicros = notAfterMicros;
+            this.firstBlock = 0;
+            this.lastBlock = -1;
+            this.blockIndex = 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (bufferedIndex == buffered.size()) {
+                    if (!nextBlock()) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not read archived transactions", e);
+            }
+        }
+
+        @Override
+        public TransactionView next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return buffered.get(bufferedIndex++);
+        }
+
+        // Loads the next block holding rows of the account into the buffer; false when done.
+        private boolean nextBlock() throws IOException {
+            while (blockIndex < firstBlock || blockIndex > lastBlock) {
+                if (++segmentIndex >= segments.size()) {
+                    return false;
+                }
+                SegmentReader segment = segments.get(segmentIndex);
+                firstBlock = segment.firstBlockOf(accountId);
+                lastBlock = firstBlock - 1;
+                while (lastBlock + 1 < segment.blockCount() && segment.meta(lastBlock + 1).firstAccount() <= accountId) {
+                    lastBlock++;
+                }
+                blockIndex = newestFirst ? lastBlock : firstBlock;
+            }
+            SegmentReader segment = segments.get(segmentIndex);
+            int index = blockIndex;
+            blockIndex += newestFirst ? -1 : 1;
+            buffered.clear();
+            bufferedIndex = 0;
+            if (segment.meta(index).minMicros() > notAfterMicros) {
+                return true;
+            }
+            SegmentReader.Block block = segment.block(index);
+            if (newestFirst) {
+                for (int row = block.rows() - 1; row >= 0; row--) {
+                    if (block.accounts[row] == accountId) {
+                        buffered.add(block.view(row));
+                    }
+                }
+            } else {
+                for (int row = 0; row < block.rows(); row++) {
+                    if (block.accounts[row] == accountId) {
+                        buffered.add(block.view(row));
+                    }
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.obs.archive;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Layout shared by {@link SegmentWriter} and {@link SegmentReader}:
+ * <pre>
+ * magic | block ... | id index | footer | trailer (footer offset, footer length, magic)
+ * </pre>
+ * The footer holds the row count, every block's metadata, the id index's position and the
+ * segment's smallest and largest id; footers written before the id range was added end after the
+ * id index's position. Blocks, the id index and the footer are each deflated. Integers are
+ * unsigned LEB128 varints, signed ones zigzag encoded; ids and timestamps are stored as deltas
+ * within a block, timestamps in microseconds, amounts as their unscaled value at scale 2.
+ */
+final class SegmentFormat {
+
+    static final byte[] MAGIC = "OBSSEG01".getBytes(StandardCharsets.US_ASCII);
+
+    static final int TRAILER_LENGTH = 8 + 4 + MAGIC.length;
+
+    static final int BLOCK_ROWS = 4096;
+
+    // Bits of a packed id index entry that hold the block number.
+    static final int BLOCK_BITS = 21;
+
+    static final long BLOCK_MASK = (1L << BLOCK_BITS) - 1;
+
+    private static final int AMOUNT_SCALE = 2;
+
+    private SegmentFormat() {
+    }
+
+    record BlockMeta(long offset, int length, int rows, long firstAccount, long lastAccount,
+                     long minMicros, long maxMicros, long minId, long maxId) {
+
+        void writeTo(Bytes out) {
+            out.writeVarLong(offset);
+            out.writeVarLong(length);
+            out.writeVarLong(rows);
+            out.writeSignedVarLong(firstAccount);
+            out.writeSignedVarLong(lastAccount);
+            out.writeSignedVarLong(minMicros);
+            out.writeSignedVarLong(maxMicros);
+            out.writeSignedVarLong(minId);
+            out.writeSignedVarLong(maxId);
+        }
+
+        static BlockMeta readFrom(Cursor in) throws IOException {
+            return new BlockMeta(in.readVarLong(), (int) in.readVarLong(), (int) in.readVarLong(),
+                    in.readSignedVarLong(), in.readSignedVarLong(), in.readSignedVarLong(), in.readSignedVarLong(),
+                    in.readSignedVarLong(), in.readSignedVarLong());
+        }
+    }
+
+    static byte[] trailer(long footerOffset, int footerLength) {
+        return ByteBuffer.allocate(TRAILER_LENGTH).putLong(footerOffset).putInt(footerLength).put(MAGIC).array();
+    }
+
+    static long toMicros(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + timestamp.getNano() / 1_000;
+    }
+
+    static LocalDateTime fromMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000),
+                (int) Math.floorMod(micros, 1_000_000) * 1_000, ZoneOffset.UTC);
+    }
+
+    // Tag in the low two bits: 0 unscaled value that fits a long, 1 larger value as text, 2 null.
+    static void writeAmount(Bytes out, BigDecimal amount) {
+        if (amount == null) {
+            out.writeVarLong(2);
+            return;
+        }
+        BigInteger unscaled = amount.setScale(AMOUNT_SCALE, RoundingMode.HALF_UP).unscaledValue();
+        if (unscaled.bitLength() <= 60) {
+            long value = unscaled.longValue();
+            out.writeVarLong(((value << 1) ^ (value >> 63)) << 2);
+            return;
+        }
+        out.writeVarLong(1);
+        out.writeString(amount.toPlainString());
+    }
+
+    static BigDecimal readAmount(Cursor in) throws IOException {
+        long tagged = in.readVarLong();
+        int tag = (int) (tagged & 3);
+        if (tag == 2) {
+            return null;
+        }
+        if (tag == 1) {
+            return new BigDecimal(in.readString()).setScale(AMOUNT_SCALE, RoundingMode.HALF_UP);
+        }
+        long zigzag = tagged >>> 2;
+        return BigDecimal.valueOf((zigzag >>> 1) ^ -(zigzag & 1), AMOUNT_SCALE);
+    }
+
+    /**
+     * Growable byte buffer with varint writers.
+     */
+    static final class Bytes {
+
+        private byte[] data = new byte[1024];
+        private int size;
+
+        void write(int b) {
+            ensure(1);
+            data[size++] = (byte) b;
+        }
+
+        void write(byte[] source, int offset, int length) {
+            ensure(length);
+            System.arraycopy(source, offset, data, size, length);
+            size += length;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+
+        void writeSignedVarLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length);
+            write(utf8, 0, utf8.length);
+        }
+
+        void writeColumn(Bytes column) {
+            writeVarLong(column.size);
+            write(column.data, 0, column.size);
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(data, size);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + extra));
+            }
+        }
+    }
+
+    /**
+     * Reads varints from a byte array, within [position, limit).
+     */
+    static final class Cursor {
+
+        private final byte[] data;
+        private int position;
+        private final int limit;
+
+        Cursor(byte[] data) {
+            this(data, 0, data.length);
+        }
+
+        Cursor(byte[] data, int position, int limit) {
+            this.data = data;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        boolean hasRemaining() {
+            return position < limit;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= limit) {
+                    throw new IOException("Truncated segment data");
+                }
+                byte b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in segment data");
+        }
+
+        long readSignedVarLong() throws IOException {
+            long zigzag = readVarLong();
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        String readString() throws IOException {
+            int length = (int) readVarLong();
+            if (length < 0 || position + length > limit) {
+                throw new IOException("Truncated segment data");
+            }
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        // Returns a cursor over the next column and skips past it.
+        Cursor column() throws IOException {
+            int length = (int) readVarLong();
+            if (length < 0 || position + length > limit) {
+                throw new IOException("Truncated segment data");
+            }
+            Cursor column = new Cursor(data, position, position + length);
+            position += length;
+            return column;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.obs.archive;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.obs.payload.response.TransactionView;
+
+/**
+ * Reads a segment written by {@link SegmentWriter}. The footer is read once when the segment is
+ * opened and blocks are read and inflated on demand. The id index is inflated on the first lookup
+ * by id that falls within the segment's id range, and then kept as a sorted array of packed
+ * entries. Safe for concurrent use.
+ */
+final class SegmentReader implements Closeable {
+
+    private final Path path;
+    private final YearMonth month;
+    private final FileChannel channel;
+    private final long fileBytes;
+    private final long rows;
+    private final SegmentFormat.BlockMeta[] blocks;
+    private final long idIndexOffset;
+    private final int idIndexLength;
+    private final long minId;
+    private final long maxId;
+
+    // Entries of the id index, id << BLOCK_BITS | block, in id order; null until first needed.
+    private volatile long[] idIndex;
+
+    private SegmentReader(Path path, YearMonth month, FileChannel channel) throws IOException {
+        this.path = path;
+        this.month = month;
+        this.channel = channel;
+        this.fileBytes = channel.size();
+        if (fileBytes < SegmentFormat.MAGIC.length + SegmentFormat.TRAILER_LENGTH
+                || !Arrays.equals(read(0, SegmentFormat.MAGIC.length), SegmentFormat.MAGIC)) {
+            throw new IOException("Not a transaction segment: " + path);
+        }
+        ByteBuffer trailer = ByteBuffer.wrap(read(fileBytes - SegmentFormat.TRAILER_LENGTH, SegmentFormat.TRAILER_LENGTH));
+        long footerOffset = trailer.getLong();
+        int footerLength = trailer.getInt();
+        byte[] magic = new byte[SegmentFormat.MAGIC.length];
+        trailer.get(magic);
+        if (!Arrays.equals(magic, SegmentFormat.MAGIC)) {
+            throw new IOException("Segment is incomplete: " + path);
+        }
+        SegmentFormat.Cursor footer = new SegmentFormat.Cursor(inflate(read(footerOffset, footerLength)));
+        this.rows = footer.readVarLong();
+        this.blocks = new SegmentFormat.BlockMeta[(int) footer.readVarLong()];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = SegmentFormat.BlockMeta.readFrom(footer);
+        }
+        this.idIndexOffset = footer.readSignedVarLong();
+        this.idIndexLength = (int) footer.readVarLong();
+        if (footer.hasRemaining()) {
+            this.minId = footer.readSignedVarLong();
+            this.maxId = footer.readSignedVarLong();
+        } else {
+            this.minId = Arrays.stream(blocks).mapToLong(SegmentFormat.BlockMeta::minId).min().orElse(Long.MAX_VALUE);
+            this.maxId = Arrays.stream(blocks).mapToLong(SegmentFormat.BlockMeta::maxId).max().orElse(Long.MIN_VALUE);
+        }
+    }
+
+    static SegmentReader open(Path path, YearMonth month) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new SegmentReader(path, month, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    Path path() {
+        return path;
+    }
+
+    YearMonth month() {
+        return month;
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    long fileBytes() {
+        return fileBytes;
+    }
+
+    int blockCount() {
+        return blocks.length;
+    }
+
+    SegmentFormat.BlockMeta meta(int index) {
+        return blocks[index];
+    }
+
+    /**
+     * Index of the first block that may hold rows of the account, or {@link #blockCount()} if none
+     * does. Blocks are ordered by account, so the account's blocks follow it contiguously.
+     */
+    int firstBlockOf(long accountId) {
+        int low = 0;
+        int high = blocks.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (blocks[mid].lastAccount() < accountId) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < blocks.length && blocks[low].firstAccount() <= accountId ? low : blocks.length;
+    }
+
+    boolean mayHoldId(long id) {
+        return minId <= id && id <= maxId;
+    }
+
+    /**
+     * Index of the block holding the given transaction id, or -1. Uses the id index when the
+     * segment has one, and otherwise the blocks' id ranges.
+     */
+    int blockOfId(long id) throws IOException {
+        if (!mayHoldId(id)) {
+            return -1;
+        }
+        if (idIndexOffset < 0) {
+            for (int i = 0; i < blocks.length; i++) {
+                if (blocks[i].minId() <= id && id <= blocks[i].maxId() && block(i).indexOfId(id) >= 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        long[] index = idIndex();
+        // The first entry whose id is not below the one sought; entries of one id differ only in the block bits.
+        long key = id << SegmentFormat.BLOCK_BITS;
+        int low = 0;
+        int high = index.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (index[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low < index.length && index[low] >>> SegmentFormat.BLOCK_BITS == id) {
+            return (int) (index[low] & SegmentFormat.BLOCK_MASK);
+        }
+        return -1;
+    }
+
+    private long[] idIndex() throws IOException {
+        long[] index = idIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = idIndex;
+                if (index == null) {
+                    index = readIdIndex();
+                    idIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    private long[] readIdIndex() throws IOException {
+        SegmentFormat.Cursor in = new SegmentFormat.Cursor(inflate(read(idIndexOffset, idIndexLength)));
+        long count = in.readVarLong();
+        if (count < 0 || count > rows) {
+            throw new IOException("Corrupt id index in " + path);
+        }
+        long[] index = new long[(int) count];
+        long id = 0;
+        for (int i = 0; i < index.length; i++) {
+            id += in.readVarLong();
+            index[i] = id << SegmentFormat.BLOCK_BITS | in.readVarLong();
+        }
+        return index;
+    }
+
+    Block block(int index) throws IOException {
+        SegmentFormat.BlockMeta meta = blocks[index];
+        SegmentFormat.Cursor in = new SegmentFormat.Cursor(inflate(read(meta.offset(), meta.length())));
+        int count = (int) in.readVarLong();
+        int runs = (int) in.readVarLong();
+        Block block = new Block(count);
+
+        SegmentFormat.Cursor runColumn = in.column();
+        int row = 0;
+        for (int i = 0; i < runs; i++) {
+            long account = runColumn.readSignedVarLong();
+            int length = (int) runColumn.readVarLong();
+            if (row + length > count) {
+                throw new IOException("Corrupt account runs in " + path);
+            }
+            Arrays.fill(block.accounts, row, row + length, account);
+            row += length;
+        }
+        SegmentFormat.Cursor idColumn = in.column();
+        SegmentFormat.Cursor timeColumn = in.column();
+        SegmentFormat.Cursor amountColumn = in.column();
+        long id = 0;
+        long micros = 0;
+        for (int i = 0; i < count; i++) {
+            id += idColumn.readSignedVarLong();
+            micros += timeColumn.readSignedVarLong();
+            block.ids[i] = id;
+            block.micros[i] = micros;
+            block.amounts[i] = SegmentFormat.readAmount(amountColumn);
+        }
+        readStrings(in.column(), block.types);
+        readStrings(in.column(), block.descriptions);
+        readStrings(in.column(), block.targets);
+        readStrings(in.column(), block.statuses);
+        return block;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static void readStrings(SegmentFormat.Cursor column, String[] values) throws IOException {
+        List<String> dictionary = new ArrayList<>();
+        for (int i = 0; i < values.length; i++) {
+            int code = (int) column.readVarLong();
+            if (code == 0) {
+                values[i] = null;
+            } else if (code <= dictionary.size()) {
+                values[i] = dictionary.get(code - 1);
+            } else {
+                values[i] = column.readString();
+                dictionary.add(values[i]);
+            }
+        }
+    }
+
+    private byte[] read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of segment " + path);
+            }
+        }
+        return buffer.array();
+    }
+
+    private byte[] inflate(byte[] compressed) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] out = new byte[Math.max(1024, compressed.length * 4)];
+            int size = 0;
+            while (!inflater.finished()) {
+                if (size == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                int n = inflater.inflate(out, size, out.length - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated compressed data in " + path);
+                }
+                size += n;
+            }
+            return Arrays.copyOf(out, size);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed data in " + path, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * One decoded block, column by column.
+     */
+    static final class Block {
+
+        final long[] accounts;
+        final long[] ids;
+        final long[] micros;
+        final BigDecimal[] amounts;
+        final String[] types;
+        final String[] descriptions;
+        final String[] targets;
+        final String[] statuses;
+
+        private Block(int rows) {
+            accounts = new long[rows];
+            ids = new long[rows];
+            micros = new long[rows];
+            amounts = new BigDecimal[rows];
+            types = new String[rows];
+            descriptions = new String[rows];
+            targets = new String[rows];
+            statuses = new String[rows];
+        }
+
+        int rows() {
+            return ids.length;
+        }
+
+        int indexOfId(long id) {
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        TransactionView view(int row) {
+            return new TransactionView(ids[row], amounts[row], SegmentFormat.fromMicros(micros[row]), types[row],
+                    descriptions[row], targets[row], statuses[row]);
+        }
+    }
+}
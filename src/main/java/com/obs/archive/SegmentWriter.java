@@ -0,0 +1,261 @@
+package com.obs.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a cold segment: the rows of one archived month, sorted by (account, timestamp, id), in
+ * blocks of {@link SegmentFormat#BLOCK_ROWS}. Each block stores its columns one after another and
+ * is deflated as a whole; the footer lists every block's offset, account range, time range and id
+ * range, followed by an id index mapping each id to its block and the segment's id range.
+ */
+final class SegmentWriter implements Closeable {
+
+    private final FileOutputStream file;
+    private final OutputStream out;
+    private long position;
+
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final List<SegmentFormat.BlockMeta> blocks = new ArrayList<>();
+
+    private final SegmentFormat.Bytes accounts = new SegmentFormat.Bytes();
+    private final SegmentFormat.Bytes ids = new SegmentFormat.Bytes();
+    private final SegmentFormat.Bytes timestamps = new SegmentFormat.Bytes();
+    private final SegmentFormat.Bytes amounts = new SegmentFormat.Bytes();
+    private final StringColumn types = new StringColumn();
+    private final StringColumn descriptions = new StringColumn();
+    private final StringColumn targets = new StringColumn();
+    private final StringColumn statuses = new StringColumn();
+
+    private int blockRows;
+    private long runAccount;
+    private int runLength;
+    private int runs;
+    private final SegmentFormat.Bytes runBytes = new SegmentFormat.Bytes();
+    private long lastId;
+    private long lastMicros;
+    private long firstAccount;
+    private long minMicros;
+    private long maxMicros;
+    private long minId;
+    private long maxId;
+    private long segmentMinId = Long.MAX_VALUE;
+    private long segmentMaxId = Long.MIN_VALUE;
+
+    // id << BLOCK_BITS | block, sorted when the segment is finished. Dropped if an id is too large.
+    private long[] idIndex = new long[4096];
+    private int rows;
+    private boolean idIndexUsable = true;
+
+    SegmentWriter(Path path) throws IOException {
+        this.file = new FileOutputStream(path.toFile());
+        this.out = new BufferedOutputStream(file, 256 * 1024);
+        write(SegmentFormat.MAGIC);
+    }
+
+    /**
+     * Adds a row. Rows must arrive ordered by account, then timestamp, then id.
+     */
+    void add(long id, long accountId, BigDecimal amount, LocalDateTime timestamp, String type, String description,
+             String targetAccountNumber, String status) throws IOException {
+        long micros = SegmentFormat.toMicros(timestamp);
+        if (blockRows == 0) {
+            firstAccount = accountId;
+            runAccount = accountId;
+            minMicros = micros;
+            maxMicros = micros;
+            minId = id;
+            maxId = id;
+        } else if (accountId != runAccount) {
+            endRun();
+            runAccount = accountId;
+        }
+        runLength++;
+        ids.writeSignedVarLong(id - lastId);
+        timestamps.writeSignedVarLong(micros - lastMicros);
+        SegmentFormat.writeAmount(amounts, amount);
+        types.write(type);
+        descriptions.write(description);
+        targets.write(targetAccountNumber);
+        statuses.write(status);
+        lastId = id;
+        lastMicros = micros;
+        minMicros = Math.min(minMicros, micros);
+        maxMicros = Math.max(maxMicros, micros);
+        minId = Math.min(minId, id);
+        maxId = Math.max(maxId, id);
+        segmentMinId = Math.min(segmentMinId, id);
+        segmentMaxId = Math.max(segmentMaxId, id);
+
+        if (id < 0 || id >= 1L << (63 - SegmentFormat.BLOCK_BITS)) {
+            idIndexUsable = false;
+        }
+        if (idIndexUsable) {
+            if (rows == idIndex.length) {
+                idIndex = Arrays.copyOf(idIndex, idIndex.length * 2);
+            }
+            idIndex[rows] = id << SegmentFormat.BLOCK_BITS | blocks.size();
+        }
+        rows++;
+
+        if (++blockRows == SegmentFormat.BLOCK_ROWS) {
+            flushBlock(accountId);
+        }
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    /**
+     * Writes the last block, the id index and the footer, and forces the file to disk.
+     */
+    void finish() throws IOException {
+        if (blockRows > 0) {
+            flushBlock(runAccount);
+        }
+        long idIndexOffset = -1;
+        int idIndexLength = 0;
+        if (idIndexUsable && rows > 0) {
+            long[] sorted = Arrays.copyOf(idIndex, rows);
+            Arrays.sort(sorted);
+            SegmentFormat.Bytes index = new SegmentFormat.Bytes();
+            index.writeVarLong(rows);
+            long previous = 0;
+            for (long entry : sorted) {
+                long id = entry >>> SegmentFormat.BLOCK_BITS;
+                index.writeVarLong(id - previous);
+                index.writeVarLong(entry & SegmentFormat.BLOCK_MASK);
+                previous = id;
+            }
+            byte[] compressed = deflate(index.toByteArray());
+            idIndexOffset = position;
+            idIndexLength = compressed.length;
+            write(compressed);
+        }
+
+        SegmentFormat.Bytes footer = new SegmentFormat.Bytes();
+        footer.writeVarLong(rows);
+        footer.writeVarLong(blocks.size());
+        for (SegmentFormat.BlockMeta block : blocks) {
+            block.writeTo(footer);
+        }
+        footer.writeSignedVarLong(idIndexOffset);
+        footer.writeVarLong(idIndexLength);
+        footer.writeSignedVarLong(segmentMinId);
+        footer.writeSignedVarLong(segmentMaxId);
+        byte[] compressed = deflate(footer.toByteArray());
+        long footerOffset = position;
+        write(compressed);
+        write(SegmentFormat.trailer(footerOffset, compressed.length));
+        out.flush();
+        file.getFD().sync();
+    }
+
+    @Override
+    public void close() throws IOException {
+        deflater.end();
+        out.close();
+    }
+
+    private void endRun() {
+        runBytes.writeSignedVarLong(runAccount);
+        runBytes.writeVarLong(runLength);
+        runs++;
+        runLength = 0;
+    }
+
+    private void flushBlock(long lastAccount) throws IOException {
+        endRun();
+        SegmentFormat.Bytes block = new SegmentFormat.Bytes();
+        block.writeVarLong(blockRows);
+        block.writeVarLong(runs);
+        block.writeColumn(runBytes);
+        block.writeColumn(ids);
+        block.writeColumn(timestamps);
+        block.writeColumn(amounts);
+        block.writeColumn(types.bytes);
+        block.writeColumn(descriptions.bytes);
+        block.writeColumn(targets.bytes);
+        block.writeColumn(statuses.bytes);
+        byte[] compressed = deflate(block.toByteArray());
+
+        blocks.add(new SegmentFormat.BlockMeta(position, compressed.length, blockRows, firstAccount, lastAccount,
+                minMicros, maxMicros, minId, maxId));
+        write(compressed);
+
+        for (SegmentFormat.Bytes column : List.of(runBytes, ids, timestamps, amounts)) {
+            column.reset();
+        }
+        for (StringColumn column : List.of(types, descriptions, targets, statuses)) {
+            column.reset();
+        }
+        blockRows = 0;
+        runs = 0;
+        runLength = 0;
+        lastId = 0;
+        lastMicros = 0;
+    }
+
+    private byte[] deflate(byte[] data) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        SegmentFormat.Bytes compressed = new SegmentFormat.Bytes();
+        byte[] buffer = new byte[64 * 1024];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            compressed.write(buffer, 0, length);
+        }
+        return compressed.toByteArray();
+    }
+
+    private void write(byte[] data) throws IOException {
+        out.write(data);
+        position += data.length;
+    }
+
+    /**
+     * A string column with a dictionary that is rebuilt for every block, so a block decodes on its
+     * own. Each value is written as a code: 0 for null, an index into the values seen so far, or
+     * the next index followed by the new value.
+     */
+    private static final class StringColumn {
+
+        private final SegmentFormat.Bytes bytes = new SegmentFormat.Bytes();
+        private final Map<String, Integer> dictionary = new HashMap<>();
+
+        private void write(String value) {
+            if (value == null) {
+                bytes.writeVarLong(0);
+                return;
+            }
+            Integer code = dictionary.get(value);
+            if (code != null) {
+                bytes.writeVarLong(code);
+                return;
+            }
+            code = dictionary.size() + 1;
+            dictionary.put(value, code);
+            bytes.writeVarLong(code);
+            bytes.writeString(value);
+        }
+
+        private void reset() {
+            bytes.reset();
+            dictionary.clear();
+        }
+    }
+}
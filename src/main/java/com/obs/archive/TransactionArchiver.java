@@ -0,0 +1,247 @@
+package com.obs.archive;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Moves monthly partitions older than {@code obs.app.archive.after-months} out of the database into
+ * segment files of the {@link ColdSegmentStore}. A month is written to a temporary file, renamed,
+ * read back and checked against the partition's row count and sums, and only then swapped in for
+ * the partition, which is dropped. Months that still hold pending transfers are left alone until
+ * those are decided.
+ * <p>
+ * Segments are written to, and only ever read from, this node's local directory, while the
+ * partition is dropped from the database every node shares. Archiving therefore refuses to run
+ * unless the deployment is declared single-node with {@code obs.app.archive.single-node}; on
+ * several nodes the others would lose the month from history, exports and statements.
+ */
+@Component
+public class TransactionArchiver {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransactionArchiver.class);
+
+    private static final String LIST_PARTITIONS = "select c.relname from pg_inherits i join pg_class c on c.oid = i.inhrelid"
+            + " where i.inhparent = 'transaction'::regclass and c.relname ~ '^transaction_[0-9]{4}_[0-9]{2}$' order by c.relname";
+
+    private static final long INSTALL_TIMEOUT_MS = 10 * 60 * 1000;
+
+    @Value("${obs.app.archive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${obs.app.archive.single-node:false}")
+    private boolean singleNode;
+
+    @Value("${obs.app.archive.after-months:24}")
+    private int afterMonths;
+
+    @Value("${obs.app.archive.fetch-size:5000}")
+    private int fetchSize;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ColdSegmentStore coldSegmentStore;
+
+    private TransactionTemplate readOnlyTransaction;
+
+    private TransactionTemplate transaction;
+
+    private volatile Map<String, Object> lastRun = Map.of();
+
+    private record Totals(long rows, BigDecimal amount, BigDecimal ids) {
+    }
+
+    @PostConstruct
+    public void init() {
+        if (enabled && !singleNode) {
+            throw new IllegalStateException("obs.app.archive.enabled requires obs.app.archive.single-node=true: segments are only"
+                    + " readable by the node that writes them");
+        }
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+        transaction = new TransactionTemplate(transactionManager);
+    }
+
+    @Scheduled(cron = "${obs.app.archive.cron:0 30 2 * * *}")
+    public void scheduledRun() {
+        if (enabled) {
+            run();
+        }
+    }
+
+    /**
+     * Archives every month due for it and returns what was done.
+     */
+    public synchronized Map<String, Object> run() {
+        if (!singleNode) {
+            throw new IllegalStateException("Archiving is only allowed on a single-node deployment"
+                    + " (obs.app.archive.single-node=true): other nodes cannot read this node's segments");
+        }
+        long started = System.nanoTime();
+        YearMonth cutoff = YearMonth.now().minusMonths(afterMonths);
+        List<Map<String, Object>> archived = new ArrayList<>();
+        List<String> skipped = new ArrayList<>();
+        for (String partition : jdbcTemplate.queryForList(LIST_PARTITIONS, String.class)) {
+            YearMonth month = YearMonth.of(Integer.parseInt(partition.substring(12, 16)),
+                    Integer.parseInt(partition.substring(17, 19)));
+            if (!month.isBefore(cutoff)) {
+                continue;
+            }
+            if (Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                    "select exists (select 1 from " + partition + " where status = 'PENDING')", Boolean.class))) {
+                skipped.add(partition);
+                continue;
+            }
+            try {
+                archived.add(archive(partition, month));
+            } catch (IOException | RuntimeException e) {
+                logger.error("Could not archive {}: {}", partition, e.getMessage(), e);
+                skipped.add(partition);
+            }
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("cutoff", cutoff.toString());
+        result.put("archived", archived);
+        result.put("skipped", skipped);
+        result.put("elapsedMs", (System.nanoTime() - started) / 1_000_000);
+        lastRun = result;
+        return result;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("singleNode", singleNode);
+        stats.put("afterMonths", afterMonths);
+        stats.put("segments", coldSegmentStore.describe());
+        stats.put("lastRun", lastRun);
+        return stats;
+    }
+
+    private Map<String, Object> archive(String partition, YearMonth month) throws IOException {
+        long started = System.nanoTime();
+        Totals expected = jdbcTemplate.queryForObject(
+                "select count(*), coalesce(sum(amount), 0), coalesce(sum(id), 0) from " + partition,
+                (rs, rowNum) -> new Totals(rs.getLong(1), rs.getBigDecimal(2), rs.getBigDecimal(3)));
+        Long tableBytes = jdbcTemplate.queryForObject("select pg_total_relation_size(?::regclass)", Long.class, partition);
+
+        Path directory = coldSegmentStore.directory();
+        Files.createDirectories(directory);
+        Path target = directory.resolve(ColdSegmentStore.fileName(month));
+        Path temporary = directory.resolve(target.getFileName() + ".tmp");
+        try {
+            write(partition, temporary);
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+
+        SegmentReader segment = SegmentReader.open(target, month);
+        try {
+            Totals written = totals(segment);
+            if (written.rows() != expected.rows() || written.amount().compareTo(expected.amount()) != 0
+                    || written.ids().compareTo(expected.ids()) != 0) {
+                throw new IllegalStateException("Segment " + target + " does not match " + partition + ": wrote " + written
+                        + ", expected " + expected);
+            }
+            coldSegmentStore.install(segment, () -> transaction.executeWithoutResult(status -> {
+                // Fail rather than queue behind a long query, so writers are not stuck behind the drop.
+                jdbcTemplate.execute("set local lock_timeout = '5s'");
+                long rows = Objects.requireNonNull(jdbcTemplate.queryForObject("select count(*) from " + partition, Long.class));
+                if (rows != expected.rows()) {
+                    throw new IllegalStateException(partition + " changed while it was being archived");
+                }
+                jdbcTemplate.execute("drop table " + partition);
+            }), INSTALL_TIMEOUT_MS);
+        } catch (IOException | RuntimeException e) {
+            segment.close();
+            Files.deleteIfExists(target);
+            throw e;
+        }
+
+        long segmentBytes = Files.size(target);
+        long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+        logger.info("Archived {}: {} rows, {} bytes in the database, {} bytes on disk ({}x) in {} ms", partition,
+                expected.rows(), tableBytes, segmentBytes, String.format("%.1f", (double) tableBytes / segmentBytes), elapsedMs);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("partition", partition);
+        result.put("rows", expected.rows());
+        result.put("tableBytes", tableBytes);
+        result.put("segmentBytes", segmentBytes);
+        result.put("elapsedMs", elapsedMs);
+        return result;
+    }
+
+    private void write(String partition, Path temporary) throws IOException {
+        try (SegmentWriter writer = new SegmentWriter(temporary)) {
+            try {
+                readOnlyTransaction.executeWithoutResult(status -> jdbcTemplate.query(con -> {
+                    PreparedStatement statement = con.prepareStatement("select id, account_id, amount, timestamp, type,"
+                            + " description, target_account_number, status from " + partition
+                            + " order by account_id, timestamp, id", ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                    statement.setFetchSize(fetchSize);
+                    return statement;
+                }, (RowCallbackHandler) rs -> {
+                    try {
+                        writer.add(rs.getLong(1), rs.getLong(2), rs.getBigDecimal(3), rs.getObject(4, LocalDateTime.class),
+                                rs.getString(5), rs.getString(6), rs.getString(7), rs.getString(8));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.finish();
+        }
+    }
+
+    // Decodes every block, so a segment that cannot be read back is never swapped in.
+    private static Totals totals(SegmentReader segment) throws IOException {
+        long rows = 0;
+        BigDecimal amount = BigDecimal.ZERO;
+        BigDecimal ids = BigDecimal.ZERO;
+        for (int i = 0; i < segment.blockCount(); i++) {
+            SegmentReader.Block block = segment.block(i);
+            for (int row = 0; row < block.rows(); row++) {
+                rows++;
+                if (block.amounts[row] != null) {
+                    amount = amount.add(block.amounts[row]);
+                }
+                ids = ids.add(BigDecimal.valueOf(block.ids[row]));
+            }
+        }
+        return new Totals(rows, amount, ids);
+    }
+}
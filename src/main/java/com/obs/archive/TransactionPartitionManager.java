@@ -0,0 +1,63 @@
+package com.obs.archive;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Keeps a monthly partition of the transaction table ready ahead of time, so inserts land in a
+ * month's own partition rather than the default one. Months that show up in the default partition
+ * anyway, such as back-dated rows, get a partition of their own and their rows moved into it.
+ */
+@Component
+public class TransactionPartitionManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransactionPartitionManager.class);
+
+    @Value("${obs.app.partitions.months-ahead:3}")
+    private int monthsAhead;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ColdSegmentStore coldSegmentStore;
+
+    @PostConstruct
+    public void init() {
+        ensurePartitions();
+    }
+
+    @Scheduled(cron = "${obs.app.partitions.cron:0 0 1 * * *}")
+    public void ensurePartitions() {
+        YearMonth current = YearMonth.now();
+        for (int i = 0; i <= monthsAhead; i++) {
+            ensure(current.plusMonths(i));
+        }
+        List<LocalDate> stray = jdbcTemplate.queryForList(
+                "select distinct date_trunc('month', timestamp)::date from transaction_default", LocalDate.class);
+        for (LocalDate month : stray) {
+            // An archived month has no partition to return to; its late rows stay in the default partition.
+            if (!coldSegmentStore.hasMonth(YearMonth.from(month))) {
+                ensure(YearMonth.from(month));
+            }
+        }
+    }
+
+    private void ensure(YearMonth month) {
+        String created = jdbcTemplate.queryForObject("select obs_ensure_transaction_partition(?)", String.class,
+                Date.valueOf(month.atDay(1)));
+        logger.debug("Transaction partition {} is in place", created);
+    }
+}
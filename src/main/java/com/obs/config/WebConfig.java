@@ -13,7 +13,7 @@ public class WebConfig implements WebMvcConfigurer {
                 .allowedOrigins("http://localhost:5173")
                 .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
                 .allowedHeaders("*")
-                .exposedHeaders("Token-Refresh")
+                .exposedHeaders("Token-Refresh", "X-Next-Cursor")
                 .allowCredentials(true)
                 .maxAge(3600);
     }
@@ -2,32 +2,38 @@ package com.obs.controller;
 
 import java.math.BigDecimal;
 import java.security.Principal;
-import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
-import com.obs.repository.TransactionRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
 
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.obs.entity.Account;
 import com.obs.entity.AccountType;
-import com.obs.entity.Transaction;
 import com.obs.entity.User;
+import com.obs.ledger.LedgerEngine;
 import com.obs.payload.response.AccountDetailsResponse;
+import com.obs.payload.response.AccountSummaryResponse;
 import com.obs.payload.response.MessageResponse;
 import com.obs.repository.AccountRepository;
 import com.obs.repository.UserRepository;
+import com.obs.service.AccountBalanceService;
+import com.obs.service.AccountSummaryService;
+import com.obs.service.IdempotencyService;
+import com.obs.service.TransactionService;
 
 
 @RestController
@@ -41,13 +47,25 @@ public class AccountController {
     UserRepository userRepository;
 
     @Autowired
-    TransactionRepository transactionRepository;
+    TransactionService transactionService;
+
+    @Autowired
+    LedgerEngine ledgerEngine;
+
+    @Autowired
+    IdempotencyService idempotencyService;
+
+    @Autowired
+    AccountBalanceService accountBalanceService;
+
+    @Autowired
+    AccountSummaryService accountSummaryService;
 
     @GetMapping("/my-accounts")
     @PreAuthorize("hasRole('CUSTOMER') or hasRole('BANKER') or hasRole('ADMIN')")
     public List<Account> getMyAccounts(Principal principal) {
         User user = userRepository.findByUsername(principal.getName()).get();
-        return accountRepository.findByUser(user);
+        return accountBalanceService.withUnfoldedCredits(accountRepository.findByUser(user));
     }
 
     @PostMapping("/create")
@@ -85,7 +103,7 @@ public class AccountController {
         AccountDetailsResponse response = new AccountDetailsResponse(
                 account.getId(),
                 account.getAccountNumber(),
-                account.getBalance(),
+                accountBalanceService.balanceOf(account),
                 account.isActive(),
                 account.getUser().getUsername(),
                 account.getUser().getId(),
@@ -103,39 +121,42 @@ public class AccountController {
 
         account.setActive(!account.isActive());
         accountRepository.save(account);
+        ledgerEngine.evict(accountNumber);
 
         return ResponseEntity.ok(new MessageResponse("Account status updated to " + (account.isActive() ? "Active" : "Frozen")));
     }
 
-    @PostMapping("/deposit")
+    @PutMapping("/{accountNumber}/striped")
     @PreAuthorize("hasRole('BANKER')")
-    public ResponseEntity<?> deposit(@RequestBody java.util.Map<String, Object> request) {
-        String accountNumber = (String) request.get("accountNumber");
-        BigDecimal amount = new BigDecimal(request.get("amount").toString());
-
-        Account account = accountRepository.findByAccountNumber(accountNumber)
-                .orElseThrow(() -> new com.obs.exception.ResourceNotFoundException("Account not found"));
-
-        if (!account.isActive()) {
-            return ResponseEntity.badRequest().body(new MessageResponse("Cannot deposit to frozen/inactive account"));
-        }
+    public ResponseEntity<?> setStriped(@PathVariable String accountNumber, @RequestParam boolean enabled) {
+        accountBalanceService.setStriped(accountNumber, enabled);
 
-        account.setBalance(account.getBalance().add(amount));
-        accountRepository.save(account);
+        return ResponseEntity.ok(new MessageResponse("Striped balance " + (enabled ? "enabled" : "disabled") + " for account " + accountNumber));
+    }
 
-        // Record Transaction
-        Transaction transaction = new Transaction();
-        transaction.setAccount(account);
-        transaction.setAmount(amount); // Positive for Credit
-        transaction.setType("CREDIT");
-        transaction.setTimestamp(LocalDateTime.now());
-        transaction.setDescription("Cash Deposit by Banker");
-        transaction.setStatus("SUCCESS");
-        // targetAccountNumber is null for cash deposit
+    // Customers see their own accounts; bankers and admins any account.
+    @GetMapping("/{accountNumber}/summary")
+    @PreAuthorize("hasRole('CUSTOMER') or hasRole('BANKER') or hasRole('ADMIN')")
+    public ResponseEntity<AccountSummaryResponse> getSummary(@PathVariable String accountNumber,
+                                                             @RequestParam(defaultValue = "12") int months,
+                                                             Authentication authentication) {
+        boolean staff = authentication.getAuthorities().stream()
+                .anyMatch(authority -> authority.getAuthority().equals("ROLE_BANKER") || authority.getAuthority().equals("ROLE_ADMIN"));
+        return ResponseEntity.ok(accountSummaryService.getSummary(accountNumber, staff ? null : authentication.getName(), months));
+    }
 
-        transactionRepository.save(transaction);
+    @PostMapping("/deposit")
+    @PreAuthorize("hasRole('BANKER')")
+    public ResponseEntity<?> deposit(@RequestBody java.util.Map<String, Object> request,
+                                     @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+                                     Principal principal) {
+        String accountNumber = (String) request.get("accountNumber");
+        BigDecimal amount = new BigDecimal(request.get("amount").toString());
 
-        return ResponseEntity.ok(new MessageResponse("Signal deposit successful. New balance: " + account.getBalance()));
+        return idempotencyService.execute(principal.getName(), "deposit", idempotencyKey, Arrays.asList(accountNumber, amount), () -> {
+            BigDecimal balance = transactionService.deposit(accountNumber, amount);
+            return ResponseEntity.ok(new MessageResponse("Signal deposit successful. New balance: " + balance));
+        });
     }
 
     private String generateAccountNumber() {
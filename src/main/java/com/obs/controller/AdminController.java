@@ -1,9 +1,11 @@
 package com.obs.controller;
 
+import java.time.YearMonth;
 import java.util.HashSet;
 import java.util.Set;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -15,13 +17,27 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.obs.archive.TransactionArchiver;
 import com.obs.entity.Role;
 import com.obs.entity.User;
+import com.obs.journal.LedgerLog;
+import com.obs.journal.LedgerLogReplayer;
+import com.obs.journal.TransactionJournal;
 import com.obs.payload.request.SignupRequest;
 import com.obs.payload.response.MessageResponse;
 import com.obs.repository.UserRepository;
+import com.obs.fraud.FraudPipeline;
+import com.obs.service.AccountLockingService;
+import com.obs.service.AccountSummaryService;
+import com.obs.service.InvoiceCache;
+import com.obs.service.MonthlyStatementBatch;
+import com.obs.service.RecentTransactionCache;
+import com.obs.service.RecurringPaymentService;
+import com.obs.service.StatementJobService;
+import com.obs.service.TransferLimitService;
 
 import jakarta.validation.Valid;
 
@@ -35,6 +51,45 @@ public class AdminController {
     @Autowired
     PasswordEncoder encoder;
 
+    @Autowired
+    AccountLockingService accountLockingService;
+
+    @Autowired
+    TransactionJournal transactionJournal;
+
+    @Autowired
+    LedgerLog ledgerLog;
+
+    @Autowired
+    LedgerLogReplayer ledgerLogReplayer;
+
+    @Autowired
+    TransferLimitService transferLimitService;
+
+    @Autowired
+    FraudPipeline fraudPipeline;
+
+    @Autowired
+    RecentTransactionCache recentTransactionCache;
+
+    @Autowired
+    InvoiceCache invoiceCache;
+
+    @Autowired
+    StatementJobService statementJobService;
+
+    @Autowired
+    MonthlyStatementBatch monthlyStatementBatch;
+
+    @Autowired
+    TransactionArchiver transactionArchiver;
+
+    @Autowired
+    AccountSummaryService accountSummaryService;
+
+    @Autowired
+    RecurringPaymentService recurringPaymentService;
+
     @PostMapping("/create-banker")
     @PreAuthorize("hasRole('ADMIN')")
     public ResponseEntity<?> createBanker(@Valid @RequestBody SignupRequest signUpRequest) {
@@ -91,5 +146,115 @@ public class AdminController {
         return ResponseEntity.ok(new MessageResponse("User " + (user.isActive() ? "activated" : "deactivated") + " successfully!"));
     }
 
+    @GetMapping("/metrics/transfer-locking")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getTransferLockingStats() {
+        return ResponseEntity.ok(accountLockingService.getStats());
+    }
+
+    @GetMapping("/metrics/journal")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getJournalStats() {
+        return ResponseEntity.ok(transactionJournal.getStats());
+    }
+
+    @GetMapping("/metrics/ledger-log")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getLedgerLogStats() {
+        return ResponseEntity.ok(ledgerLog.getStats());
+    }
+
+    // Includes the latency of each limit check (checkNanos).
+    @GetMapping("/metrics/transfer-limits")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getTransferLimitStats() {
+        return ResponseEntity.ok(transferLimitService.getStats());
+    }
+
+    // Backlog per scorer, drops when a queue was full, and commit-to-score lag.
+    @GetMapping("/metrics/fraud")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getFraudPipelineStats() {
+        return ResponseEntity.ok(fraudPipeline.getStats());
+    }
+
+    // Hit ratio of first history pages and the estimated heap held by cached rows.
+    @GetMapping("/metrics/history-cache")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getHistoryCacheStats() {
+        return ResponseEntity.ok(recentTransactionCache.getStats());
+    }
+
+    // Hits per tier, bytes held in memory and on disk, and invoices dropped when their transfer was decided.
+    @GetMapping("/metrics/invoice-cache")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getInvoiceCacheStats() {
+        return ResponseEntity.ok(invoiceCache.getStats());
+    }
+
+    // Queued and running statement jobs, queue wait and render times, and requests that joined a job already in flight.
+    @GetMapping("/metrics/statement-jobs")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getStatementJobStats() {
+        return ResponseEntity.ok(statementJobService.getStats());
+    }
+
+    // Archived months: rows and size on disk of each segment, and what the last archiving run did.
+    @GetMapping("/metrics/archive")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getArchiveStats() {
+        return ResponseEntity.ok(transactionArchiver.getStats());
+    }
+
+    // Archives the months due for it now, whether or not the nightly run is enabled.
+    @PostMapping("/archive/run")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> runArchive() {
+        return ResponseEntity.ok(transactionArchiver.run());
+    }
+
+    // Progress of the month-end statement run (accounts per second, partitions written) and how the last one ended.
+    @GetMapping("/metrics/statement-batch")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getStatementBatchStats() {
+        return ResponseEntity.ok(monthlyStatementBatch.getStats());
+    }
+
+    // Writes every account's statement for the month (yyyy-MM, default the previous month) in the background, resuming from its checkpoint.
+    @PostMapping("/statement-batch/run")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> runStatementBatch(@RequestParam(required = false) @DateTimeFormat(pattern = "yyyy-MM") YearMonth month) {
+        YearMonth target = month != null ? month : YearMonth.now().minusMonths(1);
+        monthlyStatementBatch.start(target);
+        return ResponseEntity.ok(new MessageResponse("Writing the statements of " + target));
+    }
+
+    // Payments per second of the recurring payment run in progress, and the counts of the last one.
+    @GetMapping("/metrics/recurring-payments")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> getRecurringPaymentStats() {
+        return ResponseEntity.ok(recurringPaymentService.getStats());
+    }
+
+    // Pays the recurring payments due today now, as the daily run does, and returns its counts.
+    @PostMapping("/recurring-payments/run")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> runRecurringPayments() {
+        return ResponseEntity.ok(recurringPaymentService.processRecurringPayments());
+    }
+
+    // Recomputes the monthly account rollups from the transaction table; transaction writes wait until it commits.
+    @PostMapping("/rollups/rebuild")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> rebuildRollups() {
+        return ResponseEntity.ok(accountSummaryService.rebuild());
+    }
+
+    // Replays the ledger log against the account table; exact only while no money is moving.
+    @GetMapping("/ledger-log/verify")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> verifyLedgerLog() {
+        return ResponseEntity.ok(ledgerLogReplayer.verify());
+    }
 
 }
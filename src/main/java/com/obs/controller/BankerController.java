@@ -1,14 +1,34 @@
 package com.obs.controller;
 
+import com.obs.entity.Account;
+import com.obs.entity.FraudAlert;
 import com.obs.entity.Transaction;
+import com.obs.service.FraudAlertService;
+import com.obs.service.PendingApprovalService;
+import com.obs.service.StatementJobService;
+import com.obs.service.TransactionExportService;
+import com.obs.service.TransactionHistoryService;
 import com.obs.service.TransactionService;
+import com.obs.payload.request.BulkDecisionRequest;
+import com.obs.payload.request.TransactionHistoryQuery;
+import com.obs.payload.response.BulkDecisionResponse;
 import com.obs.payload.response.MessageResponse;
+import com.obs.payload.response.PendingSummaryResponse;
+import com.obs.payload.response.StatementJobResponse;
+import com.obs.payload.response.TransactionView;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.context.annotation.Profile;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import jakarta.validation.Valid;
+
+import java.net.URI;
+import java.time.LocalDate;
 import java.util.List;
 
 @RestController
@@ -18,10 +38,46 @@ public class BankerController {
     @Autowired
     private TransactionService transactionService;
 
+    @Autowired
+    private PendingApprovalService pendingApprovalService;
+
+    @Autowired
+    private FraudAlertService fraudAlertService;
+
+    @Autowired
+    private TransactionHistoryService transactionHistoryService;
+
+    @Autowired
+    private TransactionExportService transactionExportService;
+
+    // Keyset-paginated; the cursor for the next page is returned in the X-Next-Cursor header.
     @GetMapping("/pending-transactions")
     @PreAuthorize("hasRole('BANKER') or hasRole('ADMIN')")
-    public List<Transaction> getPendingTransactions() {
-        return transactionService.getPendingTransactions();
+    public ResponseEntity<List<Transaction>> getPendingTransactions(@RequestParam(defaultValue = "age") String sort,
+                                                                    @RequestParam(required = false) String cursor,
+                                                                    @RequestParam(defaultValue = "50") int limit) {
+        PendingApprovalService.Page page = pendingApprovalService.getPage(PendingApprovalService.Sort.parse(sort), cursor, limit);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.nextCursor() != null) {
+            response.header("X-Next-Cursor", page.nextCursor());
+        }
+        return response.body(page.items());
+    }
+
+    @GetMapping("/pending-transactions/summary")
+    @PreAuthorize("hasRole('BANKER') or hasRole('ADMIN')")
+    public PendingSummaryResponse getPendingSummary() {
+        return pendingApprovalService.getSummary();
+    }
+
+    // The whole queue as newline-delimited JSON, read page by page so it is never held in memory.
+    @GetMapping("/pending-transactions/stream")
+    @PreAuthorize("hasRole('BANKER') or hasRole('ADMIN')")
+    public ResponseEntity<StreamingResponseBody> streamPendingTransactions(@RequestParam(defaultValue = "age") String sort) {
+        PendingApprovalService.Sort order = PendingApprovalService.Sort.parse(sort);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(out -> pendingApprovalService.stream(order, out));
     }
 
     @PutMapping("/transactions/{id}/approve")
@@ -37,30 +93,90 @@ public class BankerController {
         transactionService.rejectTransaction(id);
         return ResponseEntity.ok(new MessageResponse("Transaction rejected successfully"));
     }
-    @Autowired
-    private com.obs.repository.AccountRepository accountRepository;
 
+    // Ids or a filter (fromAccountNumber and/or maxAmount); returns an outcome per transaction.
+    @PostMapping("/transactions/bulk-approve")
+    @PreAuthorize("hasRole('BANKER') or hasRole('ADMIN')")
+    public BulkDecisionResponse bulkApprove(@Valid @RequestBody BulkDecisionRequest request) {
+        return transactionService.decidePending(request, true);
+    }
+
+    @PostMapping("/transactions/bulk-reject")
+    @PreAuthorize("hasRole('BANKER') or hasRole('ADMIN')")
+    public BulkDecisionResponse bulkReject(@Valid @RequestBody BulkDecisionRequest request) {
+        return transactionService.decidePending(request, false);
+    }
+    @GetMapping("/fraud-alerts")
+    @PreAuthorize("hasRole('BANKER') or hasRole('ADMIN')")
+    public List<FraudAlert> getFraudAlerts(@RequestParam(defaultValue = "50") int limit) {
+        return fraudAlertService.getOpenAlerts(limit);
+    }
+
+    @PutMapping("/fraud-alerts/{id}/confirm")
+    @PreAuthorize("hasRole('BANKER') or hasRole('ADMIN')")
+    public ResponseEntity<?> confirmFraudAlert(@PathVariable Long id) {
+        fraudAlertService.review(id, true);
+        return ResponseEntity.ok(new MessageResponse("Fraud alert confirmed"));
+    }
+
+    @PutMapping("/fraud-alerts/{id}/clear")
+    @PreAuthorize("hasRole('BANKER') or hasRole('ADMIN')")
+    public ResponseEntity<?> clearFraudAlert(@PathVariable Long id) {
+        fraudAlertService.review(id, false);
+        return ResponseEntity.ok(new MessageResponse("Fraud alert cleared"));
+    }
     @Autowired
-    private com.obs.service.PdfGenerationService pdfGenerationService;
+    private StatementJobService statementJobService;
 
+    // Same paging and filters as GET /api/transactions/{accountNumber}, without the ownership check.
     @GetMapping("/accounts/{accountNumber}/transactions")
     @PreAuthorize("hasRole('BANKER') or hasRole('ADMIN')")
-    public List<Transaction> getAccountTransactions(@PathVariable String accountNumber) {
-        return transactionService.getTransactionsForAccount(accountNumber);
+    public ResponseEntity<List<TransactionView>> getAccountTransactions(@PathVariable String accountNumber, TransactionHistoryQuery query) {
+        TransactionHistoryService.Page page = transactionHistoryService.getPage(accountNumber, query);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.nextCursor() != null) {
+            response.header("X-Next-Cursor", page.nextCursor());
+        }
+        return response.body(page.items());
+    }
+
+    // Same export as GET /api/transactions/{accountNumber}/export, without the ownership check.
+    @GetMapping("/accounts/{accountNumber}/export")
+    @PreAuthorize("hasRole('BANKER') or hasRole('ADMIN')")
+    public ResponseEntity<StreamingResponseBody> exportAccountTransactions(@PathVariable String accountNumber,
+                                                                           @RequestParam(defaultValue = "ndjson") String format) {
+        TransactionExportService.Format exportFormat = TransactionExportService.Format.parse(format);
+        Account account = transactionExportService.findAccount(accountNumber);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(exportFormat.getContentType()))
+                .header(org.springframework.http.HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=transactions_" + accountNumber + "." + exportFormat.getExtension())
+                .body(out -> transactionExportService.export(account.getId(), exportFormat, out));
     }
 
+    // Same statement as GET /api/transactions/{accountNumber}/statement, without the ownership check.
     @GetMapping("/accounts/{accountNumber}/statement")
     @PreAuthorize("hasRole('BANKER') or hasRole('ADMIN')")
-    public ResponseEntity<byte[]> downloadAccountStatement(@PathVariable String accountNumber) {
-        com.obs.entity.Account account = accountRepository.findByAccountNumber(accountNumber)
-                .orElseThrow(() -> new RuntimeException("Account not found"));
-        List<Transaction> transactions = transactionService.getTransactionsForAccount(accountNumber);
-        
-        byte[] pdfBytes = pdfGenerationService.generateAccountStatement(account, transactions);
-        
+    public ResponseEntity<StreamingResponseBody> downloadAccountStatement(@PathVariable String accountNumber,
+                                                                          @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                                          @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        StatementJobService.Job job = statementJobService.submit(accountNumber, from, to, null);
+
         return ResponseEntity.ok()
                 .header(org.springframework.http.HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=statement_" + accountNumber + ".pdf")
                 .contentType(org.springframework.http.MediaType.APPLICATION_PDF)
-                .body(pdfBytes);
+                .body(out -> statementJobService.copyResult(job, out));
+    }
+
+    // Same as POST /api/transactions/{accountNumber}/statement-jobs, without the ownership check.
+    @PostMapping("/accounts/{accountNumber}/statement-jobs")
+    @PreAuthorize("hasRole('BANKER') or hasRole('ADMIN')")
+    public ResponseEntity<StatementJobResponse> submitAccountStatementJob(@PathVariable String accountNumber,
+                                                                          @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                                          @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        StatementJobService.Job job = statementJobService.submit(accountNumber, from, to, null);
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/transactions/statement-jobs/" + job.getId()))
+                .body(job.toResponse());
     }
 }
@@ -5,6 +5,7 @@ import com.obs.entity.User;
 import com.obs.payload.response.MessageResponse;
 import com.obs.repository.UserRepository;
 import com.obs.service.BillPaymentService;
+import com.obs.service.IdempotencyService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -24,15 +25,21 @@ public class BillPaymentController {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private IdempotencyService idempotencyService;
+
     @PostMapping("/pay")
     @PreAuthorize("hasRole('CUSTOMER')")
     public ResponseEntity<?> payBill(@RequestParam String accountNumber, 
                                      @RequestParam String billerName, 
                                      @RequestParam BigDecimal amount, 
+                                     @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
                                      Principal principal) {
-        User user = userRepository.findByUsername(principal.getName()).get();
-        billPaymentService.payBill(user.getId(), accountNumber, billerName, amount);
-        return ResponseEntity.ok(new MessageResponse("Bill paid successfully!"));
+        return idempotencyService.execute(principal.getName(), "bill-pay", idempotencyKey, List.of(accountNumber, billerName, amount), () -> {
+            User user = userRepository.findByUsername(principal.getName()).get();
+            billPaymentService.payBill(user.getId(), accountNumber, billerName, amount);
+            return ResponseEntity.ok(new MessageResponse("Bill paid successfully!"));
+        });
     }
 
     @GetMapping("/my-bills")
@@ -1,23 +1,51 @@
 package com.obs.controller;
 
+import java.net.URI;
+import java.nio.file.Path;
 import java.security.Principal;
+import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.obs.entity.Account;
 import com.obs.entity.Transaction;
+import com.obs.payload.request.BatchTransferRequest;
+import com.obs.payload.request.TransactionHistoryQuery;
 import com.obs.payload.request.TransferRequest;
+import com.obs.payload.response.BatchTransferResponse;
 import com.obs.payload.response.MessageResponse;
+import com.obs.payload.response.StatementJobResponse;
+import com.obs.payload.response.TransactionView;
+import com.obs.service.IdempotencyService;
+import com.obs.service.InvoiceCache;
+import com.obs.service.PendingApprovalService;
+import com.obs.service.StatementJobService;
+import com.obs.service.TransactionExportService;
+import com.obs.service.TransactionHistoryService;
 import com.obs.service.TransactionService;
 
 import jakarta.validation.Valid;
@@ -29,28 +57,80 @@ public class TransactionController {
     @Autowired
     private TransactionService transactionService;
 
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    @Autowired
+    private PendingApprovalService pendingApprovalService;
+
+    @Autowired
+    private TransactionHistoryService transactionHistoryService;
+
+    @Autowired
+    private TransactionExportService transactionExportService;
+
     @PostMapping("/transfer")
     @PreAuthorize("hasRole('CUSTOMER') or hasRole('BANKER')")
-    public ResponseEntity<?> transferFunds(@Valid @RequestBody TransferRequest transferRequest, Principal principal) {
-        String status = transactionService.transferFunds(transferRequest, principal.getName());
+    public ResponseEntity<?> transferFunds(@Valid @RequestBody TransferRequest transferRequest,
+                                           @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+                                           Principal principal) {
+        List<?> request = Arrays.asList(transferRequest.getFromAccountNumber(), transferRequest.getToAccountNumber(), transferRequest.getAmount());
+        return idempotencyService.execute(principal.getName(), "transfer", idempotencyKey, request, () -> {
+            String status = transactionService.transferFunds(transferRequest, principal.getName());
+
+            if ("PENDING".equals(status)) {
+                return ResponseEntity.ok(new MessageResponse("Transfer successful! However, due to the large amount, it is PENDING approval from a Banker."));
+            } else {
+                return ResponseEntity.ok(new MessageResponse("Transfer successful!"));
+            }
+        });
+    }
 
-        if ("PENDING".equals(status)) {
-            return ResponseEntity.ok(new MessageResponse("Transfer successful! However, due to the large amount, it is PENDING approval from a Banker."));
-        } else {
-            return ResponseEntity.ok(new MessageResponse("Transfer successful!"));
-        }
+    @PostMapping("/transfer/batch")
+    @PreAuthorize("hasRole('CUSTOMER') or hasRole('BANKER')")
+    public ResponseEntity<BatchTransferResponse> transferBatch(@Valid @RequestBody BatchTransferRequest batchRequest, Principal principal) {
+        return ResponseEntity.ok(transactionService.transferBatch(batchRequest, principal.getName()));
     }
     
+    // Newest first, keyset-paginated; the cursor for the next page is returned in the X-Next-Cursor header.
     @GetMapping("/{accountNumber}")
     @PreAuthorize("hasRole('CUSTOMER') or hasRole('BANKER')")
-    public List<Transaction> getTransactionHistory(@PathVariable String accountNumber, Principal principal) {
-        return transactionService.getTransactionHistory(accountNumber, principal.getName());
+    public ResponseEntity<List<TransactionView>> getTransactionHistory(@PathVariable String accountNumber,
+                                                                       TransactionHistoryQuery query, Principal principal) {
+        TransactionHistoryService.Page page = transactionHistoryService.getPageForOwner(accountNumber, principal.getName(), query);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.nextCursor() != null) {
+            response.header("X-Next-Cursor", page.nextCursor());
+        }
+        return response.body(page.items());
+    }
+
+    // The whole history, oldest first, streamed from a database cursor as it is read.
+    @GetMapping("/{accountNumber}/export")
+    @PreAuthorize("hasRole('CUSTOMER') or hasRole('BANKER')")
+    public ResponseEntity<StreamingResponseBody> exportTransactions(@PathVariable String accountNumber,
+                                                                    @RequestParam(defaultValue = "ndjson") String format,
+                                                                    Principal principal) {
+        TransactionExportService.Format exportFormat = TransactionExportService.Format.parse(format);
+        Account account = transactionExportService.findAccountForOwner(accountNumber, principal.getName());
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(exportFormat.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=transactions_" + accountNumber + "." + exportFormat.getExtension())
+                .body(out -> transactionExportService.export(account.getId(), exportFormat, out));
     }
 
     @GetMapping("/pending")
     @PreAuthorize("hasRole('BANKER')")
-    public List<Transaction> getPendingTransactions() {
-        return transactionService.getPendingTransactions();
+    public ResponseEntity<List<Transaction>> getPendingTransactions(@RequestParam(defaultValue = "age") String sort,
+                                                                    @RequestParam(required = false) String cursor,
+                                                                    @RequestParam(defaultValue = "50") int limit) {
+        PendingApprovalService.Page page = pendingApprovalService.getPage(PendingApprovalService.Sort.parse(sort), cursor, limit);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.nextCursor() != null) {
+            response.header("X-Next-Cursor", page.nextCursor());
+        }
+        return response.body(page.items());
     }
 
     @PutMapping("/{transactionId}/approve")
@@ -67,38 +147,78 @@ public class TransactionController {
         return ResponseEntity.ok(new MessageResponse("Transaction rejected successfully!"));
     }
     @Autowired
-    private com.obs.service.PdfGenerationService pdfGenerationService;
+    private InvoiceCache invoiceCache;
 
     @GetMapping("/{transactionId}/invoice")
     @PreAuthorize("hasRole('CUSTOMER') or hasRole('BANKER') or hasRole('ADMIN')")
-    public ResponseEntity<byte[]> downloadInvoice(@PathVariable Long transactionId) {
+    public ResponseEntity<byte[]> downloadInvoice(@PathVariable Long transactionId, WebRequest webRequest) {
         Transaction transaction = transactionService.getTransactionById(transactionId);
-        byte[] pdfBytes = pdfGenerationService.generateTransactionInvoice(transaction);
+        // Clients keep the PDF but ask again each time, since a pending transfer's invoice changes once it is decided.
+        CacheControl cacheControl = CacheControl.noCache().cachePrivate();
+        if (webRequest.checkNotModified(invoiceCache.etag(transaction))) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).cacheControl(cacheControl).build();
+        }
+        InvoiceCache.Invoice invoice = invoiceCache.get(transaction);
 
         return ResponseEntity.ok()
                 .header(org.springframework.http.HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=invoice_" + transactionId + ".pdf")
                 .contentType(org.springframework.http.MediaType.APPLICATION_PDF)
-                .body(pdfBytes);
+                .eTag(invoice.etag())
+                .cacheControl(cacheControl)
+                .body(invoice.pdf());
     }
     @Autowired
-    private com.obs.repository.AccountRepository accountRepository;
+    private StatementJobService statementJobService;
 
+    // Rendered by the statement workers and streamed once ready; from and to (yyyy-MM-dd, inclusive) limit it to a period.
     @GetMapping("/{accountNumber}/statement")
     @PreAuthorize("hasRole('CUSTOMER') or hasRole('BANKER')")
-    public ResponseEntity<byte[]> downloadStatement(@PathVariable String accountNumber, Principal principal) {
-        com.obs.entity.Account account = accountRepository.findByAccountNumber(accountNumber)
-                .orElseThrow(() -> new RuntimeException("Account not found"));
-
-        if (!account.getUser().getUsername().equals(principal.getName())) {
-             throw new IllegalArgumentException("Unauthorized access to account statement");
-        }
-
-        List<Transaction> transactions = transactionService.getTransactionHistory(accountNumber, principal.getName());
-        byte[] pdfBytes = pdfGenerationService.generateAccountStatement(account, transactions);
+    public ResponseEntity<StreamingResponseBody> downloadStatement(@PathVariable String accountNumber,
+                                                                   @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                                   @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                                   Principal principal) {
+        StatementJobService.Job job = statementJobService.submit(accountNumber, from, to, principal.getName());
 
         return ResponseEntity.ok()
                 .header(org.springframework.http.HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=statement_" + accountNumber + ".pdf")
                 .contentType(org.springframework.http.MediaType.APPLICATION_PDF)
-                .body(pdfBytes);
+                .body(out -> statementJobService.copyResult(job, out));
+    }
+
+    // Queues the same statement and returns at once; poll the job at the Location returned, then download its file.
+    @PostMapping("/{accountNumber}/statement-jobs")
+    @PreAuthorize("hasRole('CUSTOMER') or hasRole('BANKER')")
+    public ResponseEntity<StatementJobResponse> submitStatementJob(@PathVariable String accountNumber,
+                                                                   @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                                                   @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+                                                                   Principal principal) {
+        StatementJobService.Job job = statementJobService.submit(accountNumber, from, to, principal.getName());
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/transactions/statement-jobs/" + job.getId()))
+                .body(job.toResponse());
+    }
+
+    // Customers see jobs of their own accounts; bankers and admins any job.
+    @GetMapping("/statement-jobs/{jobId}")
+    @PreAuthorize("hasRole('CUSTOMER') or hasRole('BANKER') or hasRole('ADMIN')")
+    public ResponseEntity<StatementJobResponse> getStatementJob(@PathVariable String jobId, Authentication authentication) {
+        return ResponseEntity.ok(statementJobService.getJob(jobId, ownerFilter(authentication)).toResponse());
+    }
+
+    @GetMapping("/statement-jobs/{jobId}/file")
+    @PreAuthorize("hasRole('CUSTOMER') or hasRole('BANKER') or hasRole('ADMIN')")
+    public ResponseEntity<Resource> downloadStatementJob(@PathVariable String jobId, Authentication authentication) {
+        StatementJobService.Job job = statementJobService.getJob(jobId, ownerFilter(authentication));
+        Path result = statementJobService.getResult(job);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=statement_" + job.getAccountNumber() + ".pdf")
+                .contentType(MediaType.APPLICATION_PDF)
+                .body(new FileSystemResource(result));
+    }
+
+    private static String ownerFilter(Authentication authentication) {
+        boolean staff = authentication.getAuthorities().stream()
+                .anyMatch(authority -> authority.getAuthority().equals("ROLE_BANKER") || authority.getAuthority().equals("ROLE_ADMIN"));
+        return staff ? null : authentication.getName();
     }
 }
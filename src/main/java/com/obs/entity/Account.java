@@ -5,6 +5,8 @@ import java.math.BigDecimal;
 import java.util.List;
 
 @Entity
+// Refreshing a locked account loads its owner's accounts by user_id; without the index that scans the table.
+@Table(name = "account", indexes = @Index(name = "idx_account_user_id", columnList = "user_id"))
 public class Account {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -17,10 +19,28 @@ public class Account {
     private AccountType accountType;
 
     private BigDecimal balance;
+
+    // Sum of the ACTIVE FundsHold rows on this account; available balance is balance minus this.
+    @Column(nullable = false, columnDefinition = "numeric(38,2) default 0")
+    private BigDecimal reservedBalance = BigDecimal.ZERO;
     
     @Column(nullable = false, columnDefinition = "boolean default true")
     private boolean active = true;
 
+    // Bumped on every balance change; used by the optimistic transfer locking mode.
+    @Version
+    @Column(columnDefinition = "bigint default 0")
+    @com.fasterxml.jackson.annotation.JsonIgnore
+    private Long version;
+
+    // Credits land in AccountBalanceSlot rows instead of this row; for very hot accounts.
+    @Column(nullable = false, columnDefinition = "boolean default false")
+    private boolean striped = false;
+
+    // Credits still held in striped slots. Filled in for reads only, never persisted.
+    @Transient
+    private BigDecimal unfoldedCredits;
+
     private String businessName;
 
     private String businessAddress;
@@ -59,14 +79,33 @@ public class Account {
         this.accountType = accountType;
     }
 
+    // Serialized through getTotalBalance so reads include unfolded striped credits.
+    @com.fasterxml.jackson.annotation.JsonIgnore
     public BigDecimal getBalance() {
         return balance;
     }
 
+    @com.fasterxml.jackson.annotation.JsonProperty("balance")
+    public BigDecimal getTotalBalance() {
+        return unfoldedCredits == null ? balance : balance.add(unfoldedCredits);
+    }
+
     public void setBalance(BigDecimal balance) {
         this.balance = balance;
     }
 
+    public BigDecimal getReservedBalance() {
+        return reservedBalance;
+    }
+
+    public void setReservedBalance(BigDecimal reservedBalance) {
+        this.reservedBalance = reservedBalance;
+    }
+
+    public BigDecimal getAvailableBalance() {
+        return getTotalBalance().subtract(reservedBalance);
+    }
+
     public boolean isActive() {
         return active;
     }
@@ -75,6 +114,26 @@ public class Account {
         this.active = active;
     }
 
+    public boolean isStriped() {
+        return striped;
+    }
+
+    public void setStriped(boolean striped) {
+        this.striped = striped;
+    }
+
+    public void setUnfoldedCredits(BigDecimal unfoldedCredits) {
+        this.unfoldedCredits = unfoldedCredits;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public User getUser() {
         return user;
     }
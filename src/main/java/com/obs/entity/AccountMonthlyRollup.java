@@ -0,0 +1,108 @@
+package com.obs.entity;
+
+import jakarta.persistence.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * Totals of an account's successful transactions of one type in one month. Striped accounts spread
+ * their credits over several slots, as their balances do, so a month and type can span several rows;
+ * other accounts only use slot 0. Rows are written through {@code AccountMonthlyRollupRepository}.
+ */
+@Entity
+@Table(name = "account_monthly_rollups",
+        uniqueConstraints = @UniqueConstraint(name = "uk_account_monthly_rollup", columnNames = { "account_id", "month", "type", "slot" }))
+public class AccountMonthlyRollup {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "account_id", nullable = false)
+    private Long accountId;
+
+    // First day of the month.
+    @Column(nullable = false)
+    private LocalDate month;
+
+    @Column(nullable = false)
+    private String type;
+
+    @Column(nullable = false)
+    private int slot;
+
+    @Column(name = "transaction_count", nullable = false)
+    private long transactionCount;
+
+    // Sum of the positive amounts.
+    @Column(nullable = false)
+    private BigDecimal inflow;
+
+    // Sum of the negative amounts, as a positive number.
+    @Column(nullable = false)
+    private BigDecimal outflow;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(Long accountId) {
+        this.accountId = accountId;
+    }
+
+    public LocalDate getMonth() {
+        return month;
+    }
+
+    public void setMonth(LocalDate month) {
+        this.month = month;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public void setSlot(int slot) {
+        this.slot = slot;
+    }
+
+    public long getTransactionCount() {
+        return transactionCount;
+    }
+
+    public void setTransactionCount(long transactionCount) {
+        this.transactionCount = transactionCount;
+    }
+
+    public BigDecimal getInflow() {
+        return inflow;
+    }
+
+    public void setInflow(BigDecimal inflow) {
+        this.inflow = inflow;
+    }
+
+    public BigDecimal getOutflow() {
+        return outflow;
+    }
+
+    public void setOutflow(BigDecimal outflow) {
+        this.outflow = outflow;
+    }
+}
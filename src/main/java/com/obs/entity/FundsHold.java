@@ -0,0 +1,100 @@
+package com.obs.entity;
+
+import jakarta.persistence.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Funds set aside on an account for a transfer awaiting banker approval. While the hold is
+ * ACTIVE its amount is part of {@link Account#getReservedBalance()}, so it cannot be spent, but
+ * the account balance itself is untouched until the hold is settled.
+ */
+@Entity
+@Table(name = "funds_holds")
+public class FundsHold {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne
+    @JoinColumn(name = "account_id", nullable = false)
+    private Account account;
+
+    // The PENDING transaction this hold covers. No foreign key: the transaction table is partitioned
+    // by timestamp, so its id alone is not a key that can be referenced. The hold is written in the
+    // same transaction as its PENDING row, and the archiver keeps every month that still has a
+    // pending transfer, so an ACTIVE hold's row is always there. Closed holds are not read back.
+    @OneToOne
+    @JoinColumn(name = "transaction_id", nullable = false, unique = true,
+            foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
+    private Transaction transaction;
+
+    @Column(nullable = false)
+    private BigDecimal amount;
+
+    // ACTIVE, SETTLED, RELEASED
+    @Column(nullable = false)
+    private String status;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    private LocalDateTime closedAt;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Account getAccount() {
+        return account;
+    }
+
+    public void setAccount(Account account) {
+        this.account = account;
+    }
+
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    public void setTransaction(Transaction transaction) {
+        this.transaction = transaction;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public void setAmount(BigDecimal amount) {
+        this.amount = amount;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public LocalDateTime getClosedAt() {
+        return closedAt;
+    }
+
+    public void setClosedAt(LocalDateTime closedAt) {
+        this.closedAt = closedAt;
+    }
+}
@@ -0,0 +1,83 @@
+package com.obs.entity;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Outcome of a money-moving request submitted with an {@code Idempotency-Key}. The row is
+ * claimed as IN_PROGRESS before the operation runs and completed with the response afterwards,
+ * so a retry after a crash can never execute the operation a second time.
+ */
+@Entity
+@Table(name = "idempotency_records", indexes = @Index(name = "idx_idempotency_created_at", columnList = "createdAt"))
+public class IdempotencyRecord {
+    // username:endpoint:key
+    @Id
+    @Column(length = 512)
+    private String id;
+
+    // IN_PROGRESS, COMPLETED, FAILED (the outcome of the operation is unknown)
+    @Column(nullable = false)
+    private String status;
+
+    // SHA-256 of the request's parameters, so a key cannot be reused for a different request
+    @Column(length = 64)
+    private String requestHash;
+
+    private Integer responseStatus;
+
+    @Column(columnDefinition = "text")
+    private String responseMessage;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getRequestHash() {
+        return requestHash;
+    }
+
+    public void setRequestHash(String requestHash) {
+        this.requestHash = requestHash;
+    }
+
+    public Integer getResponseStatus() {
+        return responseStatus;
+    }
+
+    public void setResponseStatus(Integer responseStatus) {
+        this.responseStatus = responseStatus;
+    }
+
+    public String getResponseMessage() {
+        return responseMessage;
+    }
+
+    public void setResponseMessage(String responseMessage) {
+        this.responseMessage = responseMessage;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+}
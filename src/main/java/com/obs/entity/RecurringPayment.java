@@ -7,7 +7,7 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "recurring_payments")
+@Table(name = "recurring_payments", indexes = @Index(name = "idx_recurring_payments_status_id", columnList = "status, id"))
 public class RecurringPayment {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -33,6 +33,17 @@ public class RecurringPayment {
 
     private LocalDateTime createdAt;
 
+    // Outcome of the last time the payment was due: SUCCESS or FAILED, with the reason.
+    private LocalDateTime lastRunAt;
+    private String lastRunStatus;
+    private String lastRunError;
+
+    // Node that has leased the payment to pay it, and until when (database clock); cleared once it is tried.
+    @com.fasterxml.jackson.annotation.JsonIgnore
+    private String claimedBy;
+    @com.fasterxml.jackson.annotation.JsonIgnore
+    private LocalDateTime claimedUntil;
+
     public RecurringPayment() {
     }
 
@@ -115,4 +126,44 @@ public class RecurringPayment {
     public void setCreatedAt(LocalDateTime createdAt) {
         this.createdAt = createdAt;
     }
+
+    public LocalDateTime getLastRunAt() {
+        return lastRunAt;
+    }
+
+    public void setLastRunAt(LocalDateTime lastRunAt) {
+        this.lastRunAt = lastRunAt;
+    }
+
+    public String getLastRunStatus() {
+        return lastRunStatus;
+    }
+
+    public void setLastRunStatus(String lastRunStatus) {
+        this.lastRunStatus = lastRunStatus;
+    }
+
+    public String getLastRunError() {
+        return lastRunError;
+    }
+
+    public void setLastRunError(String lastRunError) {
+        this.lastRunError = lastRunError;
+    }
+
+    public String getClaimedBy() {
+        return claimedBy;
+    }
+
+    public void setClaimedBy(String claimedBy) {
+        this.claimedBy = claimedBy;
+    }
+
+    public LocalDateTime getClaimedUntil() {
+        return claimedUntil;
+    }
+
+    public void setClaimedUntil(LocalDateTime claimedUntil) {
+        this.claimedUntil = claimedUntil;
+    }
 }
@@ -4,15 +4,25 @@ import jakarta.persistence.*;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
+// The table is partitioned by month and created, with its indexes, by db/migration rather than by Hibernate.
 @Entity
 public class Transaction {
+    // Its primary key is (id, timestamp), so id is unique only because every insert, here and in
+    // TransactionBatchWriter, takes it from transaction_id_seq. The sequence steps by 1.
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "transaction_id")
+    @SequenceGenerator(name = "transaction_id", sequenceName = "transaction_id_seq", allocationSize = 1)
     private Long id;
 
     public String getTransactionId() {
         if (id == null) return null;
-        return String.format("TXN%08d", id);
+        return formatTransactionId(id);
+    }
+
+    // Same output as String.format("TXN%08d", id) for non-negative ids, without the formatter.
+    public static String formatTransactionId(long id) {
+        String digits = Long.toString(id);
+        return digits.length() >= 8 ? "TXN" + digits : "TXN" + "00000000".substring(digits.length()) + digits;
     }
 
     private BigDecimal amount;
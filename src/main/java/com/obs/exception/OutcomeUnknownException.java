@@ -0,0 +1,21 @@
+package com.obs.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * The operation was handed off but not confirmed in time, so it may still complete. Callers must
+ * neither undo its side effects nor run it again.
+ */
+@ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
+public class OutcomeUnknownException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public OutcomeUnknownException(String message) {
+        super(message);
+    }
+
+    public OutcomeUnknownException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,93 @@
+package com.obs.fraud;
+
+/**
+ * Rolling statistics of one account's debits, held in primitives and fixed-size arrays so that a
+ * profile stays small and updating it allocates nothing. Recent beneficiaries are kept as the
+ * events' own account number strings and compared exactly. Owned by a single scorer thread.
+ */
+final class AccountRiskProfile {
+
+    static final int MIN_HISTORY = 5;
+
+    private static final int RECENT = 16;
+    private static final int BENEFICIARIES = 32;
+
+    // Past this many debits the mean and variance weigh new amounts as if the history were this long.
+    private static final int MAX_WEIGHT = 200;
+
+    private long debits;
+    private double mean;
+    private double m2;
+
+    private final long[] recentTimes = new long[RECENT];
+    private int recentNext;
+
+    private final String[] beneficiaries = new String[BENEFICIARIES];
+    private int beneficiaryCount;
+    private int beneficiaryNext;
+
+    long debits() {
+        return debits;
+    }
+
+    /**
+     * How many standard deviations {@code amount} lies above the account's usual debit. The
+     * deviation is floored at a tenth of the mean so that an account paying the same amount every
+     * time does not turn any other amount into an outlier.
+     */
+    double zScore(double amount) {
+        if (debits < MIN_HISTORY) {
+            return 0;
+        }
+        long weight = Math.min(debits, MAX_WEIGHT);
+        double deviation = Math.max(Math.sqrt(m2 / (weight - 1)), Math.max(mean * 0.1, 1.0));
+        return (amount - mean) / deviation;
+    }
+
+    boolean isNewBeneficiary(String accountNumber) {
+        if (accountNumber == null || debits < MIN_HISTORY) {
+            return false;
+        }
+        return !knows(accountNumber);
+    }
+
+    /** Debits in the last {@code windowMillis}, counting one made at {@code now}. */
+    int debitsWithin(long now, long windowMillis) {
+        int count = 1;
+        for (int i = 0; i < Math.min(debits, RECENT); i++) {
+            if (now - recentTimes[i] <= windowMillis) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    void record(double amount, String beneficiary, long epochMillis) {
+        long weight = Math.min(debits + 1, MAX_WEIGHT);
+        if (debits + 1 > MAX_WEIGHT) {
+            m2 *= (double) (weight - 1) / weight;
+        }
+        double delta = amount - mean;
+        mean += delta / weight;
+        m2 += delta * (amount - mean);
+        debits++;
+
+        recentTimes[recentNext] = epochMillis;
+        recentNext = (recentNext + 1) % RECENT;
+
+        if (beneficiary != null && !knows(beneficiary)) {
+            beneficiaries[beneficiaryNext] = beneficiary;
+            beneficiaryNext = (beneficiaryNext + 1) % BENEFICIARIES;
+            beneficiaryCount = Math.min(beneficiaryCount + 1, BENEFICIARIES);
+        }
+    }
+
+    private boolean knows(String beneficiary) {
+        for (int i = 0; i < beneficiaryCount; i++) {
+            if (beneficiaries[i].equals(beneficiary)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,232 @@
+package com.obs.fraud;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.obs.entity.Transaction;
+import com.obs.journal.Histogram;
+import com.obs.journal.TransactionsRecordedEvent;
+import com.obs.service.FraudAlertService;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Scores committed transactions for fraud risk off the request path. Committed rows are copied into
+ * compact events and offered to one of {@code obs.app.fraud.scorers} bounded queues, picked by
+ * account, so every account's {@link AccountRiskProfile} is owned by one scorer thread and needs no
+ * locking. Publishing never blocks: when a queue is full the event is dropped and counted.
+ * <p>
+ * Debits are scored on three features: a beneficiary the account has not paid recently, an amount
+ * far above the account's usual debit, and a burst of debits in a short window. Credits are only
+ * counted. A debit scoring at least {@code obs.app.fraud.alert-threshold} is raised as a fraud
+ * alert for bankers. Profiles live in memory and start empty after a restart.
+ */
+@Component
+public class FraudPipeline {
+
+    private record Event(long transactionId, long accountId, String accountNumber, boolean debit, BigDecimal amount,
+                         String targetAccountNumber, long epochMillis, long committedNanos) {
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(FraudPipeline.class);
+
+    private static final double NEW_BENEFICIARY_WEIGHT = 0.35;
+    private static final double BURST_WEIGHT = 0.35;
+    private static final double OUTLIER_Z = 3.0;
+    private static final double OUTLIER_WEIGHT_PER_Z = 0.1;
+
+    @Value("${obs.app.fraud.enabled:true}")
+    private boolean enabled;
+
+    @Value("${obs.app.fraud.scorers:2}")
+    private int scorerCount;
+
+    @Value("${obs.app.fraud.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${obs.app.fraud.max-profiles:100000}")
+    private int maxProfiles;
+
+    @Value("${obs.app.fraud.alert-threshold:0.7}")
+    private double alertThreshold;
+
+    @Value("${obs.app.fraud.burst-count:5}")
+    private int burstCount;
+
+    @Value("${obs.app.fraud.burst-window-ms:60000}")
+    private long burstWindowMs;
+
+    @Autowired
+    private FraudAlertService fraudAlertService;
+
+    private Scorer[] scorers = new Scorer[0];
+    private volatile boolean running;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong flagged = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final Histogram lagMicros = new Histogram();
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        scorers = new Scorer[scorerCount];
+        for (int i = 0; i < scorerCount; i++) {
+            scorers[i] = new Scorer(Math.max(1, queueCapacity / scorerCount), Math.max(1, maxProfiles / scorerCount));
+            Thread thread = new Thread(scorers[i], "fraud-scorer-" + i);
+            thread.setDaemon(true);
+            scorers[i].thread = thread;
+            thread.start();
+        }
+        logger.info("Fraud pipeline started with {} scorers (queue capacity {})", scorerCount, queueCapacity);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (Scorer scorer : scorers) {
+            try {
+                scorer.thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Runs on the committing thread, so it only copies the rows and offers them.
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onTransactionsRecorded(TransactionsRecordedEvent recorded) {
+        if (!running) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (Transaction transaction : recorded.transactions()) {
+            if (transaction.getId() == null || transaction.getAccount() == null) {
+                continue;
+            }
+            long accountId = transaction.getAccount().getId();
+            Event event = new Event(transaction.getId(), accountId, transaction.getAccount().getAccountNumber(),
+                    "DEBIT".equals(transaction.getType()), transaction.getAmount().abs(),
+                    transaction.getTargetAccountNumber(), Timestamp.valueOf(transaction.getTimestamp()).getTime(), now);
+            published.incrementAndGet();
+            if (!scorers[Math.floorMod(Long.hashCode(accountId), scorers.length)].queue.offer(event)) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("published", published.get());
+        stats.put("dropped", dropped.get());
+        stats.put("processed", processed.get());
+        stats.put("flagged", flagged.get());
+        stats.put("failures", failures.get());
+        List<Integer> backlog = new ArrayList<>();
+        List<Integer> profiles = new ArrayList<>();
+        for (Scorer scorer : scorers) {
+            backlog.add(scorer.queue.size());
+            profiles.add(scorer.profileCount);
+        }
+        stats.put("backlog", backlog);
+        stats.put("profiles", profiles);
+        stats.put("lagMicros", lagMicros.snapshot());
+        return stats;
+    }
+
+    private final class Scorer implements Runnable {
+
+        private final ArrayBlockingQueue<Event> queue;
+        private final Map<Long, AccountRiskProfile> profiles;
+        private volatile int profileCount;
+        private Thread thread;
+
+        private Scorer(int capacity, int maxProfiles) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            // Least recently scored accounts are forgotten first.
+            this.profiles = new LinkedHashMap<>(1024, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, AccountRiskProfile> eldest) {
+                    return size() > maxProfiles;
+                }
+            };
+        }
+
+        @Override
+        public void run() {
+            while (running || !queue.isEmpty()) {
+                Event event;
+                try {
+                    event = queue.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (event == null) {
+                    continue;
+                }
+                try {
+                    if (event.debit()) {
+                        score(event);
+                    }
+                } catch (RuntimeException e) {
+                    failures.incrementAndGet();
+                    logger.warn("Could not score transaction {}: {}", event.transactionId(), e.getMessage());
+                }
+                processed.incrementAndGet();
+                lagMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - event.committedNanos()));
+            }
+        }
+
+        private void score(Event event) {
+            AccountRiskProfile profile = profiles.computeIfAbsent(event.accountId(), id -> new AccountRiskProfile());
+            profileCount = profiles.size();
+            double amount = event.amount().doubleValue();
+
+            double score = 0;
+            List<String> reasons = new ArrayList<>(3);
+            if (profile.isNewBeneficiary(event.targetAccountNumber())) {
+                score += NEW_BENEFICIARY_WEIGHT;
+                reasons.add("NEW_BENEFICIARY");
+            }
+            double z = profile.zScore(amount);
+            if (z >= OUTLIER_Z) {
+                score += z * OUTLIER_WEIGHT_PER_Z;
+                reasons.add("AMOUNT_OUTLIER");
+            }
+            if (profile.debits() >= AccountRiskProfile.MIN_HISTORY
+                    && profile.debitsWithin(event.epochMillis(), burstWindowMs) >= burstCount) {
+                score += BURST_WEIGHT;
+                reasons.add("BURST");
+            }
+            profile.record(amount, event.targetAccountNumber(), event.epochMillis());
+
+            if (score >= alertThreshold) {
+                flagged.incrementAndGet();
+                fraudAlertService.raise(event.transactionId(), event.accountId(), event.accountNumber(),
+                        event.targetAccountNumber(), event.amount(), Math.min(score, 1.0), reasons);
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.obs.journal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram with power-of-two buckets. Percentiles are reported as the upper bound of
+ * the bucket they fall in, which is precise enough for spotting batching and latency regressions.
+ */
+public class Histogram {
+
+    // Bucket b holds values in [2^(b-1), 2^b - 1]; bucket 0 holds zero.
+    private static final int BUCKETS = 65;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(64 - Long.numberOfLeadingZeros(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    public Map<String, Object> snapshot() {
+        long total = count.get();
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("count", total);
+        snapshot.put("mean", total == 0 ? 0.0 : (double) sum.get() / total);
+        snapshot.put("p50", percentile(total, 0.50));
+        snapshot.put("p95", percentile(total, 0.95));
+        snapshot.put("p99", percentile(total, 0.99));
+        snapshot.put("max", max.get());
+        return snapshot;
+    }
+
+    private long percentile(long total, double quantile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * quantile);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return bucket == 0 ? 0 : Math.min(bucket == 64 ? Long.MAX_VALUE : (1L << bucket) - 1, max.get());
+            }
+        }
+        return max.get();
+    }
+}
@@ -0,0 +1,417 @@
+package com.obs.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.obs.entity.Transaction;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Append-only binary log of committed balance changes, kept next to the database for audit and
+ * recovery. Every change is one fixed-width record in a memory-mapped segment file:
+ * <pre>
+ * account id (8) | amount in minor units (8) | epoch millis (8) | transaction id (8) | type (4) | CRC32C (4)
+ * </pre>
+ * Segments are rotated once full. Changes made through JPA are staged per thread and appended after
+ * their transaction has committed and its transaction rows have ids; the ledger engine appends after
+ * each batch it flushes. A new log, and a run whose startup replay no longer matches the account
+ * table, starts with a {@code CHECKPOINT} record followed by an {@code OPENING} record per non-empty
+ * account, so replaying the log from its last checkpoint yields the current balances even when other
+ * nodes, or the application with the log disabled, changed balances while this log was not being
+ * written. The checkpoint is taken before the application serves requests, so no change can be both
+ * in its snapshot and appended after it. Within a run the log only holds this node's changes, so it
+ * reconciles exactly only when this node is the sole writer. Appending a record does not allocate.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+public class LedgerLog {
+
+    public static final int RECORD_SIZE = 40;
+
+    public static final int POSTING = 1;
+    public static final int OPENING = 2;
+    public static final int CHECKPOINT = 3;
+
+    private static final int CRC_OFFSET = RECORD_SIZE - 4;
+    private static final int TIMESTAMP_OFFSET = 16;
+
+    private static final String SELECT_BALANCES =
+            "select a.id, a.balance + coalesce((select sum(s.amount) from account_balance_slots s where s.account_id = a.id), 0) as balance " +
+            "from account a";
+
+    /**
+     * Receives the records of the log in order.
+     */
+    public interface RecordVisitor {
+        void visit(long accountId, long amountMinor, long timestamp, long transactionId, int type);
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(LedgerLog.class);
+
+    @Value("${obs.app.ledger-log.enabled:false}")
+    private boolean enabled;
+
+    @Value("${obs.app.ledger-log.directory:data/ledger-log}")
+    private String directory;
+
+    @Value("${obs.app.ledger-log.segment-size-mb:64}")
+    private int segmentSizeMb;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final ThreadLocal<PendingEntries> pending = ThreadLocal.withInitial(PendingEntries::new);
+
+    // Guarded by this.
+    private final byte[] scratch = new byte[RECORD_SIZE];
+    private final ByteBuffer scratchBuffer = ByteBuffer.wrap(scratch);
+    private final CRC32C crc = new CRC32C();
+    private MappedByteBuffer segment;
+    private Path segmentPath;
+    private int segmentNumber;
+    private long recordsAppended;
+    private boolean checkpointed;
+
+    private final Histogram appendNanos = new Histogram();
+
+    @PostConstruct
+    public void open() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Path dir = Paths.get(directory);
+            Files.createDirectories(dir);
+            List<Path> segments = segmentPaths();
+            if (segments.isEmpty()) {
+                openSegment(0);
+                checkpoint();
+            } else {
+                Path last = segments.get(segments.size() - 1);
+                openExistingSegment(last);
+            }
+            logger.info("Ledger log open at {} (segment {}, record {})", segmentPath.toAbsolutePath(), segmentNumber,
+                    segment.position() / RECORD_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open ledger log in " + directory, e);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (segment != null) {
+            segment.force();
+            segment = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public static long toMinorUnits(BigDecimal amount) {
+        int scale = amount.scale();
+        if (scale >= 0 && scale <= 2 && amount.precision() - scale <= 13) {
+            // doubleValue() of a compact BigDecimal is one exactly rounded division; below 10^15 minor units
+            // its error stays far under half a unit, so rounding recovers the exact value without allocating.
+            return Math.round(amount.doubleValue() * 100);
+        }
+        return amount.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    /**
+     * Stages a balance change made in the current transaction. It is discarded if the transaction
+     * rolls back and appended by {@link #appendCommitted()} otherwise. Outside a transaction the
+     * change is appended immediately.
+     */
+    public void stage(long accountId, BigDecimal amount, Transaction record) {
+        if (!enabled) {
+            return;
+        }
+        long amountMinor = toMinorUnits(amount);
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            append(accountId, amountMinor, System.currentTimeMillis(), idOf(record), POSTING);
+            return;
+        }
+        PendingEntries entries = pending.get();
+        if (!entries.registered) {
+            entries.registered = true;
+            TransactionSynchronizationManager.registerSynchronization(entries);
+        }
+        entries.add(accountId, amountMinor, record);
+    }
+
+    /**
+     * Appends the changes of this thread's committed transactions. Called at the outermost
+     * transaction boundary once the transaction rows have been persisted.
+     */
+    public void appendCommitted() {
+        if (!enabled) {
+            return;
+        }
+        PendingEntries entries = pending.get();
+        if (entries.committed == 0) {
+            return;
+        }
+        append(entries, entries.committed);
+        entries.clear();
+    }
+
+    /**
+     * Appends all entries, for callers that have already committed them, such as the ledger shards.
+     */
+    public void append(Entries entries) {
+        append(entries, entries.size);
+    }
+
+    // The changes are already committed, so a failure here is reported instead of failing the caller.
+    private synchronized void append(Entries entries, int count) {
+        long timestamp = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < count; i++) {
+                append(entries.accountIds[i], entries.amounts[i], timestamp, idOf(entries.records[i]), POSTING);
+            }
+        } catch (RuntimeException e) {
+            logger.error("Ledger log failed to append {} committed balance changes", count, e);
+        }
+    }
+
+    public synchronized void append(long accountId, long amountMinor, long timestamp, long transactionId, int type) {
+        long start = System.nanoTime();
+        if (segment == null) {
+            throw new IllegalStateException("Ledger log is not open");
+        }
+        if (segment.remaining() < RECORD_SIZE) {
+            rotate();
+        }
+        scratchBuffer.clear();
+        scratchBuffer.putLong(accountId).putLong(amountMinor).putLong(timestamp).putLong(transactionId).putInt(type);
+        crc.reset();
+        crc.update(scratch, 0, CRC_OFFSET);
+        scratchBuffer.putInt((int) crc.getValue());
+        segment.put(scratch, 0, RECORD_SIZE);
+        recordsAppended++;
+        appendNanos.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Reads every segment from the start. A record failing its CRC ends the last segment (a torn
+     * append) and is counted as corrupt anywhere else. Returns the number of corrupt records.
+     */
+    public long read(RecordVisitor visitor) throws IOException {
+        long corrupt = 0;
+        List<Path> segments = segmentPaths();
+        for (int s = 0; s < segments.size(); s++) {
+            boolean last = s == segments.size() - 1;
+            try (FileChannel channel = FileChannel.open(segments.get(s), StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                CRC32C check = new CRC32C();
+                for (int offset = 0; offset + RECORD_SIZE <= buffer.limit(); offset += RECORD_SIZE) {
+                    if (buffer.getLong(offset + TIMESTAMP_OFFSET) == 0) {
+                        break;
+                    }
+                    if (!isValid(buffer, offset, check)) {
+                        if (last) {
+                            break;
+                        }
+                        corrupt++;
+                        continue;
+                    }
+                    visitor.visit(buffer.getLong(offset), buffer.getLong(offset + 8), buffer.getLong(offset + TIMESTAMP_OFFSET),
+                            buffer.getLong(offset + 24), buffer.getInt(offset + 32));
+                }
+            }
+        }
+        return corrupt;
+    }
+
+    public List<Path> segmentPaths() throws IOException {
+        Path dir = Paths.get(directory);
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.getFileName().toString().matches("segment-\\d{8}\\.log")).sorted().toList();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${obs.app.ledger-log.force-interval-ms:1000}")
+    public void force() {
+        MappedByteBuffer current;
+        synchronized (this) {
+            current = segment;
+        }
+        if (current != null) {
+            current.force();
+        }
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("segment", segmentPath != null ? segmentPath.getFileName().toString() : null);
+        stats.put("recordsAppended", recordsAppended);
+        stats.put("appendNanos", appendNanos.snapshot());
+        return stats;
+    }
+
+    /**
+     * Writes the current balance of every non-empty account after a {@code CHECKPOINT} record,
+     * which replay starts from. Done at most once per run, when the log is created or when the
+     * startup verification finds it out of step, before any request can change a balance.
+     */
+    public synchronized void checkpoint() {
+        if (!enabled || checkpointed) {
+            return;
+        }
+        long timestamp = System.currentTimeMillis();
+        append(0, 0, timestamp, 0, CHECKPOINT);
+        jdbcTemplate.query(SELECT_BALANCES, rs -> {
+            BigDecimal balance = rs.getBigDecimal("balance");
+            if (balance != null && balance.signum() != 0) {
+                append(rs.getLong("id"), toMinorUnits(balance), timestamp, 0, OPENING);
+            }
+        });
+        checkpointed = true;
+        segment.force();
+    }
+
+    private void rotate() {
+        segment.force();
+        try {
+            openSegment(segmentNumber + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not rotate ledger log segment", e);
+        }
+        logger.info("Ledger log rotated to {}", segmentPath.getFileName());
+    }
+
+    private void openSegment(int number) throws IOException {
+        long size = Math.max(1, (long) segmentSizeMb * 1024 * 1024 / RECORD_SIZE) * RECORD_SIZE;
+        Path path = Paths.get(directory, String.format("segment-%08d.log", number));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        segmentPath = path;
+        segmentNumber = number;
+    }
+
+    private void openExistingSegment(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size() / RECORD_SIZE * RECORD_SIZE);
+        }
+        segmentPath = path;
+        String name = path.getFileName().toString();
+        segmentNumber = Integer.parseInt(name.substring("segment-".length(), name.length() - ".log".length()));
+
+        CRC32C check = new CRC32C();
+        int offset = 0;
+        while (offset + RECORD_SIZE <= segment.limit() && segment.getLong(offset + TIMESTAMP_OFFSET) != 0) {
+            if (!isValid(segment, offset, check)) {
+                logger.warn("Ledger log {} ends with a torn record at offset {}, overwriting it", name, offset);
+                segment.put(offset, new byte[RECORD_SIZE]);
+                break;
+            }
+            offset += RECORD_SIZE;
+        }
+        segment.position(offset);
+    }
+
+    private static boolean isValid(ByteBuffer buffer, int offset, CRC32C check) {
+        check.reset();
+        check.update(buffer.slice(offset, CRC_OFFSET));
+        return (int) check.getValue() == buffer.getInt(offset + CRC_OFFSET);
+    }
+
+    private static long idOf(Transaction record) {
+        return record != null && record.getId() != null ? record.getId() : 0;
+    }
+
+    /**
+     * Growable batch of staged changes kept in primitive arrays, so that staging reuses memory.
+     */
+    public static class Entries {
+        private long[] accountIds = new long[16];
+        private long[] amounts = new long[16];
+        private Transaction[] records = new Transaction[16];
+        private int size;
+
+        public void add(long accountId, long amountMinor, Transaction record) {
+            if (size == accountIds.length) {
+                accountIds = Arrays.copyOf(accountIds, size * 2);
+                amounts = Arrays.copyOf(amounts, size * 2);
+                records = Arrays.copyOf(records, size * 2);
+            }
+            accountIds[size] = accountId;
+            amounts[size] = amountMinor;
+            records[size] = record;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void clear() {
+            truncate(0);
+        }
+
+        void truncate(int length) {
+            Arrays.fill(records, length, size, null);
+            size = length;
+        }
+    }
+
+    // Doubles as the transaction synchronization, so staging does not allocate one per transaction.
+    private static class PendingEntries extends Entries implements TransactionSynchronization {
+        private int committed;
+        private boolean registered;
+
+        @Override
+        public void afterCommit() {
+            committed = size();
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status != STATUS_COMMITTED) {
+                truncate(committed);
+            }
+            registered = false;
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            committed = 0;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.obs.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Rebuilds account balances from the {@link LedgerLog}, starting at its last checkpoint, and
+ * compares them with the {@code account} table (including unfolded striped credits). Runs once at
+ * startup when enabled, once every bean exists but before the web server and the scheduled tasks
+ * start, so no balance changes while the log is read and a new checkpoint is taken. A new checkpoint
+ * is only written when the log no longer matches the table (or was not verified), so replay keeps
+ * checking every change since the last real divergence rather than only the last run's. While
+ * requests are being served the result may include changes that are committed but not yet appended.
+ */
+@Component
+public class LedgerLogReplayer implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(LedgerLogReplayer.class);
+
+    private static final int MAX_REPORTED_MISMATCHES = 100;
+
+    private static final String SELECT_BALANCES =
+            "select a.id, a.account_number, " +
+            "a.balance + coalesce((select sum(s.amount) from account_balance_slots s where s.account_id = a.id), 0) as balance " +
+            "from account a order by a.id";
+
+    @Value("${obs.app.ledger-log.verify-on-startup:true}")
+    private boolean verifyOnStartup;
+
+    @Autowired
+    private LedgerLog ledgerLog;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!ledgerLog.isEnabled()) {
+            return;
+        }
+        if (verifyOnStartup && report(verify())) {
+            return;
+        }
+        // Rebase so that changes made while this log was not written are not reported again next run.
+        ledgerLog.checkpoint();
+    }
+
+    private boolean report(Map<String, Object> report) {
+        if ((int) report.get("mismatchCount") == 0 && (long) report.get("corruptRecords") == 0
+                && (int) report.get("unknownAccounts") == 0) {
+            logger.info("Ledger log replay matches the account table ({} records, {} accounts)",
+                    report.get("records"), report.get("accountsChecked"));
+            return true;
+        }
+        logger.warn("Ledger log replay does not match the account table: {}", report);
+        return false;
+    }
+
+    public Map<String, Object> verify() {
+        if (!ledgerLog.isEnabled()) {
+            throw new IllegalArgumentException("The ledger log is not enabled");
+        }
+        Map<Long, Long> replayed = new HashMap<>();
+        long[] records = new long[1];
+        long corrupt;
+        try {
+            corrupt = ledgerLog.read((accountId, amountMinor, timestamp, transactionId, type) -> {
+                if (type == LedgerLog.CHECKPOINT) {
+                    replayed.clear();
+                    records[0] = 0;
+                    return;
+                }
+                if (type == LedgerLog.OPENING) {
+                    replayed.put(accountId, amountMinor);
+                } else {
+                    replayed.merge(accountId, amountMinor, Long::sum);
+                }
+                records[0]++;
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the ledger log", e);
+        }
+
+        List<Map<String, Object>> mismatches = new ArrayList<>();
+        int[] mismatchCount = new int[1];
+        int[] accountsChecked = new int[1];
+        jdbcTemplate.query(SELECT_BALANCES, rs -> {
+            long id = rs.getLong("id");
+            BigDecimal balance = rs.getBigDecimal("balance");
+            long tableMinor = balance != null ? LedgerLog.toMinorUnits(balance) : 0;
+            Long logMinor = replayed.remove(id);
+            long expected = logMinor != null ? logMinor : 0;
+            accountsChecked[0]++;
+            if (expected != tableMinor) {
+                mismatchCount[0]++;
+                if (mismatches.size() < MAX_REPORTED_MISMATCHES) {
+                    Map<String, Object> mismatch = new LinkedHashMap<>();
+                    mismatch.put("accountNumber", rs.getString("account_number"));
+                    mismatch.put("logBalance", BigDecimal.valueOf(expected, 2));
+                    mismatch.put("tableBalance", balance);
+                    mismatches.add(mismatch);
+                }
+            }
+        });
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("records", records[0]);
+        report.put("corruptRecords", corrupt);
+        report.put("accountsChecked", accountsChecked[0]);
+        report.put("unknownAccounts", replayed.size());
+        report.put("mismatchCount", mismatchCount[0]);
+        report.put("mismatches", mismatches);
+        return report;
+    }
+}
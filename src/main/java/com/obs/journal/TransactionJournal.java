@@ -0,0 +1,255 @@
+package com.obs.journal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.obs.entity.Transaction;
+import com.obs.exception.OutcomeUnknownException;
+import com.obs.repository.TransactionBatchWriter;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Single entry point for writing new {@link Transaction} rows from the JPA balance paths.
+ * <p>
+ * The rows of a unit of work are always written as one multi-row insert inside the caller's
+ * transaction, so balance and history commit together. In {@code DIRECT} mode that commit waits
+ * for its own WAL flush. In {@code GROUP_COMMIT} mode the transaction commits asynchronously
+ * ({@code synchronous_commit = off}) and takes a ticket; a flusher thread then makes one durable
+ * commit, which flushes the WAL of every transaction that committed before it, and completes the
+ * tickets of all of them at once. Each request waits only for its own ticket, so it is never told
+ * about a change that a crash could still lose, and a crash loses balance and history together.
+ * <p>
+ * With the ledger engine enabled, balances and rows are already group-committed together by the
+ * ledger shards and this journal is not involved.
+ */
+@Component
+public class TransactionJournal {
+
+    public enum Mode {
+        DIRECT,
+        GROUP_COMMIT
+    }
+
+    private record Ticket(CompletableFuture<Void> persisted, long enqueuedAt) {
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(TransactionJournal.class);
+
+    @Value("${obs.app.journal.mode:DIRECT}")
+    private Mode mode;
+
+    @Value("${obs.app.journal.batch-size:500}")
+    private int batchSize;
+
+    @Value("${obs.app.journal.flush-interval-ms:2}")
+    private long flushIntervalMs;
+
+    @Value("${obs.app.journal.await-timeout-ms:5000}")
+    private long awaitTimeoutMs;
+
+    @Autowired
+    private TransactionBatchWriter transactionBatchWriter;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final ConcurrentLinkedQueue<Ticket> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedTickets = new AtomicInteger();
+    private final ThreadLocal<List<Ticket>> pendingTickets = ThreadLocal.withInitial(ArrayList::new);
+
+    private final Histogram insertSize = new Histogram();
+    private final Histogram insertLatencyMicros = new Histogram();
+    private final Histogram groupSize = new Histogram();
+    private final Histogram groupFlushLatencyMicros = new Histogram();
+    private final Histogram ticketWaitMicros = new Histogram();
+
+    private Thread flusher;
+    private volatile boolean running;
+
+    @PostConstruct
+    public void start() {
+        if (mode != Mode.GROUP_COMMIT) {
+            return;
+        }
+        running = true;
+        flusher = new Thread(this::run, "transaction-journal");
+        flusher.setDaemon(true);
+        flusher.start();
+        logger.info("Transaction journal started in group commit mode (batch size {}, flush interval {} ms)", batchSize, flushIntervalMs);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (flusher == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void record(Transaction... records) {
+        record(Arrays.asList(records));
+    }
+
+    /**
+     * Records new transaction rows in the current unit of work. Outside a transaction the rows
+     * are written, and committed, immediately.
+     */
+    public void record(List<Transaction> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        transactionBatchWriter.insertAll(records);
+        insertSize.record(records.size());
+        insertLatencyMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        if (mode == Mode.GROUP_COMMIT && TransactionSynchronizationManager.isActualTransactionActive()
+                && !TransactionSynchronizationManager.hasResource(this)) {
+            commitAsynchronously();
+        }
+    }
+
+    private void commitAsynchronously() {
+        jdbcTemplate.execute("set local synchronous_commit to off");
+        // Bound to the transaction, so a REQUIRES_NEW transaction on the same thread gets its own ticket.
+        TransactionSynchronizationManager.bindResource(this, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                Ticket ticket = new Ticket(new CompletableFuture<>(), System.nanoTime());
+                queue.add(ticket);
+                queuedTickets.incrementAndGet();
+                pendingTickets.get().add(ticket);
+                LockSupport.unpark(flusher);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(TransactionJournal.this);
+            }
+        });
+    }
+
+    /**
+     * Blocks until this thread's committed transactions are durable. Called at the outermost
+     * transaction boundary, after the connection has been released. The transactions have already
+     * committed, so if durability cannot be confirmed their outcome is unknown: a crash may still
+     * lose them, and they must not be run again.
+     */
+    public void awaitPersisted() {
+        List<Ticket> tickets = pendingTickets.get();
+        if (tickets.isEmpty()) {
+            return;
+        }
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(awaitTimeoutMs);
+            for (Ticket ticket : tickets) {
+                ticket.persisted().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                ticketWaitMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - ticket.enqueuedAt()));
+            }
+        } catch (ExecutionException e) {
+            throw new OutcomeUnknownException("The commit could not be confirmed as durable", e.getCause());
+        } catch (TimeoutException e) {
+            throw new OutcomeUnknownException("The commit was not confirmed as durable within " + awaitTimeoutMs + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OutcomeUnknownException("Interrupted while waiting for the transaction journal");
+        } finally {
+            tickets.clear();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", mode);
+        stats.put("queuedTickets", queuedTickets.get());
+        stats.put("insertSize", insertSize.snapshot());
+        stats.put("insertLatencyMicros", insertLatencyMicros.snapshot());
+        stats.put("groupSize", groupSize.snapshot());
+        stats.put("groupFlushLatencyMicros", groupFlushLatencyMicros.snapshot());
+        stats.put("ticketWaitMicros", ticketWaitMicros.snapshot());
+        return stats;
+    }
+
+    private void run() {
+        long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        List<Ticket> batch = new ArrayList<>();
+        long deadline = 0;
+        while (running || !queue.isEmpty() || !batch.isEmpty()) {
+            Ticket ticket = queue.poll();
+            if (ticket != null) {
+                if (batch.isEmpty()) {
+                    deadline = ticket.enqueuedAt() + flushIntervalNanos;
+                }
+                batch.add(ticket);
+                if (batch.size() < batchSize) {
+                    continue;
+                }
+            } else if (batch.isEmpty()) {
+                LockSupport.parkNanos(this, flushIntervalNanos);
+                continue;
+            } else {
+                long wait = deadline - System.nanoTime();
+                if (wait > 0 && running) {
+                    LockSupport.parkNanos(this, wait);
+                    continue;
+                }
+            }
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Makes one synchronous commit. Assigning a transaction id gives it a commit record, and
+     * flushing the WAL up to that record also flushes every asynchronous commit made before it,
+     * which includes the commits of all tickets in the batch.
+     */
+    private void flush(List<Ticket> batch) {
+        long start = System.nanoTime();
+        try {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.queryForObject("select txid_current()", Long.class));
+            batch.forEach(ticket -> ticket.persisted().complete(null));
+        } catch (RuntimeException e) {
+            logger.error("Transaction journal could not confirm {} asynchronous commits as durable", batch.size(), e);
+            batch.forEach(ticket -> ticket.persisted().completeExceptionally(e));
+        }
+        queuedTickets.addAndGet(-batch.size());
+        groupSize.record(batch.size());
+        groupFlushLatencyMicros.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+    }
+}
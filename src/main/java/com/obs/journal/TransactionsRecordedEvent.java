@@ -0,0 +1,12 @@
+package com.obs.journal;
+
+import java.util.List;
+
+import com.obs.entity.Transaction;
+
+/**
+ * Published for every batch of new transaction rows, with their ids assigned. Listeners that must
+ * only see committed rows use {@code @TransactionalEventListener}.
+ */
+public record TransactionsRecordedEvent(List<Transaction> transactions) {
+}
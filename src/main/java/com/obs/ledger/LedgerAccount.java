@@ -0,0 +1,45 @@
+package com.obs.ledger;
+
+import java.math.BigDecimal;
+
+import com.obs.entity.AccountType;
+
+/**
+ * In-memory state of an account owned by a single ledger shard. Only the shard's
+ * writer thread reads or mutates instances of this class.
+ */
+class LedgerAccount {
+    final long id;
+    final String accountNumber;
+    final AccountType accountType;
+    final boolean active;
+    final long ownerId;
+    final String ownerUsername;
+
+    BigDecimal balance;
+    BigDecimal reserved;
+    BigDecimal unflushedDelta = BigDecimal.ZERO;
+    BigDecimal unflushedReserved = BigDecimal.ZERO;
+    // Set when another shard has committed a change to this account's row.
+    boolean stale;
+
+    LedgerAccount(long id, String accountNumber, AccountType accountType, boolean active,
+                  BigDecimal balance, BigDecimal reserved, long ownerId, String ownerUsername) {
+        this.id = id;
+        this.accountNumber = accountNumber;
+        this.accountType = accountType;
+        this.active = active;
+        this.balance = balance != null ? balance : BigDecimal.ZERO;
+        this.reserved = reserved != null ? reserved : BigDecimal.ZERO;
+        this.ownerId = ownerId;
+        this.ownerUsername = ownerUsername;
+    }
+
+    BigDecimal available() {
+        return balance.subtract(reserved);
+    }
+
+    LedgerAccountSnapshot snapshot() {
+        return new LedgerAccountSnapshot(id, accountNumber, accountType, active, balance, reserved, ownerId, ownerUsername);
+    }
+}
@@ -0,0 +1,22 @@
+package com.obs.ledger;
+
+import java.math.BigDecimal;
+
+import com.obs.entity.AccountType;
+
+/**
+ * Immutable copy of a ledger account handed out to request threads.
+ */
+public record LedgerAccountSnapshot(long id,
+                                    String accountNumber,
+                                    AccountType accountType,
+                                    boolean active,
+                                    BigDecimal balance,
+                                    BigDecimal reservedBalance,
+                                    long ownerId,
+                                    String ownerUsername) {
+
+    public BigDecimal availableBalance() {
+        return balance.subtract(reservedBalance);
+    }
+}
@@ -0,0 +1,237 @@
+package com.obs.ledger;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.obs.exception.OutcomeUnknownException;
+import com.obs.journal.LedgerLog;
+import com.obs.repository.TransactionBatchWriter;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Optional in-process ledger that partitions accounts by account number into shards, each
+ * with a single writer thread. When enabled, balance changes for transfers, recurring
+ * transfers, bill payments and deposits are applied in memory by the owning shard and written
+ * to the database in batches instead of through per-request JPA updates.
+ * <p>
+ * The shards' caches are only authoritative on a single node. Balances changed by another
+ * node are not seen until the account is reloaded, but the guarded balance update means such a
+ * change can only make a posting fail with a conflict, never overdraw an account.
+ */
+@Component
+public class LedgerEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(LedgerEngine.class);
+
+    @Value("${obs.app.ledger.enabled:false}")
+    private boolean enabled;
+
+    @Value("${obs.app.ledger.shards:4}")
+    private int shardCount;
+
+    @Value("${obs.app.ledger.batch-size:256}")
+    private int batchSize;
+
+    @Value("${obs.app.ledger.flush-interval-ms:5}")
+    private long flushIntervalMs;
+
+    @Value("${obs.app.ledger.await-timeout-ms:5000}")
+    private long awaitTimeoutMs;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private TransactionBatchWriter transactionBatchWriter;
+
+    @Autowired
+    private LedgerLog ledgerLog;
+
+    private LedgerShard[] shards;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        shards = new LedgerShard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new LedgerShard(i, jdbcTemplate, transactionTemplate, transactionBatchWriter, ledgerLog, batchSize, flushIntervalMs);
+            shards[i].start();
+        }
+        logger.info("Ledger engine started with {} shards (batch size {}, flush interval {} ms)", shardCount, batchSize, flushIntervalMs);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (shards == null) {
+            return;
+        }
+        for (LedgerShard shard : shards) {
+            shard.stop();
+        }
+        logger.info("Ledger engine stopped after {} postings in {} batches", getPostingsApplied(), getBatchesFlushed());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Optional<LedgerAccountSnapshot> find(String accountNumber) {
+        CompletableFuture<LedgerAccountSnapshot> future = new CompletableFuture<>();
+        shardFor(accountNumber).submit(shard -> {
+            LedgerAccount account = shard.account(accountNumber);
+            future.complete(account != null ? account.snapshot() : null);
+        }, future);
+        return Optional.ofNullable(await(future));
+    }
+
+    /**
+     * Looks up several accounts with one command per shard rather than one per account. Accounts
+     * that do not exist are left out of the result.
+     */
+    public Map<String, LedgerAccountSnapshot> findAll(Collection<String> accountNumbers) {
+        Map<LedgerShard, List<String>> byShard = new HashMap<>();
+        for (String accountNumber : new LinkedHashSet<>(accountNumbers)) {
+            byShard.computeIfAbsent(shardFor(accountNumber), shard -> new ArrayList<>()).add(accountNumber);
+        }
+        List<CompletableFuture<Map<String, LedgerAccountSnapshot>>> futures = new ArrayList<>(byShard.size());
+        byShard.forEach((owner, numbers) -> {
+            CompletableFuture<Map<String, LedgerAccountSnapshot>> future = new CompletableFuture<>();
+            owner.submit(shard -> {
+                Map<String, LedgerAccountSnapshot> snapshots = new HashMap<>();
+                shard.accounts(numbers).forEach((accountNumber, account) -> snapshots.put(accountNumber, account.snapshot()));
+                future.complete(snapshots);
+            }, future);
+            futures.add(future);
+        });
+        Map<String, LedgerAccountSnapshot> found = new HashMap<>();
+        for (CompletableFuture<Map<String, LedgerAccountSnapshot>> future : futures) {
+            found.putAll(await(future));
+        }
+        return found;
+    }
+
+    /**
+     * Applies the posting and blocks until every leg has been persisted. Returns the resulting
+     * balance of the account in the first leg.
+     */
+    public BigDecimal post(LedgerPosting posting) {
+        return awaitPosting(submit(posting));
+    }
+
+    /**
+     * Hands the posting to its shard without waiting, so that many postings can share a batch.
+     * Pass the returned future to {@link #awaitPosting} for the outcome.
+     */
+    public CompletableFuture<BigDecimal> submit(LedgerPosting posting) {
+        if (posting.getLegs().isEmpty()) {
+            throw new IllegalArgumentException("Posting has no legs");
+        }
+        CompletableFuture<BigDecimal> result = new CompletableFuture<>();
+        String accountNumber = posting.getLegs().get(0).accountNumber();
+        shardFor(accountNumber).submit(shard -> shard.applyPosting(posting, this::shardFor, result), result);
+        return result;
+    }
+
+    /**
+     * Drops the cached state of an account after it was changed outside the engine, for example
+     * when a banker freezes it. Pending changes are flushed first.
+     */
+    public void evict(String accountNumber) {
+        if (!enabled) {
+            return;
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        shardFor(accountNumber).submit(shard -> {
+            shard.evict(accountNumber);
+            future.complete(null);
+        }, future);
+        await(future);
+    }
+
+    public long getPostingsApplied() {
+        long total = 0;
+        if (shards != null) {
+            for (LedgerShard shard : shards) {
+                total += shard.getPostingsApplied();
+            }
+        }
+        return total;
+    }
+
+    public long getBatchesFlushed() {
+        long total = 0;
+        if (shards != null) {
+            for (LedgerShard shard : shards) {
+                total += shard.getBatchesFlushed();
+            }
+        }
+        return total;
+    }
+
+    private LedgerShard shardFor(String accountNumber) {
+        if (shards == null) {
+            throw new IllegalStateException("Ledger engine is not enabled");
+        }
+        return shards[Math.floorMod(accountNumber.hashCode(), shards.length)];
+    }
+
+    /**
+     * Waits for a submitted posting. A posting that is not confirmed in time is still queued or
+     * being written and may yet commit, so a timeout or interrupt throws
+     * {@link OutcomeUnknownException}; the future still completes with the real outcome.
+     */
+    public <T> T awaitPosting(CompletableFuture<T> future) {
+        return await(future, true);
+    }
+
+    private <T> T await(CompletableFuture<T> future) {
+        return await(future, false);
+    }
+
+    private <T> T await(CompletableFuture<T> future, boolean posting) {
+        try {
+            return future.get(awaitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Ledger operation failed", e.getCause());
+        } catch (TimeoutException e) {
+            if (posting) {
+                throw new OutcomeUnknownException("Ledger posting was not confirmed within " + awaitTimeoutMs + " ms and may still be applied");
+            }
+            throw new IllegalStateException("Ledger operation was not confirmed within " + awaitTimeoutMs + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (posting) {
+                throw new OutcomeUnknownException("Interrupted while waiting for the ledger; the posting may still be applied");
+            }
+            throw new IllegalStateException("Interrupted while waiting for the ledger");
+        }
+    }
+}
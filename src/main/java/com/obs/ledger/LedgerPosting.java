@@ -0,0 +1,116 @@
+package com.obs.ledger;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.obs.entity.Transaction;
+
+/**
+ * A set of balance changes the ledger engine applies together. The first leg may be a debit or
+ * a hold, which is validated against the account's available balance on its shard. That shard
+ * checks that every other leg's account exists before applying anything, and commits all legs,
+ * including those on accounts of other shards, in one database transaction.
+ */
+public class LedgerPosting {
+
+    /**
+     * {@code amount} changes the account balance and {@code reserved} its reserved balance; the
+     * available balance changes by their difference. The shard rejects the posting if a leg with
+     * {@code requireActive} is on a frozen account.
+     */
+    public record Leg(String accountNumber, BigDecimal amount, BigDecimal reserved, List<Transaction> records,
+                      boolean requireActive) {
+
+        BigDecimal availableDelta() {
+            return amount.subtract(reserved);
+        }
+    }
+
+    private final List<Leg> legs = new ArrayList<>();
+    private final List<Runnable> writes = new ArrayList<>();
+
+    public LedgerPosting debit(String accountNumber, BigDecimal amount, Transaction record) {
+        return debit(accountNumber, amount, record != null ? List.of(record) : List.of());
+    }
+
+    /**
+     * Debits {@code amount} once while recording several transaction rows, as batch transfers do.
+     */
+    public LedgerPosting debit(String accountNumber, BigDecimal amount, List<Transaction> records) {
+        requireFirstLeg();
+        legs.add(new Leg(accountNumber, amount.negate(), BigDecimal.ZERO, records, true));
+        return this;
+    }
+
+    /**
+     * Reserves {@code amount} on the account without changing its balance, recording the PENDING row.
+     */
+    public LedgerPosting hold(String accountNumber, BigDecimal amount, Transaction record) {
+        requireFirstLeg();
+        legs.add(new Leg(accountNumber, BigDecimal.ZERO, amount, List.of(record), true));
+        return this;
+    }
+
+    /**
+     * Takes previously held funds out of the account's balance and reservation.
+     */
+    public LedgerPosting settleHold(String accountNumber, BigDecimal amount) {
+        legs.add(new Leg(accountNumber, amount.negate(), amount.negate(), List.of(), false));
+        return this;
+    }
+
+    public LedgerPosting releaseHold(String accountNumber, BigDecimal amount) {
+        legs.add(new Leg(accountNumber, BigDecimal.ZERO, amount.negate(), List.of(), false));
+        return this;
+    }
+
+    public LedgerPosting credit(String accountNumber, BigDecimal amount, Transaction record) {
+        return credit(accountNumber, amount, record != null ? List.of(record) : List.of());
+    }
+
+    public LedgerPosting credit(String accountNumber, BigDecimal amount, List<Transaction> records) {
+        legs.add(new Leg(accountNumber, amount, BigDecimal.ZERO, records, false));
+        return this;
+    }
+
+    /**
+     * Credits an account that must still be active when the shard applies the posting, checked
+     * against the shard's own view of the account rather than a copy the caller read earlier.
+     */
+    public LedgerPosting creditActive(String accountNumber, BigDecimal amount, Transaction record) {
+        return creditActive(accountNumber, amount, record != null ? List.of(record) : List.of());
+    }
+
+    public LedgerPosting creditActive(String accountNumber, BigDecimal amount, List<Transaction> records) {
+        legs.add(new Leg(accountNumber, amount, BigDecimal.ZERO, records, true));
+        return this;
+    }
+
+    /**
+     * Runs {@code write} in the database transaction that persists the posting, after its
+     * transaction rows have been inserted and given ids, so rows that belong with the balance
+     * change commit with it. It runs on the shard's writer thread and must not change account
+     * balances. If it throws, this posting fails with its exception and moves no money; the other
+     * postings of the batch are persisted without it.
+     */
+    public LedgerPosting alsoWrite(Runnable write) {
+        writes.add(write);
+        return this;
+    }
+
+    private void requireFirstLeg() {
+        if (!legs.isEmpty()) {
+            throw new IllegalStateException("Debit and hold legs must be the first leg of a posting");
+        }
+    }
+
+    public List<Leg> getLegs() {
+        return Collections.unmodifiableList(legs);
+    }
+
+    List<Runnable> getWrites() {
+        return writes;
+    }
+}
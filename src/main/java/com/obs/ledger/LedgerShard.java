@@ -0,0 +1,583 @@
+package com.obs.ledger;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.obs.entity.Account;
+import com.obs.entity.AccountType;
+import com.obs.entity.Transaction;
+import com.obs.exception.ConflictException;
+import com.obs.journal.LedgerLog;
+import com.obs.repository.TransactionBatchWriter;
+
+/**
+ * One partition of the ledger. All commands for the accounts it owns are applied by a single
+ * writer thread, so balances can be checked and changed without locks. Changes are persisted
+ * in batches, either when {@code batchSize} operations have accumulated or when the flush
+ * interval elapses, and callers are only released once their batch has committed.
+ * <p>
+ * A posting is applied and persisted entirely by the shard that owns its first leg: legs on
+ * accounts of other shards are written by this shard, as balance deltas in the same database
+ * transaction, and their owners are told afterwards to re-read those accounts. Every balance
+ * update that lowers an account's available balance is guarded in SQL, so a cached balance that
+ * another writer (another node, or the JPA path) has made stale cannot overdraw the account: the
+ * batch is rolled back, the postings that touch that account fail with a conflict, and the others
+ * are applied again against the reloaded balances and persisted without them.
+ * <p>
+ * A posting's own writes ({@link LedgerPosting#alsoWrite}) run in the batch's transaction too. When
+ * one of them fails, the batch is rolled back in the same way and that posting alone fails.
+ */
+class LedgerShard {
+
+    interface Command {
+        void apply(LedgerShard shard);
+    }
+
+    private record Task(Command command, CompletableFuture<?> future) {
+    }
+
+    // Queued by stop() as the last task; the writer flushes and exits when it takes it.
+    private static final Task STOP = new Task(shard -> { }, new CompletableFuture<Void>());
+
+    private static final Logger logger = LoggerFactory.getLogger(LedgerShard.class);
+
+    private static final String SELECT_ACCOUNT =
+            "select a.id, a.account_number, a.account_type, a.active, u.id as user_id, u.username, " +
+            "a.balance + coalesce((select sum(s.amount) from account_balance_slots s where s.account_id = a.id), 0) as balance, " +
+            "a.reserved_balance " +
+            "from account a join users u on u.id = a.user_id where a.account_number = ?";
+
+    private static final String SELECT_ACCOUNTS =
+            "select a.id, a.account_number, a.account_type, a.active, u.id as user_id, u.username, " +
+            "a.balance + coalesce((select sum(s.amount) from account_balance_slots s where s.account_id = a.id), 0) as balance, " +
+            "a.reserved_balance " +
+            "from account a join users u on u.id = a.user_id where a.account_number = any(?)";
+
+    private static final String SELECT_ACCOUNT_ID = "select id from account where account_number = ?";
+
+    private static final String SELECT_ACTIVE = "select active from account where id = ?";
+
+    // The last two conditions only matter when the update lowers the available balance.
+    private static final String UPDATE_BALANCE =
+            "update account set balance = balance + ?, reserved_balance = reserved_balance + ?, version = coalesce(version, 0) + 1 " +
+            "where id = ? and (? >= 0 or balance + ? - (reserved_balance + ?) " +
+            "+ coalesce((select sum(s.amount) from account_balance_slots s where s.account_id = account.id), 0) >= 0)";
+
+    private final int index;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionBatchWriter transactionBatchWriter;
+    private final LedgerLog ledgerLog;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+
+    private final BlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+    private final Map<String, LedgerAccount> accounts = new HashMap<>();
+    private final Map<String, LedgerAccount> dirty = new LinkedHashMap<>();
+    // Ids of other shards' accounts, which never change once an account exists.
+    private final Map<String, Long> directory = new HashMap<>();
+    // Changes to other shards' accounts made by postings in the current batch, by account id.
+    private final Map<Long, RemoteDelta> remote = new LinkedHashMap<>();
+    private final List<Transaction> records = new ArrayList<>();
+    private final List<Completion> completions = new ArrayList<>();
+    private final LedgerLog.Entries logEntries = new LedgerLog.Entries();
+
+    private final Thread writer;
+    // Guarded by queue, so that no task can be queued behind STOP.
+    private boolean running = true;
+
+    private long postingsApplied;
+    private long batchesFlushed;
+
+    LedgerShard(int index, JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                TransactionBatchWriter transactionBatchWriter, LedgerLog ledgerLog, int batchSize, long flushIntervalMs) {
+        this.index = index;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.transactionBatchWriter = transactionBatchWriter;
+        this.ledgerLog = ledgerLog;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.writer = new Thread(this::run, "ledger-shard-" + index);
+        this.writer.setDaemon(true);
+    }
+
+    void start() {
+        writer.start();
+    }
+
+    /**
+     * Lets the writer finish the tasks queued so far, including a flush that may be in progress,
+     * and rejects every task submitted from now on.
+     */
+    void stop() {
+        synchronized (queue) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            queue.add(STOP);
+        }
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            logger.warn("Ledger shard {} did not finish its queued tasks within 10 s", index);
+        }
+        failQueued();
+    }
+
+    void submit(Command command, CompletableFuture<?> future) {
+        synchronized (queue) {
+            if (running) {
+                queue.add(new Task(command, future));
+                return;
+            }
+        }
+        future.completeExceptionally(new IllegalStateException("Ledger shard " + index + " is shut down"));
+    }
+
+    // Tasks the writer will never run; they did nothing, so their callers are told so at once.
+    private void failQueued() {
+        List<Task> left = new ArrayList<>();
+        queue.drainTo(left);
+        for (Task task : left) {
+            if (task == STOP) {
+                // A writer still busy in a flush exits once it gets there.
+                queue.add(STOP);
+            } else {
+                task.future().completeExceptionally(new IllegalStateException("Ledger shard " + index + " is shut down"));
+            }
+        }
+    }
+
+    long getPostingsApplied() {
+        return postingsApplied;
+    }
+
+    long getBatchesFlushed() {
+        return batchesFlushed;
+    }
+
+    private void run() {
+        long lastFlush = System.nanoTime();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                Task task = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                while (task != null && task != STOP) {
+                    execute(task);
+                    task = completions.size() < batchSize ? queue.poll() : null;
+                }
+                stopping = task == STOP;
+            } catch (InterruptedException e) {
+                logger.warn("Ledger shard {} writer was interrupted; failing its queued tasks", index);
+                Thread.currentThread().interrupt();
+                synchronized (queue) {
+                    running = false;
+                }
+                stopping = true;
+            }
+            if (stopping || completions.size() >= batchSize || System.nanoTime() - lastFlush >= flushIntervalNanos) {
+                flush();
+                lastFlush = System.nanoTime();
+            }
+        }
+        failQueued();
+    }
+
+    private void execute(Task task) {
+        try {
+            task.command().apply(this);
+        } catch (RuntimeException e) {
+            task.future().completeExceptionally(e);
+        }
+    }
+
+    LedgerAccount account(String accountNumber) {
+        LedgerAccount account = accounts.get(accountNumber);
+        if (account != null && !account.stale) {
+            return account;
+        }
+        LedgerAccount loaded = load(accountNumber);
+        if (loaded == null) {
+            return null;
+        }
+        if (account != null) {
+            // Changed by another shard since it was cached; what this shard has not flushed yet is not in the row.
+            account.balance = loaded.balance.add(account.unflushedDelta);
+            account.reserved = loaded.reserved.add(account.unflushedReserved);
+            account.stale = false;
+            return account;
+        }
+        accounts.put(accountNumber, loaded);
+        return loaded;
+    }
+
+    /**
+     * Looks up several accounts, loading those that are not cached in one query. Accounts that
+     * do not exist are left out of the result.
+     */
+    Map<String, LedgerAccount> accounts(Collection<String> accountNumbers) {
+        Map<String, LedgerAccount> found = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String accountNumber : accountNumbers) {
+            LedgerAccount account = accounts.get(accountNumber);
+            if (account != null && !account.stale) {
+                found.put(accountNumber, account);
+            } else if (account != null) {
+                LedgerAccount reloaded = account(accountNumber);
+                if (reloaded != null) {
+                    found.put(accountNumber, reloaded);
+                }
+            } else {
+                missing.add(accountNumber);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (LedgerAccount account : jdbcTemplate.query(SELECT_ACCOUNTS, this::mapAccount, (Object) missing.toArray(String[]::new))) {
+                accounts.put(account.accountNumber, account);
+                found.put(account.accountNumber, account);
+            }
+        }
+        return found;
+    }
+
+    private LedgerAccount load(String accountNumber) {
+        List<LedgerAccount> loaded = jdbcTemplate.query(SELECT_ACCOUNT, this::mapAccount, accountNumber);
+        return loaded.isEmpty() ? null : loaded.get(0);
+    }
+
+    private LedgerAccount mapAccount(ResultSet rs, int rowNum) throws SQLException {
+        return new LedgerAccount(
+                rs.getLong("id"),
+                rs.getString("account_number"),
+                rs.getString("account_type") != null ? AccountType.valueOf(rs.getString("account_type")) : null,
+                rs.getBoolean("active"),
+                rs.getBigDecimal("balance"),
+                rs.getBigDecimal("reserved_balance"),
+                rs.getLong("user_id"),
+                rs.getString("username"));
+    }
+
+    private Long remoteId(String accountNumber) {
+        Long id = directory.get(accountNumber);
+        if (id == null) {
+            List<Long> ids = jdbcTemplate.queryForList(SELECT_ACCOUNT_ID, Long.class, accountNumber);
+            if (ids.isEmpty()) {
+                return null;
+            }
+            id = ids.get(0);
+            directory.put(accountNumber, id);
+        }
+        return id;
+    }
+
+    /**
+     * Applies every leg of the posting in memory, to be persisted in one database transaction by
+     * the next flush. Nothing is applied unless every account named by the posting exists and
+     * the first leg is covered by the available balance.
+     */
+    void applyPosting(LedgerPosting posting, Function<String, LedgerShard> router, CompletableFuture<BigDecimal> result) {
+        List<LedgerPosting.Leg> legs = posting.getLegs();
+        LedgerAccount[] local = new LedgerAccount[legs.size()];
+        Long[] remoteIds = new Long[legs.size()];
+        LedgerShard[] owners = new LedgerShard[legs.size()];
+        for (int i = 0; i < legs.size(); i++) {
+            String accountNumber = legs.get(i).accountNumber();
+            owners[i] = router.apply(accountNumber);
+            if (owners[i] == this) {
+                local[i] = account(accountNumber);
+            } else {
+                remoteIds[i] = remoteId(accountNumber);
+            }
+            if (local[i] == null && remoteIds[i] == null) {
+                throw new IllegalArgumentException(i == 0 ? "Account not found" : "Target account not found");
+            }
+        }
+
+        LedgerPosting.Leg first = legs.get(0);
+        LedgerAccount account = local[0];
+        if (first.availableDelta().signum() < 0) {
+            if (!account.active) {
+                throw new IllegalArgumentException("Source account is frozen/inactive");
+            }
+            if (account.available().add(first.availableDelta()).signum() < 0) {
+                throw new IllegalArgumentException("Insufficient balance");
+            }
+        } else if (first.requireActive() && !account.active) {
+            // A credit on its own, such as a deposit.
+            throw new IllegalArgumentException("Target account is frozen/inactive");
+        }
+        for (int i = 1; i < legs.size(); i++) {
+            if (legs.get(i).requireActive() && !isActive(local[i], remoteIds[i])) {
+                throw new IllegalArgumentException("Target account is frozen/inactive");
+            }
+        }
+
+        for (int i = 0; i < legs.size(); i++) {
+            LedgerPosting.Leg leg = legs.get(i);
+            if (local[i] != null) {
+                apply(local[i], leg);
+            } else {
+                LedgerShard owner = owners[i];
+                RemoteDelta delta = remote.computeIfAbsent(remoteIds[i], id -> new RemoteDelta(id, leg.accountNumber(), owner));
+                delta.amount = delta.amount.add(leg.amount());
+                delta.reserved = delta.reserved.add(leg.reserved());
+                record(remoteIds[i], leg);
+            }
+        }
+        completions.add(new Completion(posting, router, result, account.balance));
+    }
+
+    // Other shards' accounts are not cached here, so their flag is read from the row.
+    private boolean isActive(LedgerAccount local, Long remoteId) {
+        if (local != null) {
+            return local.active;
+        }
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(SELECT_ACTIVE, Boolean.class, remoteId));
+    }
+
+    void evict(String accountNumber) {
+        flush();
+        accounts.remove(accountNumber);
+    }
+
+    // Another shard has committed a change to this account; it is re-read before its balance is used again.
+    void markStale(String accountNumber) {
+        LedgerAccount account = accounts.get(accountNumber);
+        if (account != null) {
+            account.stale = true;
+        }
+    }
+
+    private void apply(LedgerAccount account, LedgerPosting.Leg leg) {
+        account.balance = account.balance.add(leg.amount());
+        account.reserved = account.reserved.add(leg.reserved());
+        account.unflushedDelta = account.unflushedDelta.add(leg.amount());
+        account.unflushedReserved = account.unflushedReserved.add(leg.reserved());
+        dirty.put(account.accountNumber, account);
+        record(account.id, leg);
+    }
+
+    private void record(long accountId, LedgerPosting.Leg leg) {
+        if (!leg.records().isEmpty()) {
+            Account reference = new Account();
+            reference.setId(accountId);
+            reference.setAccountNumber(leg.accountNumber());
+            for (Transaction record : leg.records()) {
+                record.setAccount(reference);
+                records.add(record);
+            }
+        }
+        if (ledgerLog.isEnabled() && leg.amount().signum() != 0) {
+            Transaction record = leg.records().size() == 1 ? leg.records().get(0) : null;
+            logEntries.add(accountId, LedgerLog.toMinorUnits(leg.amount()), record);
+        }
+        postingsApplied++;
+    }
+
+    private void flush() {
+        while (!completions.isEmpty()) {
+            for (Completion completion : persist()) {
+                try {
+                    applyPosting(completion.posting, completion.router, completion.result);
+                } catch (RuntimeException e) {
+                    completion.fail(e);
+                }
+            }
+        }
+    }
+
+    // Persists the batch. Returns the postings to apply again when some of its postings failed it.
+    private List<Completion> persist() {
+        // In id order, like every other writer of account rows, so concurrent flushes cannot deadlock.
+        List<Object[]> balanceArgs = new ArrayList<>(dirty.size() + remote.size());
+        Map<Long, String> accountNumbers = new HashMap<>();
+        for (LedgerAccount account : dirty.values()) {
+            balanceArgs.add(balanceArgs(account.id, account.unflushedDelta, account.unflushedReserved));
+            accountNumbers.put(account.id, account.accountNumber);
+        }
+        for (RemoteDelta delta : remote.values()) {
+            balanceArgs.add(balanceArgs(delta.accountId, delta.amount, delta.reserved));
+            accountNumbers.put(delta.accountId, delta.accountNumber);
+        }
+        balanceArgs.sort(Comparator.comparingLong(args -> (Long) args[2]));
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                int[] updated = jdbcTemplate.batchUpdate(UPDATE_BALANCE, balanceArgs);
+                Set<String> conflicts = new HashSet<>();
+                for (int i = 0; i < updated.length; i++) {
+                    if (updated[i] == 0) {
+                        conflicts.add(accountNumbers.get((Long) balanceArgs.get(i)[2]));
+                    }
+                }
+                if (!conflicts.isEmpty()) {
+                    throw new BalanceConflict(conflicts);
+                }
+                transactionBatchWriter.insertAll(records);
+                completions.forEach(Completion::write);
+            });
+            for (LedgerAccount account : dirty.values()) {
+                account.unflushedDelta = BigDecimal.ZERO;
+                account.unflushedReserved = BigDecimal.ZERO;
+            }
+            batchesFlushed++;
+            ledgerLog.append(logEntries);
+            for (RemoteDelta delta : remote.values()) {
+                delta.owner.submit(shard -> shard.markStale(delta.accountNumber), new CompletableFuture<Void>());
+            }
+            completions.forEach(Completion::persisted);
+            return List.of();
+        } catch (BalanceConflict e) {
+            logger.info("Ledger shard {} rolled back a batch of {} postings because accounts {} were changed outside the ledger",
+                    index, completions.size(), e.accountNumbers);
+            // Every account the batch changed is reloaded, the conflicting ones included.
+            dirty.keySet().forEach(accounts::remove);
+            for (RemoteDelta delta : remote.values()) {
+                if (e.accountNumbers.contains(delta.accountNumber)) {
+                    delta.owner.submit(shard -> shard.markStale(delta.accountNumber), new CompletableFuture<Void>());
+                }
+            }
+            List<Completion> retry = new ArrayList<>(completions.size());
+            for (Completion completion : completions) {
+                if (completion.touchesAny(e.accountNumbers)) {
+                    completion.fail(new ConflictException("The account was changed outside the ledger; please retry"));
+                } else {
+                    retry.add(completion);
+                }
+            }
+            return retry;
+        } catch (WriteFailed e) {
+            logger.info("Ledger shard {} rolled back a batch of {} postings because one posting's write failed: {}",
+                    index, completions.size(), e.getCause().getMessage());
+            dirty.keySet().forEach(accounts::remove);
+            e.completion.fail(e.getCause());
+            List<Completion> retry = new ArrayList<>(completions);
+            retry.remove(e.completion);
+            return retry;
+        } catch (RuntimeException e) {
+            logger.error("Ledger shard {} failed to persist a batch of {} operations", index, completions.size(), e);
+            // The in-memory balances are ahead of the database; drop them so they are reloaded.
+            dirty.keySet().forEach(accounts::remove);
+            completions.forEach(completion -> completion.fail(e));
+            return List.of();
+        } finally {
+            dirty.clear();
+            remote.clear();
+            records.clear();
+            completions.clear();
+            logEntries.clear();
+        }
+    }
+
+    private static Object[] balanceArgs(long accountId, BigDecimal amount, BigDecimal reserved) {
+        BigDecimal availableDelta = amount.subtract(reserved);
+        return new Object[] { amount, reserved, accountId, availableDelta, amount, reserved };
+    }
+
+    // Net change this shard makes, in the current batch, to an account owned by another shard.
+    private static final class RemoteDelta {
+        private final long accountId;
+        private final String accountNumber;
+        private final LedgerShard owner;
+        private BigDecimal amount = BigDecimal.ZERO;
+        private BigDecimal reserved = BigDecimal.ZERO;
+
+        private RemoteDelta(long accountId, String accountNumber, LedgerShard owner) {
+            this.accountId = accountId;
+            this.accountNumber = accountNumber;
+            this.owner = owner;
+        }
+    }
+
+    /**
+     * Releases the caller of one posting once the batch holding all of its legs has committed.
+     */
+    static class Completion {
+        private final LedgerPosting posting;
+        private final Function<String, LedgerShard> router;
+        private final CompletableFuture<BigDecimal> result;
+        private final BigDecimal balance;
+
+        Completion(LedgerPosting posting, Function<String, LedgerShard> router, CompletableFuture<BigDecimal> result,
+                   BigDecimal balance) {
+            this.posting = posting;
+            this.router = router;
+            this.result = result;
+            this.balance = balance;
+        }
+
+        void write() {
+            for (Runnable write : posting.getWrites()) {
+                try {
+                    write.run();
+                } catch (RuntimeException e) {
+                    throw new WriteFailed(this, e);
+                }
+            }
+        }
+
+        boolean touchesAny(Set<String> accountNumbers) {
+            for (LedgerPosting.Leg leg : posting.getLegs()) {
+                if (accountNumbers.contains(leg.accountNumber())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void persisted() {
+            result.complete(balance);
+        }
+
+        void fail(Throwable cause) {
+            result.completeExceptionally(cause);
+        }
+    }
+
+    // Thrown out of the batch's transaction to roll it back when guarded balance updates matched no row.
+    private static final class BalanceConflict extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Set<String> accountNumbers;
+
+        private BalanceConflict(Set<String> accountNumbers) {
+            this.accountNumbers = accountNumbers;
+        }
+    }
+
+    // Thrown out of the batch's transaction to roll it back when one posting's write fails.
+    private static final class WriteFailed extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Completion completion;
+
+        private WriteFailed(Completion completion, RuntimeException cause) {
+            super(cause);
+            this.completion = completion;
+        }
+    }
+}
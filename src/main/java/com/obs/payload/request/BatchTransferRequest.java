@@ -0,0 +1,58 @@
+package com.obs.payload.request;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+
+public class BatchTransferRequest {
+    @NotBlank
+    private String fromAccountNumber;
+
+    @NotEmpty
+    @Size(max = 1000, message = "At most 1000 transfers per batch")
+    @Valid
+    private List<Item> transfers;
+
+    public String getFromAccountNumber() {
+        return fromAccountNumber;
+    }
+
+    public void setFromAccountNumber(String fromAccountNumber) {
+        this.fromAccountNumber = fromAccountNumber;
+    }
+
+    public List<Item> getTransfers() {
+        return transfers;
+    }
+
+    public void setTransfers(List<Item> transfers) {
+        this.transfers = transfers;
+    }
+
+    public static class Item {
+        @NotBlank
+        private String toAccountNumber;
+
+        private BigDecimal amount;
+
+        public String getToAccountNumber() {
+            return toAccountNumber;
+        }
+
+        public void setToAccountNumber(String toAccountNumber) {
+            this.toAccountNumber = toAccountNumber;
+        }
+
+        public BigDecimal getAmount() {
+            return amount;
+        }
+
+        public void setAmount(BigDecimal amount) {
+            this.amount = amount;
+        }
+    }
+}
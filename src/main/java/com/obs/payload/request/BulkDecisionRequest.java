@@ -0,0 +1,43 @@
+package com.obs.payload.request;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import jakarta.validation.constraints.Size;
+
+/**
+ * Selects pending transactions either by id or by filter. With no ids, every PENDING transfer that
+ * matches the given filters is selected, up to the service's limit.
+ */
+public class BulkDecisionRequest {
+    @Size(max = 1000, message = "At most 1000 transactions per request")
+    private List<Long> transactionIds;
+
+    private String fromAccountNumber;
+
+    private BigDecimal maxAmount;
+
+    public List<Long> getTransactionIds() {
+        return transactionIds;
+    }
+
+    public void setTransactionIds(List<Long> transactionIds) {
+        this.transactionIds = transactionIds;
+    }
+
+    public String getFromAccountNumber() {
+        return fromAccountNumber;
+    }
+
+    public void setFromAccountNumber(String fromAccountNumber) {
+        this.fromAccountNumber = fromAccountNumber;
+    }
+
+    public BigDecimal getMaxAmount() {
+        return maxAmount;
+    }
+
+    public void setMaxAmount(BigDecimal maxAmount) {
+        this.maxAmount = maxAmount;
+    }
+}
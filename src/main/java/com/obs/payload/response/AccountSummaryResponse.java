@@ -0,0 +1,91 @@
+package com.obs.payload.response;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class AccountSummaryResponse {
+    private String accountNumber;
+    private List<MonthSummary> months = new ArrayList<>();
+
+    public AccountSummaryResponse(String accountNumber) {
+        this.accountNumber = accountNumber;
+    }
+
+    public String getAccountNumber() {
+        return accountNumber;
+    }
+
+    public List<MonthSummary> getMonths() {
+        return months;
+    }
+
+    public static class MonthSummary {
+        private String month;
+        private long count;
+        private BigDecimal inflow = BigDecimal.ZERO;
+        private BigDecimal outflow = BigDecimal.ZERO;
+        private Map<String, TypeSummary> byType = new LinkedHashMap<>();
+
+        public MonthSummary(String month) {
+            this.month = month;
+        }
+
+        public void add(String type, long count, BigDecimal inflow, BigDecimal outflow) {
+            this.count += count;
+            this.inflow = this.inflow.add(inflow);
+            this.outflow = this.outflow.add(outflow);
+            byType.put(type, new TypeSummary(count, inflow, outflow));
+        }
+
+        public String getMonth() {
+            return month;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public BigDecimal getInflow() {
+            return inflow;
+        }
+
+        public BigDecimal getOutflow() {
+            return outflow;
+        }
+
+        public BigDecimal getNet() {
+            return inflow.subtract(outflow);
+        }
+
+        public Map<String, TypeSummary> getByType() {
+            return byType;
+        }
+    }
+
+    public static class TypeSummary {
+        private long count;
+        private BigDecimal inflow;
+        private BigDecimal outflow;
+
+        public TypeSummary(long count, BigDecimal inflow, BigDecimal outflow) {
+            this.count = count;
+            this.inflow = inflow;
+            this.outflow = outflow;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public BigDecimal getInflow() {
+            return inflow;
+        }
+
+        public BigDecimal getOutflow() {
+            return outflow;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.obs.payload.response;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BatchTransferResponse {
+    private int successCount;
+    private int failureCount;
+    private BigDecimal totalDebited = BigDecimal.ZERO;
+    private List<ItemResult> results = new ArrayList<>();
+
+    public void addSuccess(int index, String toAccountNumber, BigDecimal amount) {
+        results.add(new ItemResult(index, toAccountNumber, amount, "SUCCESS", "Transfer successful"));
+        successCount++;
+        totalDebited = totalDebited.add(amount);
+    }
+
+    public void addFailure(int index, String toAccountNumber, BigDecimal amount, String message) {
+        results.add(new ItemResult(index, toAccountNumber, amount, "FAILED", message));
+        failureCount++;
+    }
+
+    public int getSuccessCount() {
+        return successCount;
+    }
+
+    public int getFailureCount() {
+        return failureCount;
+    }
+
+    public BigDecimal getTotalDebited() {
+        return totalDebited;
+    }
+
+    public List<ItemResult> getResults() {
+        return results;
+    }
+
+    public static class ItemResult {
+        private int index;
+        private String toAccountNumber;
+        private BigDecimal amount;
+        private String status;
+        private String message;
+
+        public ItemResult(int index, String toAccountNumber, BigDecimal amount, String status, String message) {
+            this.index = index;
+            this.toAccountNumber = toAccountNumber;
+            this.amount = amount;
+            this.status = status;
+            this.message = message;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public String getToAccountNumber() {
+            return toAccountNumber;
+        }
+
+        public BigDecimal getAmount() {
+            return amount;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
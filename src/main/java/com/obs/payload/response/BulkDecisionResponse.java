@@ -0,0 +1,66 @@
+package com.obs.payload.response;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BulkDecisionResponse {
+    private int successCount;
+    private int failureCount;
+    private List<ItemResult> results = new ArrayList<>();
+
+    public void add(ItemResult result) {
+        results.add(result);
+        if ("FAILED".equals(result.getStatus())) {
+            failureCount++;
+        } else {
+            successCount++;
+        }
+    }
+
+    public int getSuccessCount() {
+        return successCount;
+    }
+
+    public int getFailureCount() {
+        return failureCount;
+    }
+
+    public List<ItemResult> getResults() {
+        return results;
+    }
+
+    public static class ItemResult {
+        private Long transactionId;
+        private BigDecimal amount;
+        private String status;
+        private String message;
+
+        public ItemResult(Long transactionId, BigDecimal amount, String status, String message) {
+            this.transactionId = transactionId;
+            this.amount = amount;
+            this.status = status;
+            this.message = message;
+        }
+
+        public static ItemResult failed(Long transactionId, BigDecimal amount, String message) {
+            return new ItemResult(transactionId, amount, "FAILED", message);
+        }
+
+        public Long getTransactionId() {
+            return transactionId;
+        }
+
+        public BigDecimal getAmount() {
+            return amount;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.obs.payload.response;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+public class PendingSummaryResponse {
+    private long count;
+    private BigDecimal totalAmount;
+    private long openFraudAlerts;
+    private LocalDateTime asOf;
+
+    public PendingSummaryResponse(long count, BigDecimal totalAmount, long openFraudAlerts, LocalDateTime asOf) {
+        this.count = count;
+        this.totalAmount = totalAmount;
+        this.openFraudAlerts = openFraudAlerts;
+        this.asOf = asOf;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public BigDecimal getTotalAmount() {
+        return totalAmount;
+    }
+
+    public long getOpenFraudAlerts() {
+        return openFraudAlerts;
+    }
+
+    public LocalDateTime getAsOf() {
+        return asOf;
+    }
+}
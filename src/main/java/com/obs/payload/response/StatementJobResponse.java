@@ -0,0 +1,14 @@
+package com.obs.payload.response;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * The state of an account statement job. Transactions and size are filled in once the statement
+ * has been rendered.
+ */
+public record StatementJobResponse(String jobId, String accountNumber, LocalDate from, LocalDate to, String status,
+                                   long estimatedTransactions, long transactions, long sizeBytes,
+                                   LocalDateTime submittedAt, LocalDateTime startedAt, LocalDateTime finishedAt,
+                                   String error) {
+}
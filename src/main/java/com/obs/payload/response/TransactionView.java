@@ -0,0 +1,34 @@
+package com.obs.payload.response;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+import com.obs.entity.Transaction;
+
+/**
+ * A transaction as listed in account history. Selected straight from the transaction columns, so
+ * listing it loads no entity and no account.
+ */
+public record TransactionView(Long id, String transactionId, BigDecimal amount, LocalDateTime timestamp,
+                              String type, String description, String targetAccountNumber, String status) {
+
+    // Used by the JPQL constructor expression.
+    public TransactionView(Long id, BigDecimal amount, LocalDateTime timestamp, String type, String description,
+                           String targetAccountNumber, String status) {
+        this(id, Transaction.formatTransactionId(id), amount, timestamp, type, description, targetAccountNumber, status);
+    }
+
+    /**
+     * The view of a row that has just been written, rounded the way the column stores it
+     * (numeric scale 2, microsecond timestamps) so it reads the same as when selected.
+     */
+    public static TransactionView from(Transaction transaction) {
+        return new TransactionView(transaction.getId(),
+                transaction.getAmount() == null ? null : transaction.getAmount().setScale(2, RoundingMode.HALF_UP),
+                transaction.getTimestamp() == null ? null : transaction.getTimestamp().plusNanos(500).truncatedTo(ChronoUnit.MICROS),
+                transaction.getType(), transaction.getDescription(), transaction.getTargetAccountNumber(),
+                transaction.getStatus());
+    }
+}
@@ -0,0 +1,52 @@
+package com.obs.repository;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import com.obs.entity.AccountBalanceSlot;
+
+/**
+ * SQL access to {@link AccountBalanceSlot} rows. Slot amounts are only ever changed with relative
+ * updates, so they are never read into the persistence context where they could go stale.
+ * Runs in the caller's transaction.
+ */
+@Repository
+public class AccountBalanceSlotRepository {
+
+    private static final String ADD =
+            "insert into account_balance_slots (account_id, slot, amount) values (?, ?, ?) " +
+            "on conflict (account_id, slot) do update set amount = account_balance_slots.amount + excluded.amount";
+
+    private static final String SUM = "select coalesce(sum(amount), 0) from account_balance_slots where account_id = ?";
+
+    // Zeroes the slots and returns what they held, in one statement so a concurrent credit is either drained or kept.
+    private static final String DRAIN =
+            "with drained as (select id, amount from account_balance_slots where account_id = ? and amount <> 0 for update) " +
+            "update account_balance_slots s set amount = 0 from drained d where s.id = d.id returning d.amount";
+
+    private static final String ACCOUNTS_WITH_CREDITS = "select distinct account_id from account_balance_slots where amount <> 0";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    public void add(Long accountId, int slot, BigDecimal amount) {
+        jdbcTemplate.update(ADD, accountId, slot, amount);
+    }
+
+    public BigDecimal sum(Long accountId) {
+        return jdbcTemplate.queryForObject(SUM, BigDecimal.class, accountId);
+    }
+
+    public BigDecimal drain(Long accountId) {
+        return jdbcTemplate.queryForList(DRAIN, BigDecimal.class, accountId).stream()
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    public List<Long> findAccountIdsWithCredits() {
+        return jdbcTemplate.queryForList(ACCOUNTS_WITH_CREDITS, Long.class);
+    }
+}
@@ -0,0 +1,192 @@
+package com.obs.repository;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import com.obs.entity.AccountMonthlyRollup;
+import com.obs.entity.Transaction;
+
+/**
+ * SQL access to {@link AccountMonthlyRollup} rows. Totals are only ever changed with relative
+ * upserts, in the transaction that writes or decides the rows they count, so they stay exact
+ * without reading anything back. Runs in the caller's transaction.
+ */
+@Repository
+public class AccountMonthlyRollupRepository {
+
+    public record MonthTotals(LocalDate month, String type, long count, BigDecimal inflow, BigDecimal outflow) {
+    }
+
+    public record MonthBalances(BigDecimal opening, BigDecimal closing) {
+    }
+
+    private static final String ADD =
+            "insert into account_monthly_rollups (account_id, month, type, slot, transaction_count, inflow, outflow) " +
+            "values (?, ?, ?, ?, ?, ?, ?) on conflict (account_id, month, type, slot) do update set " +
+            "transaction_count = account_monthly_rollups.transaction_count + excluded.transaction_count, " +
+            "inflow = account_monthly_rollups.inflow + excluded.inflow, " +
+            "outflow = account_monthly_rollups.outflow + excluded.outflow";
+
+    private static final String SELECT_MONTHS =
+            "select month, type, sum(transaction_count), sum(inflow), sum(outflow) from account_monthly_rollups " +
+            "where account_id = ? and month between ? and ? group by month, type order by month, type";
+
+    // The current balance, striped credits included, less the months from each boundary on; one statement, so one snapshot.
+    private static final String SELECT_MONTH_BALANCES =
+            "select a.id, b.balance - coalesce((select sum(r.inflow - r.outflow) from account_monthly_rollups r " +
+            "where r.account_id = a.id and r.month >= ?), 0) as opening, " +
+            "b.balance - coalesce((select sum(r.inflow - r.outflow) from account_monthly_rollups r " +
+            "where r.account_id = a.id and r.month >= ?), 0) as closing " +
+            "from account a cross join lateral (select a.balance + coalesce((select sum(s.amount) from account_balance_slots s " +
+            "where s.account_id = a.id), 0) as balance) b where a.id between ? and ?";
+
+    private static final String COUNT_MONTHS =
+            "select coalesce(sum(transaction_count), 0) from account_monthly_rollups " +
+            "where account_id = ? and month between ? and ?";
+
+    // Blocks writers (their upserts wait) but not readers until the rebuild commits.
+    private static final String LOCK = "lock table account_monthly_rollups in exclusive mode";
+
+    private static final String DELETE_EXCEPT = "delete from account_monthly_rollups where month <> all (?::date[])";
+
+    private static final String REBUILD_EXCEPT =
+            "insert into account_monthly_rollups (account_id, month, type, slot, transaction_count, inflow, outflow) " +
+            "select account_id, date_trunc('month', timestamp)::date, coalesce(type, 'UNKNOWN'), 0, count(*), " +
+            "coalesce(sum(amount) filter (where amount > 0), 0), coalesce(-sum(amount) filter (where amount < 0), 0) " +
+            "from transaction where status = 'SUCCESS' and account_id is not null " +
+            "and date_trunc('month', timestamp)::date <> all (?::date[]) group by 1, 2, 3";
+
+    private static final Comparator<Key> KEY_ORDER = Comparator.comparingLong(Key::accountId)
+            .thenComparing(Key::month).thenComparing(Key::type).thenComparingInt(Key::slot);
+
+    @Value("${obs.app.striped.slots:16}")
+    private int slots;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private record Key(long accountId, LocalDate month, String type, int slot) {
+    }
+
+    private static final class Delta {
+        private long count;
+        private BigDecimal inflow = BigDecimal.ZERO;
+        private BigDecimal outflow = BigDecimal.ZERO;
+    }
+
+    /**
+     * Adds the successful transactions among {@code transactions} to their months' totals.
+     */
+    public void addAll(Collection<Transaction> transactions) {
+        // Sorted, so concurrent writers take the rollup rows' locks in the same order.
+        Map<Key, Delta> deltas = new TreeMap<>(KEY_ORDER);
+        for (Transaction transaction : transactions) {
+            if (!"SUCCESS".equals(transaction.getStatus()) || transaction.getAccount() == null
+                    || transaction.getTimestamp() == null || transaction.getAmount() == null) {
+                continue;
+            }
+            int slot = transaction.getAccount().isStriped() ? slotForCurrentThread() : 0;
+            Key key = new Key(transaction.getAccount().getId(), transaction.getTimestamp().toLocalDate().withDayOfMonth(1),
+                    transaction.getType() == null ? "UNKNOWN" : transaction.getType(), slot);
+            // Rounded as the amount column stores it, so these totals match a rebuild from the table.
+            BigDecimal amount = transaction.getAmount().setScale(2, RoundingMode.HALF_UP);
+            Delta delta = deltas.computeIfAbsent(key, k -> new Delta());
+            delta.count++;
+            if (amount.signum() > 0) {
+                delta.inflow = delta.inflow.add(amount);
+            } else {
+                delta.outflow = delta.outflow.subtract(amount);
+            }
+        }
+        if (deltas.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<Key, Delta>> rows = new ArrayList<>(deltas.entrySet());
+        jdbcTemplate.batchUpdate(ADD, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Key key = rows.get(i).getKey();
+                Delta delta = rows.get(i).getValue();
+                ps.setLong(1, key.accountId());
+                ps.setDate(2, Date.valueOf(key.month()));
+                ps.setString(3, key.type());
+                ps.setInt(4, key.slot());
+                ps.setLong(5, delta.count);
+                ps.setBigDecimal(6, delta.inflow);
+                ps.setBigDecimal(7, delta.outflow);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return rows.size();
+            }
+        });
+    }
+
+    /**
+     * Totals per month and type between the two months (first days) inclusive, oldest first.
+     */
+    public List<MonthTotals> findMonths(Long accountId, LocalDate fromMonth, LocalDate toMonth) {
+        return jdbcTemplate.query(SELECT_MONTHS, (rs, rowNum) -> new MonthTotals(rs.getObject(1, LocalDate.class),
+                rs.getString(2), rs.getLong(3), rs.getBigDecimal(4), rs.getBigDecimal(5)),
+                accountId, Date.valueOf(fromMonth), Date.valueOf(toMonth));
+    }
+
+    /**
+     * Balances of the accounts with ids from {@code fromAccountId} to {@code toAccountId} at the start
+     * and at the end of {@code month} (its first day), by account id: the current balance less the
+     * successful transactions dated from each boundary on. A transfer counts in the month it is dated,
+     * even if it was approved after the month ended.
+     */
+    public Map<Long, MonthBalances> findMonthBalances(long fromAccountId, long toAccountId, LocalDate month) {
+        Map<Long, MonthBalances> balances = new TreeMap<>();
+        jdbcTemplate.query(SELECT_MONTH_BALANCES, rs -> {
+            balances.put(rs.getLong(1), new MonthBalances(rs.getBigDecimal(2), rs.getBigDecimal(3)));
+        }, Date.valueOf(month), Date.valueOf(month.plusMonths(1)), fromAccountId, toAccountId);
+        return balances;
+    }
+
+    /**
+     * Number of successful transactions between the two months (first days) inclusive.
+     */
+    public long countMonths(Long accountId, LocalDate fromMonth, LocalDate toMonth) {
+        Long count = jdbcTemplate.queryForObject(COUNT_MONTHS, Long.class, accountId, Date.valueOf(fromMonth), Date.valueOf(toMonth));
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Recomputes every month except {@code keptMonths} from the transaction table and returns the
+     * number of rollup rows written. Must run in a transaction.
+     */
+    public int rebuildExcept(Collection<LocalDate> keptMonths) {
+        String kept = keptMonths.stream().map(LocalDate::toString).collect(Collectors.joining(",", "{", "}"));
+        jdbcTemplate.execute(LOCK);
+        jdbcTemplate.update(DELETE_EXCEPT, kept);
+        return jdbcTemplate.update(REBUILD_EXCEPT, kept);
+    }
+
+    public boolean isEmpty() {
+        return jdbcTemplate.queryForList("select 1 from account_monthly_rollups limit 1").isEmpty();
+    }
+
+    private int slotForCurrentThread() {
+        return Math.floorMod(Long.hashCode(Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L), slots);
+    }
+}
@@ -2,11 +2,25 @@ package com.obs.repository;
 
 import com.obs.entity.Account;
 import com.obs.entity.User;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
 import java.util.Optional;
 import java.util.List;
 
 public interface AccountRepository extends JpaRepository<Account, Long> {
     Optional<Account> findByAccountNumber(String accountNumber);
     List<Account> findByUser(User user);
+    List<Account> findByAccountNumberIn(Collection<String> accountNumbers);
+
+    // Accounts with their owners in one query, for batch runs that look up many accounts by number.
+    @Query("select a from Account a join fetch a.user u left join fetch u.roles where a.accountNumber in :accountNumbers")
+    List<Account> findWithUserByAccountNumberIn(@Param("accountNumbers") Collection<String> accountNumbers);
+
+    // Keyset pages over all accounts by id, for batch runs.
+    @Query("select a from Account a join fetch a.user where a.id >= :id order by a.id")
+    List<Account> findFromIdOrderById(@Param("id") Long id, Limit limit);
 }
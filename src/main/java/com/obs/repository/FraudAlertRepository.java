@@ -0,0 +1,14 @@
+package com.obs.repository;
+
+import com.obs.entity.FraudAlert;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface FraudAlertRepository extends JpaRepository<FraudAlert, Long> {
+    List<FraudAlert> findByStatusOrderByIdDesc(String status, Limit limit);
+    long countByStatus(String status);
+}
@@ -0,0 +1,29 @@
+package com.obs.repository;
+
+import com.obs.entity.FundsHold;
+import com.obs.entity.Transaction;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface FundsHoldRepository extends JpaRepository<FundsHold, Long> {
+    Optional<FundsHold> findByTransactionAndStatus(Transaction transaction, String status);
+    List<FundsHold> findByTransactionInAndStatus(Collection<Transaction> transactions, String status);
+
+    // Pending transfers debited up front, before holds existed (see V2__legacy_pending_transfers.sql).
+    @Query(value = "select transaction_id from legacy_pending_transfer where transaction_id in (:ids)", nativeQuery = true)
+    List<Long> findLegacyPendingIds(@Param("ids") Collection<Long> ids);
+
+    // Joins the caller's transaction, like TransactionRepository.decide.
+    @Modifying
+    @Query("update FundsHold h set h.status = :status, h.closedAt = :closedAt where h.id = :id and h.status = 'ACTIVE'")
+    int close(@Param("id") Long id, @Param("status") String status, @Param("closedAt") LocalDateTime closedAt);
+}
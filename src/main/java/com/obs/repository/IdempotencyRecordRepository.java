@@ -0,0 +1,38 @@
+package com.obs.repository;
+
+import com.obs.entity.IdempotencyRecord;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface IdempotencyRecordRepository extends JpaRepository<IdempotencyRecord, String> {
+
+    // Returns 1 if this caller now owns the key, 0 if another request claimed it first.
+    @Modifying
+    @Transactional
+    @Query(value = "insert into idempotency_records (id, status, request_hash, created_at) values (:id, 'IN_PROGRESS', :requestHash, :createdAt) " +
+            "on conflict (id) do nothing",
+            nativeQuery = true)
+    int claim(@Param("id") String id, @Param("requestHash") String requestHash, @Param("createdAt") LocalDateTime createdAt);
+
+    @Modifying
+    @Transactional
+    @Query("update IdempotencyRecord r set r.status = 'COMPLETED', r.responseStatus = :responseStatus, r.responseMessage = :responseMessage where r.id = :id")
+    int complete(@Param("id") String id, @Param("responseStatus") int responseStatus, @Param("responseMessage") String responseMessage);
+
+    @Modifying
+    @Transactional
+    @Query("update IdempotencyRecord r set r.status = 'FAILED', r.responseStatus = :responseStatus, r.responseMessage = :responseMessage where r.id = :id")
+    int fail(@Param("id") String id, @Param("responseStatus") int responseStatus, @Param("responseMessage") String responseMessage);
+
+    @Modifying
+    @Transactional
+    @Query("delete from IdempotencyRecord r where r.createdAt < :cutoff")
+    int deleteCreatedBefore(@Param("cutoff") LocalDateTime cutoff);
+}
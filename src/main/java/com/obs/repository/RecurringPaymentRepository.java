@@ -3,13 +3,64 @@ package com.obs.repository;
 import com.obs.entity.Account;
 import com.obs.entity.RecurringPayment;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public interface RecurringPaymentRepository extends JpaRepository<RecurringPayment, Long> {
     List<RecurringPayment> findByAccount(Account account);
-    List<RecurringPayment> findByStatusAndNextPaymentDateLessThanEqual(String status, LocalDate date);
+
+    // The database clock, which all nodes share; leases and run start times are measured with it.
+    @Query(value = "select localtimestamp", nativeQuery = true)
+    LocalDateTime currentTimestamp();
+
+    /**
+     * Leases up to {@code limit} payments due on {@code date} to {@code node} for {@code leaseSeconds}
+     * and returns their ids. Payments leased to another node are passed over until the lease runs out,
+     * rows another node is claiming or paying right now are skipped rather than waited for, and so are
+     * payments already tried since {@code since}.
+     */
+    @Transactional
+    @Query(value = "update recurring_payments set claimed_by = :node, claimed_until = localtimestamp + :leaseSeconds * interval '1 second' "
+            + "where id in (select id from recurring_payments where status = 'ACTIVE' and next_payment_date <= :date "
+            + "and (claimed_until is null or claimed_until < localtimestamp) and (last_run_at is null or last_run_at < :since) "
+            + "order by id limit :limit for update skip locked) returning id", nativeQuery = true)
+    List<Long> claimDue(@Param("node") String node, @Param("leaseSeconds") int leaseSeconds, @Param("date") LocalDate date,
+                        @Param("since") LocalDateTime since, @Param("limit") int limit);
+
+    // When the last lease another node holds on a payment still to be tried expires; null if there is none.
+    @Query("select max(p.claimedUntil) from RecurringPayment p where p.status = 'ACTIVE' and p.nextPaymentDate <= :date "
+            + "and p.claimedUntil >= local datetime and (p.lastRunAt is null or p.lastRunAt < :since)")
+    LocalDateTime findLastLeaseExpiry(@Param("date") LocalDate date, @Param("since") LocalDateTime since);
+
+    @Modifying
+    @Transactional
+    @Query("update RecurringPayment p set p.claimedBy = null, p.claimedUntil = null where p.id = :id and p.claimedBy = :node")
+    int release(@Param("id") Long id, @Param("node") String node);
+
+    // A page of payments with their source accounts and owners, in one query.
+    @Query("select p from RecurringPayment p join fetch p.account a join fetch a.user u left join fetch u.roles where p.id in :ids order by p.id")
+    List<RecurringPayment> findWithAccountsByIdIn(@Param("ids") Collection<Long> ids);
+
+    // Moves a payment to its next date and ends its lease, only if it is still active and due on the date it was read with; 0 if not.
+    @Modifying
+    @Query("update RecurringPayment p set p.nextPaymentDate = :next, p.status = :status, p.lastRunAt = local datetime, "
+            + "p.lastRunStatus = 'SUCCESS', p.lastRunError = null, p.claimedBy = null, p.claimedUntil = null "
+            + "where p.id = :id and p.status = 'ACTIVE' and p.nextPaymentDate = :due")
+    int advance(@Param("id") Long id, @Param("due") LocalDate due, @Param("next") LocalDate next, @Param("status") String status);
+
+    // Only while the lease is still the node's, so a node whose lease ran out cannot overwrite the new owner's outcome; 0 if not.
+    @Modifying
+    @Transactional
+    @Query("update RecurringPayment p set p.lastRunAt = local datetime, p.lastRunStatus = 'FAILED', p.lastRunError = :error, "
+            + "p.claimedBy = null, p.claimedUntil = null where p.id = :id and p.claimedBy = :node")
+    int recordFailure(@Param("id") Long id, @Param("node") String node, @Param("error") String error);
 }
@@ -0,0 +1,77 @@
+package com.obs.repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.stereotype.Repository;
+
+import com.obs.entity.Transaction;
+import com.obs.journal.TransactionsRecordedEvent;
+
+/**
+ * Inserts {@link Transaction} rows with a single JDBC batch. Hibernate cannot batch inserts for
+ * entities using {@code GenerationType.IDENTITY}, so bulk paths write through here instead of
+ * calling {@code TransactionRepository.save} per row. Runs in the caller's transaction, which also
+ * adds the rows to the monthly rollups. Every batch is announced as a {@link TransactionsRecordedEvent}.
+ */
+@Repository
+public class TransactionBatchWriter {
+
+    private static final String INSERT_TRANSACTION =
+            "insert into transaction (account_id, amount, timestamp, type, description, target_account_number, status) " +
+            "values (?, ?, ?, ?, ?, ?, ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private AccountMonthlyRollupRepository accountMonthlyRollupRepository;
+
+    public void insertAll(List<Transaction> transactions) {
+        if (transactions.isEmpty()) {
+            return;
+        }
+        GeneratedKeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.batchUpdate(con -> con.prepareStatement(INSERT_TRANSACTION, new String[] { "id" }),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        Transaction transaction = transactions.get(i);
+                        ps.setLong(1, transaction.getAccount().getId());
+                        ps.setBigDecimal(2, transaction.getAmount());
+                        ps.setTimestamp(3, Timestamp.valueOf(transaction.getTimestamp()));
+                        ps.setString(4, transaction.getType());
+                        ps.setString(5, transaction.getDescription());
+                        ps.setString(6, transaction.getTargetAccountNumber());
+                        ps.setString(7, transaction.getStatus());
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return transactions.size();
+                    }
+                }, keyHolder);
+
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        for (int i = 0; i < keys.size() && i < transactions.size(); i++) {
+            Object id = keys.get(i).get("id");
+            if (id instanceof Number number) {
+                transactions.get(i).setId(number.longValue());
+            }
+        }
+        accountMonthlyRollupRepository.addAll(transactions);
+        // Callers reuse their lists once the batch is written.
+        eventPublisher.publishEvent(new TransactionsRecordedEvent(List.copyOf(transactions)));
+    }
+}
@@ -2,9 +2,51 @@ package com.obs.repository;
 
 import com.obs.entity.Transaction;
 import com.obs.entity.Account;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.util.List;
 
 public interface TransactionRepository extends JpaRepository<Transaction, Long> {
     List<Transaction> findByAccount(Account account);
+
+    // Keyset pages over one status, served by idx_transaction_status_timestamp / idx_transaction_status_amount.
+
+    @Query("select t from Transaction t join fetch t.account a join fetch a.user " +
+           "where t.status = :status order by t.timestamp, t.id")
+    List<Transaction> findByStatusOrderByAge(@Param("status") String status, Limit limit);
+
+    @Query("select t from Transaction t join fetch t.account a join fetch a.user " +
+           "where t.status = :status and (t.timestamp, t.id) > (:timestamp, :id) order by t.timestamp, t.id")
+    List<Transaction> findByStatusOrderByAgeAfter(@Param("status") String status, @Param("timestamp") LocalDateTime timestamp,
+                                                  @Param("id") Long id, Limit limit);
+
+    @Query("select t from Transaction t join fetch t.account a join fetch a.user " +
+           "where t.status = :status order by t.amount, t.id")
+    List<Transaction> findByStatusOrderByAmount(@Param("status") String status, Limit limit);
+
+    @Query("select t from Transaction t join fetch t.account a join fetch a.user " +
+           "where t.status = :status and (t.amount, t.id) > (:amount, :id) order by t.amount, t.id")
+    List<Transaction> findByStatusOrderByAmountAfter(@Param("status") String status, @Param("amount") BigDecimal amount,
+                                                     @Param("id") Long id, Limit limit);
+
+    // Either filter may be null. Pending debits are negative, so "at most maxAmount" is -amount <= maxAmount.
+    @Query("select t.id from Transaction t where t.status = 'PENDING' " +
+           "and (:fromAccountNumber is null or t.account.accountNumber = :fromAccountNumber) " +
+           "and (:maxAmount is null or -t.amount <= :maxAmount) order by t.id")
+    List<Long> findPendingIds(@Param("fromAccountNumber") String fromAccountNumber, @Param("maxAmount") BigDecimal maxAmount,
+                              Limit limit);
+
+    @Query("select count(t), coalesce(sum(t.amount), 0) from Transaction t where t.status = :status")
+    List<Object[]> countAndSumByStatus(@Param("status") String status);
+
+    // Joins the caller's transaction; matches nothing once the transfer has been decided.
+    @Modifying
+    @Query("update Transaction t set t.status = :status, t.description = :description where t.id = :id and t.status = 'PENDING'")
+    int decide(@Param("id") Long id, @Param("status") String status, @Param("description") String description);
 }
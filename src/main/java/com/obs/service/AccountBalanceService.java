@@ -0,0 +1,223 @@
+package com.obs.service;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.obs.entity.Account;
+import com.obs.entity.AccountType;
+import com.obs.entity.FundsHold;
+import com.obs.entity.Transaction;
+import com.obs.exception.ResourceNotFoundException;
+import com.obs.journal.LedgerLog;
+import com.obs.repository.AccountBalanceSlotRepository;
+import com.obs.repository.AccountRepository;
+import com.obs.repository.FundsHoldRepository;
+
+/**
+ * Applies balance changes made through JPA, with support for striped accounts. A striped account
+ * takes its credits in one of {@code obs.app.striped.slots} slot rows picked by hash, so concurrent
+ * credits neither lock nor write the account row. Debits and reads add the slots to the account
+ * balance, and a scheduled folder moves slot amounts into the account row. Every change is also
+ * staged in the {@link LedgerLog}.
+ */
+@Service
+public class AccountBalanceService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AccountBalanceService.class);
+
+    private static final String LOCK_ACCOUNT = "select id from account where id = ? for no key update";
+
+    private static final String ADD_TO_BALANCE = "update account set balance = balance + ?, version = coalesce(version, 0) + 1 where id = ?";
+
+    @Value("${obs.app.striped.slots:16}")
+    private int slots;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private AccountBalanceSlotRepository accountBalanceSlotRepository;
+
+    @Autowired
+    private AccountLockingService accountLockingService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private LedgerLog ledgerLog;
+
+    @Autowired
+    private FundsHoldRepository fundsHoldRepository;
+
+    public void credit(Account account, BigDecimal amount) {
+        credit(account, amount, null);
+    }
+
+    /**
+     * Credits the account; {@code record} is the transaction row describing the change, if any.
+     */
+    public void credit(Account account, BigDecimal amount, Transaction record) {
+        ledgerLog.stage(account.getId(), amount, record);
+        if (account.isStriped()) {
+            accountBalanceSlotRepository.add(account.getId(), slotForCurrentThread(), amount);
+            return;
+        }
+        account.setBalance(account.getBalance().add(amount));
+    }
+
+    /**
+     * Balance including credits that have not been folded yet. Callers about to debit the account
+     * must already hold its lock.
+     */
+    public BigDecimal balanceOf(Account account) {
+        if (!account.isStriped()) {
+            return account.getBalance();
+        }
+        return account.getBalance().add(accountBalanceSlotRepository.sum(account.getId()));
+    }
+
+    /**
+     * Balance that can still be spent: {@link #balanceOf} minus the funds reserved by active holds.
+     * Callers about to debit the account must already hold its lock.
+     */
+    public BigDecimal availableOf(Account account) {
+        return balanceOf(account).subtract(account.getReservedBalance());
+    }
+
+    /**
+     * Reserves {@code amount} on the account for the given PENDING transaction. The caller has
+     * locked the account and checked {@link #availableOf}.
+     */
+    public FundsHold placeHold(Account account, BigDecimal amount, Transaction pending) {
+        account.setReservedBalance(account.getReservedBalance().add(amount));
+        accountRepository.save(account);
+        return recordHold(account, amount, pending);
+    }
+
+    /**
+     * Creates the hold row only, for holds whose reservation the ledger engine has already made.
+     */
+    public FundsHold recordHold(Account account, BigDecimal amount, Transaction pending) {
+        FundsHold hold = new FundsHold();
+        hold.setAccount(account);
+        hold.setTransaction(pending);
+        hold.setAmount(amount);
+        hold.setStatus("ACTIVE");
+        hold.setCreatedAt(LocalDateTime.now());
+        return fundsHoldRepository.save(hold);
+    }
+
+    /**
+     * Takes the held funds out of the account: the balance and the reservation both drop by the
+     * hold amount, so the available balance does not change. The caller has locked the account.
+     */
+    public void settleHold(FundsHold hold) {
+        Account account = hold.getAccount();
+        account.setReservedBalance(account.getReservedBalance().subtract(hold.getAmount()));
+        debit(account, hold.getAmount(), hold.getTransaction());
+        accountRepository.save(account);
+        closeHold(hold, "SETTLED");
+    }
+
+    /**
+     * Gives the held funds back to the available balance. The caller has locked the account.
+     */
+    public void releaseHold(FundsHold hold) {
+        Account account = hold.getAccount();
+        account.setReservedBalance(account.getReservedBalance().subtract(hold.getAmount()));
+        accountRepository.save(account);
+        closeHold(hold, "RELEASED");
+    }
+
+    /**
+     * Closes the hold row only, for holds whose reservation the ledger engine maintains.
+     */
+    public void closeHold(FundsHold hold, String status) {
+        hold.setStatus(status);
+        hold.setClosedAt(LocalDateTime.now());
+        fundsHoldRepository.save(hold);
+    }
+
+    /**
+     * Subtracts {@code amount} from the account row. For a striped account whose row alone does not
+     * cover the amount, the slots are folded in first. The caller checks {@link #balanceOf} first.
+     */
+    public void debit(Account account, BigDecimal amount) {
+        debit(account, amount, null);
+    }
+
+    public void debit(Account account, BigDecimal amount, Transaction record) {
+        ledgerLog.stage(account.getId(), amount.negate(), record);
+        if (account.isStriped() && account.getBalance().compareTo(amount) < 0) {
+            account.setBalance(account.getBalance().add(drain(account.getId())));
+        }
+        account.setBalance(account.getBalance().subtract(amount));
+    }
+
+    /**
+     * Fills in unfolded credits so that serialized accounts show their full balance.
+     */
+    public <C extends Collection<Account>> C withUnfoldedCredits(C accounts) {
+        for (Account account : accounts) {
+            if (account.isStriped()) {
+                account.setUnfoldedCredits(accountBalanceSlotRepository.sum(account.getId()));
+            }
+        }
+        return accounts;
+    }
+
+    public void setStriped(String accountNumber, boolean striped) {
+        accountLockingService.execute(() -> {
+            Account account = accountRepository.findByAccountNumber(accountNumber)
+                    .orElseThrow(() -> new ResourceNotFoundException("Account not found"));
+
+            if (striped && account.getAccountType() != AccountType.CURRENT) {
+                throw new IllegalArgumentException("Only CURRENT accounts can use striped balances");
+            }
+
+            accountLockingService.lock(account);
+            if (!striped) {
+                account.setBalance(account.getBalance().add(drain(account.getId())));
+            }
+            account.setStriped(striped);
+            accountRepository.save(account);
+        });
+    }
+
+    // Also picks up credits that raced with an account being un-striped.
+    @Scheduled(fixedDelayString = "${obs.app.striped.fold-interval-ms:1000}")
+    public void foldAll() {
+        for (Long accountId : accountBalanceSlotRepository.findAccountIdsWithCredits()) {
+            try {
+                accountLockingService.execute(() -> {
+                    BigDecimal drained = drain(accountId);
+                    if (drained.signum() != 0) {
+                        jdbcTemplate.update(ADD_TO_BALANCE, drained, accountId);
+                    }
+                });
+            } catch (RuntimeException e) {
+                logger.warn("Could not fold striped balance of account {}: {}", accountId, e.getMessage());
+            }
+        }
+    }
+
+    // The account row is locked before its slots, the same order debits use.
+    private BigDecimal drain(Long accountId) {
+        jdbcTemplate.queryForList(LOCK_ACCOUNT, Long.class, accountId);
+        return accountBalanceSlotRepository.drain(accountId);
+    }
+
+    private int slotForCurrentThread() {
+        return Math.floorMod(Long.hashCode(Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L), slots);
+    }
+}
@@ -0,0 +1,207 @@
+package com.obs.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.obs.entity.Account;
+import com.obs.journal.LedgerLog;
+import com.obs.journal.TransactionJournal;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+/**
+ * Concurrency control for balance changes made through JPA.
+ * <p>
+ * In {@code PESSIMISTIC} mode every account that is about to be written is locked with
+ * {@code SELECT ... FOR NO KEY UPDATE} in ascending id order and then re-read, so two transfers
+ * touching the same pair of accounts in opposite directions queue up instead of deadlocking. In
+ * {@code OPTIMISTIC} mode no row locks are taken; the {@code @Version} column on {@link Account}
+ * rejects lost updates at commit and the unit of work is retried with jittered exponential backoff.
+ */
+@Service
+public class AccountLockingService {
+
+    public enum Mode {
+        PESSIMISTIC,
+        OPTIMISTIC
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(AccountLockingService.class);
+
+    private static final String LOCK_ACCOUNTS = "select id from account where id in (:ids) order by id for no key update";
+
+    private static final String LOCK_TRANSACTIONS = "select id from transaction where id in (:ids) order by id for no key update";
+
+    @Value("${obs.app.transfer.locking:PESSIMISTIC}")
+    private Mode mode;
+
+    @Value("${obs.app.transfer.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${obs.app.transfer.backoff-ms:5}")
+    private long backoffMs;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private TransactionJournal transactionJournal;
+
+    @Autowired
+    private LedgerLog ledgerLog;
+
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+
+    /**
+     * Runs {@code work} in a new transaction, retrying it when it loses a concurrency conflict.
+     * When called inside an existing transaction the work simply joins it and is not retried,
+     * because the outer transaction is already marked for rollback by then.
+     */
+    public <T> T execute(Supplier<T> work) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return work.get();
+        }
+        for (int attempt = 1; ; attempt++) {
+            attempts.incrementAndGet();
+            try {
+                T result = transactionTemplate.execute(status -> work.get());
+                commits.incrementAndGet();
+                try {
+                    transactionJournal.awaitPersisted();
+                } finally {
+                    // The balances are committed either way.
+                    ledgerLog.appendCommitted();
+                }
+                return result;
+            } catch (ConcurrencyFailureException e) {
+                conflicts.incrementAndGet();
+                if (attempt >= maxAttempts) {
+                    exhausted.incrementAndGet();
+                    logger.warn("Giving up after {} attempts: {}", attempt, e.getMessage());
+                    throw e;
+                }
+                backoff(attempt);
+            }
+        }
+    }
+
+    public void execute(Runnable work) {
+        execute(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Locks the given accounts in canonical (id) order and refreshes their state. Must be called
+     * inside a transaction before any of them is read for a balance check. No-op in optimistic mode.
+     */
+    public void lock(Account... accounts) {
+        lock(Arrays.asList(accounts));
+    }
+
+    public void lock(Collection<Account> accounts) {
+        if (mode != Mode.PESSIMISTIC) {
+            return;
+        }
+        List<Account> ordered = accounts.stream()
+                .filter(Objects::nonNull)
+                .distinct()
+                .sorted(Comparator.comparing(Account::getId))
+                .toList();
+        if (ordered.isEmpty()) {
+            return;
+        }
+        // Rows are locked as they come out of the sort, i.e. in id order. Hibernate's own lock
+        // modes would also compare the cached version and fail instead of waiting for fresh state.
+        // NO KEY UPDATE still lets inserts referencing the account (FK checks) through.
+        entityManager.createNativeQuery(LOCK_ACCOUNTS)
+                .setParameter("ids", ordered.stream().map(Account::getId).toList())
+                .getResultList();
+        ordered.forEach(entityManager::refresh);
+    }
+
+    /**
+     * Locks the debited account and every credited account that is not striped. Credits to a
+     * striped account only touch one of its slot rows, so its account row is left unlocked.
+     */
+    public void lockForPosting(Account debited, Account... credited) {
+        lockForPosting(debited, Arrays.asList(credited));
+    }
+
+    public void lockForPosting(Account debited, Collection<Account> credited) {
+        lockForPosting(Collections.singletonList(debited), credited);
+    }
+
+    public void lockForPosting(Collection<Account> debited, Collection<Account> credited) {
+        List<Account> written = new ArrayList<>(debited);
+        credited.stream().filter(account -> account != null && !account.isStriped()).forEach(written::add);
+        lock(written);
+    }
+
+    /**
+     * Locks transaction rows whose state change must happen exactly once, such as pending transfers
+     * being approved, in id order. Taken before the rows are loaded and before any account lock.
+     * Only the transaction rows are locked, so the ledger shards can still write the accounts.
+     */
+    public void lockTransactions(Collection<Long> transactionIds) {
+        if (transactionIds.isEmpty()) {
+            return;
+        }
+        entityManager.createNativeQuery(LOCK_TRANSACTIONS)
+                .setParameter("ids", transactionIds)
+                .getResultList();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public Map<String, Object> getStats() {
+        long attempted = attempts.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", mode);
+        stats.put("attempts", attempted);
+        stats.put("commits", commits.get());
+        stats.put("conflicts", conflicts.get());
+        stats.put("exhausted", exhausted.get());
+        stats.put("abortRate", attempted == 0 ? 0.0 : (double) conflicts.get() / attempted);
+        return stats;
+    }
+
+    private void backoff(int attempt) {
+        long ceiling = backoffMs << Math.min(attempt, 10);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while retrying a conflicting update");
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.obs.service;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.obs.archive.ColdSegmentStore;
+import com.obs.entity.Account;
+import com.obs.payload.response.AccountSummaryResponse;
+import com.obs.repository.AccountMonthlyRollupRepository;
+import com.obs.repository.AccountRepository;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Monthly inflow and outflow of an account, read from the rollups that every transaction write
+ * keeps current, so a summary costs one index range read whatever the length of the history. The
+ * rollups can be rebuilt from the transaction table, which also backfills them on first startup.
+ */
+@Service
+public class AccountSummaryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AccountSummaryService.class);
+
+    public static final int MAX_MONTHS = 120;
+
+    @Value("${obs.app.rollups.rebuild-if-empty:true}")
+    private boolean rebuildIfEmpty;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private AccountMonthlyRollupRepository accountMonthlyRollupRepository;
+
+    @Autowired
+    private ColdSegmentStore coldSegmentStore;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * The last {@code months} months of the account, newest first, including months without
+     * transactions. A null username skips the ownership check.
+     */
+    public AccountSummaryResponse getSummary(String accountNumber, String username, int months) {
+        if (months < 1 || months > MAX_MONTHS) {
+            throw new IllegalArgumentException("months must be between 1 and " + MAX_MONTHS);
+        }
+        Account account = accountRepository.findByAccountNumber(accountNumber)
+                .orElseThrow(() -> new IllegalArgumentException("Account not found"));
+        if (username != null && !account.getUser().getUsername().equals(username)) {
+            throw new IllegalArgumentException("Unauthorized access to account summary");
+        }
+
+        YearMonth newest = YearMonth.now();
+        YearMonth oldest = newest.minusMonths(months - 1);
+        Map<YearMonth, AccountSummaryResponse.MonthSummary> byMonth = new LinkedHashMap<>();
+        for (YearMonth month = newest; !month.isBefore(oldest); month = month.minusMonths(1)) {
+            byMonth.put(month, new AccountSummaryResponse.MonthSummary(month.toString()));
+        }
+        for (AccountMonthlyRollupRepository.MonthTotals totals : accountMonthlyRollupRepository.findMonths(account.getId(),
+                oldest.atDay(1), newest.atDay(1))) {
+            byMonth.get(YearMonth.from(totals.month())).add(totals.type(), totals.count(), totals.inflow(), totals.outflow());
+        }
+
+        AccountSummaryResponse response = new AccountSummaryResponse(accountNumber);
+        response.getMonths().addAll(byMonth.values());
+        return response;
+    }
+
+    /**
+     * Recomputes the rollups from the transaction table. Archived months are no longer in the table
+     * and keep their totals. Transaction writes wait for the rebuild to commit.
+     */
+    public Map<String, Object> rebuild() {
+        long started = System.nanoTime();
+        // Holding the view keeps the set of archived months fixed until the rebuild is done.
+        try (ColdSegmentStore.View cold = coldSegmentStore.openView()) {
+            List<LocalDate> archived = cold.months().stream().map(month -> month.atDay(1)).toList();
+            Integer rows = transactionTemplate.execute(status -> accountMonthlyRollupRepository.rebuildExcept(archived));
+            long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+            logger.info("Rebuilt {} monthly rollups in {} ms, keeping {} archived months", rows, elapsedMs, archived.size());
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("rows", rows);
+            result.put("archivedMonthsKept", archived.size());
+            result.put("elapsedMs", elapsedMs);
+            return result;
+        }
+    }
+
+    // Backfills the rollups of a database that has transactions from before they were kept.
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildIfEmpty() {
+        if (rebuildIfEmpty && accountMonthlyRollupRepository.isEmpty()) {
+            rebuild();
+        }
+    }
+}
@@ -6,12 +6,15 @@ import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import com.obs.entity.Account;
 import com.obs.entity.BillPayment;
 import com.obs.entity.Transaction;
 import com.obs.entity.User;
+import com.obs.journal.TransactionJournal;
+import com.obs.ledger.LedgerAccountSnapshot;
+import com.obs.ledger.LedgerEngine;
+import com.obs.ledger.LedgerPosting;
 import com.obs.repository.AccountRepository;
 import com.obs.repository.BillPaymentRepository;
 import com.obs.repository.UserRepository;
@@ -29,13 +32,32 @@ public class BillPaymentService {
     private UserRepository userRepository;
 
     @Autowired
-    private com.obs.repository.TransactionRepository transactionRepository;
+    private TransactionJournal transactionJournal;
+
+    @Autowired
+    private LedgerEngine ledgerEngine;
+
+    @Autowired
+    private AccountLockingService accountLockingService;
+
+    @Autowired
+    private AccountBalanceService accountBalanceService;
 
-    @Transactional
     public void payBill(Long userId, String fromAccountNumber, String billerName, BigDecimal amount) {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new IllegalArgumentException("User not found"));
 
+        if (ledgerEngine.isEnabled()) {
+            payBillThroughLedger(user, fromAccountNumber, billerName, amount);
+            return;
+        }
+
+        accountLockingService.execute(() -> payBillThroughRepository(user, fromAccountNumber, billerName, amount));
+    }
+
+    private void payBillThroughRepository(User user, String fromAccountNumber, String billerName, BigDecimal amount) {
+        Long userId = user.getId();
+
         Account account = accountRepository.findByAccountNumber(fromAccountNumber)
                 .orElseThrow(() -> new IllegalArgumentException("Account not found"));
 
@@ -43,33 +65,57 @@ public class BillPaymentService {
             throw new IllegalArgumentException("Account does not belong to user");
         }
 
-        if (account.getBalance().compareTo(amount) < 0) {
+        accountLockingService.lock(account);
+
+        if (accountBalanceService.availableOf(account).compareTo(amount) < 0) {
             throw new IllegalArgumentException("Insufficient balance");
         }
 
+        Transaction transaction = newDebitRecord(billerName, amount);
+        transaction.setAccount(account);
+
         // Deduct balance
-        account.setBalance(account.getBalance().subtract(amount));
+        accountBalanceService.debit(account, amount, transaction);
         accountRepository.save(account);
 
-        // Record Bill Payment
+        billPaymentRepository.save(newBillPayment(user, billerName, amount));
+
+        // Record Transaction
+        transactionJournal.record(transaction);
+    }
+
+    private void payBillThroughLedger(User user, String fromAccountNumber, String billerName, BigDecimal amount) {
+        LedgerAccountSnapshot account = ledgerEngine.find(fromAccountNumber)
+                .orElseThrow(() -> new IllegalArgumentException("Account not found"));
+
+        if (!user.getId().equals(account.ownerId())) {
+            throw new IllegalArgumentException("Account does not belong to user");
+        }
+
+        // Balance is checked by the shard that owns the account, which saves the bill payment in the
+        // transaction that debits it.
+        ledgerEngine.post(new LedgerPosting().debit(fromAccountNumber, amount, newDebitRecord(billerName, amount))
+                .alsoWrite(() -> billPaymentRepository.save(newBillPayment(user, billerName, amount))));
+    }
+
+    private BillPayment newBillPayment(User user, String billerName, BigDecimal amount) {
         BillPayment billPayment = new BillPayment();
         billPayment.setBillerName(billerName);
         billPayment.setAmount(amount);
         billPayment.setDueDate(LocalDateTime.now()); // Assuming immediate payment
         billPayment.setStatus("PAID");
         billPayment.setUser(user);
+        return billPayment;
+    }
 
-        billPaymentRepository.save(billPayment);
-
-        // Record Transaction
+    private Transaction newDebitRecord(String billerName, BigDecimal amount) {
         Transaction transaction = new Transaction();
-        transaction.setAccount(account);
         transaction.setAmount(amount.negate()); // Debit
         transaction.setType("DEBIT");
         transaction.setTimestamp(LocalDateTime.now());
         transaction.setDescription("Bill Payment: " + billerName);
         transaction.setStatus("SUCCESS");
-        transactionRepository.save(transaction);
+        return transaction;
     }
 
     public List<BillPayment> getMyBills(Long userId) {
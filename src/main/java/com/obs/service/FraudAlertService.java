@@ -0,0 +1,69 @@
+package com.obs.service;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import com.obs.entity.FraudAlert;
+import com.obs.repository.FraudAlertRepository;
+
+/**
+ * Banker review queue for transactions flagged by the fraud scorers.
+ */
+@Service
+public class FraudAlertService {
+
+    public static final int MAX_PAGE_SIZE = 500;
+
+    @Autowired
+    private FraudAlertRepository fraudAlertRepository;
+
+    @Autowired
+    private PendingApprovalService pendingApprovalService;
+
+    public void raise(long transactionId, long accountId, String accountNumber, String targetAccountNumber,
+                      BigDecimal amount, double score, List<String> reasons) {
+        FraudAlert alert = new FraudAlert();
+        alert.setTransactionId(transactionId);
+        alert.setAccountId(accountId);
+        alert.setAccountNumber(accountNumber);
+        alert.setTargetAccountNumber(targetAccountNumber);
+        alert.setAmount(amount);
+        alert.setScore(score);
+        alert.setReasons(String.join(",", reasons));
+        alert.setStatus("OPEN");
+        alert.setCreatedAt(LocalDateTime.now());
+        try {
+            fraudAlertRepository.save(alert);
+        } catch (DataIntegrityViolationException e) {
+            // Already flagged.
+            return;
+        }
+        pendingApprovalService.invalidateSummary();
+    }
+
+    // Newest first.
+    public List<FraudAlert> getOpenAlerts(int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        return fraudAlertRepository.findByStatusOrderByIdDesc("OPEN", Limit.of(limit));
+    }
+
+    public void review(Long alertId, boolean confirmed) {
+        FraudAlert alert = fraudAlertRepository.findById(alertId)
+                .orElseThrow(() -> new IllegalArgumentException("Alert not found"));
+        if (!"OPEN".equals(alert.getStatus())) {
+            throw new IllegalArgumentException("Alert has already been reviewed");
+        }
+        alert.setStatus(confirmed ? "CONFIRMED" : "CLEARED");
+        alert.setReviewedAt(LocalDateTime.now());
+        fraudAlertRepository.save(alert);
+        pendingApprovalService.invalidateSummary();
+    }
+}
@@ -0,0 +1,234 @@
+package com.obs.service;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.obs.entity.IdempotencyRecord;
+import com.obs.exception.ConflictException;
+import com.obs.exception.OutcomeUnknownException;
+import com.obs.exception.UnprocessableEntityException;
+import com.obs.payload.response.MessageResponse;
+import com.obs.repository.IdempotencyRecordRepository;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Makes money-moving endpoints safe to retry. A request carrying an {@code Idempotency-Key} runs
+ * at most once per user and endpoint: concurrent duplicates wait on the in-flight execution, later
+ * duplicates get the stored response back, and a key reused for a different request is rejected.
+ * Recent keys are kept in a bounded in-memory LRU cache; the {@code idempotency_records} table is
+ * the source of truth across restarts and instances.
+ */
+@Service
+public class IdempotencyService {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyService.class);
+
+    private static final int MAX_KEY_LENGTH = 128;
+
+    @Value("${obs.app.idempotency.ttl-minutes:1440}")
+    private long ttlMinutes;
+
+    @Value("${obs.app.idempotency.cache-size:10000}")
+    private int cacheSize;
+
+    @Value("${obs.app.idempotency.await-timeout-ms:30000}")
+    private long awaitTimeoutMs;
+
+    @Autowired
+    private IdempotencyRecordRepository idempotencyRecordRepository;
+
+    private Map<String, Entry> entries;
+
+    private static final class Entry {
+        private final CompletableFuture<ResponseEntity<MessageResponse>> result = new CompletableFuture<>();
+        private final String requestHash;
+        private final long createdAt = System.currentTimeMillis();
+
+        private Entry(String requestHash) {
+            this.requestHash = requestHash;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                // Only finished entries are evicted: duplicates of an in-flight request must still find it.
+                Iterator<Entry> iterator = values().iterator();
+                while (size() > cacheSize && iterator.hasNext()) {
+                    if (iterator.next().result.isDone()) {
+                        iterator.remove();
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Runs {@code operation} unless a request with the same key was already accepted for this user
+     * and endpoint, in which case its response is returned instead. {@code request} holds the
+     * request's parameters; reusing a key with different parameters is rejected with 422. Without
+     * a key the operation simply runs.
+     */
+    public ResponseEntity<MessageResponse> execute(String username, String endpoint, String idempotencyKey, List<?> request,
+                                                   Supplier<ResponseEntity<MessageResponse>> operation) {
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            return operation.get();
+        }
+        if (idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency-Key must be at most " + MAX_KEY_LENGTH + " characters");
+        }
+        String id = username + ":" + endpoint + ":" + idempotencyKey;
+        String requestHash = hash(request);
+
+        Entry entry;
+        boolean owner = false;
+        synchronized (entries) {
+            entry = entries.get(id);
+            if (entry == null || isExpired(entry, System.currentTimeMillis())) {
+                entry = new Entry(requestHash);
+                entries.put(id, entry);
+                owner = true;
+            }
+        }
+        if (!owner) {
+            requireSameRequest(entry.requestHash, requestHash);
+            return await(entry);
+        }
+
+        try {
+            ResponseEntity<MessageResponse> response = executeOnce(id, requestHash, operation);
+            entry.result.complete(response);
+            return response;
+        } catch (RuntimeException | Error e) {
+            synchronized (entries) {
+                entries.remove(id, entry);
+            }
+            entry.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private ResponseEntity<MessageResponse> executeOnce(String id, String requestHash, Supplier<ResponseEntity<MessageResponse>> operation) {
+        if (idempotencyRecordRepository.claim(id, requestHash, LocalDateTime.now()) == 0) {
+            IdempotencyRecord record = idempotencyRecordRepository.findById(id).orElse(null);
+            if (record != null) {
+                requireSameRequest(record.getRequestHash(), requestHash);
+                if ("COMPLETED".equals(record.getStatus())) {
+                    return ResponseEntity.status(record.getResponseStatus())
+                            .body(new MessageResponse(record.getResponseMessage()));
+                }
+                if ("FAILED".equals(record.getStatus())) {
+                    throw new OutcomeUnknownException(record.getResponseMessage());
+                }
+            }
+            throw new ConflictException("A request with this Idempotency-Key is already being processed");
+        }
+
+        ResponseEntity<MessageResponse> response;
+        try {
+            response = operation.get();
+        } catch (OutcomeUnknownException e) {
+            // The operation may still take effect (the ledger or the journal did not confirm it), so it must not run
+            // again under this key; retries get this error back instead of waiting for the claim to expire.
+            release(id, () -> idempotencyRecordRepository.fail(id, HttpStatus.INTERNAL_SERVER_ERROR.value(),
+                    "The outcome of the original request is unknown: " + e.getMessage()));
+            throw e;
+        } catch (RuntimeException | Error e) {
+            // The operation rolled back; let the client retry with the same key.
+            release(id, () -> idempotencyRecordRepository.deleteById(id));
+            throw e;
+        }
+        MessageResponse body = response.getBody();
+        idempotencyRecordRepository.complete(id, response.getStatusCode().value(), body != null ? body.getMessage() : null);
+        return response;
+    }
+
+    // Runs the cleanup of a failed claim without hiding the operation's own exception.
+    private void release(String id, Runnable cleanup) {
+        try {
+            cleanup.run();
+        } catch (RuntimeException e) {
+            logger.error("Could not release idempotency key {}; it stays in progress until it expires", id, e);
+        }
+    }
+
+    private void requireSameRequest(String storedHash, String requestHash) {
+        if (storedHash != null && !storedHash.equals(requestHash)) {
+            throw new UnprocessableEntityException("This Idempotency-Key was already used for a different request");
+        }
+    }
+
+    // Amounts are compared by value, so 100 and 100.00 are the same request.
+    private static String hash(List<?> request) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        for (Object part : request) {
+            String value = part instanceof BigDecimal amount ? amount.stripTrailingZeros().toPlainString() : String.valueOf(part);
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private ResponseEntity<MessageResponse> await(Entry entry) {
+        try {
+            return entry.result.get(awaitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Original request failed", e.getCause());
+        } catch (TimeoutException e) {
+            throw new ConflictException("A request with this Idempotency-Key is already being processed");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the original request");
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return entry.result.isDone() && now - entry.createdAt > TimeUnit.MINUTES.toMillis(ttlMinutes);
+    }
+
+    @Scheduled(fixedDelayString = "${obs.app.idempotency.sweep-interval-ms:60000}")
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        synchronized (entries) {
+            entries.values().removeIf(entry -> isExpired(entry, now));
+        }
+        int deleted = idempotencyRecordRepository.deleteCreatedBefore(LocalDateTime.now().minusMinutes(ttlMinutes));
+        if (deleted > 0) {
+            logger.debug("Removed {} expired idempotency records", deleted);
+        }
+    }
+}
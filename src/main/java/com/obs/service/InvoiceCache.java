@@ -0,0 +1,354 @@
+package com.obs.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.obs.entity.Transaction;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Invoice PDFs of transactions, so a receipt that is downloaded again is not generated again.
+ * Entries are keyed by transaction id and status and checked against a digest of everything the
+ * invoice prints, which also serves as the response's ETag; a renamed customer or a new invoice
+ * layout therefore never gets an outdated PDF. Up to {@code obs.app.invoice-cache.max-memory-bytes}
+ * of PDFs are kept in memory, least recently used evicted first, and up to
+ * {@code obs.app.invoice-cache.max-disk-bytes} in {@code obs.app.invoice-cache.directory}, oldest
+ * evicted first. A pending transfer's entries are dropped once its approval or rejection commits.
+ */
+@Service
+public class InvoiceCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(InvoiceCache.class);
+
+    // Bump when the invoice layout in PdfGenerationService changes, so PDFs on disk are regenerated.
+    private static final String LAYOUT_VERSION = "1";
+
+    private static final int DIGEST_BYTES = 16;
+
+    // Disk space is trimmed to this fraction of the bound, so a full cache is not walked on every write.
+    private static final double DISK_TRIM_TARGET = 0.9;
+
+    public record Invoice(String etag, byte[] pdf) {
+    }
+
+    private record Key(long transactionId, String status) {
+    }
+
+    private record Entry(byte[] digest, byte[] pdf) {
+    }
+
+    @Value("${obs.app.invoice-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${obs.app.invoice-cache.max-memory-bytes:67108864}")
+    private long maxMemoryBytes;
+
+    @Value("${obs.app.invoice-cache.directory:data/invoices}")
+    private String directory;
+
+    @Value("${obs.app.invoice-cache.max-disk-bytes:1073741824}")
+    private long maxDiskBytes;
+
+    @Autowired
+    private PdfGenerationService pdfGenerationService;
+
+    private Map<Key, Entry> entries;
+
+    private long memoryBytes;
+
+    private final AtomicLong diskBytes = new AtomicLong();
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong diskEvictions = new AtomicLong();
+    private final AtomicLong diskErrors = new AtomicLong();
+
+    @PostConstruct
+    public void init() throws IOException {
+        entries = new LinkedHashMap<>(1024, 0.75f, true);
+        if (enabled && diskEnabled()) {
+            Files.createDirectories(directory());
+            try (Stream<Path> files = Files.walk(directory())) {
+                diskBytes.set(files.filter(Files::isRegularFile).mapToLong(InvoiceCache::sizeOf).sum());
+            }
+        }
+    }
+
+    /**
+     * The ETag of the transaction's invoice: a digest of the fields it prints and the layout version.
+     */
+    public String etag(Transaction transaction) {
+        return etagOf(digest(transaction));
+    }
+
+    /**
+     * The invoice of the transaction, from memory, from disk or freshly generated.
+     */
+    public Invoice get(Transaction transaction) {
+        byte[] digest = digest(transaction);
+        String etag = etagOf(digest);
+        if (!enabled) {
+            return new Invoice(etag, pdfGenerationService.generateTransactionInvoice(transaction));
+        }
+        Key key = new Key(transaction.getId(), String.valueOf(transaction.getStatus()));
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && Arrays.equals(entry.digest(), digest)) {
+                memoryHits.incrementAndGet();
+                return new Invoice(etag, entry.pdf());
+            }
+        }
+
+        byte[] pdf = readFromDisk(key, digest);
+        if (pdf != null) {
+            diskHits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            pdf = pdfGenerationService.generateTransactionInvoice(transaction);
+            writeToDisk(key, digest, pdf);
+        }
+        put(key, new Entry(digest, pdf));
+        return new Invoice(etag, pdf);
+    }
+
+    /**
+     * Drops the cached invoices of the transactions as they were while pending, once the caller's
+     * transaction commits.
+     */
+    public void invalidatePendingOnCommit(Collection<Transaction> decided) {
+        if (!enabled || decided.isEmpty()) {
+            return;
+        }
+        List<Key> keys = decided.stream().map(transaction -> new Key(transaction.getId(), "PENDING")).toList();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate(keys);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidate(keys);
+            }
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        long hits = memoryHits.get() + diskHits.get();
+        long lookups = hits + misses.get();
+        int cached;
+        long bytes;
+        synchronized (entries) {
+            cached = entries.size();
+            bytes = memoryBytes;
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("entries", cached);
+        stats.put("memoryBytes", bytes);
+        stats.put("maxMemoryBytes", maxMemoryBytes);
+        stats.put("diskBytes", diskEnabled() ? diskBytes.get() : 0);
+        stats.put("maxDiskBytes", diskEnabled() ? maxDiskBytes : 0);
+        stats.put("memoryHits", memoryHits.get());
+        stats.put("diskHits", diskHits.get());
+        stats.put("misses", misses.get());
+        stats.put("hitRatio", lookups == 0 ? 0.0 : (double) hits / lookups);
+        stats.put("invalidations", invalidations.get());
+        stats.put("evictions", evictions.get());
+        stats.put("diskEvictions", diskEvictions.get());
+        stats.put("diskErrors", diskErrors.get());
+        return stats;
+    }
+
+    private void put(Key key, Entry entry) {
+        synchronized (entries) {
+            Entry previous = entries.put(key, entry);
+            memoryBytes += entry.pdf().length - (previous == null ? 0 : previous.pdf().length);
+            Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+            while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+                memoryBytes -= eldest.next().getValue().pdf().length;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private void invalidate(List<Key> keys) {
+        for (Key key : keys) {
+            boolean removed;
+            synchronized (entries) {
+                Entry entry = entries.remove(key);
+                removed = entry != null;
+                if (removed) {
+                    memoryBytes -= entry.pdf().length;
+                }
+            }
+            if (diskEnabled()) {
+                try {
+                    Path file = pathOf(key);
+                    long size = sizeOf(file);
+                    if (Files.deleteIfExists(file)) {
+                        diskBytes.addAndGet(-size);
+                        removed = true;
+                    }
+                } catch (IOException e) {
+                    diskErrors.incrementAndGet();
+                    logger.warn("Could not delete the cached invoice of transaction {}: {}", key.transactionId(), e.getMessage());
+                }
+            }
+            if (removed) {
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    // A file holds the digest followed by the PDF; one with another digest is an outdated version.
+    private byte[] readFromDisk(Key key, byte[] digest) {
+        if (!diskEnabled()) {
+            return null;
+        }
+        try {
+            byte[] file = Files.readAllBytes(pathOf(key));
+            if (file.length > DIGEST_BYTES && Arrays.equals(file, 0, DIGEST_BYTES, digest, 0, DIGEST_BYTES)) {
+                return Arrays.copyOfRange(file, DIGEST_BYTES, file.length);
+            }
+        } catch (NoSuchFileException e) {
+            // Not cached yet.
+        } catch (IOException e) {
+            diskErrors.incrementAndGet();
+            logger.warn("Could not read the cached invoice of transaction {}: {}", key.transactionId(), e.getMessage());
+        }
+        return null;
+    }
+
+    private void writeToDisk(Key key, byte[] digest, byte[] pdf) {
+        if (!diskEnabled()) {
+            return;
+        }
+        Path target = pathOf(key);
+        Path temporary = target.resolveSibling(target.getFileName() + "." + Thread.currentThread().threadId() + ".tmp");
+        try {
+            Files.createDirectories(target.getParent());
+            byte[] file = Arrays.copyOf(digest, DIGEST_BYTES + pdf.length);
+            System.arraycopy(pdf, 0, file, DIGEST_BYTES, pdf.length);
+            Files.write(temporary, file);
+            long replaced = sizeOf(target);
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            if (diskBytes.addAndGet(file.length - replaced) > maxDiskBytes) {
+                trimDisk();
+            }
+        } catch (IOException e) {
+            diskErrors.incrementAndGet();
+            logger.warn("Could not cache the invoice of transaction {} on disk: {}", key.transactionId(), e.getMessage());
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+                // Left for the next trim.
+            }
+        }
+    }
+
+    // Deletes the oldest files until the directory is back under its trim target.
+    private synchronized void trimDisk() throws IOException {
+        if (diskBytes.get() <= maxDiskBytes) {
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(directory())) {
+            walk.filter(Files::isRegularFile).forEach(files::add);
+        }
+        files.sort(Comparator.comparingLong(InvoiceCache::modifiedAt));
+        long target = (long) (maxDiskBytes * DISK_TRIM_TARGET);
+        for (Path file : files) {
+            if (diskBytes.get() <= target) {
+                break;
+            }
+            long size = sizeOf(file);
+            if (Files.deleteIfExists(file)) {
+                diskBytes.addAndGet(-size);
+                diskEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    private byte[] digest(Transaction transaction) {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder printed = new StringBuilder(LAYOUT_VERSION);
+        for (Object field : new Object[] { transaction.getId(), transaction.getTimestamp(), transaction.getType(),
+                transaction.getAmount() == null ? null : transaction.getAmount().abs().toPlainString(), transaction.getDescription(),
+                transaction.getAccount() == null ? null : transaction.getAccount().getUser().getFullName(),
+                transaction.getAccount() == null ? null : transaction.getAccount().getAccountNumber(),
+                transaction.getTargetAccountNumber(), transaction.getStatus() }) {
+            printed.append('\u0000').append(field);
+        }
+        return Arrays.copyOf(sha256.digest(printed.toString().getBytes(StandardCharsets.UTF_8)), DIGEST_BYTES);
+    }
+
+    private static String etagOf(byte[] digest) {
+        return "\"" + HexFormat.of().formatHex(digest) + "\"";
+    }
+
+    private boolean diskEnabled() {
+        return !directory.isBlank() && maxDiskBytes > 0;
+    }
+
+    private Path directory() {
+        return Paths.get(directory);
+    }
+
+    // Spread over 256 directories by id, so none of them grows too large.
+    private Path pathOf(Key key) {
+        return directory().resolve(String.format("%02x", key.transactionId() & 0xff))
+                .resolve(key.transactionId() + "-" + key.status() + ".pdf");
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long modifiedAt(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
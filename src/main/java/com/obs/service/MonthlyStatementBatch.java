@@ -0,0 +1,438 @@
+package com.obs.service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.obs.entity.Account;
+import com.obs.exception.ConflictException;
+import com.obs.payload.response.TransactionView;
+import com.obs.repository.AccountMonthlyRollupRepository;
+import com.obs.repository.AccountMonthlyRollupRepository.MonthBalances;
+import com.obs.repository.AccountRepository;
+
+/**
+ * Writes the statement of every account for a month to {@code obs.app.statement-batch.directory},
+ * after the month has ended. Accounts are taken in partitions of consecutive ids,
+ * {@code obs.app.statement-batch.partition-size} at a time. A partition's transactions for the month
+ * are read in one cursor pass ordered by account, and each account's statement is rendered on a
+ * virtual thread, at most {@code obs.app.statement-batch.concurrency} at a time, so only that many
+ * accounts' rows are held in memory. Statements show the balances at the start and end of the month,
+ * worked back from the current balance and the monthly rollups, so a run resumed days later still
+ * prints the month's own closing balance.
+ * <p>
+ * Each finished partition appends its statements to the month's {@code manifest.csv} and then
+ * records in {@code checkpoint.properties} where the next partition starts and how long the manifest
+ * is. A run that stops part way resumes from there: at startup, or when it is started again.
+ */
+@Component
+public class MonthlyStatementBatch {
+
+    private static final Logger logger = LoggerFactory.getLogger(MonthlyStatementBatch.class);
+
+    private static final String MANIFEST = "manifest.csv";
+
+    private static final String MANIFEST_HEADER = "account_id,account_number,file,transactions,bytes,sha256\n";
+
+    private static final String CHECKPOINT = "checkpoint.properties";
+
+    // Statements of a thousand consecutive account ids share a directory.
+    private static final long ACCOUNTS_PER_DIRECTORY = 1000;
+
+    @Value("${obs.app.statement-batch.enabled:false}")
+    private boolean enabled;
+
+    @Value("${obs.app.statement-batch.directory:data/monthly-statements}")
+    private String directory;
+
+    @Value("${obs.app.statement-batch.partition-size:1000}")
+    private int partitionSize;
+
+    @Value("${obs.app.statement-batch.concurrency:8}")
+    private int concurrency;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private AccountMonthlyRollupRepository accountMonthlyRollupRepository;
+
+    @Autowired
+    private TransactionExportService transactionExportService;
+
+    @Autowired
+    private PdfGenerationService pdfGenerationService;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile Progress progress;
+
+    private volatile Map<String, Object> lastRun = Map.of();
+
+    // What a month's run has finished so far; written after each partition.
+    private record Checkpoint(long nextAccountId, long manifestBytes, long accounts, long transactions, long bytes,
+                              boolean complete) {
+    }
+
+    private static final class Progress {
+        private final YearMonth month;
+        private final long startedNanos = System.nanoTime();
+        private final long resumedFromAccountId;
+        private final AtomicLong partitions = new AtomicLong();
+        private final AtomicLong accounts = new AtomicLong();
+        private final AtomicLong transactions = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        private Progress(YearMonth month, long resumedFromAccountId) {
+            this.month = month;
+            this.resumedFromAccountId = resumedFromAccountId;
+        }
+
+        private Map<String, Object> snapshot() {
+            long elapsedMs = (System.nanoTime() - startedNanos) / 1_000_000;
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("month", month.toString());
+            snapshot.put("resumedFromAccountId", resumedFromAccountId);
+            snapshot.put("partitions", partitions.get());
+            snapshot.put("accounts", accounts.get());
+            snapshot.put("transactions", transactions.get());
+            snapshot.put("bytes", bytes.get());
+            snapshot.put("elapsedMs", elapsedMs);
+            snapshot.put("accountsPerSecond", elapsedMs == 0 ? 0.0 : accounts.get() * 1000.0 / elapsedMs);
+            return snapshot;
+        }
+    }
+
+    @Scheduled(cron = "${obs.app.statement-batch.cron:0 0 3 1 * *}")
+    public void scheduledRun() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            start(YearMonth.now().minusMonths(1));
+        } catch (ConflictException e) {
+            logger.warn("Monthly statements not started: {}", e.getMessage());
+        }
+    }
+
+    // Picks up a run that was interrupted by a crash or a restart.
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterrupted() throws IOException {
+        if (!enabled || !Files.isDirectory(root())) {
+            return;
+        }
+        TreeSet<YearMonth> months = new TreeSet<>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root(), Files::isDirectory)) {
+            for (Path dir : dirs) {
+                try {
+                    months.add(YearMonth.parse(dir.getFileName().toString()));
+                } catch (RuntimeException e) {
+                    // Not a month's directory.
+                }
+            }
+        }
+        for (YearMonth month : months) {
+            Checkpoint checkpoint = readCheckpoint(root().resolve(month.toString()));
+            if (checkpoint != null && !checkpoint.complete()) {
+                logger.info("Resuming the monthly statements of {} from account {}", month, checkpoint.nextAccountId());
+                start(month);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Starts writing the month's statements in the background, continuing from its checkpoint if it
+     * has one.
+     */
+    public void start(YearMonth month) {
+        if (!month.isBefore(YearMonth.now())) {
+            throw new IllegalArgumentException("Statements can only be written for a month that has ended");
+        }
+        if (!running.compareAndSet(false, true)) {
+            throw new ConflictException("Monthly statements are already being written");
+        }
+        Thread.ofPlatform().name("statement-batch").start(() -> {
+            try {
+                lastRun = run(month);
+            } catch (IOException | RuntimeException e) {
+                logger.error("Monthly statements of {} stopped, they resume from the last checkpoint: {}", month,
+                        e.getMessage(), e);
+                Map<String, Object> failed = progress != null ? progress.snapshot() : new LinkedHashMap<>();
+                failed.put("error", e.getMessage());
+                lastRun = failed;
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("running", running.get());
+        stats.put("partitionSize", partitionSize);
+        stats.put("concurrency", concurrency);
+        Progress current = progress;
+        stats.put("current", running.get() && current != null ? current.snapshot() : Map.of());
+        stats.put("lastRun", lastRun);
+        return stats;
+    }
+
+    private Map<String, Object> run(YearMonth month) throws IOException {
+        Path dir = root().resolve(month.toString());
+        Files.createDirectories(dir);
+        Checkpoint checkpoint = readCheckpoint(dir);
+        if (checkpoint == null) {
+            // Written up front, so a run that stops before its first partition is resumed too.
+            checkpoint = new Checkpoint(0, 0, 0, 0, 0, false);
+            writeCheckpoint(dir, checkpoint);
+        }
+        Progress run = new Progress(month, checkpoint.nextAccountId());
+        progress = run;
+        if (checkpoint.complete()) {
+            logger.info("Monthly statements of {} are already complete", month);
+            Map<String, Object> result = run.snapshot();
+            result.put("alreadyComplete", true);
+            return result;
+        }
+
+        LocalDateTime from = month.atDay(1).atStartOfDay();
+        LocalDateTime to = month.plusMonths(1).atDay(1).atStartOfDay();
+        try (FileChannel manifest = FileChannel.open(dir.resolve(MANIFEST), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Lines after the checkpoint come from a partition that did not finish; it is written again.
+            manifest.truncate(checkpoint.manifestBytes());
+            manifest.position(checkpoint.manifestBytes());
+            if (checkpoint.manifestBytes() == 0) {
+                write(manifest, MANIFEST_HEADER);
+            }
+            while (true) {
+                List<Account> accounts = accountRepository.findFromIdOrderById(checkpoint.nextAccountId(), Limit.of(partitionSize));
+                if (accounts.isEmpty()) {
+                    break;
+                }
+                long partitionStarted = System.nanoTime();
+                Partition partition = new Partition(dir, month, accounts);
+                partition.write(from, to);
+
+                StringBuilder lines = new StringBuilder();
+                for (String line : partition.lines) {
+                    lines.append(line);
+                }
+                write(manifest, lines.toString());
+                manifest.force(false);
+                checkpoint = new Checkpoint(accounts.get(accounts.size() - 1).getId() + 1, manifest.position(),
+                        checkpoint.accounts() + accounts.size(), checkpoint.transactions() + partition.transactions.get(),
+                        checkpoint.bytes() + partition.bytes.get(), false);
+                writeCheckpoint(dir, checkpoint);
+
+                run.partitions.incrementAndGet();
+                run.accounts.addAndGet(accounts.size());
+                run.transactions.addAndGet(partition.transactions.get());
+                run.bytes.addAndGet(partition.bytes.get());
+                long partitionMs = Math.max(1, (System.nanoTime() - partitionStarted) / 1_000_000);
+                logger.info("Wrote statements of {} for accounts {} to {}: {} accounts, {} transactions in {} ms ({} accounts/s)",
+                        month, accounts.get(0).getId(), accounts.get(accounts.size() - 1).getId(), accounts.size(),
+                        partition.transactions.get(), partitionMs, accounts.size() * 1000L / partitionMs);
+            }
+        }
+        checkpoint = new Checkpoint(checkpoint.nextAccountId(), checkpoint.manifestBytes(), checkpoint.accounts(),
+                checkpoint.transactions(), checkpoint.bytes(), true);
+        writeCheckpoint(dir, checkpoint);
+
+        Map<String, Object> result = run.snapshot();
+        result.put("totalAccounts", checkpoint.accounts());
+        logger.info("Monthly statements of {} complete: {}", month, result);
+        return result;
+    }
+
+    /**
+     * One partition's accounts. Rows arrive from the cursor grouped by account; each account's group,
+     * empty for an account without transactions in the month, is handed to a virtual thread.
+     */
+    private final class Partition implements TransactionExportService.AccountRowHandler {
+        private final Path dir;
+        private final YearMonth month;
+        private final List<Account> accounts;
+        private Map<Long, MonthBalances> balances;
+        private final String[] lines;
+        private final AtomicLong transactions = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final Semaphore permits = new Semaphore(concurrency);
+        private final AtomicReference<Exception> failure = new AtomicReference<>();
+        private ExecutorService renderers;
+        private int index;
+        private List<TransactionView> rows = new ArrayList<>();
+
+        private Partition(Path dir, YearMonth month, List<Account> accounts) {
+            this.dir = dir;
+            this.month = month;
+            this.accounts = accounts;
+            this.lines = new String[accounts.size()];
+        }
+
+        private void write(LocalDateTime from, LocalDateTime to) throws IOException {
+            balances = accountMonthlyRollupRepository.findMonthBalances(accounts.get(0).getId(),
+                    accounts.get(accounts.size() - 1).getId(), month.atDay(1));
+            try (ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("statement-render-", 0).factory())) {
+                renderers = executor;
+                transactionExportService.streamAccounts(accounts.get(0).getId(), accounts.get(accounts.size() - 1).getId(),
+                        from, to, this);
+                while (index < accounts.size()) {
+                    dispatch();
+                }
+            }
+            if (failure.get() != null) {
+                throw new IOException("Could not write the statement of an account between " + accounts.get(0).getId()
+                        + " and " + accounts.get(accounts.size() - 1).getId(), failure.get());
+            }
+        }
+
+        @Override
+        public void row(long accountId, TransactionView transaction) throws IOException {
+            while (index < accounts.size() && accounts.get(index).getId() < accountId) {
+                dispatch();
+            }
+            if (index < accounts.size() && accounts.get(index).getId() == accountId) {
+                rows.add(transaction);
+            }
+            // Otherwise the account was opened after the partition was listed, and is in next month's run.
+        }
+
+        private void dispatch() throws IOException {
+            if (failure.get() != null) {
+                throw new IOException("Stopping the partition after a failed statement", failure.get());
+            }
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to render a statement");
+            }
+            int slot = index++;
+            Account account = accounts.get(slot);
+            List<TransactionView> accountRows = rows;
+            rows = new ArrayList<>();
+            renderers.execute(() -> {
+                try {
+                    lines[slot] = render(account, accountRows);
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+
+        // Writes the statement next to its final name and renames it, so a crash never leaves half a PDF.
+        private String render(Account account, List<TransactionView> accountRows) throws IOException {
+            Path bucket = dir.resolve(String.format("%06d", account.getId() / ACCOUNTS_PER_DIRECTORY));
+            Files.createDirectories(bucket);
+            String name = "statement_" + account.getAccountNumber() + "_" + month + ".pdf";
+            Path target = bucket.resolve(name);
+            Path temporary = bucket.resolve(name + ".tmp");
+            MessageDigest sha256 = newSha256();
+            try (OutputStream out = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)), sha256)) {
+                pdfGenerationService.writeAccountStatement(account, month.atDay(1), month.atEndOfMonth(),
+                        balances.get(account.getId()), accountRows, out);
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            long size = Files.size(target);
+            transactions.addAndGet(accountRows.size());
+            bytes.addAndGet(size);
+            return account.getId() + "," + account.getAccountNumber() + "," + dir.relativize(target) + ","
+                    + accountRows.size() + "," + size + "," + HexFormat.of().formatHex(sha256.digest()) + "\n";
+        }
+    }
+
+    private Path root() {
+        return Paths.get(directory);
+    }
+
+    private static void write(FileChannel channel, String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static Checkpoint readCheckpoint(Path dir) throws IOException {
+        Path file = dir.resolve(CHECKPOINT);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        return new Checkpoint(Long.parseLong(properties.getProperty("nextAccountId")),
+                Long.parseLong(properties.getProperty("manifestBytes")), Long.parseLong(properties.getProperty("accounts")),
+                Long.parseLong(properties.getProperty("transactions")), Long.parseLong(properties.getProperty("bytes")),
+                Boolean.parseBoolean(properties.getProperty("complete")));
+    }
+
+    private static void writeCheckpoint(Path dir, Checkpoint checkpoint) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("nextAccountId", Long.toString(checkpoint.nextAccountId()));
+        properties.setProperty("manifestBytes", Long.toString(checkpoint.manifestBytes()));
+        properties.setProperty("accounts", Long.toString(checkpoint.accounts()));
+        properties.setProperty("transactions", Long.toString(checkpoint.transactions()));
+        properties.setProperty("bytes", Long.toString(checkpoint.bytes()));
+        properties.setProperty("complete", Boolean.toString(checkpoint.complete()));
+        Path temporary = dir.resolve(CHECKPOINT + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING); OutputStream out = Channels.newOutputStream(channel)) {
+            properties.store(out, null);
+            channel.force(false);
+        }
+        Files.move(temporary, dir.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -1,16 +1,32 @@
 package com.obs.service;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import com.itextpdf.io.font.FontProgram;
+import com.itextpdf.io.font.FontProgramFactory;
 import com.itextpdf.io.font.PdfEncodings;
-import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.colors.ColorConstants;
 import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.pdf.CompressionConstants;
 import com.itextpdf.kernel.pdf.PdfDocument;
 import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.WriterProperties;
 import com.itextpdf.layout.Document;
+import com.itextpdf.layout.borders.Border;
 import com.itextpdf.layout.element.Cell;
 import com.itextpdf.layout.element.Paragraph;
 import com.itextpdf.layout.element.Table;
@@ -18,28 +34,59 @@ import com.itextpdf.layout.properties.TextAlignment;
 import com.itextpdf.layout.properties.UnitValue;
 import com.obs.entity.Account;
 import com.obs.entity.Transaction;
+import com.obs.payload.response.TransactionView;
+import com.obs.repository.AccountMonthlyRollupRepository.MonthBalances;
+
+import jakarta.annotation.PostConstruct;
 
 @Service
 public class PdfGenerationService {
 
+    private static final Logger logger = LoggerFactory.getLogger(PdfGenerationService.class);
+
+    // DejaVu Sans cut down to Latin, punctuation and currency signs; see fonts/LICENSE-DejaVu.txt.
+    private static final String FONT_RESOURCE = "/fonts/DejaVuSans-Subset.ttf";
+
+    private static final DateTimeFormatter INVOICE_TIME = DateTimeFormatter.ofPattern("dd MMM yyyy, hh:mm a");
+
+    private static final DateTimeFormatter STATEMENT_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    // Invoices come out at about 13 KB with the font subset embedded.
+    private static final int INVOICE_SIZE_HINT = 16 * 1024;
+
+    @Value("${obs.app.statement.flush-rows:500}")
+    private int flushRows;
+
+    @Autowired
+    private TransactionExportService transactionExportService;
+
+    // Parsed once at startup; null when the font could not be loaded.
+    private FontProgram fontProgram;
+
+    @PostConstruct
+    public void loadFont() {
+        try (InputStream in = PdfGenerationService.class.getResourceAsStream(FONT_RESOURCE)) {
+            if (in == null) {
+                throw new IOException(FONT_RESOURCE + " is not on the classpath");
+            }
+            fontProgram = FontProgramFactory.createFont(in.readAllBytes());
+        } catch (IOException e) {
+            logger.warn("Could not load the PDF font, amounts will be printed with Rs. instead of the rupee sign: {}",
+                    e.getMessage());
+        }
+    }
+
     public byte[] generateTransactionInvoice(Transaction transaction) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(INVOICE_SIZE_HINT);
         try {
-            PdfWriter writer = new PdfWriter(baos);
+            PdfWriter writer = newWriter(baos);
             PdfDocument pdf = new PdfDocument(writer);
             Document document = new Document(pdf);
 
-            String currencySymbol = "Rs. ";
-            try {
-                PdfFont font = PdfFontFactory.createFont("C:/Windows/Fonts/arial.ttf", PdfEncodings.IDENTITY_H, PdfFontFactory.EmbeddingStrategy.PREFER_EMBEDDED);
-                document.setFont(font);
-                currencySymbol = "\u20B9";
-            } catch (Exception e) {
-                 System.err.println("Could not load font for Rupee symbol: " + e.getMessage());
-            }
+            String currencySymbol = applyRupeeFont(document);
 
             document.add(new Paragraph("Online Banking System")
-                    .setBold().setFontSize(24).setFontColor(com.itextpdf.kernel.colors.ColorConstants.BLUE)
+                    .setBold().setFontSize(24).setFontColor(ColorConstants.BLUE)
                     .setTextAlignment(TextAlignment.CENTER));
 
             document.add(new Paragraph("Transaction Receipt")
@@ -52,10 +99,8 @@ public class PdfGenerationService {
 
             // Add a border to the table if desired, or keep it clean
 
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd MMM yyyy, hh:mm a");
-
             addTableRow(table, "Transaction ID", transaction.getTransactionId());
-            addTableRow(table, "Date & Time", transaction.getTimestamp().format(formatter));
+            addTableRow(table, "Date & Time", transaction.getTimestamp().format(INVOICE_TIME));
             addTableRow(table, "Transaction Type", transaction.getType());
             addTableRow(table, "Amount", currencySymbol + transaction.getAmount().abs().toString()); // Show absolute amount
             addTableRow(table, "Description", (transaction.getDescription() != null ? transaction.getDescription() : "N/A"));
@@ -84,65 +129,124 @@ public class PdfGenerationService {
         return baos.toByteArray();
     }
 
-    public byte[] generateAccountStatement(Account account, java.util.List<Transaction> transactions) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try {
-            PdfWriter writer = new PdfWriter(baos);
-            PdfDocument pdf = new PdfDocument(writer);
-            Document document = new Document(pdf);
+    /**
+     * Writes the statement of the account's transactions dated {@code from} to {@code to} inclusive
+     * (null for no bound) to {@code out}, which is left open. Rows come straight from the database
+     * cursor into a large table that is flushed to {@code out} every
+     * {@code obs.app.statement.flush-rows} rows, so memory use does not grow with the history.
+     * Returns the number of transactions written.
+     */
+    public long writeAccountStatement(Account account, LocalDate from, LocalDate to, OutputStream out) throws IOException {
+        long started = System.nanoTime();
+        long rows = writeStatement(account, from, to, null, out, handler -> transactionExportService.stream(account.getId(),
+                from != null ? from.atStartOfDay() : null, to != null ? to.plusDays(1).atStartOfDay() : null, handler));
+        logger.info("Wrote statement of account {} with {} transactions in {} ms", account.getId(), rows,
+                (System.nanoTime() - started) / 1_000_000);
+        return rows;
+    }
 
-            String currencySymbol = "Rs. ";
-            try {
-                PdfFont font = PdfFontFactory.createFont("C:/Windows/Fonts/arial.ttf", PdfEncodings.IDENTITY_H, PdfFontFactory.EmbeddingStrategy.PREFER_EMBEDDED);
-                document.setFont(font);
-                currencySymbol = "\u20B9";
-            } catch (Exception e) {
-                System.err.println("Could not load font for Rupee symbol: " + e.getMessage());
+    /**
+     * The statement of a closed period, of transactions that have already been read, oldest first.
+     * It shows the balances at the period's boundaries instead of the current balance.
+     */
+    public long writeAccountStatement(Account account, LocalDate from, LocalDate to, MonthBalances balances,
+                                      List<TransactionView> transactions, OutputStream out) throws IOException {
+        return writeStatement(account, from, to, balances, out, handler -> {
+            for (TransactionView transaction : transactions) {
+                handler.row(transaction);
             }
+            return transactions.size();
+        });
+    }
 
-            document.add(new Paragraph("Online Banking System")
-                    .setBold().setFontSize(20).setTextAlignment(TextAlignment.CENTER));
-            document.add(new Paragraph("Account Statement")
-                    .setBold().setFontSize(16).setTextAlignment(TextAlignment.CENTER));
-            document.add(new Paragraph("\n"));
-
-            document.add(new Paragraph("Account Number: " + account.getAccountNumber()));
-            document.add(new Paragraph("Account Type: " + account.getAccountType()));
-            document.add(new Paragraph("Current Balance: " + currencySymbol + account.getBalance()));
-            document.add(new Paragraph("Customer Name: " + account.getUser().getFullName()));
-            document.add(new Paragraph("\n"));
-
-            float[] columnWidths = {1, 3, 2, 2, 2};
-            Table table = new Table(UnitValue.createPercentArray(columnWidths));
-            table.setWidth(UnitValue.createPercentValue(100));
+    // Hands a statement's rows to the handler, oldest first, and returns how many there were.
+    private interface RowSource {
+        long stream(TransactionExportService.RowHandler handler) throws IOException;
+    }
 
-            table.addHeaderCell(new Cell().add(new Paragraph("ID").setBold()));
-            table.addHeaderCell(new Cell().add(new Paragraph("Date").setBold()));
-            table.addHeaderCell(new Cell().add(new Paragraph("Type").setBold()));
-            table.addHeaderCell(new Cell().add(new Paragraph("Amount").setBold()));
-            table.addHeaderCell(new Cell().add(new Paragraph("Status").setBold()));
+    private long writeStatement(Account account, LocalDate from, LocalDate to, MonthBalances balances, OutputStream out,
+                                RowSource source) throws IOException {
+        PdfWriter writer = newWriter(out);
+        writer.setCloseStream(false);
+        PdfDocument pdf = new PdfDocument(writer);
+        Document document = new Document(pdf);
+
+        String currencySymbol = applyRupeeFont(document);
+
+        document.add(new Paragraph("Online Banking System")
+                .setBold().setFontSize(20).setTextAlignment(TextAlignment.CENTER));
+        document.add(new Paragraph("Account Statement")
+                .setBold().setFontSize(16).setTextAlignment(TextAlignment.CENTER));
+        document.add(new Paragraph("\n"));
+
+        document.add(new Paragraph("Account Number: " + account.getAccountNumber()));
+        document.add(new Paragraph("Account Type: " + account.getAccountType()));
+        if (balances != null) {
+            document.add(new Paragraph("Opening Balance: " + currencySymbol + balances.opening()));
+            document.add(new Paragraph("Closing Balance: " + currencySymbol + balances.closing()));
+        } else {
+            document.add(new Paragraph("Current Balance: " + currencySymbol + account.getTotalBalance()));
+        }
+        document.add(new Paragraph("Customer Name: " + account.getUser().getFullName()));
+        if (from != null || to != null) {
+            document.add(new Paragraph("Period: " + (from != null ? from : "Account opening") + " to "
+                    + (to != null ? to : LocalDate.now())));
+        }
+        document.add(new Paragraph("\n"));
+
+        float[] columnWidths = {1, 3, 2, 2, 2};
+        Table table = new Table(UnitValue.createPercentArray(columnWidths), true);
+        table.setWidth(UnitValue.createPercentValue(100));
+
+        table.addHeaderCell(new Cell().add(new Paragraph("ID").setBold()));
+        table.addHeaderCell(new Cell().add(new Paragraph("Date").setBold()));
+        table.addHeaderCell(new Cell().add(new Paragraph("Type").setBold()));
+        table.addHeaderCell(new Cell().add(new Paragraph("Amount").setBold()));
+        table.addHeaderCell(new Cell().add(new Paragraph("Status").setBold()));
+        // Added before its rows, so each flush lays them out and writes the finished pages.
+        document.add(table);
+
+        long rows = source.stream(new TransactionExportService.RowHandler() {
+            private long count;
+
+            @Override
+            public void row(long id, BigDecimal amount, LocalDateTime timestamp, String type, String description,
+                            String targetAccountNumber, String status) {
+                table.addCell(Transaction.formatTransactionId(id));
+                table.addCell(timestamp.format(STATEMENT_TIME));
+                table.addCell(type);
+                table.addCell(currencySymbol + amount.toString());
+                table.addCell(status != null ? status : "N/A");
+                if (++count % flushRows == 0) {
+                    table.flush();
+                }
+            }
+        });
 
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+        table.complete();
+        document.close();
+        return rows;
+    }
 
-            for (Transaction t : transactions) {
-                table.addCell(t.getTransactionId());
-                table.addCell(t.getTimestamp().format(formatter));
-                table.addCell(t.getType());
-                table.addCell(currencySymbol + t.getAmount().toString());
-                table.addCell(t.getStatus() != null ? t.getStatus() : "N/A");
-            }
+    // The fastest deflate level: most of the time spent on a small document goes into compressing it.
+    private static PdfWriter newWriter(OutputStream out) {
+        return new PdfWriter(out, new WriterProperties().setCompressionLevel(CompressionConstants.BEST_SPEED));
+    }
 
-            document.add(table);
-            document.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException("Error generating statement PDF");
+    // Embeds the bundled font, which has the rupee sign, and returns the currency symbol to print.
+    private String applyRupeeFont(Document document) {
+        if (fontProgram == null) {
+            return "Rs. ";
         }
-        return baos.toByteArray();
+        // A PdfFont belongs to one document, so only the parsed program is shared.
+        document.setFont(PdfFontFactory.createFont(fontProgram, PdfEncodings.IDENTITY_H,
+                PdfFontFactory.EmbeddingStrategy.FORCE_EMBEDDED));
+        return "\u20B9";
     }
+
     private void addTableRow(Table table, String label, String value) {
-        table.addCell(new Cell().add(new Paragraph(label).setBold()).setBorder(com.itextpdf.layout.borders.Border.NO_BORDER));
-        table.addCell(new Cell().add(new Paragraph(value)).setBorder(com.itextpdf.layout.borders.Border.NO_BORDER));
+        table.addCell(new Cell().add(new Paragraph(label).setBold()).setBorder(Border.NO_BORDER));
+        table.addCell(new Cell().add(new Paragraph(value)).setBorder(Border.NO_BORDER));
         // Add a separator line if you want, or just spacing
     }
 }
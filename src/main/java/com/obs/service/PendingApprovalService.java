@@ -0,0 +1,162 @@
+package com.obs.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.obs.entity.Transaction;
+import com.obs.payload.response.PendingSummaryResponse;
+import com.obs.repository.FraudAlertRepository;
+import com.obs.repository.TransactionRepository;
+
+/**
+ * The banker queue of PENDING transfers. Pages are read with keyset pagination on the status
+ * indexes, oldest first or largest amount first, so a page costs the same however deep the queue
+ * is. The queue's count and total, and the number of open fraud alerts, are cached briefly
+ * because dashboards poll them.
+ */
+@Service
+public class PendingApprovalService {
+
+    public enum Sort {
+        AGE,
+        AMOUNT;
+
+        public static Sort parse(String value) {
+            try {
+                return valueOf(value.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("sort must be one of: age, amount");
+            }
+        }
+    }
+
+    public record Page(List<Transaction> items, String nextCursor) {
+    }
+
+    private static final String PENDING = "PENDING";
+
+    public static final int MAX_PAGE_SIZE = 500;
+
+    @Value("${obs.app.pending.summary-ttl-ms:5000}")
+    private long summaryTtlMs;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private FraudAlertRepository fraudAlertRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private volatile PendingSummaryResponse summary;
+    private volatile long summaryLoadedAt;
+
+    /**
+     * Returns up to {@code limit} pending transactions after {@code cursor}, which is the
+     * {@code nextCursor} of the previous page or null for the first page.
+     */
+    public Page getPage(Sort sort, String cursor, int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        List<Transaction> rows = new ArrayList<>(fetch(sort, cursor, Limit.of(limit + 1)));
+        if (rows.size() <= limit) {
+            return new Page(rows, null);
+        }
+        rows = rows.subList(0, limit);
+        return new Page(rows, encodeCursor(sort, rows.get(limit - 1)));
+    }
+
+    /**
+     * Writes the whole queue as newline-delimited JSON, one page at a time.
+     */
+    public void stream(Sort sort, OutputStream out) throws IOException {
+        String cursor = null;
+        do {
+            Page page = getPage(sort, cursor, MAX_PAGE_SIZE);
+            for (Transaction transaction : page.items()) {
+                out.write(objectMapper.writeValueAsBytes(transaction));
+                out.write('\n');
+            }
+            out.flush();
+            cursor = page.nextCursor();
+        } while (cursor != null);
+    }
+
+    public PendingSummaryResponse getSummary() {
+        PendingSummaryResponse current = summary;
+        if (current == null || System.currentTimeMillis() - summaryLoadedAt > summaryTtlMs) {
+            Object[] row = transactionRepository.countAndSumByStatus(PENDING).get(0);
+            BigDecimal sum = row[1] instanceof BigDecimal amount ? amount : BigDecimal.ZERO;
+            // Pending rows are debits, stored as negative amounts.
+            current = new PendingSummaryResponse(((Number) row[0]).longValue(), sum.negate(),
+                    fraudAlertRepository.countByStatus("OPEN"), LocalDateTime.now());
+            summaryLoadedAt = System.currentTimeMillis();
+            summary = current;
+        }
+        return current;
+    }
+
+    // A load racing with this can still cache the old figures, but only for one TTL.
+    public void invalidateSummary() {
+        summary = null;
+    }
+
+    private List<Transaction> fetch(Sort sort, String cursor, Limit limit) {
+        if (cursor == null || cursor.isBlank()) {
+            return sort == Sort.AGE
+                    ? transactionRepository.findByStatusOrderByAge(PENDING, limit)
+                    : transactionRepository.findByStatusOrderByAmount(PENDING, limit);
+        }
+        String[] parts = decodeCursor(sort, cursor);
+        long id;
+        LocalDateTime timestamp = null;
+        BigDecimal amount = null;
+        try {
+            id = Long.parseLong(parts[2]);
+            if (sort == Sort.AGE) {
+                timestamp = LocalDateTime.parse(parts[1]);
+            } else {
+                amount = new BigDecimal(parts[1]);
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        return sort == Sort.AGE
+                ? transactionRepository.findByStatusOrderByAgeAfter(PENDING, timestamp, id, limit)
+                : transactionRepository.findByStatusOrderByAmountAfter(PENDING, amount, id, limit);
+    }
+
+    private static String encodeCursor(Sort sort, Transaction last) {
+        String value = sort == Sort.AGE ? last.getTimestamp().toString() : last.getAmount().toPlainString();
+        String cursor = sort.name() + "|" + value + "|" + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String[] decodeCursor(Sort sort, String cursor) {
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|");
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        if (parts.length != 3 || !parts[0].equals(sort.name())) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        return parts;
+    }
+}
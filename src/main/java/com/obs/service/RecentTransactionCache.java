@@ -0,0 +1,337 @@
+package com.obs.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.obs.entity.Account;
+import com.obs.entity.Transaction;
+import com.obs.journal.TransactionsRecordedEvent;
+import com.obs.payload.response.TransactionView;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * The newest {@code obs.app.history-cache.entries-per-account} transactions of recently viewed
+ * accounts, so the first page of history is served without a query. An account is loaded on its
+ * first miss and from then on kept current from committed {@link TransactionsRecordedEvent}s and
+ * from pending transfers being decided. At most {@code obs.app.history-cache.max-accounts}
+ * accounts are held; the least recently used is evicted first.
+ * <p>
+ * Rows are kept newest first by (timestamp, id), the order of the history query. A load registers
+ * its entry before querying, so rows committed while it runs are merged in rather than missed; a
+ * load that overlaps a status change is discarded instead of installed.
+ */
+@Service
+public class RecentTransactionCache {
+
+    public record Cached(String owner, List<TransactionView> items, boolean more) {
+    }
+
+    @Value("${obs.app.history-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${obs.app.history-cache.entries-per-account:64}")
+    private int entriesPerAccount;
+
+    @Value("${obs.app.history-cache.max-accounts:10000}")
+    private int maxAccounts;
+
+    private Map<String, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong discardedLoads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        entries = new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxAccounts) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getEntriesPerAccount() {
+        return entriesPerAccount;
+    }
+
+    /**
+     * Returns the newest {@code limit} transactions of the account, or null when they are not all
+     * cached.
+     */
+    public Cached lookup(String accountNumber, int limit) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (entries) {
+            Entry entry = entries.get(accountNumber);
+            if (entry != null && !entry.loading && (limit < entry.size || entry.complete)) {
+                hits.incrementAndGet();
+                return entry.toCached(limit);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches the account's newest transactions, read with {@code newest}, and returns the newest
+     * {@code limit} of them. {@code limit} must be below the per-account capacity.
+     */
+    public Cached load(Account account, int limit, IntFunction<List<TransactionView>> newest) {
+        String accountNumber = account.getAccountNumber();
+        String owner = account.getUser().getUsername();
+        Entry entry = new Entry(owner, entriesPerAccount);
+        boolean registered;
+        synchronized (entries) {
+            registered = !entries.containsKey(accountNumber);
+            if (registered) {
+                entries.put(accountNumber, entry);
+            }
+        }
+
+        List<TransactionView> rows;
+        try {
+            rows = newest.apply(entriesPerAccount + 1);
+        } catch (RuntimeException e) {
+            synchronized (entries) {
+                entries.remove(accountNumber, entry);
+            }
+            throw e;
+        }
+
+        if (registered) {
+            synchronized (entries) {
+                if (!entry.stale && entries.get(accountNumber) == entry) {
+                    entry.complete &= rows.size() <= entriesPerAccount;
+                    for (int i = 0; i < rows.size() && i < entriesPerAccount; i++) {
+                        entry.insert(rows.get(i));
+                    }
+                    entry.loading = false;
+                    loads.incrementAndGet();
+                    return entry.toCached(limit);
+                }
+                entries.remove(accountNumber, entry);
+            }
+            discardedLoads.incrementAndGet();
+        }
+        return new Cached(owner, List.copyOf(rows.subList(0, Math.min(limit, rows.size()))), rows.size() > limit);
+    }
+
+    // Runs after the rows are committed, on the thread that committed them.
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onTransactionsRecorded(TransactionsRecordedEvent recorded) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (entries) {
+            for (Transaction transaction : recorded.transactions()) {
+                if (transaction.getId() == null || transaction.getAccount() == null) {
+                    continue;
+                }
+                Entry entry = entries.get(transaction.getAccount().getAccountNumber());
+                if (entry != null) {
+                    entry.insert(TransactionView.from(transaction));
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the cached copies of existing rows once the caller's transaction commits.
+     */
+    public void updateOnCommit(Collection<Transaction> updated) {
+        if (!enabled || updated.isEmpty()) {
+            return;
+        }
+        List<String> accountNumbers = new ArrayList<>(updated.size());
+        List<TransactionView> views = new ArrayList<>(updated.size());
+        for (Transaction transaction : updated) {
+            accountNumbers.add(transaction.getAccount().getAccountNumber());
+            views.add(TransactionView.from(transaction));
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            replace(accountNumbers, views);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                replace(accountNumbers, views);
+            }
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        long hit = hits.get();
+        long lookups = hit + misses.get();
+        int accounts;
+        long rows = 0;
+        long bytes = 0;
+        synchronized (entries) {
+            accounts = entries.size();
+            for (Map.Entry<String, Entry> mapping : entries.entrySet()) {
+                Entry entry = mapping.getValue();
+                rows += entry.size;
+                bytes += 40 + stringBytes(mapping.getKey()) + entry.estimateBytes();
+            }
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("accounts", accounts);
+        stats.put("maxAccounts", maxAccounts);
+        stats.put("entriesPerAccount", entriesPerAccount);
+        stats.put("rows", rows);
+        stats.put("estimatedBytes", bytes);
+        stats.put("hits", hit);
+        stats.put("misses", misses.get());
+        stats.put("hitRatio", lookups == 0 ? 0.0 : (double) hit / lookups);
+        stats.put("loads", loads.get());
+        stats.put("discardedLoads", discardedLoads.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    private void replace(List<String> accountNumbers, List<TransactionView> views) {
+        synchronized (entries) {
+            for (int i = 0; i < views.size(); i++) {
+                Entry entry = entries.get(accountNumbers.get(i));
+                if (entry == null) {
+                    continue;
+                }
+                if (entry.loading) {
+                    // The load may have read the old row; let the next request load again.
+                    entry.stale = true;
+                } else {
+                    entry.replace(views.get(i));
+                }
+            }
+        }
+    }
+
+    // Newest first, as the history query orders rows.
+    private static int compareNewestFirst(TransactionView a, TransactionView b) {
+        int byTime = b.timestamp().compareTo(a.timestamp());
+        return byTime != 0 ? byTime : Long.compare(b.id(), a.id());
+    }
+
+    // Compact (Latin-1) strings: object plus byte array headers, one byte per character.
+    private static long stringBytes(String value) {
+        return value == null ? 0 : 40 + value.length();
+    }
+
+    /**
+     * Ring buffer of one account's newest rows; index 0 is the newest. Guarded by the cache map.
+     */
+    private static final class Entry {
+
+        private final String owner;
+        private final TransactionView[] ring;
+        private int head;
+        private int size;
+        // Whether the ring holds the account's whole history.
+        private boolean complete = true;
+        private boolean loading = true;
+        private boolean stale;
+
+        private Entry(String owner, int capacity) {
+            this.owner = owner;
+            this.ring = new TransactionView[capacity];
+        }
+
+        private TransactionView get(int index) {
+            return ring[(head + index) % ring.length];
+        }
+
+        private void set(int index, TransactionView view) {
+            ring[(head + index) % ring.length] = view;
+        }
+
+        private void insert(TransactionView view) {
+            if (indexOf(view.id()) >= 0) {
+                return;
+            }
+            int position = 0;
+            while (position < size && compareNewestFirst(get(position), view) < 0) {
+                position++;
+            }
+            if (position == ring.length) {
+                complete = false;
+                return;
+            }
+            if (size == ring.length) {
+                size--;
+                complete = false;
+            }
+            if (position == 0) {
+                // The usual case: the row is the newest, and the oldest slot becomes the new head.
+                head = (head - 1 + ring.length) % ring.length;
+            } else {
+                for (int i = size; i > position; i--) {
+                    set(i, get(i - 1));
+                }
+            }
+            set(position, view);
+            size++;
+        }
+
+        private void replace(TransactionView view) {
+            int index = indexOf(view.id());
+            if (index >= 0) {
+                set(index, view);
+            }
+        }
+
+        private int indexOf(Long id) {
+            for (int i = 0; i < size; i++) {
+                if (get(i).id().equals(id)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private Cached toCached(int limit) {
+            int count = Math.min(limit, size);
+            List<TransactionView> items = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                items.add(get(i));
+            }
+            return new Cached(owner, items, size > limit || !complete);
+        }
+
+        // Rough heap estimate: the record with its id, amount and timestamp, and its strings.
+        private long estimateBytes() {
+            long bytes = 32 + 16 + 4L * ring.length + stringBytes(owner);
+            for (int i = 0; i < size; i++) {
+                TransactionView view = get(i);
+                bytes += 48 + 16 + 40 + 72;
+                bytes += stringBytes(view.transactionId()) + stringBytes(view.type()) + stringBytes(view.description())
+                        + stringBytes(view.targetAccountNumber()) + stringBytes(view.status());
+            }
+            return bytes;
+        }
+    }
+}
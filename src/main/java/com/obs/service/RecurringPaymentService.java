@@ -2,21 +2,70 @@ package com.obs.service;
 
 import com.obs.entity.Account;
 import com.obs.entity.RecurringPayment;
+import com.obs.exception.ConflictException;
 import com.obs.repository.AccountRepository;
 import com.obs.repository.RecurringPaymentRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+
+import jakarta.annotation.PostConstruct;
 
 import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class RecurringPaymentService {
 
+    private static final Logger logger = LoggerFactory.getLogger(RecurringPaymentService.class);
+
+    // Length of the lastRunError column.
+    private static final int MAX_ERROR_LENGTH = 255;
+
+    // How often a node that has run out of payments to claim checks whether other nodes' leases have ended.
+    private static final long LEASE_POLL_MS = 1000;
+
+    // 0 means one per CPU.
+    @Value("${obs.app.recurring.workers:0}")
+    private int workers;
+
+    @Value("${obs.app.recurring.page-size:500}")
+    private int pageSize;
+
+    @Value("${obs.app.recurring.lease-seconds:300}")
+    private int leaseSeconds;
+
+    // Names this node on the payments it leases; several nodes (or application contexts) must not share one.
+    @Value("${obs.app.recurring.node-id:}")
+    private String configuredNodeId;
+
+    private String nodeId;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile Run current;
+
+    private volatile Map<String, Object> lastRun = Map.of();
+
     @Autowired
     private RecurringPaymentRepository recurringPaymentRepository;
 
@@ -26,6 +75,38 @@ public class RecurringPaymentService {
     @Autowired
     private TransactionService transactionService;
 
+    private static final class Run {
+        private final LocalDate date;
+        private final LocalDateTime since;
+        private final long startedNanos = System.nanoTime();
+        private final AtomicLong chunks = new AtomicLong();
+        private final AtomicLong leaseWaitMs = new AtomicLong();
+        private final AtomicLong succeeded = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+
+        private Run(LocalDate date, LocalDateTime since) {
+            this.date = date;
+            this.since = since;
+        }
+
+        private Map<String, Object> snapshot() {
+            long elapsedMs = (System.nanoTime() - startedNanos) / 1_000_000;
+            long processed = succeeded.get() + failed.get() + skipped.get();
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("date", date.toString());
+            snapshot.put("chunks", chunks.get());
+            snapshot.put("processed", processed);
+            snapshot.put("succeeded", succeeded.get());
+            snapshot.put("failed", failed.get());
+            snapshot.put("skipped", skipped.get());
+            snapshot.put("leaseWaitMs", leaseWaitMs.get());
+            snapshot.put("elapsedMs", elapsedMs);
+            snapshot.put("paymentsPerSecond", elapsedMs == 0 ? 0.0 : processed * 1000.0 / elapsedMs);
+            return snapshot;
+        }
+    }
+
     public RecurringPayment createRecurringPayment(String accountNumber, BigDecimal amount, String targetAccountNumber, String frequency, LocalDate startDate, LocalDate endDate) {
         Account account = accountRepository.findByAccountNumber(accountNumber)
                 .orElseThrow(() -> new IllegalArgumentException("Account not found"));
@@ -76,43 +157,162 @@ public class RecurringPaymentService {
         recurringPaymentRepository.save(payment);
     }
 
+    @PostConstruct
+    void initNodeId() {
+        nodeId = !configuredNodeId.isBlank() ? configuredNodeId
+                : hostName() + "-" + ProcessHandle.current().pid() + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    // Fires on every node; the leases divide the due payments between them.
     @Scheduled(cron = "0 0 12 * * ?") // Every day at 12 PM
-    @Transactional
-    public void processRecurringPayments() {
-        LocalDate today = LocalDate.now();
-        List<RecurringPayment> payments = recurringPaymentRepository.findByStatusAndNextPaymentDateLessThanEqual("ACTIVE", today);
-
-        for (RecurringPayment payment : payments) {
-             try {
-                 transactionService.executeRecurringTransfer(payment.getAccount(), payment.getTargetAccountNumber(), payment.getAmount());
-                 
-                 // Update Next Payment Date
-                 LocalDate nextDate = payment.getNextPaymentDate();
-                 switch (payment.getFrequency()) {
-                     case "DAILY":
-                         nextDate = nextDate.plusDays(1);
-                         break;
-                     case "WEEKLY":
-                         nextDate = nextDate.plusWeeks(1);
-                         break;
-                     case "MONTHLY":
-                         nextDate = nextDate.plusMonths(1);
-                         break;
-                 }
-                 
-                 payment.setNextPaymentDate(nextDate);
-                 
-                 // Check End Date
-                 if (payment.getEndDate() != null && nextDate.isAfter(payment.getEndDate())) {
-                     payment.setStatus("COMPLETED");
-                 }
-                 
-                 recurringPaymentRepository.save(payment);
-                 
-             } catch (Exception e) {
-                 System.err.println("Failed to process recurring payment " + payment.getId() + ": " + e.getMessage());
-                 // Optionally disable payment or retry later
-             }
+    public void scheduledRun() {
+        try {
+            processRecurringPayments();
+        } catch (ConflictException e) {
+            logger.warn("Recurring payments not processed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Pays everything due today, sharing the work with any other node running at the same time. The
+     * node leases due payments {@code obs.app.recurring.page-size} at a time with
+     * {@code FOR UPDATE SKIP LOCKED}, so concurrent nodes take different payments, loads them with
+     * their source and target accounts, and spreads them over {@code obs.app.recurring.workers}
+     * threads. Every payment is its own transaction, which advances the schedule only if the payment
+     * is still due and then makes the transfer, so a failure rolls back that payment alone and leaves
+     * it due for the next run. Its outcome is kept on the payment and ends the lease.
+     * <p>
+     * When nothing is left to claim but other nodes still hold leases, the node waits for them: a
+     * lease that runs out because its node died is taken over, {@code obs.app.recurring.lease-seconds}
+     * after it was granted. Payments already tried since this run started are not claimed again.
+     */
+    public Map<String, Object> processRecurringPayments() {
+        if (!running.compareAndSet(false, true)) {
+            throw new ConflictException("Recurring payments are already being processed");
+        }
+        try {
+            Run run = new Run(LocalDate.now(), recurringPaymentRepository.currentTimestamp());
+            current = run;
+            process(run);
+            Map<String, Object> result = run.snapshot();
+            logger.info("Recurring payments of {} processed: {}", run.date, result);
+            lastRun = result;
+            return result;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("node", nodeId);
+        stats.put("workers", workerCount());
+        stats.put("pageSize", pageSize);
+        stats.put("leaseSeconds", leaseSeconds);
+        stats.put("running", running.get());
+        Run run = current;
+        stats.put("current", running.get() && run != null ? run.snapshot() : Map.of());
+        stats.put("lastRun", lastRun);
+        return stats;
+    }
+
+    private void process(Run run) {
+        try (ExecutorService executor = Executors.newFixedThreadPool(workerCount(),
+                Thread.ofPlatform().name("recurring-payment-", 0).factory())) {
+            while (true) {
+                List<Long> ids = recurringPaymentRepository.claimDue(nodeId, leaseSeconds, run.date, run.since, pageSize);
+                if (ids.isEmpty()) {
+                    LocalDateTime lastExpiry = recurringPaymentRepository.findLastLeaseExpiry(run.date, run.since);
+                    if (lastExpiry == null) {
+                        break;
+                    }
+                    // Other nodes are still paying, or died holding leases; what they leave is claimed once their leases end.
+                    Thread.sleep(LEASE_POLL_MS);
+                    run.leaseWaitMs.addAndGet(LEASE_POLL_MS);
+                    continue;
+                }
+
+                List<RecurringPayment> page = recurringPaymentRepository.findWithAccountsByIdIn(ids);
+                Set<String> targetNumbers = page.stream().map(RecurringPayment::getTargetAccountNumber).collect(Collectors.toSet());
+                Map<String, Account> targets = accountRepository.findWithUserByAccountNumberIn(targetNumbers).stream()
+                        .collect(Collectors.toMap(Account::getAccountNumber, Function.identity()));
+
+                List<Callable<Void>> tasks = new ArrayList<>(page.size());
+                for (RecurringPayment payment : page) {
+                    tasks.add(() -> {
+                        processRecurringPayment(payment, targets.get(payment.getTargetAccountNumber()), run);
+                        return null;
+                    });
+                }
+                // The chunk is finished before the next is claimed, so at most one chunk is queued and leased.
+                executor.invokeAll(tasks);
+                run.chunks.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while processing recurring payments");
+        }
+    }
+
+    private int workerCount() {
+        return workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+    }
+
+    private void processRecurringPayment(RecurringPayment payment, Account target, Run run) {
+        String error;
+        if (target == null) {
+            error = "Target account not found";
+        } else {
+            try {
+                LocalDate nextDate = nextPaymentDate(payment);
+                String status = payment.getEndDate() != null && nextDate.isAfter(payment.getEndDate()) ? "COMPLETED" : "ACTIVE";
+                boolean paid = transactionService.executeRecurringTransfer(payment.getAccount(), target, payment.getAmount(),
+                        () -> recurringPaymentRepository.advance(payment.getId(), payment.getNextPaymentDate(), nextDate, status) > 0);
+                if (!paid) {
+                    // Stopped, or paid by another run, since it was claimed.
+                    recurringPaymentRepository.release(payment.getId(), nodeId);
+                    run.skipped.incrementAndGet();
+                } else {
+                    run.succeeded.incrementAndGet();
+                }
+                return;
+            } catch (RuntimeException e) {
+                error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            }
+        }
+        run.failed.incrementAndGet();
+        logger.warn("Failed to process recurring payment {}: {}", payment.getId(), error);
+        try {
+            if (recurringPaymentRepository.recordFailure(payment.getId(), nodeId,
+                    error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error) == 0) {
+                logger.warn("Recurring payment {} was leased to another node before its failure was recorded", payment.getId());
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Could not record the failure of recurring payment {}: {}", payment.getId(), e.getMessage());
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "unknown";
+        }
+    }
+
+    private static LocalDate nextPaymentDate(RecurringPayment payment) {
+        LocalDate nextDate = payment.getNextPaymentDate();
+        switch (payment.getFrequency()) {
+            case "DAILY":
+                nextDate = nextDate.plusDays(1);
+                break;
+            case "WEEKLY":
+                nextDate = nextDate.plusWeeks(1);
+                break;
+            case "MONTHLY":
+                nextDate = nextDate.plusMonths(1);
+                break;
         }
+        return nextDate;
     }
 }
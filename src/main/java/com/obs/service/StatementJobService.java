@@ -0,0 +1,420 @@
+package com.obs.service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.obs.entity.Account;
+import com.obs.exception.ConflictException;
+import com.obs.exception.ResourceNotFoundException;
+import com.obs.journal.Histogram;
+import com.obs.payload.response.StatementJobResponse;
+import com.obs.repository.AccountMonthlyRollupRepository;
+import com.obs.repository.AccountRepository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Renders account statement PDFs on {@code obs.app.statement-jobs.workers} dedicated threads, so
+ * large statements queue up instead of taking request threads and CPU from transfers. Jobs wait
+ * in a priority queue ordered by submission time plus the estimated rendering time of their rows,
+ * so small statements overtake large ones without starving them. A request for a statement that
+ * is already queued or rendering joins that job. Results are written to
+ * {@code obs.app.statement-jobs.directory} and deleted, with their job, once they are older than
+ * {@code obs.app.statement-jobs.result-ttl-ms}. Jobs live in memory; shutting down fails those that
+ * have not finished, and a restart discards the rest.
+ */
+@Service
+public class StatementJobService {
+
+    public enum Status {
+        QUEUED, RUNNING, DONE, FAILED
+    }
+
+    private record Key(long accountId, LocalDate from, LocalDate to) {
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(StatementJobService.class);
+
+    private static final String RESULT_SUFFIX = ".pdf";
+
+    private static final Comparator<Job> QUEUE_ORDER = Comparator.comparingLong((Job job) -> job.rank)
+            .thenComparingLong(job -> job.sequence);
+
+    @Value("${obs.app.statement-jobs.workers:2}")
+    private int workerCount;
+
+    @Value("${obs.app.statement-jobs.max-queued:200}")
+    private int maxQueued;
+
+    @Value("${obs.app.statement-jobs.row-cost-micros:500}")
+    private long rowCostMicros;
+
+    @Value("${obs.app.statement-jobs.directory:data/statements}")
+    private String directory;
+
+    @Value("${obs.app.statement-jobs.result-ttl-ms:3600000}")
+    private long resultTtlMs;
+
+    // Bounds how long a streamed download holds its async request thread.
+    @Value("${obs.app.statement-jobs.wait-timeout-ms:120000}")
+    private long waitTimeoutMs;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private AccountMonthlyRollupRepository accountMonthlyRollupRepository;
+
+    @Autowired
+    private AccountBalanceService accountBalanceService;
+
+    @Autowired
+    private PdfGenerationService pdfGenerationService;
+
+    private final PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<>(64, QUEUE_ORDER);
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    // Queued and running jobs, so an identical request joins them; guarded by itself.
+    private final Map<Key, Job> inFlight = new HashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private Path root;
+    private Thread[] workers = new Thread[0];
+    private volatile boolean running;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong joined = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong waitTimeouts = new AtomicLong();
+    private final Histogram queueWaitMs = new Histogram();
+    private final Histogram renderMs = new Histogram();
+
+    /**
+     * A statement being rendered or already rendered. Fields other than the identity are written by
+     * the worker and read by pollers, so they are volatile.
+     */
+    public static final class Job {
+        private final String id = UUID.randomUUID().toString();
+        private final Key key;
+        private final String accountNumber;
+        private final String owner;
+        private final long estimatedTransactions;
+        private final long rank;
+        private final long sequence;
+        private final LocalDateTime submittedAt = LocalDateTime.now();
+        private final long submittedNanos = System.nanoTime();
+        private final CompletableFuture<Path> result = new CompletableFuture<>();
+        private volatile Status status = Status.QUEUED;
+        private volatile LocalDateTime startedAt;
+        private volatile LocalDateTime finishedAt;
+        private volatile long finishedNanos;
+        private volatile long transactions;
+        private volatile long sizeBytes;
+        private volatile String error;
+
+        private Job(Key key, String accountNumber, String owner, long estimatedTransactions, long rank, long sequence) {
+            this.key = key;
+            this.accountNumber = accountNumber;
+            this.owner = owner;
+            this.estimatedTransactions = estimatedTransactions;
+            this.rank = rank;
+            this.sequence = sequence;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getAccountNumber() {
+            return accountNumber;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public StatementJobResponse toResponse() {
+            return new StatementJobResponse(id, accountNumber, key.from(), key.to(), status.name(), estimatedTransactions,
+                    transactions, sizeBytes, submittedAt, startedAt, finishedAt, error);
+        }
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        root = Paths.get(directory);
+        Files.createDirectories(root);
+        // Results of jobs from before a restart can no longer be asked for.
+        try (Stream<Path> leftovers = Files.list(root)) {
+            for (Iterator<Path> it = leftovers.iterator(); it.hasNext(); ) {
+                Files.deleteIfExists(it.next());
+            }
+        }
+        running = true;
+        workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Thread(this::run, "statement-worker-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        logger.info("Statement jobs use {} workers (at most {} queued)", workerCount, maxQueued);
+    }
+
+    /**
+     * Stops the workers and fails every job that has not finished, so that no one waiting for a
+     * result hangs. Submissions after this are refused.
+     */
+    @PreDestroy
+    public void stop() {
+        synchronized (inFlight) {
+            running = false;
+        }
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        queue.clear();
+        IllegalStateException shutdown = new IllegalStateException("Statement jobs are shut down");
+        for (Job job : jobs.values()) {
+            if ((job.status == Status.QUEUED || job.status == Status.RUNNING) && job.result.completeExceptionally(shutdown)) {
+                job.error = shutdown.getMessage();
+                finish(job, Status.FAILED);
+                failed.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Queues a statement of the account, or returns the queued or running job for the same account
+     * and period. A null username skips the ownership check.
+     */
+    public Job submit(String accountNumber, LocalDate from, LocalDate to, String username) {
+        if (from != null && to != null && from.isAfter(to)) {
+            throw new IllegalArgumentException("from must not be after to");
+        }
+        Account account = accountRepository.findByAccountNumber(accountNumber)
+                .orElseThrow(() -> new IllegalArgumentException("Account not found"));
+        if (username != null && !account.getUser().getUsername().equals(username)) {
+            throw new IllegalArgumentException("Unauthorized access to account statement");
+        }
+
+        Key key = new Key(account.getId(), from, to);
+        // Read before taking the lock, so submissions do not queue behind each other's query.
+        long estimated = estimateTransactions(account.getId(), from, to);
+        long rank = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(estimated * rowCostMicros);
+        synchronized (inFlight) {
+            if (!running) {
+                throw new IllegalStateException("Statement jobs are shut down");
+            }
+            Job existing = inFlight.get(key);
+            if (existing != null) {
+                joined.incrementAndGet();
+                return existing;
+            }
+            if (queue.size() >= maxQueued) {
+                rejected.incrementAndGet();
+                throw new ConflictException("Too many statements are being generated, please try again later");
+            }
+            Job job = new Job(key, accountNumber, account.getUser().getUsername(), estimated, rank, sequence.incrementAndGet());
+            jobs.put(job.id, job);
+            inFlight.put(key, job);
+            queue.add(job);
+            submitted.incrementAndGet();
+            return job;
+        }
+    }
+
+    /**
+     * The job with the given id. A null username skips the ownership check.
+     */
+    public Job getJob(String jobId, String username) {
+        Job job = jobs.get(jobId);
+        if (job == null) {
+            throw new ResourceNotFoundException("Statement job not found");
+        }
+        if (username != null && !job.owner.equals(username)) {
+            throw new IllegalArgumentException("Unauthorized access to account statement");
+        }
+        return job;
+    }
+
+    /**
+     * The rendered PDF of a finished job.
+     */
+    public Path getResult(Job job) {
+        if (job.status == Status.FAILED) {
+            throw new ConflictException("Statement could not be generated: " + job.error);
+        }
+        if (job.status != Status.DONE) {
+            throw new ConflictException("Statement is not ready yet");
+        }
+        return job.result.join();
+    }
+
+    /**
+     * Waits up to {@code obs.app.statement-jobs.wait-timeout-ms} for the job to finish and copies its
+     * PDF to {@code out}. A job still unfinished by then is left running and reported as a conflict.
+     */
+    public void copyResult(Job job, OutputStream out) throws IOException {
+        Path path;
+        try {
+            path = job.result.get(waitTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the statement", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Statement could not be generated", e.getCause());
+        } catch (TimeoutException e) {
+            waitTimeouts.incrementAndGet();
+            throw new ConflictException("Statement is not ready yet, please request it as a statement job");
+        }
+        Files.copy(path, out);
+    }
+
+    @Scheduled(fixedDelayString = "${obs.app.statement-jobs.sweep-interval-ms:60000}")
+    public void deleteExpired() {
+        long now = System.nanoTime();
+        for (Iterator<Job> it = jobs.values().iterator(); it.hasNext(); ) {
+            Job job = it.next();
+            boolean finished = job.status == Status.DONE || job.status == Status.FAILED;
+            if (finished && now - job.finishedNanos > TimeUnit.MILLISECONDS.toNanos(resultTtlMs)) {
+                it.remove();
+                try {
+                    Files.deleteIfExists(resultPath(job));
+                } catch (IOException e) {
+                    logger.warn("Could not delete statement {}: {}", job.id, e.getMessage());
+                }
+                expired.incrementAndGet();
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("workers", workerCount);
+        stats.put("queued", queue.size());
+        stats.put("running", jobs.values().stream().filter(job -> job.status == Status.RUNNING).count());
+        stats.put("submitted", submitted.get());
+        stats.put("joined", joined.get());
+        stats.put("rejected", rejected.get());
+        stats.put("completed", completed.get());
+        stats.put("failed", failed.get());
+        stats.put("expired", expired.get());
+        stats.put("waitTimeouts", waitTimeouts.get());
+        stats.put("results", jobs.size());
+        stats.put("queueWaitMs", queueWaitMs.snapshot());
+        stats.put("renderMs", renderMs.snapshot());
+        return stats;
+    }
+
+    // Rollups count successful transactions only, which is close enough for ordering the queue.
+    private long estimateTransactions(long accountId, LocalDate from, LocalDate to) {
+        LocalDate fromMonth = (from != null ? from : LocalDate.EPOCH).withDayOfMonth(1);
+        LocalDate toMonth = (to != null ? to : LocalDate.now()).withDayOfMonth(1);
+        return accountMonthlyRollupRepository.countMonths(accountId, fromMonth, toMonth);
+    }
+
+    private void run() {
+        while (running) {
+            Job job;
+            try {
+                job = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (job != null) {
+                render(job);
+            }
+        }
+    }
+
+    private void render(Job job) {
+        long started = System.nanoTime();
+        queueWaitMs.record(TimeUnit.NANOSECONDS.toMillis(started - job.submittedNanos));
+        job.startedAt = LocalDateTime.now();
+        job.status = Status.RUNNING;
+        Path target = resultPath(job);
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            // Read when rendering starts, so the balance matches the rows below it.
+            Account account = accountRepository.findById(job.key.accountId())
+                    .orElseThrow(() -> new IllegalArgumentException("Account not found"));
+            accountBalanceService.withUnfoldedCredits(List.of(account));
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+                job.transactions = pdfGenerationService.writeAccountStatement(account, job.key.from(), job.key.to(), out);
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            job.sizeBytes = Files.size(target);
+            // False when stop() has already failed the job.
+            if (job.result.complete(target)) {
+                finish(job, Status.DONE);
+                completed.incrementAndGet();
+            }
+        } catch (Exception e) {
+            logger.warn("Could not generate statement {} of account {}: {}", job.id, job.accountNumber, e.getMessage());
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+                // Removed with the job's result when it expires.
+            }
+            if (job.result.completeExceptionally(e)) {
+                job.error = e.getMessage();
+                finish(job, Status.FAILED);
+                failed.incrementAndGet();
+            }
+        }
+        renderMs.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    // Leaves the in-flight set first, so a request arriving after this gets a fresh statement.
+    private void finish(Job job, Status status) {
+        synchronized (inFlight) {
+            inFlight.remove(job.key, job);
+        }
+        job.finishedAt = LocalDateTime.now();
+        job.finishedNanos = System.nanoTime();
+        job.status = status;
+    }
+
+    private Path resultPath(Job job) {
+        return root.resolve(job.id + RESULT_SUFFIX);
+    }
+}
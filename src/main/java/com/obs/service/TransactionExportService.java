@@ -0,0 +1,379 @@
+package com.obs.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.obs.archive.ColdSegmentStore;
+import com.obs.entity.Account;
+import com.obs.entity.Transaction;
+import com.obs.payload.response.TransactionView;
+import com.obs.repository.AccountRepository;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Full-history exports of an account, oldest first, as newline-delimited JSON or CSV. Rows are read
+ * with a forward-only cursor, {@code obs.app.export.fetch-size} at a time, inside a read-only
+ * transaction (the PostgreSQL driver only streams with auto-commit off) and written as they arrive,
+ * so memory does not grow with the size of the history. Archived months are read block by block
+ * from the {@link ColdSegmentStore} and merged in order. Each line carries the same fields as
+ * {@link TransactionView}.
+ */
+@Service
+public class TransactionExportService {
+
+    public enum Format {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public static Format parse(String value) {
+            try {
+                return valueOf(value.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("format must be one of: ndjson, csv");
+            }
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(TransactionExportService.class);
+
+    private static final String SELECT_HISTORY = "select id, amount, timestamp, type, description, target_account_number, status"
+            + " from transaction where account_id = ?";
+
+    private static final String ORDER_BY_AGE = " order by timestamp, id";
+
+    private static final String SELECT_ACCOUNT_RANGE = "select account_id, id, amount, timestamp, type, description,"
+            + " target_account_number, status from transaction where account_id between ? and ?"
+            + " and timestamp >= ? and timestamp < ? order by account_id, timestamp, id";
+
+    private static final String CSV_HEADER = "id,transactionId,amount,timestamp,type,description,targetAccountNumber,status\n";
+
+    @Value("${obs.app.export.fetch-size:1000}")
+    private int fetchSize;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ColdSegmentStore coldSegmentStore;
+
+    private TransactionTemplate readOnlyTransaction;
+
+    @PostConstruct
+    public void init() {
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+    }
+
+    public Account findAccountForOwner(String accountNumber, String username) {
+        Account account = findAccount(accountNumber);
+        if (!account.getUser().getUsername().equals(username)) {
+            throw new IllegalArgumentException("Unauthorized access to account history");
+        }
+        return account;
+    }
+
+    public Account findAccount(String accountNumber) {
+        return accountRepository.findByAccountNumber(accountNumber)
+                .orElseThrow(() -> new IllegalArgumentException("Account not found"));
+    }
+
+    /**
+     * Writes every transaction of the account to {@code out} and returns the number of rows written.
+     */
+    public long export(Long accountId, Format format, OutputStream out) throws IOException {
+        long started = System.nanoTime();
+        RowWriter writer = format == Format.NDJSON ? new NdjsonWriter(out) : new CsvWriter(out);
+        long rows = stream(accountId, null, null, writer);
+        writer.finish();
+        logger.info("Exported {} transactions of account {} as {} in {} ms", rows, accountId, format,
+                (System.nanoTime() - started) / 1_000_000);
+        return rows;
+    }
+
+    /**
+     * Hands the account's transactions with {@code from <= timestamp < to} to {@code handler}, oldest
+     * first, and returns how many there were. Either bound may be null. Rows are read from the
+     * database cursor and the archived months as the handler consumes them.
+     */
+    public long stream(Long accountId, LocalDateTime from, LocalDateTime to, RowHandler handler) throws IOException {
+        StringBuilder sql = new StringBuilder(SELECT_HISTORY);
+        List<Object> parameters = new ArrayList<>(List.of(accountId));
+        if (from != null) {
+            sql.append(" and timestamp >= ?");
+            parameters.add(from);
+        }
+        if (to != null) {
+            sql.append(" and timestamp < ?");
+            parameters.add(to);
+        }
+        sql.append(ORDER_BY_AGE);
+
+        long[] rows = new long[1];
+        try (ColdSegmentStore.View cold = coldSegmentStore.openView()) {
+            Iterator<TransactionView> archived = cold.oldestFirst(accountId, from, to).iterator();
+            TransactionView[] nextArchived = { nextInRange(archived, from, to) };
+            readOnlyTransaction.executeWithoutResult(status -> jdbcTemplate.query(con -> {
+                PreparedStatement statement = con.prepareStatement(sql.toString(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(fetchSize);
+                for (int i = 0; i < parameters.size(); i++) {
+                    statement.setObject(i + 1, parameters.get(i));
+                }
+                return statement;
+            }, (RowCallbackHandler) rs -> {
+                long id = rs.getLong(1);
+                LocalDateTime timestamp = rs.getObject(3, LocalDateTime.class);
+                try {
+                    // Archived rows go first while they are older than the row just read.
+                    while (nextArchived[0] != null && isBefore(nextArchived[0], timestamp, id)) {
+                        handler.row(nextArchived[0]);
+                        rows[0]++;
+                        nextArchived[0] = nextInRange(archived, from, to);
+                    }
+                    handler.row(id, rs.getBigDecimal(2), timestamp, rs.getString(4), rs.getString(5), rs.getString(6),
+                            rs.getString(7));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                rows[0]++;
+            }));
+            while (nextArchived[0] != null) {
+                handler.row(nextArchived[0]);
+                rows[0]++;
+                nextArchived[0] = nextInRange(archived, from, to);
+            }
+        } catch (UncheckedIOException e) {
+            // Usually the client going away; the transaction has been rolled back and the cursor closed.
+            throw e.getCause();
+        }
+        return rows[0];
+    }
+
+    /**
+     * Hands the transactions with {@code from <= timestamp < to} of every account with an id from
+     * {@code firstAccountId} to {@code lastAccountId} to {@code handler}, ordered by account and then
+     * oldest first, and returns how many there were. The period must lie within one month, which is
+     * read in a single cursor pass over the range or, once archived, from its segment.
+     */
+    public long streamAccounts(long firstAccountId, long lastAccountId, LocalDateTime from, LocalDateTime to,
+                               AccountRowHandler handler) throws IOException {
+        YearMonth month = YearMonth.from(from);
+        if (!to.isAfter(from) || to.isAfter(month.plusMonths(1).atDay(1).atStartOfDay())) {
+            throw new IllegalArgumentException("The period must lie within one month");
+        }
+        long[] rows = new long[1];
+        try (ColdSegmentStore.View cold = coldSegmentStore.openView()) {
+            if (cold.months().contains(month)) {
+                for (long accountId = firstAccountId; accountId <= lastAccountId; accountId++) {
+                    Iterator<TransactionView> archived = cold.oldestFirst(accountId, from, to).iterator();
+                    for (TransactionView row = nextInRange(archived, from, to); row != null; row = nextInRange(archived, from, to)) {
+                        handler.row(accountId, row);
+                        rows[0]++;
+                    }
+                }
+                return rows[0];
+            }
+            readOnlyTransaction.executeWithoutResult(status -> jdbcTemplate.query(con -> {
+                PreparedStatement statement = con.prepareStatement(SELECT_ACCOUNT_RANGE, ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(fetchSize);
+                statement.setLong(1, firstAccountId);
+                statement.setLong(2, lastAccountId);
+                statement.setObject(3, from);
+                statement.setObject(4, to);
+                return statement;
+            }, (RowCallbackHandler) rs -> {
+                try {
+                    handler.row(rs.getLong(1), new TransactionView(rs.getLong(2), rs.getBigDecimal(3),
+                            rs.getObject(4, LocalDateTime.class), rs.getString(5), rs.getString(6), rs.getString(7), rs.getString(8)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                rows[0]++;
+            }));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return rows[0];
+    }
+
+    // The next archived row within [from, to), or null once there are no more.
+    private static TransactionView nextInRange(Iterator<TransactionView> archived, LocalDateTime from, LocalDateTime to) {
+        while (archived.hasNext()) {
+            TransactionView row = archived.next();
+            if (to != null && !row.timestamp().isBefore(to)) {
+                return null;
+            }
+            if (from == null || !row.timestamp().isBefore(from)) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isBefore(TransactionView row, LocalDateTime timestamp, long id) {
+        int byTime = row.timestamp().compareTo(timestamp);
+        return byTime < 0 || (byTime == 0 && row.id() < id);
+    }
+
+    /**
+     * Receives the rows of {@link #stream}, one call per transaction.
+     */
+    public interface RowHandler {
+        void row(long id, BigDecimal amount, LocalDateTime timestamp, String type, String description,
+                 String targetAccountNumber, String status) throws IOException;
+
+        default void row(TransactionView view) throws IOException {
+            row(view.id(), view.amount(), view.timestamp(), view.type(), view.description(), view.targetAccountNumber(),
+                    view.status());
+        }
+    }
+
+    /**
+     * Receives the rows of {@link #streamAccounts}, one call per transaction.
+     */
+    public interface AccountRowHandler {
+        void row(long accountId, TransactionView transaction) throws IOException;
+    }
+
+    private interface RowWriter extends RowHandler {
+        void finish() throws IOException;
+    }
+
+    private final class NdjsonWriter implements RowWriter {
+
+        private final JsonGenerator generator;
+
+        private NdjsonWriter(OutputStream out) throws IOException {
+            this.generator = objectMapper.getFactory().createGenerator(out)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        }
+
+        @Override
+        public void row(long id, BigDecimal amount, LocalDateTime timestamp, String type, String description,
+                        String targetAccountNumber, String status) throws IOException {
+            generator.writeStartObject();
+            generator.writeNumberField("id", id);
+            generator.writeStringField("transactionId", Transaction.formatTransactionId(id));
+            generator.writeNumberField("amount", amount);
+            generator.writeStringField("timestamp", formatTimestamp(timestamp));
+            generator.writeStringField("type", type);
+            generator.writeStringField("description", description);
+            generator.writeStringField("targetAccountNumber", targetAccountNumber);
+            generator.writeStringField("status", status);
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            generator.flush();
+        }
+    }
+
+    private static final class CsvWriter implements RowWriter {
+
+        private final Writer writer;
+
+        private CsvWriter(OutputStream out) throws IOException {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+            writer.write(CSV_HEADER);
+        }
+
+        @Override
+        public void row(long id, BigDecimal amount, LocalDateTime timestamp, String type, String description,
+                        String targetAccountNumber, String status) throws IOException {
+            writer.write(Long.toString(id));
+            writer.write(',');
+            writer.write(Transaction.formatTransactionId(id));
+            writer.write(',');
+            writer.write(amount == null ? "" : amount.toPlainString());
+            writer.write(',');
+            writeField(formatTimestamp(timestamp));
+            writer.write(',');
+            writeField(type);
+            writer.write(',');
+            writeField(description);
+            writer.write(',');
+            writeField(targetAccountNumber);
+            writer.write(',');
+            writeField(status);
+            writer.write('\n');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            writer.flush();
+        }
+
+        // RFC 4180: fields containing a separator, quote or line break are quoted, quotes doubled.
+        private void writeField(String value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+    }
+
+    private static String formatTimestamp(LocalDateTime timestamp) {
+        return timestamp == null ? null : DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(timestamp);
+    }
+}
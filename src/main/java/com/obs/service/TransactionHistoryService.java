@@ -0,0 +1,227 @@
+package com.obs.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.obs.archive.ColdSegmentStore;
+import com.obs.entity.Account;
+import com.obs.entity.Transaction;
+import com.obs.payload.request.TransactionHistoryQuery;
+import com.obs.payload.response.TransactionView;
+import com.obs.repository.AccountRepository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+
+/**
+ * An account's transaction history, newest first. Pages are read with keyset pagination on
+ * idx_transaction_account_timestamp, so a page costs the same however long the history is. Only the
+ * filters that are set become predicates, which keeps the query plan on that index. Rows are
+ * selected into {@link TransactionView}s, so no entities or accounts are loaded. An unfiltered first
+ * page is served from the {@link RecentTransactionCache} when it can be. Archived months are read
+ * from the {@link ColdSegmentStore} with the same filters and merged in.
+ */
+@Service
+public class TransactionHistoryService {
+
+    public record Page(List<TransactionView> items, String nextCursor) {
+    }
+
+    private record Cursor(LocalDateTime timestamp, long id) {
+    }
+
+    private static final Comparator<TransactionView> NEWEST_FIRST = Comparator.comparing(TransactionView::timestamp)
+            .thenComparing(TransactionView::id).reversed();
+
+    public static final int MAX_PAGE_SIZE = 500;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private AccountRepository accountRepository;
+
+    @Autowired
+    private RecentTransactionCache recentTransactionCache;
+
+    @Autowired
+    private ColdSegmentStore coldSegmentStore;
+
+    public Page getPageForOwner(String accountNumber, String username, TransactionHistoryQuery query) {
+        return getPage(accountNumber, username, query);
+    }
+
+    public Page getPage(String accountNumber, TransactionHistoryQuery query) {
+        return getPage(accountNumber, null, query);
+    }
+
+    // A null username skips the ownership check.
+    private Page getPage(String accountNumber, String username, TransactionHistoryQuery query) {
+        int limit = query.getLimit();
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        if (query.getFrom() != null && query.getTo() != null && query.getFrom().isAfter(query.getTo())) {
+            throw new IllegalArgumentException("from must not be after to");
+        }
+
+        boolean firstPage = isUnfilteredFirstPage(query);
+        if (firstPage) {
+            RecentTransactionCache.Cached cached = recentTransactionCache.lookup(accountNumber, limit);
+            if (cached != null) {
+                checkOwner(cached.owner(), username);
+                return toPage(cached);
+            }
+        }
+
+        Account account = findAccount(accountNumber);
+        checkOwner(account.getUser().getUsername(), username);
+        if (firstPage && recentTransactionCache.isEnabled() && limit < recentTransactionCache.getEntriesPerAccount()) {
+            return toPage(recentTransactionCache.load(account, limit, rows -> fetch(account, query, rows)));
+        }
+
+        List<TransactionView> rows = new ArrayList<>(fetch(account, query, limit + 1));
+        if (rows.size() <= limit) {
+            return new Page(rows, null);
+        }
+        rows = rows.subList(0, limit);
+        return new Page(rows, encodeCursor(rows.get(limit - 1)));
+    }
+
+    // Newest rows first, at most maxResults of them.
+    private List<TransactionView> fetch(Account account, TransactionHistoryQuery query, int maxResults) {
+        try (ColdSegmentStore.View cold = coldSegmentStore.openView()) {
+            List<TransactionView> hot = fetchHot(account, query, maxResults);
+            if (cold.isEmpty()) {
+                return hot;
+            }
+            List<TransactionView> merged = new ArrayList<>(hot);
+            merged.addAll(fetchCold(cold, account, query, maxResults, hot.size() == maxResults ? hot.get(maxResults - 1) : null));
+            merged.sort(NEWEST_FIRST);
+            return merged.size() > maxResults ? merged.subList(0, maxResults) : merged;
+        }
+    }
+
+    private List<TransactionView> fetchHot(Account account, TransactionHistoryQuery query, int maxResults) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<TransactionView> criteria = cb.createQuery(TransactionView.class);
+        Root<Transaction> transaction = criteria.from(Transaction.class);
+        Path<LocalDateTime> timestamp = transaction.get("timestamp");
+        Path<Long> id = transaction.get("id");
+
+        List<Predicate> where = new ArrayList<>();
+        where.add(cb.equal(transaction.get("account").get("id"), account.getId()));
+        if (query.getFrom() != null) {
+            where.add(cb.greaterThanOrEqualTo(timestamp, query.getFrom().atStartOfDay()));
+        }
+        if (query.getTo() != null) {
+            where.add(cb.lessThan(timestamp, query.getTo().plusDays(1).atStartOfDay()));
+        }
+        if (!isBlank(query.getType())) {
+            where.add(cb.equal(transaction.get("type"), query.getType().toUpperCase(Locale.ROOT)));
+        }
+        if (!isBlank(query.getStatus())) {
+            where.add(cb.equal(transaction.get("status"), query.getStatus().toUpperCase(Locale.ROOT)));
+        }
+        if (!isBlank(query.getCursor())) {
+            Cursor last = decodeCursor(query.getCursor());
+            // (timestamp, id) < (last.timestamp, last.id); the first term bounds the index scan.
+            where.add(cb.lessThanOrEqualTo(timestamp, last.timestamp()));
+            where.add(cb.or(cb.lessThan(timestamp, last.timestamp()), cb.lessThan(id, last.id())));
+        }
+        criteria.select(cb.construct(TransactionView.class, id, transaction.get("amount"), timestamp,
+                        transaction.get("type"), transaction.get("description"),
+                        transaction.get("targetAccountNumber"), transaction.get("status")))
+                .where(where.toArray(Predicate[]::new)).orderBy(cb.desc(timestamp), cb.desc(id));
+
+        return entityManager.createQuery(criteria).setMaxResults(maxResults).getResultList();
+    }
+
+    // Archived rows matching the query, newest first; none older than floor, when it is set, can make the page.
+    private static List<TransactionView> fetchCold(ColdSegmentStore.View cold, Account account, TransactionHistoryQuery query,
+                                                   int maxResults, TransactionView floor) {
+        LocalDateTime from = query.getFrom() == null ? null : query.getFrom().atStartOfDay();
+        LocalDateTime to = query.getTo() == null ? null : query.getTo().plusDays(1).atStartOfDay();
+        String type = isBlank(query.getType()) ? null : query.getType().toUpperCase(Locale.ROOT);
+        String status = isBlank(query.getStatus()) ? null : query.getStatus().toUpperCase(Locale.ROOT);
+        Cursor last = isBlank(query.getCursor()) ? null : decodeCursor(query.getCursor());
+        LocalDateTime notAfter = last != null ? last.timestamp() : to;
+
+        List<TransactionView> rows = new ArrayList<>();
+        for (TransactionView row : cold.newestFirst(account.getId(), notAfter)) {
+            if ((from != null && row.timestamp().isBefore(from)) || (floor != null && NEWEST_FIRST.compare(row, floor) > 0)) {
+                break;
+            }
+            if ((to != null && !row.timestamp().isBefore(to))
+                    || (last != null && !isBefore(row, last))
+                    || (type != null && !type.equals(row.type())) || (status != null && !status.equals(row.status()))) {
+                continue;
+            }
+            rows.add(row);
+            if (rows.size() == maxResults) {
+                break;
+            }
+        }
+        return rows;
+    }
+
+    private static boolean isBefore(TransactionView row, Cursor last) {
+        int byTime = row.timestamp().compareTo(last.timestamp());
+        return byTime < 0 || (byTime == 0 && row.id() < last.id());
+    }
+
+    private static boolean isUnfilteredFirstPage(TransactionHistoryQuery query) {
+        return isBlank(query.getCursor()) && query.getFrom() == null && query.getTo() == null
+                && isBlank(query.getType()) && isBlank(query.getStatus());
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    private static void checkOwner(String owner, String username) {
+        if (username != null && !owner.equals(username)) {
+            throw new IllegalArgumentException("Unauthorized access to account history");
+        }
+    }
+
+    private static Page toPage(RecentTransactionCache.Cached cached) {
+        List<TransactionView> items = cached.items();
+        return new Page(items, cached.more() && !items.isEmpty() ? encodeCursor(items.get(items.size() - 1)) : null);
+    }
+
+    private Account findAccount(String accountNumber) {
+        return accountRepository.findByAccountNumber(accountNumber)
+                .orElseThrow(() -> new IllegalArgumentException("Account not found"));
+    }
+
+    private static String encodeCursor(TransactionView last) {
+        String cursor = last.timestamp() + "|" + last.id();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Cursor decodeCursor(String cursor) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\|");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return new Cursor(LocalDateTime.parse(parts[0]), Long.parseLong(parts[1]));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+}
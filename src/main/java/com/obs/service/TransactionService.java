@@ -2,30 +2,120 @@ package com.obs.service;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StringUtils;
 
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import com.obs.archive.ColdSegmentStore;
 import com.obs.entity.Account;
 import com.obs.entity.AccountType;
+import com.obs.entity.FundsHold;
 import com.obs.entity.Transaction;
+import com.obs.exception.ConflictException;
+import com.obs.exception.ResourceNotFoundException;
+import com.obs.journal.TransactionJournal;
+import com.obs.ledger.LedgerAccountSnapshot;
+import com.obs.ledger.LedgerEngine;
+import com.obs.ledger.LedgerPosting;
+import com.obs.payload.request.BatchTransferRequest;
+import com.obs.payload.request.BulkDecisionRequest;
 import com.obs.payload.request.TransferRequest;
+import com.obs.payload.response.BatchTransferResponse;
+import com.obs.payload.response.BulkDecisionResponse;
+import com.obs.payload.response.BulkDecisionResponse.ItemResult;
+import com.obs.repository.AccountMonthlyRollupRepository;
 import com.obs.repository.AccountRepository;
+import com.obs.repository.FundsHoldRepository;
 import com.obs.repository.TransactionRepository;
 
 @Service
 public class TransactionService {
 
+    private static final BigDecimal TRANSFER_LIMIT = new BigDecimal("10000");
+
+    private static final int MAX_BULK_DECISIONS = 1000;
+
+    @Value("${obs.app.pending.bulk-chunk-size:100}")
+    private int bulkChunkSize;
+
     @Autowired
     private AccountRepository accountRepository;
 
     @Autowired
     private TransactionRepository transactionRepository;
 
-    @Transactional
+    @Autowired
+    private TransactionJournal transactionJournal;
+
+    @Autowired
+    private AccountMonthlyRollupRepository accountMonthlyRollupRepository;
+
+    @Autowired
+    private LedgerEngine ledgerEngine;
+
+    @Autowired
+    private AccountLockingService accountLockingService;
+
+    @Autowired
+    private AccountBalanceService accountBalanceService;
+
+    @Autowired
+    private FundsHoldRepository fundsHoldRepository;
+
+    @Autowired
+    private PendingApprovalService pendingApprovalService;
+
+    @Autowired
+    private TransferLimitService transferLimitService;
+
+    @Autowired
+    private RecentTransactionCache recentTransactionCache;
+
+    @Autowired
+    private InvoiceCache invoiceCache;
+
+    @Autowired
+    private ColdSegmentStore coldSegmentStore;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    // Pending transfers being decided through the ledger on this node; see decide().
+    private final Set<Long> deciding = ConcurrentHashMap.newKeySet();
+
+    // Not @Transactional: with the ledger engine enabled the request must not hold a
+    // connection while it waits for its shard to persist the batch.
     public String transferFunds(TransferRequest transferRequest, String username) {
+        String status = ledgerEngine.isEnabled()
+                ? transferThroughLedger(transferRequest, username)
+                : accountLockingService.execute(() -> transferThroughRepository(transferRequest, username));
+        if ("PENDING".equals(status)) {
+            pendingApprovalService.invalidateSummary();
+        }
+        return status;
+    }
+
+    private String transferThroughRepository(TransferRequest transferRequest, String username) {
         Account fromAccount = accountRepository.findByAccountNumber(transferRequest.getFromAccountNumber())
                 .orElseThrow(() -> new IllegalArgumentException("Source account not found"));
 
@@ -40,6 +130,9 @@ public class TransactionService {
             throw new IllegalArgumentException("Cannot transfer funds to the same account");
         }
 
+        // Balances and status are only trusted after this point.
+        accountLockingService.lockForPosting(fromAccount, toAccount);
+
         if (!fromAccount.isActive()) {
             throw new IllegalArgumentException("Source account is frozen/inactive");
         }
@@ -48,37 +141,32 @@ public class TransactionService {
             throw new IllegalArgumentException("Target account is frozen/inactive");
         }
 
-        if (fromAccount.getBalance().compareTo(transferRequest.getAmount()) < 0) {
+        if (accountBalanceService.availableOf(fromAccount).compareTo(transferRequest.getAmount()) < 0) {
             throw new IllegalArgumentException("Insufficient balance");
         }
 
-        BigDecimal transferLimit = new BigDecimal("10000");
+        TransferLimitService.Reservation reservation = transferLimitService.reserve(fromAccount.getId(),
+                fromAccount.getUser().getId(), fromAccount.getAccountType(), toAccount.getAccountNumber(), transferRequest.getAmount());
 
-        if (transferRequest.getAmount().compareTo(transferLimit) > 0 && fromAccount.getAccountType() != AccountType.CURRENT) {
-            // High value transaction - HOLD funds and mark PENDING
-             // Deduct from source immediately to lock funds (or move to reserved balance, but keeping simple here)
-            fromAccount.setBalance(fromAccount.getBalance().subtract(transferRequest.getAmount()));
-            accountRepository.save(fromAccount);
-            
+        if (transferRequest.getAmount().compareTo(TRANSFER_LIMIT) > 0 && fromAccount.getAccountType() != AccountType.CURRENT) {
+            // High value transaction - reserve the funds and mark PENDING until a banker decides
             Transaction transaction = new Transaction();
             transaction.setAccount(fromAccount);
             transaction.setAmount(transferRequest.getAmount().negate());
             transaction.setType("DEBIT");
-            transaction.setTimestamp(LocalDateTime.now());
+            transaction.setTimestamp(TransferLimitService.timestampOf(reservation));
             transaction.setTargetAccountNumber(toAccount.getAccountNumber());
-            transaction.setDescription("Transfer to " + toAccount.getUser().getUsername() + " (PENDING APPROVAL)");
+            transaction.setDescription(TransferLimitService.TRANSFER_DESCRIPTION + toAccount.getUser().getUsername());
             transaction.setStatus("PENDING");
-            transactionRepository.save(transaction);
+
+            // The journal writes the row in this transaction, so its id is assigned for the hold.
+            transactionJournal.record(transaction);
+            accountBalanceService.placeHold(fromAccount, transferRequest.getAmount(),
+                    transactionRepository.getReferenceById(transaction.getId()));
 
             return "PENDING";
         } else {
             // Automatic Approval
-            fromAccount.setBalance(fromAccount.getBalance().subtract(transferRequest.getAmount()));
-            accountRepository.save(fromAccount);
-
-            toAccount.setBalance(toAccount.getBalance().add(transferRequest.getAmount()));
-            accountRepository.save(toAccount);
-
             // Debit Record
             Transaction debitTransaction = new Transaction();
             debitTransaction.setAccount(fromAccount);
@@ -86,9 +174,8 @@ public class TransactionService {
             debitTransaction.setType("DEBIT");
             debitTransaction.setTimestamp(LocalDateTime.now());
             debitTransaction.setTargetAccountNumber(toAccount.getAccountNumber());
-            debitTransaction.setDescription("Transfer to " +  toAccount.getUser().getUsername());
+            debitTransaction.setDescription(TransferLimitService.TRANSFER_DESCRIPTION + toAccount.getUser().getUsername());
             debitTransaction.setStatus("SUCCESS");
-            transactionRepository.save(debitTransaction);
 
             // Credit Record
             Transaction creditTransaction = new Transaction();
@@ -99,103 +186,633 @@ public class TransactionService {
             creditTransaction.setTargetAccountNumber(fromAccount.getAccountNumber());
             creditTransaction.setDescription("Received from " + fromAccount.getUser().getUsername());
             creditTransaction.setStatus("SUCCESS");
-            transactionRepository.save(creditTransaction);
+
+            accountBalanceService.debit(fromAccount, transferRequest.getAmount(), debitTransaction);
+            accountRepository.save(fromAccount);
+
+            accountBalanceService.credit(toAccount, transferRequest.getAmount(), creditTransaction);
+            accountRepository.save(toAccount);
+
+            transactionJournal.record(debitTransaction, creditTransaction);
 
             return "SUCCESS";
         }
     }
-    
-    @Transactional
-    public void approveTransaction(Long transactionId) {
-        Transaction transaction = transactionRepository.findById(transactionId)
-                .orElseThrow(() -> new IllegalArgumentException("Transaction not found"));
-        
-        if (!"PENDING".equals(transaction.getStatus())) {
-             throw new IllegalArgumentException("Transaction is not pending");
+
+    private String transferThroughLedger(TransferRequest transferRequest, String username) {
+        LedgerAccountSnapshot fromAccount = ledgerEngine.find(transferRequest.getFromAccountNumber())
+                .orElseThrow(() -> new IllegalArgumentException("Source account not found"));
+
+        if (!fromAccount.ownerUsername().equals(username)) {
+            throw new IllegalArgumentException("You do not own the source account");
         }
-        
-        Account fromAccount = transaction.getAccount();
-        Account toAccount = accountRepository.findByAccountNumber(transaction.getTargetAccountNumber())
-                 .orElseThrow(() -> new IllegalArgumentException("Target account not found"));
-        
-        if (!toAccount.isActive()) {
-             throw new IllegalArgumentException("Target account is frozen/inactive");
+
+        LedgerAccountSnapshot toAccount = ledgerEngine.find(transferRequest.getToAccountNumber())
+                .orElseThrow(() -> new IllegalArgumentException("Target account not found"));
+
+        if (fromAccount.accountNumber().equals(toAccount.accountNumber())) {
+            throw new IllegalArgumentException("Cannot transfer funds to the same account");
         }
-        
-        // Funds were already deducted from source. Now add to target.
-        toAccount.setBalance(toAccount.getBalance().add(transaction.getAmount().abs()));
-        accountRepository.save(toAccount);
-        
-        transaction.setStatus("SUCCESS");
-        transaction.setDescription(transaction.getDescription().replace(" (PENDING APPROVAL)", ""));
-        transactionRepository.save(transaction);
-        
-        // Create Credit Record for Receiver
-        Transaction creditTransaction = new Transaction();
-        creditTransaction.setAccount(toAccount);
-        creditTransaction.setAmount(transaction.getAmount().abs());
-        creditTransaction.setType("CREDIT");
-        creditTransaction.setTimestamp(LocalDateTime.now());
-        creditTransaction.setTargetAccountNumber(fromAccount.getAccountNumber());
-        creditTransaction.setDescription("Received from " + fromAccount.getUser().getUsername());
-        creditTransaction.setStatus("SUCCESS");
-        transactionRepository.save(creditTransaction);
+
+        if (!toAccount.active()) {
+            throw new IllegalArgumentException("Target account is frozen/inactive");
+        }
+
+        BigDecimal amount = transferRequest.getAmount();
+        TransferLimitService.Reservation reservation = transferLimitService.reserve(fromAccount.id(), fromAccount.ownerId(),
+                fromAccount.accountType(), toAccount.accountNumber(), amount);
+
+        // Both accounts' activity and the source balance are checked again by the shard that owns the source.
+        if (amount.compareTo(TRANSFER_LIMIT) > 0 && fromAccount.accountType() != AccountType.CURRENT) {
+            Transaction transaction = newRecord(amount.negate(), "DEBIT", toAccount.accountNumber(),
+                    TransferLimitService.TRANSFER_DESCRIPTION + toAccount.ownerUsername(), "PENDING");
+            transaction.setTimestamp(TransferLimitService.timestampOf(reservation));
+            // The hold row commits with the PENDING row and the reservation, so a decision never finds one without it.
+            postOrRelease(new LedgerPosting()
+                    .hold(fromAccount.accountNumber(), amount, transaction)
+                    .alsoWrite(() -> accountBalanceService.recordHold(accountRepository.getReferenceById(fromAccount.id()), amount,
+                            transactionRepository.getReferenceById(transaction.getId()))), Collections.singletonList(reservation));
+            return "PENDING";
+        }
+
+        Transaction debitTransaction = newRecord(amount.negate(), "DEBIT", toAccount.accountNumber(),
+                TransferLimitService.TRANSFER_DESCRIPTION + toAccount.ownerUsername(), "SUCCESS");
+        Transaction creditTransaction = newRecord(amount, "CREDIT", fromAccount.accountNumber(),
+                "Received from " + fromAccount.ownerUsername(), "SUCCESS");
+        postOrRelease(new LedgerPosting()
+                .debit(fromAccount.accountNumber(), amount, debitTransaction)
+                .creditActive(toAccount.accountNumber(), amount, creditTransaction), Collections.singletonList(reservation));
+        return "SUCCESS";
+    }
+
+    // Ledger postings run outside a transaction, so limit reservations are released by hand, and only
+    // once the posting has failed: one that is not confirmed in time may still commit.
+    private void postOrRelease(LedgerPosting posting, List<TransferLimitService.Reservation> reservations) {
+        CompletableFuture<BigDecimal> result;
+        try {
+            result = ledgerEngine.submit(posting);
+        } catch (RuntimeException e) {
+            reservations.forEach(transferLimitService::release);
+            throw e;
+        }
+        // Waiting on the dependent future means a failure is only reported once its reservations are back.
+        ledgerEngine.awaitPosting(result.whenComplete((balance, failure) -> {
+            if (failure != null) {
+                reservations.forEach(transferLimitService::release);
+            }
+        }));
+    }
+
+    private Transaction newRecord(BigDecimal amount, String type, String targetAccountNumber, String description, String status) {
+        Transaction transaction = new Transaction();
+        transaction.setAmount(amount);
+        transaction.setType(type);
+        transaction.setTimestamp(LocalDateTime.now());
+        transaction.setTargetAccountNumber(targetAccountNumber);
+        transaction.setDescription(description);
+        transaction.setStatus(status);
+        return transaction;
+    }
+
+    /**
+     * Pays many beneficiaries from one account. Targets are loaded with a single query, the
+     * source is debited once for all accepted items and the transaction rows are written as one
+     * JDBC batch. Items that cannot be paid are reported individually and do not fail the batch.
+     */
+    public BatchTransferResponse transferBatch(BatchTransferRequest batchRequest, String username) {
+        if (ledgerEngine.isEnabled()) {
+            return transferBatchThroughLedger(batchRequest, username);
+        }
+        return accountLockingService.execute(() -> transferBatchThroughRepository(batchRequest, username));
+    }
+
+    private BatchTransferResponse transferBatchThroughRepository(BatchTransferRequest batchRequest, String username) {
+        Account fromAccount = accountRepository.findByAccountNumber(batchRequest.getFromAccountNumber())
+                .orElseThrow(() -> new IllegalArgumentException("Source account not found"));
+
+        if (!fromAccount.getUser().getUsername().equals(username)) {
+            throw new IllegalArgumentException("You do not own the source account");
+        }
+
+        Map<String, Account> targets = accountRepository.findByAccountNumberIn(batchRequest.getTransfers().stream()
+                        .map(BatchTransferRequest.Item::getToAccountNumber)
+                        .collect(Collectors.toSet()))
+                .stream()
+                .collect(Collectors.toMap(Account::getAccountNumber, Function.identity()));
+
+        accountLockingService.lockForPosting(fromAccount, targets.values());
+
+        if (!fromAccount.isActive()) {
+            throw new IllegalArgumentException("Source account is frozen/inactive");
+        }
+
+        BatchTransferResponse response = new BatchTransferResponse();
+        Map<Account, BigDecimal> credits = new LinkedHashMap<>();
+        List<Transaction> records = new ArrayList<>();
+        BigDecimal available = accountBalanceService.availableOf(fromAccount);
+
+        List<BatchTransferRequest.Item> items = batchRequest.getTransfers();
+        for (int i = 0; i < items.size(); i++) {
+            BatchTransferRequest.Item item = items.get(i);
+            Account toAccount = targets.get(item.getToAccountNumber());
+            String error = validateBatchItem(fromAccount.getAccountNumber(), fromAccount.getAccountType(),
+                    toAccount != null, toAccount != null && toAccount.isActive(), item, available);
+            if (error != null) {
+                response.addFailure(i, item.getToAccountNumber(), item.getAmount(), error);
+                continue;
+            }
+            try {
+                transferLimitService.reserve(fromAccount.getId(), fromAccount.getUser().getId(), fromAccount.getAccountType(),
+                        toAccount.getAccountNumber(), item.getAmount());
+            } catch (IllegalArgumentException e) {
+                response.addFailure(i, item.getToAccountNumber(), item.getAmount(), e.getMessage());
+                continue;
+            }
+
+            available = available.subtract(item.getAmount());
+            credits.merge(toAccount, item.getAmount(), BigDecimal::add);
+
+            Transaction debitTransaction = newRecord(item.getAmount().negate(), "DEBIT", toAccount.getAccountNumber(),
+                    TransferLimitService.TRANSFER_DESCRIPTION + toAccount.getUser().getUsername(), "SUCCESS");
+            debitTransaction.setAccount(fromAccount);
+            records.add(debitTransaction);
+
+            Transaction creditTransaction = newRecord(item.getAmount(), "CREDIT", fromAccount.getAccountNumber(),
+                    "Received from " + fromAccount.getUser().getUsername(), "SUCCESS");
+            creditTransaction.setAccount(toAccount);
+            records.add(creditTransaction);
+
+            response.addSuccess(i, item.getToAccountNumber(), item.getAmount());
+        }
+
+        if (records.isEmpty()) {
+            return response;
+        }
+
+        accountBalanceService.debit(fromAccount, response.getTotalDebited());
+        credits.forEach(accountBalanceService::credit);
+        transactionJournal.record(records);
+
+        return response;
+    }
+
+    private BatchTransferResponse transferBatchThroughLedger(BatchTransferRequest batchRequest, String username) {
+        LedgerAccountSnapshot fromAccount = ledgerEngine.find(batchRequest.getFromAccountNumber())
+                .orElseThrow(() -> new IllegalArgumentException("Source account not found"));
+
+        if (!fromAccount.ownerUsername().equals(username)) {
+            throw new IllegalArgumentException("You do not own the source account");
+        }
+
+        if (!fromAccount.active()) {
+            throw new IllegalArgumentException("Source account is frozen/inactive");
+        }
+
+        BatchTransferResponse response = new BatchTransferResponse();
+        Map<String, BigDecimal> credits = new LinkedHashMap<>();
+        Map<String, List<Transaction>> creditRecords = new LinkedHashMap<>();
+        List<Transaction> debitRecords = new ArrayList<>();
+        List<TransferLimitService.Reservation> reservations = new ArrayList<>();
+        BigDecimal available = fromAccount.availableBalance();
+
+        List<BatchTransferRequest.Item> items = batchRequest.getTransfers();
+        Map<String, LedgerAccountSnapshot> targets = ledgerEngine.findAll(items.stream()
+                .map(BatchTransferRequest.Item::getToAccountNumber)
+                .filter(Objects::nonNull)
+                .toList());
+        for (int i = 0; i < items.size(); i++) {
+            BatchTransferRequest.Item item = items.get(i);
+            LedgerAccountSnapshot toAccount = item.getToAccountNumber() != null ? targets.get(item.getToAccountNumber()) : null;
+            String error = validateBatchItem(fromAccount.accountNumber(), fromAccount.accountType(),
+                    toAccount != null, toAccount != null && toAccount.active(), item, available);
+            if (error != null) {
+                response.addFailure(i, item.getToAccountNumber(), item.getAmount(), error);
+                continue;
+            }
+            try {
+                reservations.add(transferLimitService.reserve(fromAccount.id(), fromAccount.ownerId(), fromAccount.accountType(),
+                        toAccount.accountNumber(), item.getAmount()));
+            } catch (IllegalArgumentException e) {
+                response.addFailure(i, item.getToAccountNumber(), item.getAmount(), e.getMessage());
+                continue;
+            }
+
+            available = available.subtract(item.getAmount());
+            credits.merge(toAccount.accountNumber(), item.getAmount(), BigDecimal::add);
+            debitRecords.add(newRecord(item.getAmount().negate(), "DEBIT", toAccount.accountNumber(),
+                    TransferLimitService.TRANSFER_DESCRIPTION + toAccount.ownerUsername(), "SUCCESS"));
+            creditRecords.computeIfAbsent(toAccount.accountNumber(), key -> new ArrayList<>())
+                    .add(newRecord(item.getAmount(), "CREDIT", fromAccount.accountNumber(),
+                            "Received from " + fromAccount.ownerUsername(), "SUCCESS"));
+            response.addSuccess(i, item.getToAccountNumber(), item.getAmount());
+        }
+
+        if (debitRecords.isEmpty()) {
+            return response;
+        }
+
+        // The shard re-checks the balance and the targets, so a concurrent debit or freeze fails the whole batch.
+        LedgerPosting posting = new LedgerPosting().debit(fromAccount.accountNumber(), response.getTotalDebited(), debitRecords);
+        credits.forEach((accountNumber, amount) -> posting.creditActive(accountNumber, amount, creditRecords.get(accountNumber)));
+        postOrRelease(posting, reservations);
+
+        return response;
+    }
+
+    private String validateBatchItem(String fromAccountNumber, AccountType fromAccountType, boolean targetExists,
+                                     boolean targetActive, BatchTransferRequest.Item item, BigDecimal available) {
+        if (item.getAmount() == null || item.getAmount().signum() <= 0) {
+            return "Amount must be positive";
+        }
+        if (!targetExists) {
+            return "Target account not found";
+        }
+        if (fromAccountNumber.equals(item.getToAccountNumber())) {
+            return "Cannot transfer funds to the same account";
+        }
+        if (!targetActive) {
+            return "Target account is frozen/inactive";
+        }
+        if (item.getAmount().compareTo(TRANSFER_LIMIT) > 0 && fromAccountType != AccountType.CURRENT) {
+            return "Amount requires banker approval, submit it as a single transfer";
+        }
+        if (available.compareTo(item.getAmount()) < 0) {
+            return "Insufficient balance";
+        }
+        return null;
+    }
+
+    public void approveTransaction(Long transactionId) {
+        decideOne(transactionId, true);
     }
 
-    @Transactional
     public void rejectTransaction(Long transactionId) {
-        Transaction transaction = transactionRepository.findById(transactionId)
-                .orElseThrow(() -> new IllegalArgumentException("Transaction not found"));
+        decideOne(transactionId, false);
+    }
+
+    /**
+     * Approves or rejects many pending transfers, selected by id or by filter. They are decided in
+     * chunks of {@code obs.app.pending.bulk-chunk-size}, one transaction per chunk. A chunk that
+     * fails as a whole reports all of its transactions as failed; earlier chunks stay committed.
+     */
+    public BulkDecisionResponse decidePending(BulkDecisionRequest request, boolean approve) {
+        List<Long> ids = selectPending(request);
+        BulkDecisionResponse response = new BulkDecisionResponse();
+        for (int from = 0; from < ids.size(); from += bulkChunkSize) {
+            List<Long> chunk = ids.subList(from, Math.min(from + bulkChunkSize, ids.size()));
+            try {
+                decide(chunk, approve).forEach(response::add);
+            } catch (RuntimeException e) {
+                chunk.forEach(id -> response.add(ItemResult.failed(id, null, e.getMessage())));
+            }
+        }
+        pendingApprovalService.invalidateSummary();
+        return response;
+    }
+
+    private void decideOne(Long transactionId, boolean approve) {
+        ItemResult result = decide(List.of(transactionId), approve).get(0);
+        pendingApprovalService.invalidateSummary();
+        if ("FAILED".equals(result.getStatus())) {
+            throw new IllegalArgumentException(result.getMessage());
+        }
+    }
 
-        if (!"PENDING".equals(transaction.getStatus())) {
-            throw new IllegalArgumentException("Transaction is not pending");
+    private List<Long> selectPending(BulkDecisionRequest request) {
+        boolean filtered = StringUtils.hasText(request.getFromAccountNumber()) || request.getMaxAmount() != null;
+        if (request.getTransactionIds() != null && !request.getTransactionIds().isEmpty()) {
+            if (filtered) {
+                throw new IllegalArgumentException("Give either transactionIds or filters, not both");
+            }
+            return request.getTransactionIds().stream().filter(Objects::nonNull).distinct().toList();
+        }
+        if (!filtered) {
+            throw new IllegalArgumentException("Give transactionIds or at least one of fromAccountNumber and maxAmount");
         }
+        String fromAccountNumber = StringUtils.hasText(request.getFromAccountNumber()) ? request.getFromAccountNumber() : null;
+        return transactionRepository.findPendingIds(fromAccountNumber, request.getMaxAmount(), Limit.of(MAX_BULK_DECISIONS));
+    }
 
-        Account fromAccount = transaction.getAccount();
+    /**
+     * Decides one chunk. Without the ledger the chunk is decided in one transaction. With it, the
+     * chunk is read and checked in a short transaction, and its postings are submitted and awaited
+     * once that has committed, so no connection is held while the shards persist them; each shard
+     * writes the decision in the transaction that moves the money. A transfer is claimed in
+     * {@link #deciding} while it is decided, so a second banker on this node is turned away before
+     * anything is posted.
+     */
+    private List<ItemResult> decide(List<Long> ids, boolean approve) {
+        if (!ledgerEngine.isEnabled()) {
+            return accountLockingService.execute(() -> decideChunk(ids, approve));
+        }
+        Set<Long> claimed = ids.stream().filter(deciding::add).collect(Collectors.toSet());
+        try {
+            LedgerChunk chunk = accountLockingService.execute(() -> prepareLedgerChunk(ids, approve, claimed));
+            // All submitted before any is awaited, so that the shards can batch them.
+            List<CompletableFuture<BigDecimal>> posted = chunk.decisions().stream()
+                    .map(decision -> ledgerEngine.submit(decision.posting()))
+                    .toList();
+            for (int i = 0; i < posted.size(); i++) {
+                Transaction transaction = chunk.decisions().get(i).transaction();
+                Long id = transaction.getId();
+                try {
+                    ledgerEngine.awaitPosting(posted.get(i));
+                    chunk.results().put(id, decisionResult(transaction, approve));
+                } catch (RuntimeException e) {
+                    chunk.results().put(id, ItemResult.failed(id, transaction.getAmount().abs(), e.getMessage()));
+                }
+            }
+            return new ArrayList<>(chunk.results().values());
+        } finally {
+            deciding.removeAll(claimed);
+        }
+    }
 
-        // Refund source account
-        fromAccount.setBalance(fromAccount.getBalance().add(transaction.getAmount().abs()));
-        accountRepository.save(fromAccount);
+    // The transfers of a chunk that can be decided, with their active holds and, for approvals, their targets.
+    private record PendingChunk(List<Transaction> pending, Map<Long, FundsHold> holds, Map<String, Account> targets) {
+    }
 
-        transaction.setStatus("REJECTED");
-        transaction.setDescription(transaction.getDescription().replace(" (PENDING APPROVAL)", ""));
-        transactionRepository.save(transaction);
+    // A chunk read for deciding through the ledger: the results so far and a posting per transfer left to decide.
+    private record LedgerChunk(Map<Long, ItemResult> results, List<LedgerDecision> decisions) {
     }
 
-    public List<Transaction> getPendingTransactions() {
-        // This is a simplified way. Ideally we should have a custom query.
-        // Since we don't have a status based query in repo, let's filter all or add method to repo.
-        // Let's add method to repo first (implicit step in next tool call? or just filter here if list is small, better to add to repo)
-        // I'll add to Repo in next step, for now I will assume it exists or use findAll and filter
-        return transactionRepository.findAll().stream()
-                .filter(t -> "PENDING".equals(t.getStatus()))
-                .toList();
+    private record LedgerDecision(Transaction transaction, LedgerPosting posting) {
     }
 
-    public List<Transaction> getTransactionHistory(String accountNumber, String username) {
-        Account account = accountRepository.findByAccountNumber(accountNumber)
-                .orElseThrow(() -> new IllegalArgumentException("Account not found"));
-         
-         if (!account.getUser().getUsername().equals(username)) {
-            throw new IllegalArgumentException("Unauthorized access to account history");
+    /**
+     * Loads the given transactions and reports those that cannot be decided in {@code results},
+     * which keeps the order of {@code ids}. With the ledger enabled only transfers in
+     * {@code claimed} are decided.
+     */
+    private PendingChunk loadPending(List<Long> ids, boolean approve, Set<Long> claimed, Map<Long, ItemResult> results) {
+        Map<Long, Transaction> found = transactionRepository.findAllById(ids).stream()
+                .collect(Collectors.toMap(Transaction::getId, Function.identity()));
+
+        List<Transaction> pending = new ArrayList<>();
+        for (Long id : ids) {
+            Transaction transaction = found.get(id);
+            if (transaction == null) {
+                results.put(id, ItemResult.failed(id, null, "Transaction not found"));
+            } else if (ledgerEngine.isEnabled() && !claimed.contains(id)) {
+                results.put(id, ItemResult.failed(id, transaction.getAmount().abs(), "Transaction is already being decided"));
+            } else if (!"PENDING".equals(transaction.getStatus())) {
+                results.put(id, ItemResult.failed(id, transaction.getAmount().abs(), "Transaction is not pending"));
+            } else {
+                results.put(id, null);
+                pending.add(transaction);
+            }
+        }
+        if (pending.isEmpty()) {
+            return new PendingChunk(pending, Map.of(), Map.of());
         }
 
-        return transactionRepository.findByAccount(account);
+        Map<Long, FundsHold> holds = fundsHoldRepository.findByTransactionInAndStatus(pending, "ACTIVE").stream()
+                .collect(Collectors.toMap(hold -> hold.getTransaction().getId(), Function.identity()));
+        // Pending transfers made before holds existed were debited up front and have none; any other transfer must have one.
+        Set<Long> legacy = new HashSet<>(fundsHoldRepository.findLegacyPendingIds(pending.stream().map(Transaction::getId).toList()));
+        pending.removeIf(transaction -> {
+            if (holds.containsKey(transaction.getId()) || legacy.contains(transaction.getId())) {
+                return false;
+            }
+            results.put(transaction.getId(), ItemResult.failed(transaction.getId(), transaction.getAmount().abs(),
+                    "The funds hold of this transfer is missing"));
+            return true;
+        });
+        Map<String, Account> targets = !approve ? Map.of() : accountRepository.findByAccountNumberIn(
+                        pending.stream().map(Transaction::getTargetAccountNumber).collect(Collectors.toSet())).stream()
+                .collect(Collectors.toMap(Account::getAccountNumber, Function.identity()));
+        return new PendingChunk(pending, holds, targets);
     }
 
-    public Transaction getTransactionById(Long id) {
-        return transactionRepository.findById(id)
-                .orElseThrow(() -> new RuntimeException("Transaction not found"));
+    /**
+     * Decides the given transactions inside the caller's transaction, without the ledger. The
+     * transaction rows are locked first and the accounts second, both in id order, so overlapping
+     * chunks and single approvals queue up instead of deadlocking. Transactions that cannot be
+     * decided are reported as failed and left untouched, so the rest of the chunk still commits.
+     * Results follow {@code ids}.
+     */
+    private List<ItemResult> decideChunk(List<Long> ids, boolean approve) {
+        // Two bankers acting on the same request must not both see it as pending.
+        accountLockingService.lockTransactions(ids);
+        Map<Long, ItemResult> results = new LinkedHashMap<>();
+        PendingChunk chunk = loadPending(ids, approve, Set.of(), results);
+        if (chunk.pending().isEmpty()) {
+            return new ArrayList<>(results.values());
+        }
+
+        if (approve) {
+            List<Account> settled = chunk.pending().stream()
+                    .filter(transaction -> chunk.holds().containsKey(transaction.getId()))
+                    .map(Transaction::getAccount)
+                    .toList();
+            accountLockingService.lockForPosting(settled, chunk.targets().values());
+        } else {
+            accountLockingService.lockForPosting(List.of(), chunk.pending().stream().map(Transaction::getAccount).toList());
+        }
+
+        List<Transaction> decided = new ArrayList<>();
+        List<Transaction> credits = new ArrayList<>();
+        for (Transaction transaction : chunk.pending()) {
+            Long id = transaction.getId();
+            FundsHold hold = chunk.holds().get(id);
+            Account fromAccount = transaction.getAccount();
+            BigDecimal amount = transaction.getAmount().abs();
+
+            if (approve) {
+                Account toAccount = chunk.targets().get(transaction.getTargetAccountNumber());
+                if (toAccount == null) {
+                    results.put(id, ItemResult.failed(id, amount, "Target account not found"));
+                    continue;
+                }
+                if (!toAccount.isActive()) {
+                    results.put(id, ItemResult.failed(id, amount, "Target account is frozen/inactive"));
+                    continue;
+                }
+
+                // Create Credit Record for Receiver
+                Transaction creditTransaction = new Transaction();
+                creditTransaction.setAccount(toAccount);
+                creditTransaction.setAmount(amount);
+                creditTransaction.setType("CREDIT");
+                creditTransaction.setTimestamp(LocalDateTime.now());
+                creditTransaction.setTargetAccountNumber(fromAccount.getAccountNumber());
+                creditTransaction.setDescription("Received from " + fromAccount.getUser().getUsername());
+                creditTransaction.setStatus("SUCCESS");
+
+                // Settle the hold on the source, then add to target.
+                if (hold != null) {
+                    accountBalanceService.settleHold(hold);
+                }
+                accountBalanceService.credit(toAccount, amount, creditTransaction);
+                accountRepository.save(toAccount);
+                credits.add(creditTransaction);
+            } else if (hold != null) {
+                accountBalanceService.releaseHold(hold);
+            } else {
+                accountBalanceService.credit(fromAccount, amount, transaction);
+                accountRepository.save(fromAccount);
+            }
+            results.put(id, markDecided(transaction, hold, approve));
+            decided.add(transaction);
+            if (!approve) {
+                transferLimitService.releaseRejected(transaction);
+            }
+        }
+
+        transactionRepository.saveAll(decided);
+        // Approved transfers start counting towards their month now; rejected ones never do.
+        accountMonthlyRollupRepository.addAll(decided);
+        recentTransactionCache.updateOnCommit(decided);
+        invoiceCache.invalidatePendingOnCommit(decided);
+        transactionJournal.record(credits);
+        return new ArrayList<>(results.values());
     }
 
-    @Transactional
-    public void executeRecurringTransfer(Account fromAccount, String targetAccountNumber, BigDecimal amount) {
-        Account toAccount = accountRepository.findByAccountNumber(targetAccountNumber)
-                .orElseThrow(() -> new IllegalArgumentException("Target account not found"));
+    /**
+     * Reads a chunk to decide through the ledger inside the caller's short transaction, which takes
+     * no row locks and writes nothing, and builds a posting for each transfer that can be decided.
+     * The shard writes the decision, so the pending rows are detached before the transaction ends
+     * and no later flush can write them.
+     */
+    private LedgerChunk prepareLedgerChunk(List<Long> ids, boolean approve, Set<Long> claimed) {
+        Map<Long, ItemResult> results = new LinkedHashMap<>();
+        PendingChunk chunk = loadPending(ids, approve, claimed, results);
+        List<LedgerDecision> decisions = new ArrayList<>();
+        for (Transaction transaction : chunk.pending()) {
+            Long id = transaction.getId();
+            FundsHold hold = chunk.holds().get(id);
+            Account fromAccount = transaction.getAccount();
+            BigDecimal amount = transaction.getAmount().abs();
+
+            LedgerPosting posting;
+            if (approve) {
+                Account toAccount = chunk.targets().get(transaction.getTargetAccountNumber());
+                if (toAccount == null) {
+                    results.put(id, ItemResult.failed(id, amount, "Target account not found"));
+                    continue;
+                }
+                if (!toAccount.isActive()) {
+                    results.put(id, ItemResult.failed(id, amount, "Target account is frozen/inactive"));
+                    continue;
+                }
+                // Settle the hold on the source, then add to target; the shard checks again that the target is active.
+                posting = new LedgerPosting();
+                if (hold != null) {
+                    posting.settleHold(fromAccount.getAccountNumber(), hold.getAmount());
+                }
+                posting.creditActive(toAccount.getAccountNumber(), amount, newRecord(amount, "CREDIT",
+                        fromAccount.getAccountNumber(), "Received from " + fromAccount.getUser().getUsername(), "SUCCESS"));
+            } else {
+                // Release the reservation, or refund a transfer that was debited up front.
+                posting = hold != null
+                        ? new LedgerPosting().releaseHold(fromAccount.getAccountNumber(), hold.getAmount())
+                        : new LedgerPosting().credit(fromAccount.getAccountNumber(), amount, List.of());
+            }
+            decisions.add(new LedgerDecision(transaction, posting.alsoWrite(() -> recordDecision(transaction, hold, approve))));
+        }
+        chunk.pending().forEach(entityManager::detach);
+        return new LedgerChunk(results, decisions);
+    }
+
+    /**
+     * Writes a decision made through the ledger. It runs on the shard, in the transaction that moves
+     * the money, so the transfer is decided exactly when its balances change. The update only
+     * matches a transfer that is still pending, which also stops a second node deciding it again;
+     * the decision that lost fails alone, and the shard persists the rest of its batch without it.
+     */
+    private void recordDecision(Transaction transaction, FundsHold hold, boolean approve) {
+        markDecided(transaction, hold, approve);
+        if (transactionRepository.decide(transaction.getId(), transaction.getStatus(), transaction.getDescription()) == 0) {
+            throw new ConflictException("Transaction " + transaction.getId() + " is not pending");
+        }
+        if (hold != null) {
+            fundsHoldRepository.close(hold.getId(), approve ? "SETTLED" : "RELEASED", LocalDateTime.now());
+        }
+        List<Transaction> decided = List.of(transaction);
+        accountMonthlyRollupRepository.addAll(decided);
+        recentTransactionCache.updateOnCommit(decided);
+        invoiceCache.invalidatePendingOnCommit(decided);
+        if (!approve) {
+            transferLimitService.releaseRejected(transaction);
+        }
+    }
+
+    private static ItemResult markDecided(Transaction transaction, FundsHold hold, boolean approve) {
+        transaction.setStatus(approve ? "SUCCESS" : "REJECTED");
+        if (hold == null) {
+            transaction.setDescription(transaction.getDescription().replace(" (PENDING APPROVAL)", ""));
+        }
+        return decisionResult(transaction, approve);
+    }
+
+    private static ItemResult decisionResult(Transaction transaction, boolean approve) {
+        return new ItemResult(transaction.getId(), transaction.getAmount().abs(),
+                approve ? "APPROVED" : "REJECTED", approve ? "Transaction approved" : "Transaction rejected");
+    }
+
+    public Transaction getTransactionById(Long id) {
+        try (ColdSegmentStore.View cold = coldSegmentStore.openView()) {
+            return transactionRepository.findById(id)
+                    .or(() -> cold.findById(id).map(archived -> ColdSegmentStore.toTransaction(archived.transaction(),
+                            accountRepository.findById(archived.accountId()).orElse(null))))
+                    .orElseThrow(() -> new RuntimeException("Transaction not found"));
+        }
+    }
 
+    /**
+     * Makes one recurring payment. {@code advance} moves the schedule on and returns false when the
+     * payment is no longer due; it runs in the transaction that moves the money, which is opened here,
+     * or is the ledger shard's when the ledger is enabled, so the payment is made exactly when its
+     * schedule advances. Returns whether the payment was made. Both accounts are loaded by the
+     * caller, typically for a whole page of payments at once, so their state is not trusted: they
+     * are locked and re-read here, or checked by the shard, before any balance or status is used.
+     * Not @Transactional for the same reason as transferFunds.
+     */
+    public boolean executeRecurringTransfer(Account fromAccount, Account toAccount, BigDecimal amount, BooleanSupplier advance) {
         if (fromAccount.getAccountNumber().equals(toAccount.getAccountNumber())) {
             throw new IllegalArgumentException("Cannot transfer funds to the same account");
         }
+        return ledgerEngine.isEnabled()
+                ? recurringTransferThroughLedger(fromAccount, toAccount, amount, advance)
+                : accountLockingService.execute(() -> recurringTransferThroughRepository(fromAccount, toAccount, amount, advance));
+    }
+
+    // Both accounts' activity and the source balance are checked by the shard that owns the source.
+    private boolean recurringTransferThroughLedger(Account fromAccount, Account toAccount, BigDecimal amount,
+                                                   BooleanSupplier advance) {
+        // A failing write fails this posting alone, so a payment that is no longer due moves no money.
+        AtomicBoolean notDue = new AtomicBoolean();
+        try {
+            ledgerEngine.post(new LedgerPosting()
+                    .debit(fromAccount.getAccountNumber(), amount, newRecord(amount.negate(), "DEBIT", toAccount.getAccountNumber(),
+                            "Recurring Transfer to " + toAccount.getAccountNumber(), "SUCCESS"))
+                    .creditActive(toAccount.getAccountNumber(), amount, newRecord(amount, "CREDIT", fromAccount.getAccountNumber(),
+                            "Recurring Received from " + fromAccount.getUser().getUsername(), "SUCCESS"))
+                    .alsoWrite(() -> {
+                        if (!advance.getAsBoolean()) {
+                            notDue.set(true);
+                            throw new ConflictException("Recurring payment is no longer due");
+                        }
+                    }));
+        } catch (ConflictException e) {
+            if (notDue.get()) {
+                return false;
+            }
+            throw e;
+        }
+        return true;
+    }
+
+    private boolean recurringTransferThroughRepository(Account prefetchedFrom, Account prefetchedTo, BigDecimal amount,
+                                                       BooleanSupplier advance) {
+        // Taken first: the payment row lock makes a concurrent run wait and then find it no longer due.
+        if (!advance.getAsBoolean()) {
+            return false;
+        }
+        // The prefetched copies are detached; this transaction's own instances are read under the locks.
+        Account fromAccount = accountRepository.getReferenceById(prefetchedFrom.getId());
+        Account toAccount = accountRepository.getReferenceById(prefetchedTo.getId());
+        accountLockingService.lockForPosting(fromAccount, toAccount);
 
         if (!fromAccount.isActive()) {
             throw new IllegalArgumentException("Source account is frozen/inactive");
@@ -205,16 +822,10 @@ public class TransactionService {
             throw new IllegalArgumentException("Target account is frozen/inactive");
         }
 
-        if (fromAccount.getBalance().compareTo(amount) < 0) {
+        if (accountBalanceService.availableOf(fromAccount).compareTo(amount) < 0) {
             throw new IllegalArgumentException("Insufficient balance");
         }
         
-        fromAccount.setBalance(fromAccount.getBalance().subtract(amount));
-        accountRepository.save(fromAccount);
-
-        toAccount.setBalance(toAccount.getBalance().add(amount));
-        accountRepository.save(toAccount);
-
         Transaction debitTransaction = new Transaction();
         debitTransaction.setAccount(fromAccount);
         debitTransaction.setAmount(amount.negate());
@@ -223,7 +834,6 @@ public class TransactionService {
         debitTransaction.setTargetAccountNumber(toAccount.getAccountNumber());
         debitTransaction.setDescription("Recurring Transfer to " + toAccount.getAccountNumber());
         debitTransaction.setStatus("SUCCESS");
-        transactionRepository.save(debitTransaction);
 
         Transaction creditTransaction = new Transaction();
         creditTransaction.setAccount(toAccount);
@@ -231,13 +841,49 @@ public class TransactionService {
         creditTransaction.setType("CREDIT");
         creditTransaction.setTimestamp(LocalDateTime.now());
         creditTransaction.setTargetAccountNumber(fromAccount.getAccountNumber());
-        creditTransaction.setDescription("Recurring Received from " + fromAccount.getUser().getUsername());
+        creditTransaction.setDescription("Recurring Received from " + prefetchedFrom.getUser().getUsername());
         creditTransaction.setStatus("SUCCESS");
-        transactionRepository.save(creditTransaction);
+
+        accountBalanceService.debit(fromAccount, amount, debitTransaction);
+        accountRepository.save(fromAccount);
+
+        accountBalanceService.credit(toAccount, amount, creditTransaction);
+        accountRepository.save(toAccount);
+
+        transactionJournal.record(debitTransaction, creditTransaction);
+        return true;
     }
-    public List<Transaction> getTransactionsForAccount(String accountNumber) {
-        Account account = accountRepository.findByAccountNumber(accountNumber)
-                .orElseThrow(() -> new IllegalArgumentException("Account not found"));
-        return transactionRepository.findByAccount(account);
+
+    // Not @Transactional for the same reason as transferFunds.
+    public BigDecimal deposit(String accountNumber, BigDecimal amount) {
+        Transaction transaction = newRecord(amount, "CREDIT", null, "Cash Deposit by Banker", "SUCCESS");
+
+        if (ledgerEngine.isEnabled()) {
+            LedgerAccountSnapshot account = ledgerEngine.find(accountNumber)
+                    .orElseThrow(() -> new ResourceNotFoundException("Account not found"));
+            if (!account.active()) {
+                throw new IllegalArgumentException("Cannot deposit to frozen/inactive account");
+            }
+            // Checked again by the shard, in case the account is frozen before the posting is applied.
+            return ledgerEngine.post(new LedgerPosting().creditActive(accountNumber, amount, transaction));
+        }
+
+        return accountLockingService.execute(() -> {
+            Account account = accountRepository.findByAccountNumber(accountNumber)
+                    .orElseThrow(() -> new ResourceNotFoundException("Account not found"));
+
+            accountLockingService.lockForPosting(null, account);
+
+            if (!account.isActive()) {
+                throw new IllegalArgumentException("Cannot deposit to frozen/inactive account");
+            }
+
+            accountBalanceService.credit(account, amount, transaction);
+            accountRepository.save(account);
+
+            transaction.setAccount(account);
+            transactionJournal.record(transaction);
+            return accountBalanceService.balanceOf(account);
+        });
     }
 }
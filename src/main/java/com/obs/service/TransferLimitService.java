@@ -0,0 +1,410 @@
+package com.obs.service;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.obs.entity.AccountType;
+import com.obs.entity.Transaction;
+import com.obs.journal.Histogram;
+import com.obs.journal.LedgerLog;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Velocity limits on outgoing transfers: amount per account per day, transfers per account per hour
+ * and amount per account and beneficiary per day, all configured per {@link AccountType}, plus
+ * amount per customer per day; an account without a type gets the savings limits. Checks run
+ * against in-memory sliding windows guarded by striped locks, so they cost no database query. The
+ * windows are bucketed (one minute for the hourly window, fifteen for the daily ones), so an amount
+ * leaves a window up to one bucket late. They are rebuilt from the transaction table at startup. A
+ * PENDING transfer counts from the moment it is submitted until it is rejected. Only transfers a
+ * customer makes are counted, single or batch, which are the ones described with
+ * {@link #TRANSFER_DESCRIPTION}; recurring payments and bill payments are not.
+ * <p>
+ * The windows are per JVM. Each node counts only the transfers it served, so behind a load
+ * balancer with N nodes a customer can move up to N times a configured limit; divide the limits
+ * by the node count, or route each customer to one node.
+ */
+@Service
+@DependsOn("entityManagerFactory")
+public class TransferLimitService {
+
+    /** Limits for one account type, in minor units; zero or less disables a limit. */
+    public record Limits(long dailyAmount, long hourlyCount, long beneficiaryDailyAmount) {
+    }
+
+    /** What a successful check added to the windows, so that it can be taken back. */
+    public record Reservation(long accountId, long userId, String beneficiary, long amountMinor, long epochMillis) {
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(TransferLimitService.class);
+
+    private static final int STRIPES = 64;
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /** Starts the description of every transfer that {@link #reserve} is called for. */
+    public static final String TRANSFER_DESCRIPTION = "Transfer to ";
+
+    // The same transfers reserve() counts, so a restart neither adds nor drops any.
+    private static final String SELECT_RECENT_TRANSFERS =
+            "select t.account_id, a.user_id, t.target_account_number, t.amount, t.timestamp " +
+            "from transaction t join account a on a.id = t.account_id " +
+            "where t.type = 'DEBIT' and t.target_account_number is not null " +
+            "and t.description like '" + TRANSFER_DESCRIPTION + "%' " +
+            "and t.status in ('SUCCESS', 'PENDING') and t.timestamp >= ?";
+
+    @Value("${obs.app.limits.enabled:true}")
+    private boolean enabled;
+
+    @Value("${obs.app.limits.savings.daily-amount:500000}")
+    private BigDecimal savingsDailyAmount;
+
+    @Value("${obs.app.limits.savings.hourly-count:100}")
+    private long savingsHourlyCount;
+
+    @Value("${obs.app.limits.savings.beneficiary-daily-amount:250000}")
+    private BigDecimal savingsBeneficiaryDailyAmount;
+
+    @Value("${obs.app.limits.current.daily-amount:5000000}")
+    private BigDecimal currentDailyAmount;
+
+    @Value("${obs.app.limits.current.hourly-count:1000}")
+    private long currentHourlyCount;
+
+    @Value("${obs.app.limits.current.beneficiary-daily-amount:2500000}")
+    private BigDecimal currentBeneficiaryDailyAmount;
+
+    @Value("${obs.app.limits.user.daily-amount:5000000}")
+    private BigDecimal userDailyAmount;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final Map<AccountType, Limits> limits = new EnumMap<>(AccountType.class);
+    private long userDailyLimit;
+
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final ConcurrentHashMap<Long, AccountWindows> accounts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, SlidingWindow> users = new ConcurrentHashMap<>();
+
+    private final AtomicLong checks = new AtomicLong();
+    private final Map<String, AtomicLong> rejections = new LinkedHashMap<>();
+    private final Histogram checkNanos = new Histogram();
+
+    public TransferLimitService() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        for (String limit : new String[] {"dailyAmount", "hourlyCount", "beneficiaryDailyAmount", "userDailyAmount"}) {
+            rejections.put(limit, new AtomicLong());
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        limits.put(AccountType.SAVINGS, new Limits(LedgerLog.toMinorUnits(savingsDailyAmount), savingsHourlyCount,
+                LedgerLog.toMinorUnits(savingsBeneficiaryDailyAmount)));
+        limits.put(AccountType.CURRENT, new Limits(LedgerLog.toMinorUnits(currentDailyAmount), currentHourlyCount,
+                LedgerLog.toMinorUnits(currentBeneficiaryDailyAmount)));
+        userDailyLimit = LedgerLog.toMinorUnits(userDailyAmount);
+        if (enabled) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Checks a transfer against the limits of the source account and its owner and, if it fits,
+     * counts it. Throws {@link IllegalArgumentException} naming the limit otherwise. Inside a
+     * transaction the transfer is uncounted again if the transaction rolls back; outside one the
+     * caller passes the result to {@link #release} when the transfer fails. Returns null when
+     * limits are disabled.
+     */
+    public Reservation reserve(long accountId, long userId, AccountType accountType, String beneficiary, BigDecimal amount) {
+        return reserve(accountId, userId, accountType, beneficiary, amount, System.currentTimeMillis());
+    }
+
+    // Counts the transfer at {@code now}, so tests can place it next to a bucket boundary.
+    Reservation reserve(long accountId, long userId, AccountType accountType, String beneficiary, BigDecimal amount, long now) {
+        if (!enabled) {
+            return null;
+        }
+        long started = System.nanoTime();
+        // Accounts without a type are limited as savings accounts, as transfers already treat them.
+        Limits accountLimits = limits.get(accountType != null ? accountType : AccountType.SAVINGS);
+        long amountMinor = LedgerLog.toMinorUnits(amount);
+        int first = stripe(accountId);
+        int second = stripe(~userId);
+        lock(first, second);
+        try {
+            checks.incrementAndGet();
+            AccountWindows account = accounts.computeIfAbsent(accountId, id -> new AccountWindows());
+            SlidingWindow beneficiaryWindow = account.beneficiaries.computeIfAbsent(beneficiary, key -> SlidingWindow.daily());
+            SlidingWindow user = users.computeIfAbsent(userId, id -> SlidingWindow.daily());
+
+            if (exceeds(account.hourlyCount, now, 1, accountLimits.hourlyCount())) {
+                throw rejected("hourlyCount", "Hourly limit of " + accountLimits.hourlyCount() + " transfers reached for this account");
+            }
+            if (exceeds(account.dailyAmount, now, amountMinor, accountLimits.dailyAmount())) {
+                throw rejected("dailyAmount", "Daily transfer limit of " + format(accountLimits.dailyAmount()) + " exceeded for this account");
+            }
+            if (exceeds(beneficiaryWindow, now, amountMinor, accountLimits.beneficiaryDailyAmount())) {
+                throw rejected("beneficiaryDailyAmount", "Daily transfer limit of " + format(accountLimits.beneficiaryDailyAmount()) + " exceeded for this beneficiary");
+            }
+            if (exceeds(user, now, amountMinor, userDailyLimit)) {
+                throw rejected("userDailyAmount", "Daily transfer limit of " + format(userDailyLimit) + " exceeded for this customer");
+            }
+
+            account.hourlyCount.add(now, 1);
+            account.dailyAmount.add(now, amountMinor);
+            beneficiaryWindow.add(now, amountMinor);
+            user.add(now, amountMinor);
+        } finally {
+            unlock(first, second);
+            checkNanos.record(System.nanoTime() - started);
+        }
+
+        Reservation reservation = new Reservation(accountId, userId, beneficiary, amountMinor, now);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        release(reservation);
+                    }
+                }
+            });
+        }
+        return reservation;
+    }
+
+    public void release(Reservation reservation) {
+        if (reservation == null) {
+            return;
+        }
+        int first = stripe(reservation.accountId());
+        int second = stripe(~reservation.userId());
+        lock(first, second);
+        try {
+            long at = reservation.epochMillis();
+            AccountWindows account = accounts.get(reservation.accountId());
+            if (account != null) {
+                account.hourlyCount.add(at, -1);
+                account.dailyAmount.add(at, -reservation.amountMinor());
+                SlidingWindow beneficiaryWindow = account.beneficiaries.get(reservation.beneficiary());
+                if (beneficiaryWindow != null) {
+                    beneficiaryWindow.add(at, -reservation.amountMinor());
+                }
+            }
+            SlidingWindow user = users.get(reservation.userId());
+            if (user != null) {
+                user.add(at, -reservation.amountMinor());
+            }
+        } finally {
+            unlock(first, second);
+        }
+    }
+
+    /**
+     * The time to record on a PENDING transfer, so that {@link #releaseRejected} uncounts it from the
+     * buckets {@link #reserve} counted it in, even next to a bucket boundary. {@code reservation} is
+     * null when limits are disabled.
+     */
+    public static LocalDateTime timestampOf(Reservation reservation) {
+        return reservation != null ? new Timestamp(reservation.epochMillis()).toLocalDateTime() : LocalDateTime.now();
+    }
+
+    /**
+     * Uncounts a rejected PENDING transfer once the rejection commits. Its timestamp must come from
+     * {@link #timestampOf}.
+     */
+    public void releaseRejected(Transaction pending) {
+        if (!enabled || pending.getAccount() == null) {
+            return;
+        }
+        Reservation reservation = new Reservation(pending.getAccount().getId(), pending.getAccount().getUser().getId(),
+                pending.getTargetAccountNumber(), LedgerLog.toMinorUnits(pending.getAmount().abs()),
+                Timestamp.valueOf(pending.getTimestamp()).getTime());
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            release(reservation);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                release(reservation);
+            }
+        });
+    }
+
+    // Drops windows that have emptied so that idle accounts do not stay in memory.
+    @Scheduled(fixedDelayString = "${obs.app.limits.sweep-interval-ms:600000}")
+    public void sweep() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, AccountWindows> entry : accounts.entrySet()) {
+            ReentrantLock lock = stripes[stripe(entry.getKey())];
+            lock.lock();
+            try {
+                AccountWindows account = entry.getValue();
+                account.beneficiaries.values().removeIf(window -> window.isEmpty(now));
+                if (account.beneficiaries.isEmpty() && account.dailyAmount.isEmpty(now) && account.hourlyCount.isEmpty(now)) {
+                    accounts.remove(entry.getKey(), account);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        for (Map.Entry<Long, SlidingWindow> entry : users.entrySet()) {
+            ReentrantLock lock = stripes[stripe(~entry.getKey())];
+            lock.lock();
+            try {
+                if (entry.getValue().isEmpty(now)) {
+                    users.remove(entry.getKey(), entry.getValue());
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("checks", checks.get());
+        Map<String, Long> rejected = new LinkedHashMap<>();
+        rejections.forEach((limit, count) -> rejected.put(limit, count.get()));
+        stats.put("rejections", rejected);
+        stats.put("trackedAccounts", accounts.size());
+        stats.put("trackedUsers", users.size());
+        stats.put("checkNanos", checkNanos.snapshot());
+        return stats;
+    }
+
+    // Runs before requests are served, so nothing is counted twice.
+    private void rebuild() {
+        long now = System.currentTimeMillis();
+        long[] rows = new long[1];
+        jdbcTemplate.query(SELECT_RECENT_TRANSFERS, rs -> {
+            long accountId = rs.getLong("account_id");
+            long at = rs.getTimestamp("timestamp").getTime();
+            long amountMinor = LedgerLog.toMinorUnits(rs.getBigDecimal("amount").abs());
+            AccountWindows account = accounts.computeIfAbsent(accountId, id -> new AccountWindows());
+            account.hourlyCount.add(at, 1);
+            account.dailyAmount.add(at, amountMinor);
+            account.beneficiaries.computeIfAbsent(rs.getString("target_account_number"), key -> SlidingWindow.daily())
+                    .add(at, amountMinor);
+            users.computeIfAbsent(rs.getLong("user_id"), id -> SlidingWindow.daily()).add(at, amountMinor);
+            rows[0]++;
+        }, new Timestamp(now - DAY_MILLIS));
+        logger.info("Rebuilt transfer limit windows from {} transfers in {} ms", rows[0], System.currentTimeMillis() - now);
+    }
+
+    private static boolean exceeds(SlidingWindow window, long now, long value, long limit) {
+        return limit > 0 && window.sum(now) + value > limit;
+    }
+
+    private IllegalArgumentException rejected(String limit, String message) {
+        rejections.get(limit).incrementAndGet();
+        return new IllegalArgumentException(message);
+    }
+
+    private static String format(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, 2).toPlainString();
+    }
+
+    private static int stripe(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 58);
+    }
+
+    // The account's and the customer's stripes are taken in index order, so checks cannot deadlock.
+    private void lock(int first, int second) {
+        stripes[Math.min(first, second)].lock();
+        if (first != second) {
+            stripes[Math.max(first, second)].lock();
+        }
+    }
+
+    private void unlock(int first, int second) {
+        stripes[first].unlock();
+        if (first != second) {
+            stripes[second].unlock();
+        }
+    }
+
+    private static final class AccountWindows {
+        private final SlidingWindow dailyAmount = SlidingWindow.daily();
+        private final SlidingWindow hourlyCount = new SlidingWindow(TimeUnit.MINUTES.toMillis(1), 60);
+        private final Map<String, SlidingWindow> beneficiaries = new HashMap<>();
+    }
+
+    /**
+     * Ring of fixed-width buckets covering the window. A slot is reused once its bucket has aged
+     * out, so the window never allocates after creation. Guarded by the owner's stripe lock.
+     */
+    static final class SlidingWindow {
+        private final long bucketMillis;
+        private final long[] buckets;
+        private final long[] totals;
+
+        SlidingWindow(long bucketMillis, int size) {
+            this.bucketMillis = bucketMillis;
+            this.buckets = new long[size];
+            this.totals = new long[size];
+            Arrays.fill(buckets, -1);
+        }
+
+        static SlidingWindow daily() {
+            return new SlidingWindow(TimeUnit.MINUTES.toMillis(15), 96);
+        }
+
+        long sum(long now) {
+            long current = now / bucketMillis;
+            long sum = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                if (buckets[i] >= 0 && current - buckets[i] < buckets.length) {
+                    sum += totals[i];
+                }
+            }
+            return sum;
+        }
+
+        void add(long at, long value) {
+            long bucket = at / bucketMillis;
+            int slot = (int) Math.floorMod(bucket, (long) buckets.length);
+            if (buckets[slot] != bucket) {
+                if (buckets[slot] > bucket) {
+                    // The bucket has already aged out of the window.
+                    return;
+                }
+                buckets[slot] = bucket;
+                totals[slot] = 0;
+            }
+            totals[slot] += value;
+        }
+
+        boolean isEmpty(long now) {
+            return sum(now) == 0;
+        }
+    }
+}
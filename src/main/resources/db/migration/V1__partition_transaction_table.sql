@@ -0,0 +1,93 @@
+-- Monthly range partitioning of the transaction table.
+--
+-- Flyway runs before Hibernate's schema update, so on an empty database this creates the table
+-- itself; Hibernate then only adds the foreign key to account. On an existing database the
+-- unpartitioned table is copied into the partitioned one and dropped.
+
+do $$
+declare
+    v_constraint record;
+begin
+    if to_regclass('transaction') is not null then
+        -- A partitioned table's keys include the partition column, so nothing can reference id alone.
+        for v_constraint in
+            select conrelid::regclass as referencing, conname from pg_constraint where confrelid = 'transaction'::regclass
+        loop
+            execute format('alter table %s drop constraint %I', v_constraint.referencing, v_constraint.conname);
+        end loop;
+        alter table transaction rename to transaction_unpartitioned;
+        alter table transaction_unpartitioned alter column id drop identity if exists;
+        alter index if exists transaction_pkey rename to transaction_unpartitioned_pkey;
+    end if;
+end
+$$;
+
+drop index if exists idx_transaction_status_timestamp;
+drop index if exists idx_transaction_status_amount;
+drop index if exists idx_transaction_account_timestamp;
+
+create sequence if not exists transaction_id_seq;
+
+create table transaction (
+    id bigint not null default nextval('transaction_id_seq'),
+    amount numeric(38,2),
+    timestamp timestamp(6) not null,
+    type varchar(255),
+    description varchar(255),
+    account_id bigint,
+    target_account_number varchar(255),
+    status varchar(255),
+    primary key (id, timestamp)
+) partition by range (timestamp);
+
+alter sequence transaction_id_seq owned by transaction.id;
+
+-- Catches rows for months that have no partition yet; obs_ensure_transaction_partition moves them out.
+create table transaction_default partition of transaction default;
+
+create index idx_transaction_status_timestamp on transaction (status, timestamp, id);
+create index idx_transaction_status_amount on transaction (status, amount, id);
+create index idx_transaction_account_timestamp on transaction (account_id, timestamp, id);
+
+-- Creates the partition for the month containing p_month, named transaction_YYYY_MM, if it does not
+-- exist yet. Rows of that month waiting in the default partition are moved into it first, because
+-- attaching a range the default partition already holds rows for fails.
+create or replace function obs_ensure_transaction_partition(p_month date) returns text
+language plpgsql as $$
+declare
+    v_from timestamp := date_trunc('month', p_month);
+    v_to timestamp := date_trunc('month', p_month) + interval '1 month';
+    v_name text := 'transaction_' || to_char(p_month, 'YYYY_MM');
+begin
+    if to_regclass(v_name) is not null then
+        return v_name;
+    end if;
+    execute format('create table %I (like transaction including defaults)', v_name);
+    execute format('with moved as (delete from transaction_default where timestamp >= %L and timestamp < %L returning *) '
+                   'insert into %I select * from moved', v_from, v_to, v_name);
+    execute format('alter table transaction attach partition %I for values from (%L) to (%L)', v_name, v_from, v_to);
+    return v_name;
+end
+$$;
+
+do $$
+declare
+    v_month date;
+begin
+    perform obs_ensure_transaction_partition(current_date);
+    if to_regclass('transaction_unpartitioned') is not null then
+        for v_month in
+            select distinct date_trunc('month', timestamp)::date from transaction_unpartitioned where timestamp is not null
+        loop
+            perform obs_ensure_transaction_partition(v_month);
+        end loop;
+        -- Rows without a timestamp cannot be routed by it; they keep the epoch and sit in the default partition.
+        insert into transaction (id, amount, timestamp, type, description, account_id, target_account_number, status)
+            select id, amount, coalesce(timestamp, timestamp '1970-01-01'), type, description, account_id,
+                   target_account_number, status
+            from transaction_unpartitioned;
+        perform setval('transaction_id_seq', coalesce((select max(id) from transaction), 0) + 1, false);
+        drop table transaction_unpartitioned;
+    end if;
+end
+$$;
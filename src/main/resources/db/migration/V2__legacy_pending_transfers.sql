@@ -0,0 +1,23 @@
+-- Pending transfers created before funds holds existed were debited when they were made, carry
+-- " (PENDING APPROVAL)" in their description and have no hold. They are listed here so that
+-- deciding them can tell them apart from a transfer whose hold is missing.
+
+create table if not exists legacy_pending_transfer (
+    transaction_id bigint primary key
+);
+
+do $$
+begin
+    if to_regclass('funds_holds') is null then
+        insert into legacy_pending_transfer (transaction_id)
+            select id from transaction where status = 'PENDING' and description like '% (PENDING APPROVAL)'
+            on conflict do nothing;
+    else
+        insert into legacy_pending_transfer (transaction_id)
+            select t.id from transaction t
+            where t.status = 'PENDING' and t.description like '% (PENDING APPROVAL)'
+              and not exists (select 1 from funds_holds h where h.transaction_id = t.id)
+            on conflict do nothing;
+    end if;
+end
+$$;
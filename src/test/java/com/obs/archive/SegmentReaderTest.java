@@ -0,0 +1,57 @@
+package com.obs.archive;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Lookups by id in a segment of three accounts whose ids interleave, as they do for a month of
+ * real traffic, spread over several blocks.
+ */
+class SegmentReaderTest {
+
+    private static final int ROWS_PER_ACCOUNT = 5_000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void findsEveryIdAndNothingOutsideTheSegment() throws Exception {
+        Path file = directory.resolve("transaction_2026_01.seg");
+        LocalDateTime start = LocalDateTime.of(2026, 1, 1, 0, 0);
+        try (SegmentWriter writer = new SegmentWriter(file)) {
+            for (long account = 1; account <= 3; account++) {
+                for (int i = 0; i < ROWS_PER_ACCOUNT; i++) {
+                    // Ids 1000, 1003, ... for the first account, 1001, 1004, ... for the second.
+                    long id = 1000 + 3L * i + (account - 1);
+                    writer.add(id, account, BigDecimal.TEN, start.plusMinutes(i), "DEBIT", "Test", null, "SUCCESS");
+                }
+            }
+            writer.finish();
+        }
+
+        try (SegmentReader reader = SegmentReader.open(file, YearMonth.of(2026, 1))) {
+            assertThat(reader.blockCount()).isGreaterThan(1);
+            long maxId = 1000 + 3L * ROWS_PER_ACCOUNT - 1;
+            assertThat(reader.mayHoldId(999)).isFalse();
+            assertThat(reader.mayHoldId(maxId + 1)).isFalse();
+            assertThat(reader.blockOfId(999)).isEqualTo(-1);
+            assertThat(reader.blockOfId(maxId + 1)).isEqualTo(-1);
+
+            for (long id = 1000; id <= maxId; id += 7) {
+                int block = reader.blockOfId(id);
+                assertThat(block).isNotNegative();
+                SegmentReader.Block rows = reader.block(block);
+                int row = rows.indexOfId(id);
+                assertThat(row).isNotNegative();
+                assertThat(rows.accounts[row]).isEqualTo((id - 1000) % 3 + 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.obs.ledger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.obs.entity.Account;
+import com.obs.entity.AccountType;
+import com.obs.entity.Transaction;
+import com.obs.exception.ConflictException;
+import com.obs.support.EmbeddedDatabase;
+import com.obs.support.TestData;
+
+/**
+ * Postings through the ledger engine with a single shard, so every posting in a test shares the
+ * shard's batches.
+ */
+class LedgerEngineTest {
+
+    private final ConfigurableApplicationContext context = EmbeddedDatabase.shared(EmbeddedDatabase.LEDGER);
+    private final LedgerEngine ledgerEngine = context.getBean(LedgerEngine.class);
+    private final JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+
+    @Test
+    void postingMovesMoneyAndWritesItsRows() {
+        Account from = account("1000.00");
+        Account to = account("0.00");
+
+        BigDecimal balance = ledgerEngine.post(new LedgerPosting()
+                .debit(from.getAccountNumber(), new BigDecimal("250.00"), record("-250.00", "DEBIT"))
+                .credit(to.getAccountNumber(), new BigDecimal("250.00"), record("250.00", "CREDIT")));
+
+        assertThat(balance).isEqualByComparingTo("750.00");
+        assertThat(balanceOf(from)).isEqualByComparingTo("750.00");
+        assertThat(balanceOf(to)).isEqualByComparingTo("250.00");
+        assertThat(rowsOf(from)).isEqualTo(1);
+        assertThat(rowsOf(to)).isEqualTo(1);
+    }
+
+    @Test
+    void postingBeyondTheAvailableBalanceIsRejected() {
+        Account from = account("100.00");
+        Account to = account("0.00");
+
+        assertThatThrownBy(() -> ledgerEngine.post(new LedgerPosting()
+                .debit(from.getAccountNumber(), new BigDecimal("100.01"), record("-100.01", "DEBIT"))
+                .credit(to.getAccountNumber(), new BigDecimal("100.01"), record("100.01", "CREDIT"))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Insufficient balance");
+        assertThat(balanceOf(from)).isEqualByComparingTo("100.00");
+        assertThat(rowsOf(from)).isZero();
+    }
+
+    @Test
+    void failingWriteFailsOnlyItsOwnPosting() throws Exception {
+        Account first = account("1000.00");
+        Account second = account("1000.00");
+        Account third = account("0.00");
+
+        // Holds the shard in its flush, so the postings below queue up and are persisted as one batch.
+        CountDownLatch flushing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<BigDecimal> blocker = ledgerEngine.submit(new LedgerPosting()
+                .credit(third.getAccountNumber(), BigDecimal.ONE, List.of())
+                .alsoWrite(() -> {
+                    flushing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+        assertThat(flushing.await(10, TimeUnit.SECONDS)).isTrue();
+        long batches = ledgerEngine.getBatchesFlushed();
+
+        CompletableFuture<BigDecimal> before = ledgerEngine.submit(new LedgerPosting()
+                .debit(first.getAccountNumber(), new BigDecimal("100.00"), record("-100.00", "DEBIT"))
+                .credit(third.getAccountNumber(), new BigDecimal("100.00"), record("100.00", "CREDIT")));
+        CompletableFuture<BigDecimal> stale = ledgerEngine.submit(new LedgerPosting()
+                .debit(second.getAccountNumber(), new BigDecimal("40.00"), record("-40.00", "DEBIT"))
+                .credit(third.getAccountNumber(), new BigDecimal("40.00"), record("40.00", "CREDIT"))
+                .alsoWrite(() -> {
+                    throw new ConflictException("Decided elsewhere");
+                }));
+        CompletableFuture<BigDecimal> after = ledgerEngine.submit(new LedgerPosting()
+                .debit(second.getAccountNumber(), new BigDecimal("10.00"), record("-10.00", "DEBIT"))
+                .credit(first.getAccountNumber(), new BigDecimal("10.00"), record("10.00", "CREDIT")));
+        release.countDown();
+
+        blocker.get(10, TimeUnit.SECONDS);
+        assertThat(before.get(10, TimeUnit.SECONDS)).isEqualByComparingTo("900.00");
+        assertThat(after.get(10, TimeUnit.SECONDS)).isEqualByComparingTo("990.00");
+        assertThatThrownBy(() -> stale.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .cause().isInstanceOf(ConflictException.class).hasMessage("Decided elsewhere");
+        // The three postings shared a batch, which was persisted once without the failed one.
+        assertThat(ledgerEngine.getBatchesFlushed()).isEqualTo(batches + 2);
+
+        assertThat(balanceOf(first)).isEqualByComparingTo("910.00");
+        assertThat(balanceOf(second)).isEqualByComparingTo("990.00");
+        assertThat(balanceOf(third)).isEqualByComparingTo("101.00");
+        assertThat(rowsOf(second)).isEqualTo(1);
+        assertThat(rowsOf(third)).isEqualTo(1);
+    }
+
+    @Test
+    void conflictFailsOnlyThePostingsOfTheChangedAccount() throws Exception {
+        Account changed = account("1000.00");
+        Account other = account("1000.00");
+        Account target = account("0.00");
+        // Caches the account in the shard, then lowers its balance behind the shard's back.
+        ledgerEngine.post(new LedgerPosting().credit(changed.getAccountNumber(), BigDecimal.ONE, List.of()));
+        jdbcTemplate.update("update account set balance = 50.00 where id = ?", changed.getId());
+
+        CountDownLatch flushing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<BigDecimal> blocker = ledgerEngine.submit(new LedgerPosting()
+                .credit(target.getAccountNumber(), BigDecimal.ONE, List.of())
+                .alsoWrite(() -> {
+                    flushing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+        assertThat(flushing.await(10, TimeUnit.SECONDS)).isTrue();
+        long batches = ledgerEngine.getBatchesFlushed();
+
+        CompletableFuture<BigDecimal> overdraw = ledgerEngine.submit(new LedgerPosting()
+                .debit(changed.getAccountNumber(), new BigDecimal("500.00"), record("-500.00", "DEBIT"))
+                .credit(target.getAccountNumber(), new BigDecimal("500.00"), record("500.00", "CREDIT")));
+        CompletableFuture<BigDecimal> unrelated = ledgerEngine.submit(new LedgerPosting()
+                .debit(other.getAccountNumber(), new BigDecimal("30.00"), record("-30.00", "DEBIT"))
+                .credit(target.getAccountNumber(), new BigDecimal("30.00"), record("30.00", "CREDIT")));
+        release.countDown();
+
+        blocker.get(10, TimeUnit.SECONDS);
+        assertThat(unrelated.get(10, TimeUnit.SECONDS)).isEqualByComparingTo("970.00");
+        assertThatThrownBy(() -> overdraw.get(10, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .cause().isInstanceOf(ConflictException.class);
+        assertThat(ledgerEngine.getBatchesFlushed()).isEqualTo(batches + 2);
+
+        assertThat(balanceOf(changed)).isEqualByComparingTo("50.00");
+        assertThat(balanceOf(other)).isEqualByComparingTo("970.00");
+        assertThat(balanceOf(target)).isEqualByComparingTo("31.00");
+        assertThat(rowsOf(changed)).isZero();
+        // The changed account was reloaded, so its next posting is checked against the real balance.
+        assertThatThrownBy(() -> ledgerEngine.post(new LedgerPosting()
+                .debit(changed.getAccountNumber(), new BigDecimal("60.00"), record("-60.00", "DEBIT"))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Insufficient balance");
+    }
+
+    @Test
+    void targetFrozenAfterSubmitIsNotCredited() throws Exception {
+        Account from = account("1000.00");
+        Account target = account("0.00");
+        Account other = account("0.00");
+
+        CountDownLatch flushing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<BigDecimal> blocker = ledgerEngine.submit(new LedgerPosting()
+                .credit(other.getAccountNumber(), BigDecimal.ONE, List.of())
+                .alsoWrite(() -> {
+                    flushing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+        assertThat(flushing.await(10, TimeUnit.SECONDS)).isTrue();
+
+        // Queued as a transfer and a deposit would be, after their callers saw the target active.
+        CompletableFuture<BigDecimal> transfer = ledgerEngine.submit(new LedgerPosting()
+                .debit(from.getAccountNumber(), new BigDecimal("100.00"), record("-100.00", "DEBIT"))
+                .creditActive(target.getAccountNumber(), new BigDecimal("100.00"), record("100.00", "CREDIT")));
+        CompletableFuture<BigDecimal> deposit = ledgerEngine.submit(new LedgerPosting()
+                .creditActive(target.getAccountNumber(), new BigDecimal("50.00"), record("50.00", "CREDIT")));
+        // The shard has not read the target yet, so it sees the freeze when it applies the postings.
+        jdbcTemplate.update("update account set active = false where id = ?", target.getId());
+        release.countDown();
+
+        blocker.get(10, TimeUnit.SECONDS);
+        for (CompletableFuture<BigDecimal> posting : List.of(transfer, deposit)) {
+            assertThatThrownBy(() -> posting.get(10, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .cause().isInstanceOf(IllegalArgumentException.class).hasMessage("Target account is frozen/inactive");
+        }
+        assertThat(balanceOf(from)).isEqualByComparingTo("1000.00");
+        assertThat(balanceOf(target)).isEqualByComparingTo("0.00");
+        assertThat(rowsOf(from)).isZero();
+        assertThat(rowsOf(target)).isZero();
+    }
+
+    private Account account(String balance) {
+        return TestData.account(context, TestData.customer(context), AccountType.CURRENT, new BigDecimal(balance));
+    }
+
+    private BigDecimal balanceOf(Account account) {
+        return jdbcTemplate.queryForObject("select balance from account where id = ?", BigDecimal.class, account.getId());
+    }
+
+    private long rowsOf(Account account) {
+        return jdbcTemplate.queryForObject("select count(*) from transaction where account_id = ?", Long.class, account.getId());
+    }
+
+    private static Transaction record(String amount, String type) {
+        Transaction transaction = new Transaction();
+        transaction.setAmount(new BigDecimal(amount));
+        transaction.setType(type);
+        transaction.setTimestamp(LocalDateTime.now());
+        transaction.setDescription("Ledger test");
+        transaction.setStatus("SUCCESS");
+        return transaction;
+    }
+}
@@ -0,0 +1,59 @@
+package com.obs.ledger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.obs.entity.Account;
+import com.obs.entity.AccountType;
+import com.obs.exception.OutcomeUnknownException;
+import com.obs.support.EmbeddedDatabase;
+import com.obs.support.TestData;
+
+/**
+ * A posting whose batch outlives the await timeout is reported as outcome unknown, and its future
+ * still completes once the batch commits.
+ */
+class LedgerPostingTimeoutTest {
+
+    private final ConfigurableApplicationContext context = EmbeddedDatabase.shared("obs.app.ledger.enabled=true",
+            "obs.app.ledger.shards=1", "obs.app.ledger.await-timeout-ms=500", "obs.app.fraud.enabled=false",
+            "obs.app.limits.current.hourly-count=1");
+    private final LedgerEngine ledgerEngine = context.getBean(LedgerEngine.class);
+    private final JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+
+    @Test
+    void unconfirmedPostingIsReportedAsOutcomeUnknown() throws Exception {
+        Account account = TestData.account(context, TestData.customer(context), AccountType.CURRENT, BigDecimal.ZERO);
+
+        // The posting's own write holds the shard's flush open past the await timeout.
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<BigDecimal> result = ledgerEngine.submit(new LedgerPosting()
+                .credit(account.getAccountNumber(), new BigDecimal("75.00"), List.of())
+                .alsoWrite(() -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+
+        assertThatThrownBy(() -> ledgerEngine.awaitPosting(result))
+                .isInstanceOf(OutcomeUnknownException.class)
+                .hasMessage("Ledger posting was not confirmed within 500 ms and may still be applied");
+        release.countDown();
+
+        assertThat(result.get(10, TimeUnit.SECONDS)).isEqualByComparingTo("75.00");
+        assertThat(jdbcTemplate.queryForObject("select balance from account where id = ?", BigDecimal.class, account.getId()))
+                .isEqualByComparingTo("75.00");
+    }
+}
@@ -0,0 +1,63 @@
+package com.obs.ledger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Stopping a shard, with commands that need no database, so that stopping is all that is tested.
+ */
+class LedgerShardTest {
+
+    @Test
+    void stopRunsEveryQueuedTaskAndRejectsLaterOnes() throws Exception {
+        LedgerShard shard = new LedgerShard(0, null, null, null, null, 256, 5);
+        shard.start();
+
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> blocker = new CompletableFuture<>();
+        shard.submit(s -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            blocker.complete(null);
+        }, blocker);
+        assertThat(running.await(10, TimeUnit.SECONDS)).isTrue();
+        List<CompletableFuture<Integer>> queued = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            int value = i;
+            CompletableFuture<Integer> future = new CompletableFuture<>();
+            shard.submit(s -> future.complete(value), future);
+            queued.add(future);
+        }
+
+        // The writer is busy, so stop() has to wait for it rather than interrupt it.
+        Thread stopper = new Thread(shard::stop);
+        stopper.start();
+        Thread.sleep(100);
+        release.countDown();
+        stopper.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertThat(blocker).isCompleted();
+        for (int i = 0; i < queued.size(); i++) {
+            assertThat(queued.get(i).getNow(-1)).isEqualTo(i);
+        }
+        CompletableFuture<Void> late = new CompletableFuture<>();
+        shard.submit(s -> late.complete(null), late);
+        assertThatThrownBy(() -> late.get(1, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .cause().isInstanceOf(IllegalStateException.class).hasMessage("Ledger shard 0 is shut down");
+    }
+}
@@ -0,0 +1,44 @@
+package com.obs.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.obs.entity.Account;
+import com.obs.entity.AccountType;
+import com.obs.repository.AccountMonthlyRollupRepository.MonthBalances;
+import com.obs.service.TransactionService;
+import com.obs.support.EmbeddedDatabase;
+import com.obs.support.TestData;
+
+/**
+ * Month boundary balances worked back from the current balance, for an account opened with 1000.00
+ * and credited twice this month.
+ */
+class AccountMonthlyRollupRepositoryTest {
+
+    private final ConfigurableApplicationContext context = EmbeddedDatabase.shared(EmbeddedDatabase.LEDGER);
+    private final AccountMonthlyRollupRepository repository = context.getBean(AccountMonthlyRollupRepository.class);
+    private final TransactionService transactionService = context.getBean(TransactionService.class);
+
+    @Test
+    void balancesAtTheMonthsBoundariesLeaveOutLaterTransactions() {
+        Account account = TestData.account(context, TestData.customer(context), AccountType.SAVINGS, new BigDecimal("1000.00"));
+        transactionService.deposit(account.getAccountNumber(), new BigDecimal("200.00"));
+        transactionService.deposit(account.getAccountNumber(), new BigDecimal("50.00"));
+        LocalDate thisMonth = LocalDate.now().withDayOfMonth(1);
+
+        MonthBalances current = repository.findMonthBalances(account.getId(), account.getId(), thisMonth).get(account.getId());
+        assertThat(current.opening()).isEqualByComparingTo("1000.00");
+        assertThat(current.closing()).isEqualByComparingTo("1250.00");
+
+        MonthBalances previous = repository.findMonthBalances(account.getId(), account.getId(), thisMonth.minusMonths(1))
+                .get(account.getId());
+        assertThat(previous.opening()).isEqualByComparingTo("1000.00");
+        assertThat(previous.closing()).isEqualByComparingTo("1000.00");
+    }
+}
@@ -0,0 +1,56 @@
+package com.obs.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.obs.entity.Account;
+import com.obs.entity.AccountType;
+import com.obs.entity.User;
+import com.obs.support.EmbeddedDatabase;
+import com.obs.support.TestData;
+
+/**
+ * Bill payments through the ledger, where the shard saves the bill payment in the transaction that
+ * debits the account.
+ */
+class BillPaymentServiceTest {
+
+    private final ConfigurableApplicationContext context = EmbeddedDatabase.shared(EmbeddedDatabase.LEDGER);
+    private final BillPaymentService billPaymentService = context.getBean(BillPaymentService.class);
+    private final JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+
+    @Test
+    void paymentIsSavedWithItsDebit() {
+        User owner = TestData.customer(context);
+        Account account = TestData.account(context, owner, AccountType.CURRENT, new BigDecimal("500.00"));
+
+        billPaymentService.payBill(owner.getId(), account.getAccountNumber(), "Electricity", new BigDecimal("120.00"));
+
+        assertThat(balanceOf(account)).isEqualByComparingTo("380.00");
+        assertThat(jdbcTemplate.queryForObject("select count(*) from bill_payment where user_id = ? and biller_name = 'Electricity' "
+                + "and amount = 120.00 and status = 'PAID'", Long.class, owner.getId())).isEqualTo(1);
+    }
+
+    @Test
+    void rejectedDebitSavesNoPayment() {
+        User owner = TestData.customer(context);
+        Account account = TestData.account(context, owner, AccountType.CURRENT, new BigDecimal("50.00"));
+
+        assertThatThrownBy(() -> billPaymentService.payBill(owner.getId(), account.getAccountNumber(), "Water", new BigDecimal("80.00")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Insufficient balance");
+
+        assertThat(balanceOf(account)).isEqualByComparingTo("50.00");
+        assertThat(jdbcTemplate.queryForObject("select count(*) from bill_payment where user_id = ?", Long.class, owner.getId())).isZero();
+    }
+
+    private BigDecimal balanceOf(Account account) {
+        return jdbcTemplate.queryForObject("select balance from account where id = ?", BigDecimal.class, account.getId());
+    }
+}
@@ -0,0 +1,97 @@
+package com.obs.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.obs.entity.Account;
+import com.obs.entity.AccountType;
+import com.obs.entity.User;
+import com.obs.payload.request.TransferRequest;
+import com.obs.support.EmbeddedDatabase;
+import com.obs.support.TestData;
+
+/**
+ * High-value transfers from savings accounts wait for a banker. With the ledger enabled the funds
+ * are held when the transfer is submitted, and the shard writes the decision with the postings
+ * that settle or release the hold.
+ */
+class PendingDecisionLedgerTest {
+
+    private final ConfigurableApplicationContext context = EmbeddedDatabase.shared(EmbeddedDatabase.LEDGER);
+    private final TransactionService transactionService = context.getBean(TransactionService.class);
+    private final JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+
+    @Test
+    void approvalSettlesTheHoldOnce() {
+        User owner = TestData.customer(context);
+        Account from = TestData.account(context, owner, AccountType.SAVINGS, new BigDecimal("50000.00"));
+        Account to = TestData.account(context, TestData.customer(context), AccountType.CURRENT, BigDecimal.ZERO);
+
+        assertThat(transactionService.transferFunds(transfer(from, to, "20000.00"), owner.getUsername())).isEqualTo("PENDING");
+        Long id = pendingId(from);
+        assertThat(column("reserved_balance", from)).isEqualByComparingTo("20000.00");
+        assertThat(holdStatus(id)).isEqualTo("ACTIVE");
+
+        transactionService.approveTransaction(id);
+
+        assertThat(status(id)).isEqualTo("SUCCESS");
+        assertThat(holdStatus(id)).isEqualTo("SETTLED");
+        assertThat(column("balance", from)).isEqualByComparingTo("30000.00");
+        assertThat(column("reserved_balance", from)).isEqualByComparingTo("0.00");
+        assertThat(column("balance", to)).isEqualByComparingTo("20000.00");
+
+        assertThatThrownBy(() -> transactionService.approveTransaction(id))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Transaction is not pending");
+        assertThat(column("balance", to)).isEqualByComparingTo("20000.00");
+    }
+
+    @Test
+    void rejectionReleasesTheHold() {
+        User owner = TestData.customer(context);
+        Account from = TestData.account(context, owner, AccountType.SAVINGS, new BigDecimal("50000.00"));
+        Account to = TestData.account(context, TestData.customer(context), AccountType.CURRENT, BigDecimal.ZERO);
+
+        transactionService.transferFunds(transfer(from, to, "15000.00"), owner.getUsername());
+        Long id = pendingId(from);
+
+        transactionService.rejectTransaction(id);
+
+        assertThat(status(id)).isEqualTo("REJECTED");
+        assertThat(holdStatus(id)).isEqualTo("RELEASED");
+        assertThat(column("balance", from)).isEqualByComparingTo("50000.00");
+        assertThat(column("reserved_balance", from)).isEqualByComparingTo("0.00");
+        assertThat(column("balance", to)).isEqualByComparingTo("0.00");
+    }
+
+    private static TransferRequest transfer(Account from, Account to, String amount) {
+        TransferRequest request = new TransferRequest();
+        request.setFromAccountNumber(from.getAccountNumber());
+        request.setToAccountNumber(to.getAccountNumber());
+        request.setAmount(new BigDecimal(amount));
+        return request;
+    }
+
+    private Long pendingId(Account account) {
+        return jdbcTemplate.queryForObject("select id from transaction where account_id = ? and status = 'PENDING'",
+                Long.class, account.getId());
+    }
+
+    private String status(Long id) {
+        return jdbcTemplate.queryForObject("select status from transaction where id = ?", String.class, id);
+    }
+
+    private String holdStatus(Long transactionId) {
+        return jdbcTemplate.queryForObject("select status from funds_holds where transaction_id = ?", String.class, transactionId);
+    }
+
+    private BigDecimal column(String column, Account account) {
+        return jdbcTemplate.queryForObject("select " + column + " from account where id = ?", BigDecimal.class, account.getId());
+    }
+}
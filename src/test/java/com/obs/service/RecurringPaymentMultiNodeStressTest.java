@@ -0,0 +1,93 @@
+package com.obs.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.obs.entity.Account;
+import com.obs.entity.AccountType;
+import com.obs.support.EmbeddedDatabase;
+import com.obs.support.TestData;
+
+/**
+ * Two application contexts on one database, standing in for two nodes, start the daily recurring
+ * payment run at the same moment. Each due payment has to be paid exactly once, and both nodes
+ * have to take a share of the work.
+ */
+@Tag("stress")
+class RecurringPaymentMultiNodeStressTest {
+
+    private static final int PAYMENTS = 5_000;
+    private static final int SOURCES = 50;
+    private static final int TARGETS = 10;
+    private static final BigDecimal OPENING_BALANCE = new BigDecimal("1000000.00");
+    private static final BigDecimal AMOUNT = new BigDecimal("10.00");
+
+    @Test
+    void everyPaymentIsPaidOnceAcrossNodes() throws Exception {
+        String url = EmbeddedDatabase.createDatabase();
+        String[] properties = {"obs.app.fraud.enabled=false", "obs.app.recurring.page-size=100"};
+        try (ConfigurableApplicationContext first = EmbeddedDatabase.start(url, properties);
+             ConfigurableApplicationContext second = EmbeddedDatabase.start(url, properties)) {
+            List<Account> sources = new ArrayList<>();
+            for (int i = 0; i < SOURCES; i++) {
+                sources.add(TestData.account(first, TestData.customer(first), AccountType.CURRENT, OPENING_BALANCE));
+            }
+            List<Account> targets = new ArrayList<>();
+            for (int i = 0; i < TARGETS; i++) {
+                targets.add(TestData.account(first, TestData.customer(first), AccountType.CURRENT, OPENING_BALANCE));
+            }
+            JdbcTemplate jdbcTemplate = first.getBean(JdbcTemplate.class);
+            List<Object[]> rows = new ArrayList<>();
+            for (int i = 0; i < PAYMENTS; i++) {
+                rows.add(new Object[] {sources.get(i % SOURCES).getId(), targets.get(i % TARGETS).getAccountNumber()});
+            }
+            jdbcTemplate.batchUpdate("insert into recurring_payments (account_id, amount, target_account_number, "
+                    + "frequency, start_date, next_payment_date, status, created_at) "
+                    + "values (?, " + AMOUNT + ", ?, 'MONTHLY', current_date, current_date, 'ACTIVE', localtimestamp)", rows);
+
+            RecurringPaymentService firstNode = first.getBean(RecurringPaymentService.class);
+            RecurringPaymentService secondNode = second.getBean(RecurringPaymentService.class);
+            long started = System.nanoTime();
+            CompletableFuture<Map<String, Object>> firstRun = CompletableFuture.supplyAsync(firstNode::processRecurringPayments);
+            CompletableFuture<Map<String, Object>> secondRun = CompletableFuture.supplyAsync(secondNode::processRecurringPayments);
+            Map<String, Object> firstResult = firstRun.get();
+            Map<String, Object> secondResult = secondRun.get();
+            long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+
+            System.out.printf("%d payments in %d ms%n  first node:  %s%n  second node: %s%n",
+                    PAYMENTS, elapsedMs, firstResult, secondResult);
+
+            long firstPaid = (Long) firstResult.get("succeeded");
+            long secondPaid = (Long) secondResult.get("succeeded");
+            assertThat(firstPaid + secondPaid).isEqualTo(PAYMENTS);
+            assertThat(firstPaid).isPositive();
+            assertThat(secondPaid).isPositive();
+            assertThat((Long) firstResult.get("failed") + (Long) secondResult.get("failed")).isZero();
+
+            // Advanced exactly once, and no leases left behind.
+            assertThat(jdbcTemplate.queryForObject("select count(*) from recurring_payments where next_payment_date = ? "
+                    + "and last_run_status = 'SUCCESS' and claimed_by is null", Long.class, LocalDate.now().plusMonths(1)))
+                    .isEqualTo(PAYMENTS);
+            assertThat(jdbcTemplate.queryForObject("select count(*) from transaction where type = 'DEBIT'", Long.class))
+                    .isEqualTo(PAYMENTS);
+            BigDecimal received = jdbcTemplate.queryForObject("select sum(balance) from account where id in ("
+                    + String.join(",", targets.stream().map(account -> account.getId().toString()).toList()) + ")",
+                    BigDecimal.class);
+            assertThat(received).isEqualByComparingTo(OPENING_BALANCE.multiply(BigDecimal.valueOf(TARGETS))
+                    .add(AMOUNT.multiply(BigDecimal.valueOf(PAYMENTS))));
+            assertThat(jdbcTemplate.queryForObject("select sum(balance) from account", BigDecimal.class))
+                    .isEqualByComparingTo(OPENING_BALANCE.multiply(BigDecimal.valueOf(SOURCES + TARGETS)));
+        }
+    }
+}
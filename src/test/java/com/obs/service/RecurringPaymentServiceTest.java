@@ -0,0 +1,129 @@
+package com.obs.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.obs.entity.Account;
+import com.obs.entity.AccountType;
+import com.obs.repository.RecurringPaymentRepository;
+import com.obs.support.EmbeddedDatabase;
+import com.obs.support.TestData;
+
+/**
+ * The daily recurring payment run through the ledger. Other tests in the shared context may leave
+ * payments due as well, so each test checks its own accounts and payments only.
+ */
+class RecurringPaymentServiceTest {
+
+    private final ConfigurableApplicationContext context = EmbeddedDatabase.shared(EmbeddedDatabase.LEDGER);
+    private final RecurringPaymentService recurringPaymentService = context.getBean(RecurringPaymentService.class);
+    private final JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+
+    @Test
+    void duePaymentIsPaidOnceAndAdvanced() {
+        Account from = account("1000.00");
+        Account to = account("0.00");
+        Long id = payment(from, to.getAccountNumber(), null);
+
+        recurringPaymentService.processRecurringPayments();
+        recurringPaymentService.processRecurringPayments();
+
+        assertThat(balanceOf(from)).isEqualByComparingTo("975.00");
+        assertThat(balanceOf(to)).isEqualByComparingTo("25.00");
+        assertThat(jdbcTemplate.queryForObject("select next_payment_date from recurring_payments where id = ?",
+                LocalDate.class, id)).isEqualTo(LocalDate.now().plusMonths(1));
+        assertThat(jdbcTemplate.queryForObject("select last_run_status from recurring_payments where id = ?",
+                String.class, id)).isEqualTo("SUCCESS");
+    }
+
+    @Test
+    void paymentNoLongerDueMovesNoMoney() {
+        Account from = account("1000.00");
+        Account to = account("0.00");
+
+        boolean paid = context.getBean(TransactionService.class)
+                .executeRecurringTransfer(from, to, new BigDecimal("25.00"), () -> false);
+
+        assertThat(paid).isFalse();
+        assertThat(balanceOf(from)).isEqualByComparingTo("1000.00");
+        assertThat(balanceOf(to)).isEqualByComparingTo("0.00");
+    }
+
+    @Test
+    void targetFrozenSinceThePageWasLoadedIsNotCredited() {
+        Account from = account("1000.00");
+        Account to = account("0.00");
+        // The page's copy of the target still says active.
+        jdbcTemplate.update("update account set active = false where id = ?", to.getId());
+        AtomicBoolean advanced = new AtomicBoolean();
+
+        assertThatThrownBy(() -> context.getBean(TransactionService.class)
+                .executeRecurringTransfer(from, to, new BigDecimal("25.00"), () -> {
+                    advanced.set(true);
+                    return true;
+                }))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Target account is frozen/inactive");
+
+        assertThat(advanced).isFalse();
+        assertThat(balanceOf(from)).isEqualByComparingTo("1000.00");
+        assertThat(balanceOf(to)).isEqualByComparingTo("0.00");
+    }
+
+    @Test
+    void failureIsRecordedAndEndsTheLease() {
+        Account from = account("1000.00");
+        Long id = payment(from, "9999999999999999", null);
+
+        recurringPaymentService.processRecurringPayments();
+
+        assertThat(jdbcTemplate.queryForMap("select last_run_status, last_run_error, claimed_by from recurring_payments where id = ?", id))
+                .containsEntry("last_run_status", "FAILED")
+                .containsEntry("last_run_error", "Target account not found")
+                .containsEntry("claimed_by", null);
+        assertThat(balanceOf(from)).isEqualByComparingTo("1000.00");
+    }
+
+    @Test
+    void onlyTheLeaseHolderRecordsAFailure() {
+        Account from = account("1000.00");
+        Account to = account("0.00");
+        // Leased to another node once this node's lease ran out.
+        Long id = payment(from, to.getAccountNumber(), "node-b");
+        RecurringPaymentRepository repository = context.getBean(RecurringPaymentRepository.class);
+
+        assertThat(repository.recordFailure(id, "node-a", "Insufficient balance")).isZero();
+        assertThat(jdbcTemplate.queryForObject("select claimed_by from recurring_payments where id = ?", String.class, id))
+                .isEqualTo("node-b");
+
+        assertThat(repository.recordFailure(id, "node-b", "Insufficient balance")).isEqualTo(1);
+        assertThat(jdbcTemplate.queryForObject("select last_run_status from recurring_payments where id = ?", String.class, id))
+                .isEqualTo("FAILED");
+    }
+
+    private Account account(String balance) {
+        return TestData.account(context, TestData.customer(context), AccountType.CURRENT, new BigDecimal(balance));
+    }
+
+    // A monthly payment of 25.00 due today; claimedBy leases it to that node for five minutes.
+    private Long payment(Account from, String targetAccountNumber, String claimedBy) {
+        return jdbcTemplate.queryForObject("insert into recurring_payments (account_id, amount, target_account_number, "
+                + "frequency, start_date, next_payment_date, status, created_at, claimed_by, claimed_until) "
+                + "values (?, 25.00, ?, 'MONTHLY', current_date, current_date, 'ACTIVE', localtimestamp, ?, ?) returning id",
+                Long.class, from.getId(), targetAccountNumber, claimedBy,
+                claimedBy == null ? null : LocalDateTime.now().plusMinutes(5));
+    }
+
+    private BigDecimal balanceOf(Account account) {
+        return jdbcTemplate.queryForObject("select balance from account where id = ?", BigDecimal.class, account.getId());
+    }
+}
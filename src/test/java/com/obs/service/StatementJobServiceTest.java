@@ -0,0 +1,130 @@
+package com.obs.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.obs.entity.Account;
+import com.obs.entity.AccountType;
+import com.obs.exception.ConflictException;
+import com.obs.exception.ResourceNotFoundException;
+import com.obs.support.EmbeddedDatabase;
+import com.obs.support.TestData;
+
+/**
+ * Joining, rejecting, waiting for, expiring and stopping statement jobs. Without workers jobs stay
+ * queued, so joining, a full queue, the wait timeout and stopping can be checked without racing a
+ * worker; expiry uses a context whose results expire as soon as they are written. The scheduled
+ * sweep is pushed out, so only the test sweeps.
+ */
+class StatementJobServiceTest {
+
+    private static final String[] QUEUED = {"obs.app.statement-jobs.workers=0", "obs.app.statement-jobs.max-queued=2",
+            "obs.app.statement-jobs.wait-timeout-ms=200", "obs.app.statement-jobs.directory=build/statement-jobs-queued",
+            "obs.app.statement-jobs.sweep-interval-ms=3600000"};
+
+    private static final String[] EXPIRING = {"obs.app.statement-jobs.workers=1", "obs.app.statement-jobs.result-ttl-ms=0",
+            "obs.app.statement-jobs.directory=build/statement-jobs-expiring", "obs.app.statement-jobs.sweep-interval-ms=3600000"};
+
+    @Test
+    void identicalRequestsJoinTheQueuedJobAndAFullQueueRejectsNewOnes() {
+        ConfigurableApplicationContext context = EmbeddedDatabase.shared(QUEUED);
+        StatementJobService statementJobService = context.getBean(StatementJobService.class);
+        Account account = TestData.account(context, TestData.customer(context), AccountType.SAVINGS, new BigDecimal("100.00"));
+        String accountNumber = account.getAccountNumber();
+        LocalDate today = LocalDate.now();
+
+        StatementJobService.Job first = statementJobService.submit(accountNumber, today.minusMonths(1), today, null);
+        assertThat(statementJobService.submit(accountNumber, today.minusMonths(1), today, null)).isSameAs(first);
+        assertThat(first.getStatus()).isEqualTo(StatementJobService.Status.QUEUED);
+
+        StatementJobService.Job second = statementJobService.submit(accountNumber, today.minusMonths(2), today, null);
+        assertThat(second).isNotSameAs(first);
+        assertThatThrownBy(() -> statementJobService.submit(accountNumber, today.minusMonths(3), today, null))
+                .isInstanceOf(ConflictException.class)
+                .hasMessage("Too many statements are being generated, please try again later");
+        // A full queue still lets a request join a job it holds.
+        assertThat(statementJobService.submit(accountNumber, today.minusMonths(2), today, null)).isSameAs(second);
+
+        assertThat(statementJobService.getStats())
+                .containsEntry("queued", 2)
+                .containsEntry("submitted", 2L)
+                .containsEntry("joined", 2L)
+                .containsEntry("rejected", 1L);
+
+        // Nothing renders it, so a download gives up after the wait timeout and leaves the job queued.
+        assertThatThrownBy(() -> statementJobService.copyResult(first, OutputStream.nullOutputStream()))
+                .isInstanceOf(ConflictException.class)
+                .hasMessage("Statement is not ready yet, please request it as a statement job");
+        assertThat(first.getStatus()).isEqualTo(StatementJobService.Status.QUEUED);
+    }
+
+    @Test
+    void finishedJobsExpireWithTheirResult() throws Exception {
+        ConfigurableApplicationContext context = EmbeddedDatabase.shared(EXPIRING);
+        StatementJobService statementJobService = context.getBean(StatementJobService.class);
+        Account account = TestData.account(context, TestData.customer(context), AccountType.SAVINGS, new BigDecimal("100.00"));
+
+        StatementJobService.Job job = statementJobService.submit(account.getAccountNumber(), null, null, null);
+        statementJobService.copyResult(job, OutputStream.nullOutputStream());
+        // The result is handed over just before the job is marked done.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (job.getStatus() != StatementJobService.Status.DONE && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Path result = statementJobService.getResult(job);
+        assertThat(result).exists();
+
+        // Once done, a new request for the same statement renders it again instead of joining.
+        StatementJobService.Job again = statementJobService.submit(account.getAccountNumber(), null, null, null);
+        assertThat(again).isNotSameAs(job);
+        statementJobService.copyResult(again, OutputStream.nullOutputStream());
+
+        statementJobService.deleteExpired();
+
+        assertThat(Files.exists(result)).isFalse();
+        assertThatThrownBy(() -> statementJobService.getJob(job.getId(), null))
+                .isInstanceOf(ResourceNotFoundException.class)
+                .hasMessage("Statement job not found");
+    }
+
+    @Test
+    void stoppingFailsUnfinishedJobsAndRefusesNewOnes() throws Exception {
+        try (ConfigurableApplicationContext context = EmbeddedDatabase.start(EmbeddedDatabase.createDatabase(),
+                "obs.app.statement-jobs.workers=0", "obs.app.statement-jobs.directory=build/statement-jobs-stopped")) {
+            StatementJobService statementJobService = context.getBean(StatementJobService.class);
+            Account account = TestData.account(context, TestData.customer(context), AccountType.SAVINGS, new BigDecimal("100.00"));
+            StatementJobService.Job job = statementJobService.submit(account.getAccountNumber(), null, null, null);
+            CompletableFuture<Throwable> waiter = CompletableFuture.supplyAsync(() -> {
+                try {
+                    statementJobService.copyResult(job, OutputStream.nullOutputStream());
+                    return null;
+                } catch (Throwable e) {
+                    return e;
+                }
+            });
+
+            statementJobService.stop();
+
+            assertThat(waiter.get(10, TimeUnit.SECONDS))
+                    .isInstanceOf(IOException.class)
+                    .hasMessage("Statement could not be generated")
+                    .cause().hasMessage("Statement jobs are shut down");
+            assertThat(job.getStatus()).isEqualTo(StatementJobService.Status.FAILED);
+            assertThatThrownBy(() -> statementJobService.submit(account.getAccountNumber(), null, null, null))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessage("Statement jobs are shut down");
+        }
+    }
+}
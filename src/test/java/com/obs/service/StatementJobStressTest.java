@@ -0,0 +1,149 @@
+package com.obs.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.obs.entity.Account;
+import com.obs.entity.AccountType;
+import com.obs.journal.Histogram;
+import com.obs.payload.request.TransferRequest;
+import com.obs.support.EmbeddedDatabase;
+import com.obs.support.TestData;
+
+/**
+ * Transfers between a few accounts from several threads, first on their own and then while 50
+ * statements of large histories render as jobs. Reports the transfer latency of both phases and
+ * checks that the statements did not slow the transfers down by more than a power-of-two bucket
+ * of the latency histogram.
+ */
+@Tag("stress")
+class StatementJobStressTest {
+
+    private static final int STATEMENTS = 50;
+    private static final int ROWS_PER_STATEMENT = 10_000;
+    private static final int TRANSFER_ACCOUNTS = 16;
+    private static final int THREADS = 8;
+    private static final long BASELINE_MS = 5_000;
+    private static final BigDecimal OPENING_BALANCE = new BigDecimal("1000000.00");
+
+    @Test
+    void transferLatencyIsUnaffectedWhileStatementsRender() throws Exception {
+        try (ConfigurableApplicationContext context = EmbeddedDatabase.start(EmbeddedDatabase.createDatabase(),
+                "obs.app.limits.enabled=false", "obs.app.fraud.enabled=false",
+                "obs.app.statement-jobs.directory=build/statement-jobs-stress")) {
+            JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+            List<Account> statementAccounts = new ArrayList<>();
+            for (int i = 0; i < STATEMENTS; i++) {
+                statementAccounts.add(seed(context, jdbcTemplate));
+            }
+            jdbcTemplate.execute("analyze transaction");
+            List<Account> transferAccounts = new ArrayList<>();
+            for (int i = 0; i < TRANSFER_ACCOUNTS; i++) {
+                transferAccounts.add(TestData.account(context, TestData.customer(context), AccountType.CURRENT, OPENING_BALANCE));
+            }
+            TransactionService transactionService = context.getBean(TransactionService.class);
+            StatementJobService statementJobService = context.getBean(StatementJobService.class);
+
+            // Warms up the transfer path, and the font and the PDF classes, which are loaded once per JVM.
+            long warmUpEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            transfer(transactionService, transferAccounts, () -> System.nanoTime() < warmUpEnd);
+            StatementJobService.Job warmUp = statementJobService.submit(statementAccounts.get(0).getAccountNumber(),
+                    null, null, null);
+            statementJobService.copyResult(warmUp, OutputStream.nullOutputStream());
+
+            long baselineEnd = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BASELINE_MS);
+            Histogram baseline = transfer(transactionService, transferAccounts, () -> System.nanoTime() < baselineEnd);
+
+            long started = System.nanoTime();
+            List<StatementJobService.Job> jobs = new ArrayList<>();
+            // A period of its own, so no statement joins the warm-up job.
+            for (Account account : statementAccounts) {
+                jobs.add(statementJobService.submit(account.getAccountNumber(), null, LocalDate.now().plusDays(1), null));
+            }
+            Histogram loaded = transfer(transactionService, transferAccounts, () -> jobs.stream()
+                    .anyMatch(job -> job.getStatus() == StatementJobService.Status.QUEUED
+                            || job.getStatus() == StatementJobService.Status.RUNNING));
+            long renderMillis = (System.nanoTime() - started) / 1_000_000;
+
+            Map<String, Object> before = baseline.snapshot();
+            Map<String, Object> during = loaded.snapshot();
+            System.out.printf("%d statements of %d rows rendered in %d ms: %s%n", STATEMENTS, ROWS_PER_STATEMENT,
+                    renderMillis, statementJobService.getStats());
+            System.out.printf("Transfer latency alone (us):            %s%n", before);
+            System.out.printf("Transfer latency while rendering (us): %s%n", during);
+
+            assertThat(jobs).allMatch(job -> job.getStatus() == StatementJobService.Status.DONE);
+            assertThat((long) during.get("count")).isPositive();
+            assertThat((long) during.get("p50")).isLessThanOrEqualTo(2 * (long) before.get("p50") + 1);
+            assertThat((long) during.get("p99")).isLessThanOrEqualTo(2 * (long) before.get("p99") + 1);
+
+            String ids = transferAccounts.stream().map(account -> account.getId().toString()).collect(Collectors.joining(","));
+            BigDecimal total = jdbcTemplate.queryForObject("select sum(balance) from account where id in (" + ids + ")",
+                    BigDecimal.class);
+            assertThat(total).isEqualByComparingTo(OPENING_BALANCE.multiply(BigDecimal.valueOf(TRANSFER_ACCOUNTS)));
+        }
+    }
+
+    // Runs transfers from THREADS threads while the condition holds; returns their latency in microseconds.
+    private static Histogram transfer(TransactionService transactionService, List<Account> accounts, BooleanSupplier condition)
+            throws InterruptedException {
+        Histogram latency = new Histogram();
+        AtomicLong failures = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (condition.getAsBoolean()) {
+                    Account from = accounts.get(random.nextInt(accounts.size()));
+                    Account to = accounts.get(random.nextInt(accounts.size()));
+                    if (from == to) {
+                        continue;
+                    }
+                    TransferRequest request = new TransferRequest();
+                    request.setFromAccountNumber(from.getAccountNumber());
+                    request.setToAccountNumber(to.getAccountNumber());
+                    request.setAmount(BigDecimal.valueOf(1 + random.nextInt(100)));
+                    long started = System.nanoTime();
+                    try {
+                        transactionService.transferFunds(request, from.getUser().getUsername());
+                        latency.record((System.nanoTime() - started) / 1_000);
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(failures.get()).isZero();
+        return latency;
+    }
+
+    private static Account seed(ConfigurableApplicationContext context, JdbcTemplate jdbcTemplate) {
+        Account account = TestData.account(context, TestData.customer(context), AccountType.CURRENT, BigDecimal.ZERO);
+        // One row a minute back from now, all in partitions that exist at startup or the default one.
+        jdbcTemplate.update("insert into transaction (amount, timestamp, type, description, account_id, "
+                + "target_account_number, status) "
+                + "select (i % 5000 + 1) / 100.0, localtimestamp - i * interval '1 minute', "
+                + "case when i % 2 = 0 then 'DEBIT' else 'CREDIT' end, 'Transfer to 1000', ?, '1000', 'SUCCESS' "
+                + "from generate_series(1, ?) i", account.getId(), ROWS_PER_STATEMENT);
+        return account;
+    }
+}
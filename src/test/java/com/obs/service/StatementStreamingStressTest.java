@@ -0,0 +1,102 @@
+package com.obs.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.obs.entity.Account;
+import com.obs.entity.AccountType;
+import com.obs.support.EmbeddedDatabase;
+import com.obs.support.TestData;
+
+/**
+ * Statements of a small and a ten times larger history, written to a stream that discards them.
+ * Every 256 KB of PDF the stream collects the garbage and samples the heap, so the peak is the
+ * memory the statement actually holds on to. It has to be the same for both.
+ */
+@Tag("stress")
+class StatementStreamingStressTest {
+
+    private static final int SMALL = 20_000;
+    private static final int LARGE = 200_000;
+
+    @Test
+    void heapStaysFlatAsTheHistoryGrows() throws Exception {
+        try (ConfigurableApplicationContext context = EmbeddedDatabase.start(EmbeddedDatabase.createDatabase())) {
+            JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+            Account small = seed(context, jdbcTemplate, SMALL);
+            Account large = seed(context, jdbcTemplate, LARGE);
+            PdfGenerationService pdfGenerationService = context.getBean(PdfGenerationService.class);
+
+            // Warms up the font and the PDF classes, which are loaded once per JVM.
+            pdfGenerationService.writeAccountStatement(small, null, null, OutputStream.nullOutputStream());
+            long baseline = liveHeap();
+
+            HeapSamplingStream smallOut = new HeapSamplingStream();
+            long started = System.nanoTime();
+            assertThat(pdfGenerationService.writeAccountStatement(small, null, null, smallOut)).isEqualTo(SMALL);
+            long smallMillis = (System.nanoTime() - started) / 1_000_000;
+
+            HeapSamplingStream largeOut = new HeapSamplingStream();
+            started = System.nanoTime();
+            assertThat(pdfGenerationService.writeAccountStatement(large, null, null, largeOut)).isEqualTo(LARGE);
+            long largeMillis = (System.nanoTime() - started) / 1_000_000;
+
+            System.out.printf("Live heap before %d MB%n", baseline >> 20);
+            System.out.printf("%7d rows: %5d KB of PDF in %6d ms, peak live heap %d MB%n",
+                    SMALL, smallOut.written >> 10, smallMillis, smallOut.peak >> 20);
+            System.out.printf("%7d rows: %5d KB of PDF in %6d ms, peak live heap %d MB%n",
+                    LARGE, largeOut.written >> 10, largeMillis, largeOut.peak >> 20);
+
+            assertThat(largeOut.written).isGreaterThan(5 * smallOut.written);
+            // Ten times the rows may not hold more than a little noise of extra heap.
+            assertThat(largeOut.peak).isLessThan(smallOut.peak + (16L << 20));
+        }
+    }
+
+    private static Account seed(ConfigurableApplicationContext context, JdbcTemplate jdbcTemplate, int rows) {
+        Account account = TestData.account(context, TestData.customer(context), AccountType.CURRENT, BigDecimal.ZERO);
+        // One row a minute back from now, all in partitions that exist at startup or the default one.
+        jdbcTemplate.update("insert into transaction (amount, timestamp, type, description, account_id, "
+                + "target_account_number, status) "
+                + "select (i % 5000 + 1) / 100.0, localtimestamp - i * interval '1 minute', "
+                + "case when i % 2 = 0 then 'DEBIT' else 'CREDIT' end, 'Transfer to 1000', ?, '1000', 'SUCCESS' "
+                + "from generate_series(1, ?) i", account.getId(), rows);
+        return account;
+    }
+
+    private static long liveHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static final class HeapSamplingStream extends OutputStream {
+        private long written;
+        private long peak;
+
+        @Override
+        public void write(int b) {
+            count(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count(len);
+        }
+
+        private void count(int bytes) {
+            long before = written;
+            written += bytes;
+            if (before >> 18 != written >> 18) {
+                peak = Math.max(peak, liveHeap());
+            }
+        }
+    }
+}
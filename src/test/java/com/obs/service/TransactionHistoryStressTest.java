@@ -0,0 +1,107 @@
+package com.obs.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.obs.entity.Account;
+import com.obs.entity.AccountType;
+import com.obs.payload.request.TransactionHistoryQuery;
+import com.obs.support.EmbeddedDatabase;
+import com.obs.support.TestData;
+
+/**
+ * One account with a million transactions over two years. Times a first page, a page deep in the
+ * history by cursor, a date-range page and a type and status filtered page, against reading the
+ * account's whole history as statements still do. The recent transaction cache is off, so every
+ * page comes from the database.
+ */
+@Tag("stress")
+class TransactionHistoryStressTest {
+
+    private static final int ROWS = 1_000_000;
+    private static final int RUNS = 50;
+
+    @Test
+    void pagesCostTheSameAtAnyDepth() {
+        try (ConfigurableApplicationContext context = EmbeddedDatabase.start(EmbeddedDatabase.createDatabase(),
+                "obs.app.history-cache.enabled=false")) {
+            Account account = TestData.account(context, TestData.customer(context), AccountType.CURRENT, BigDecimal.ZERO);
+            JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+            long started = System.nanoTime();
+            jdbcTemplate.query("select obs_ensure_transaction_partition(month::date) from generate_series("
+                    + "date_trunc('month', localtimestamp - interval '25 months'), localtimestamp, interval '1 month') month",
+                    rs -> { });
+            // One row every 63 seconds going back from now covers two years.
+            jdbcTemplate.update("insert into transaction (amount, timestamp, type, description, account_id, "
+                    + "target_account_number, status) "
+                    + "select (i % 5000 + 1) / 100.0, localtimestamp - i * interval '63 seconds', "
+                    + "case when i % 2 = 0 then 'DEBIT' else 'CREDIT' end, 'Transfer to 1000', ?, '1000', "
+                    + "case when i % 50 = 0 then 'FAILED' else 'SUCCESS' end "
+                    + "from generate_series(1, ?) i", account.getId(), ROWS);
+            jdbcTemplate.execute("analyze transaction");
+            System.out.printf("Seeded %d transactions in %d ms%n", ROWS, (System.nanoTime() - started) / 1_000_000);
+
+            TransactionHistoryService history = context.getBean(TransactionHistoryService.class);
+            String accountNumber = account.getAccountNumber();
+
+            TransactionHistoryQuery first = new TransactionHistoryQuery();
+            double firstPage = median(() -> history.getPage(accountNumber, first).items().size());
+
+            // The cursor of the last row a year back, as a client paging that far would hold.
+            TransactionHistoryQuery yearAgo = new TransactionHistoryQuery();
+            yearAgo.setTo(LocalDate.now().minusYears(1));
+            yearAgo.setLimit(1);
+            TransactionHistoryQuery deep = new TransactionHistoryQuery();
+            deep.setCursor(history.getPage(accountNumber, yearAgo).nextCursor());
+            double deepPage = median(() -> history.getPage(accountNumber, deep).items().size());
+
+            TransactionHistoryQuery range = new TransactionHistoryQuery();
+            range.setFrom(LocalDate.now().minusMonths(18));
+            range.setTo(LocalDate.now().minusMonths(17));
+            double rangePage = median(() -> history.getPage(accountNumber, range).items().size());
+
+            TransactionHistoryQuery filtered = new TransactionHistoryQuery();
+            filtered.setType("debit");
+            filtered.setStatus("failed");
+            double filteredPage = median(() -> history.getPage(accountNumber, filtered).items().size());
+
+            long[] scanned = new long[1];
+            started = System.nanoTime();
+            jdbcTemplate.query("select id, amount, timestamp, type, description, target_account_number, status "
+                    + "from transaction where account_id = ? order by timestamp desc", rs -> {
+                        scanned[0]++;
+                    }, account.getId());
+            double fullHistory = (System.nanoTime() - started) / 1e6;
+
+            System.out.printf("p50 of %d pages of 50: first %.2f ms, deep cursor %.2f ms, date range %.2f ms, "
+                            + "type and status %.2f ms; whole history (%d rows) %.0f ms%n",
+                    RUNS, firstPage, deepPage, rangePage, filteredPage, scanned[0], fullHistory);
+
+            assertThat(scanned[0]).isEqualTo(ROWS);
+            for (double page : new double[] {firstPage, deepPage, rangePage, filteredPage}) {
+                assertThat(page).isLessThan(fullHistory / 10);
+            }
+        }
+    }
+
+    // Median milliseconds of RUNS calls, each of which must return a full page.
+    private static double median(Supplier<Integer> page) {
+        double[] millis = new double[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long started = System.nanoTime();
+            assertThat(page.get()).isEqualTo(50);
+            millis[i] = (System.nanoTime() - started) / 1e6;
+        }
+        Arrays.sort(millis);
+        return millis[RUNS / 2];
+    }
+}
@@ -0,0 +1,97 @@
+package com.obs.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.obs.entity.Account;
+import com.obs.entity.AccountType;
+import com.obs.entity.Transaction;
+import com.obs.payload.request.TransferRequest;
+import com.obs.support.EmbeddedDatabase;
+import com.obs.support.TestData;
+
+/**
+ * Releasing the reservation of a rejected PENDING transfer, with savings accounts limited to one
+ * transfer an hour so that a count left behind, or taken away twice, shows up on the next transfer.
+ */
+class TransferLimitServiceTest {
+
+    private static final long MINUTE_MILLIS = 60_000;
+    private static final BigDecimal PENDING_AMOUNT = new BigDecimal("20000.00");
+
+    private final ConfigurableApplicationContext context = EmbeddedDatabase.shared("obs.app.fraud.enabled=false",
+            "obs.app.limits.savings.hourly-count=1");
+    private final TransferLimitService transferLimitService = context.getBean(TransferLimitService.class);
+    private final JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+
+    @Test
+    void rejectionReleasesTheBucketTheTransferWasCountedIn() {
+        Account account = account();
+        // The last millisecond of a minute, the width of the hourly window's buckets.
+        long boundary = (System.currentTimeMillis() / MINUTE_MILLIS + 1) * MINUTE_MILLIS;
+        TransferLimitService.Reservation reservation = reserve(account, boundary - 1);
+
+        Transaction pending = new Transaction();
+        pending.setAccount(account);
+        pending.setAmount(PENDING_AMOUNT.negate());
+        pending.setTargetAccountNumber("1000");
+        pending.setTimestamp(TransferLimitService.timestampOf(reservation));
+        transferLimitService.releaseRejected(pending);
+
+        // The released transfer no longer counts, and the next bucket was not uncounted in its place.
+        reserve(account, boundary - 1);
+        assertThatThrownBy(() -> reserve(account, boundary))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Hourly limit of 1 transfers reached for this account");
+    }
+
+    @Test
+    void rejectedPendingTransferNoLongerCounts() {
+        Account from = account();
+        Account to = account();
+        TransactionService transactionService = context.getBean(TransactionService.class);
+
+        assertThat(transactionService.transferFunds(request(from, to, PENDING_AMOUNT), from.getUser().getUsername()))
+                .isEqualTo("PENDING");
+        Long pendingId = jdbcTemplate.queryForObject("select id from transaction where account_id = ? and status = 'PENDING'",
+                Long.class, from.getId());
+        transactionService.rejectTransaction(pendingId);
+
+        assertThat(transactionService.transferFunds(request(from, to, new BigDecimal("10.00")), from.getUser().getUsername()))
+                .isEqualTo("SUCCESS");
+    }
+
+    @Test
+    void accountWithoutATypeGetsTheSavingsLimits() {
+        Account account = account();
+
+        transferLimitService.reserve(account.getId(), account.getUser().getId(), null, "1000", new BigDecimal("10.00"));
+        assertThatThrownBy(() -> transferLimitService.reserve(account.getId(), account.getUser().getId(), null, "1000",
+                new BigDecimal("10.00")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Hourly limit of 1 transfers reached for this account");
+    }
+
+    private TransferLimitService.Reservation reserve(Account account, long at) {
+        return transferLimitService.reserve(account.getId(), account.getUser().getId(), AccountType.SAVINGS, "1000",
+                PENDING_AMOUNT, at);
+    }
+
+    private Account account() {
+        return TestData.account(context, TestData.customer(context), AccountType.SAVINGS, new BigDecimal("100000.00"));
+    }
+
+    private static TransferRequest request(Account from, Account to, BigDecimal amount) {
+        TransferRequest request = new TransferRequest();
+        request.setFromAccountNumber(from.getAccountNumber());
+        request.setToAccountNumber(to.getAccountNumber());
+        request.setAmount(amount);
+        return request;
+    }
+}
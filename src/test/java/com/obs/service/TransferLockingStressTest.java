@@ -0,0 +1,102 @@
+package com.obs.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.obs.entity.Account;
+import com.obs.entity.AccountType;
+import com.obs.payload.request.TransferRequest;
+import com.obs.support.EmbeddedDatabase;
+import com.obs.support.TestData;
+
+/**
+ * Random transfers between a small set of accounts from many threads, once per locking mode and
+ * contention level. Reports completed transfers per second, the share of attempts that lost a
+ * concurrency conflict (the abort rate) and the transfers that gave up after their last retry,
+ * then checks that no money was created or lost.
+ */
+@Tag("stress")
+class TransferLockingStressTest {
+
+    private static final int THREADS = 16;
+    private static final long DURATION_MS = 10_000;
+    private static final BigDecimal OPENING_BALANCE = new BigDecimal("1000000.00");
+
+    @ParameterizedTest(name = "{0} locking, {1} accounts")
+    @CsvSource({"PESSIMISTIC, 4", "PESSIMISTIC, 64", "OPTIMISTIC, 4", "OPTIMISTIC, 64"})
+    void concurrentTransfers(AccountLockingService.Mode mode, int accountCount) throws InterruptedException {
+        try (ConfigurableApplicationContext context = EmbeddedDatabase.start(EmbeddedDatabase.createDatabase(),
+                "obs.app.transfer.locking=" + mode, "obs.app.limits.enabled=false", "obs.app.fraud.enabled=false")) {
+            List<Account> accounts = new ArrayList<>();
+            for (int i = 0; i < accountCount; i++) {
+                accounts.add(TestData.account(context, TestData.customer(context), AccountType.CURRENT, OPENING_BALANCE));
+            }
+            TransactionService transactionService = context.getBean(TransactionService.class);
+
+            AtomicLong completed = new AtomicLong();
+            Map<String, AtomicLong> failures = new ConcurrentHashMap<>();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                threads.add(Thread.ofPlatform().start(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < deadline) {
+                        Account from = accounts.get(random.nextInt(accounts.size()));
+                        Account to = accounts.get(random.nextInt(accounts.size()));
+                        if (from == to) {
+                            continue;
+                        }
+                        TransferRequest request = new TransferRequest();
+                        request.setFromAccountNumber(from.getAccountNumber());
+                        request.setToAccountNumber(to.getAccountNumber());
+                        request.setAmount(BigDecimal.valueOf(1 + random.nextInt(100)));
+                        try {
+                            transactionService.transferFunds(request, from.getUser().getUsername());
+                            completed.incrementAndGet();
+                        } catch (RuntimeException e) {
+                            failures.computeIfAbsent(e.getClass().getSimpleName(), k -> new AtomicLong()).incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            Map<String, Object> stats = context.getBean(AccountLockingService.class).getStats();
+            System.out.printf("%-11s %3d accounts: %8.1f transfers/s, abort rate %.4f (%s conflicts in %s attempts), "
+                            + "%s gave up, failures %s%n",
+                    mode, accountCount, completed.get() * 1000.0 / DURATION_MS, (Double) stats.get("abortRate"),
+                    stats.get("conflicts"), stats.get("attempts"), stats.get("exhausted"), failures);
+
+            BigDecimal total = context.getBean(JdbcTemplate.class).queryForObject(
+                    "select sum(balance) from account", BigDecimal.class);
+            assertThat(total).isEqualByComparingTo(OPENING_BALANCE.multiply(BigDecimal.valueOf(accountCount)));
+            assertThat(completed.get()).isPositive();
+            // Row locks taken in account order never deadlock, so pessimistic transfers never fail. Giving
+            // up after the last retry is the only failure the optimistic mode may report.
+            if (mode == AccountLockingService.Mode.PESSIMISTIC) {
+                assertThat(failures).isEmpty();
+                assertThat((Long) stats.get("conflicts")).isZero();
+            }
+            long unexpected = failures.entrySet().stream()
+                    .filter(entry -> !entry.getKey().contains("OptimisticLocking"))
+                    .mapToLong(entry -> entry.getValue().get()).sum();
+            assertThat(unexpected).isZero();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.obs.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.obs.entity.Account;
+import com.obs.entity.AccountType;
+import com.obs.entity.User;
+import com.obs.exception.OutcomeUnknownException;
+import com.obs.payload.request.TransferRequest;
+import com.obs.support.EmbeddedDatabase;
+import com.obs.support.TestData;
+
+/**
+ * A ledger transfer that is not confirmed in time may still commit, so its limit reservation has to
+ * stay until the shard reports the real outcome. With one transfer per account and hour allowed,
+ * whether a second transfer is accepted shows whether the first one's reservation is still held.
+ */
+class TransferOutcomeUnknownTest {
+
+    private final ConfigurableApplicationContext context = EmbeddedDatabase.shared("obs.app.ledger.enabled=true",
+            "obs.app.ledger.shards=1", "obs.app.ledger.await-timeout-ms=500", "obs.app.fraud.enabled=false",
+            "obs.app.limits.current.hourly-count=1");
+    private final TransactionService transactionService = context.getBean(TransactionService.class);
+    private final JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+
+    @Test
+    void unconfirmedTransferKeepsItsReservationAndStillCommits() throws Exception {
+        User owner = TestData.customer(context);
+        Account from = TestData.account(context, owner, AccountType.CURRENT, new BigDecimal("1000.00"));
+        Account to = TestData.account(context, TestData.customer(context), AccountType.CURRENT, BigDecimal.ZERO);
+
+        // Holding the target's row lock stalls the shard's flush, so the posting outlives the await timeout.
+        try (Connection connection = context.getBean(DataSource.class).getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement lock = connection.prepareStatement("select balance from account where id = ? for update")) {
+                lock.setLong(1, to.getId());
+                lock.executeQuery().close();
+            }
+            assertThatThrownBy(() -> transactionService.transferFunds(transfer(from, to, "100.00"), owner.getUsername()))
+                    .isInstanceOf(OutcomeUnknownException.class);
+            connection.rollback();
+        }
+
+        awaitBalance(to, "100.00");
+        assertThat(balanceOf(from)).isEqualByComparingTo("900.00");
+        assertThatThrownBy(() -> transactionService.transferFunds(transfer(from, to, "1.00"), owner.getUsername()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Hourly limit of 1 transfers reached for this account");
+    }
+
+    @Test
+    void rejectedTransferReleasesItsReservation() {
+        User owner = TestData.customer(context);
+        Account from = TestData.account(context, owner, AccountType.CURRENT, new BigDecimal("50.00"));
+        Account to = TestData.account(context, TestData.customer(context), AccountType.CURRENT, BigDecimal.ZERO);
+
+        assertThatThrownBy(() -> transactionService.transferFunds(transfer(from, to, "80.00"), owner.getUsername()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Insufficient balance");
+
+        assertThat(transactionService.transferFunds(transfer(from, to, "30.00"), owner.getUsername())).isEqualTo("SUCCESS");
+        assertThat(balanceOf(to)).isEqualByComparingTo("30.00");
+    }
+
+    private static TransferRequest transfer(Account from, Account to, String amount) {
+        TransferRequest request = new TransferRequest();
+        request.setFromAccountNumber(from.getAccountNumber());
+        request.setToAccountNumber(to.getAccountNumber());
+        request.setAmount(new BigDecimal(amount));
+        return request;
+    }
+
+    private void awaitBalance(Account account, String expected) throws InterruptedException {
+        for (int i = 0; i < 100 && balanceOf(account).compareTo(new BigDecimal(expected)) != 0; i++) {
+            Thread.sleep(50);
+        }
+        assertThat(balanceOf(account)).isEqualByComparingTo(expected);
+    }
+
+    private BigDecimal balanceOf(Account account) {
+        return jdbcTemplate.queryForObject("select balance from account where id = ?", BigDecimal.class, account.getId());
+    }
+}
@@ -0,0 +1,107 @@
+package com.obs.support;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.obs.ObsApplication;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+/**
+ * One embedded PostgreSQL per test JVM. Each test creates its own database on it and starts one or
+ * more application contexts against that database, each on a random port.
+ */
+public final class EmbeddedDatabase {
+
+    /** Properties of the context shared by tests that post through a single-shard ledger. */
+    public static final String[] LEDGER = {"obs.app.ledger.enabled=true", "obs.app.ledger.shards=1",
+            "obs.app.fraud.enabled=false", "obs.app.limits.enabled=false"};
+
+    private static final AtomicInteger databases = new AtomicInteger();
+
+    private static final Map<List<String>, ConfigurableApplicationContext> shared = new HashMap<>();
+
+    private static EmbeddedPostgres postgres;
+
+    private EmbeddedDatabase() {
+    }
+
+    /**
+     * Creates an empty database and returns its JDBC url. The users table is created up front with
+     * a nullable full_name, as it is on databases older than that column: DataInitializer's admin
+     * user has no full name, and Hibernate would otherwise create the column as not null.
+     */
+    public static synchronized String createDatabase() {
+        try {
+            if (postgres == null) {
+                postgres = EmbeddedPostgres.builder().start();
+                Runtime.getRuntime().addShutdownHook(new Thread(EmbeddedDatabase::stop));
+            }
+            String name = "obs_" + databases.incrementAndGet();
+            execute(postgres.getPostgresDatabase().getConnection(), "create database " + name);
+            execute(postgres.getDatabase("postgres", name).getConnection(),
+                    "create table users (id bigint primary key, active boolean default true not null, "
+                            + "email varchar(255) not null, full_name varchar(255), password varchar(255) not null, "
+                            + "phone_number varchar(255) not null, username varchar(255) unique not null)");
+            return postgres.getJdbcUrl("postgres", name);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Starts the application against {@code jdbcUrl}. {@code properties} are given as
+     * {@code name=value} and override application.properties.
+     */
+    public static ConfigurableApplicationContext start(String jdbcUrl, String... properties) {
+        List<String> all = new ArrayList<>(List.of(
+                "spring.datasource.url=" + jdbcUrl,
+                "spring.datasource.username=postgres",
+                "spring.datasource.password=",
+                "spring.jpa.show-sql=false",
+                "server.port=0"));
+        all.addAll(List.of(properties));
+        // As arguments, because default properties would lose to application.properties.
+        return new SpringApplicationBuilder(ObsApplication.class).run(all.stream().map(p -> "--" + p).toArray(String[]::new));
+    }
+
+    /**
+     * A context on a database of its own, started the first time a test asks for these
+     * {@code properties} and shared by every test in the JVM that asks for the same ones. Tests
+     * sharing it create their own customers and accounts. It is closed when the JVM exits.
+     */
+    public static synchronized ConfigurableApplicationContext shared(String... properties) {
+        return shared.computeIfAbsent(List.of(properties), key -> start(createDatabase(), properties));
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (connection; Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private static synchronized void stop() {
+        // Before the database goes away, so their pools do not log its shutdown as errors.
+        shared.values().forEach(ConfigurableApplicationContext::close);
+        try {
+            if (postgres != null) {
+                postgres.close();
+            }
+        } catch (IOException e) {
+            // The JVM is exiting; the data directory is temporary.
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.obs.support;
+
+import java.math.BigDecimal;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.context.ApplicationContext;
+
+import com.obs.entity.Account;
+import com.obs.entity.AccountType;
+import com.obs.entity.Role;
+import com.obs.entity.User;
+import com.obs.repository.AccountRepository;
+import com.obs.repository.UserRepository;
+
+/**
+ * Creates customers and accounts directly through the repositories of a running context.
+ */
+public final class TestData {
+
+    private static final AtomicLong sequence = new AtomicLong(System.nanoTime() % 1_000_000_000L);
+
+    private TestData() {
+    }
+
+    public static User customer(ApplicationContext context) {
+        long n = sequence.incrementAndGet();
+        User user = new User();
+        user.setUsername("customer" + n);
+        user.setPassword("unused");
+        user.setEmail("customer" + n + "@obs.test");
+        user.setPhoneNumber("0000000000");
+        user.setFullName("Customer " + n);
+        user.setRoles(Set.of(Role.CUSTOMER));
+        return context.getBean(UserRepository.class).save(user);
+    }
+
+    public static Account account(ApplicationContext context, User owner, AccountType type, BigDecimal balance) {
+        Account account = new Account();
+        account.setAccountNumber(Long.toString(2_000_000_000_000_000L + sequence.incrementAndGet()));
+        account.setAccountType(type);
+        account.setBalance(balance);
+        account.setUser(owner);
+        return context.getBean(AccountRepository.class).save(account);
+    }
+}